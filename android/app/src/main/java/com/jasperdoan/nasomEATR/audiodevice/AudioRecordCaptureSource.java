@@ -0,0 +1,155 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import android.media.AudioDeviceInfo;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Capture source backed by a single android.media.AudioRecord.
+ */
+public final class AudioRecordCaptureSource implements CaptureSource {
+    private static final String TAG = "AudioRecordCaptureSource";
+
+    private final int audioSource;
+    private final int sampleRate;
+    private final int channelConfig;
+    private final boolean indexMask;
+    private final AudioDeviceInfo preferredDevice;
+    private int bufferSize = 0;
+    private AudioRecord audioRecord = null;
+    private int lastError = 0;
+
+    public AudioRecordCaptureSource(int audioSource, int sampleRate, int channelConfig,
+                                    AudioDeviceInfo preferredDevice) {
+        this.audioSource = audioSource;
+        this.sampleRate = sampleRate;
+        this.channelConfig = channelConfig;
+        this.indexMask = false;
+        this.preferredDevice = preferredDevice;
+    }
+
+    public AudioRecordCaptureSource(CaptureConfig config, AudioDeviceInfo preferredDevice) {
+        this.audioSource = config.audioSource;
+        this.sampleRate = config.sampleRate;
+        this.channelConfig = config.channelMask;
+        this.indexMask = config.indexMask;
+        this.preferredDevice = preferredDevice;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        if (indexMask) {
+            return Integer.bitCount(channelConfig);
+        }
+        return channelConfig == AudioFormat.CHANNEL_IN_STEREO ? 2 : 1;
+    }
+
+    /**
+     * Device the record is routed to, or null for the default input
+     */
+    public AudioDeviceInfo getPreferredDevice() {
+        return preferredDevice;
+    }
+
+    /**
+     * Minimum buffer size reported by AudioRecord, valid after start()
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public void start() throws IOException {
+        int audioFormat = AudioFormat.ENCODING_PCM_16BIT;
+
+        // Calculate buffer size
+        // An index mask has no positional equivalent; size the buffer for the same channel count
+        int sizeMask = indexMask ? (getChannelCount() == 2 ? AudioFormat.CHANNEL_IN_STEREO : AudioFormat.CHANNEL_IN_MONO) :
+                channelConfig;
+        bufferSize = AudioRecord.getMinBufferSize(sampleRate, sizeMask, audioFormat);
+        if (bufferSize == AudioRecord.ERROR || bufferSize == AudioRecord.ERROR_BAD_VALUE) {
+            bufferSize = sampleRate * 2; // 2 bytes per short
+        }
+
+        Log.d(TAG, "Starting recording with buffer size: " + bufferSize);
+
+        try {
+            if (indexMask) {
+                audioRecord = new AudioRecord.Builder()
+                        .setAudioSource(audioSource)
+                        .setAudioFormat(new AudioFormat.Builder()
+                                .setSampleRate(sampleRate)
+                                .setChannelIndexMask(channelConfig)
+                                .setEncoding(audioFormat)
+                                .build())
+                        .setBufferSizeInBytes(bufferSize * 10)
+                        .build();
+            } else {
+                audioRecord = new AudioRecord(audioSource, sampleRate, channelConfig, audioFormat, bufferSize * 10);
+            }
+        } catch (RuntimeException e) {
+            // Builder throws instead of returning an uninitialized record
+            throw new IOException("Failed to initialize AudioRecord: " + e.getMessage(), e);
+        }
+        if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            audioRecord.release();
+            audioRecord = null;
+            throw new IOException("Failed to initialize AudioRecord");
+        }
+        if (preferredDevice != null && !audioRecord.setPreferredDevice(preferredDevice)) {
+            Log.w(TAG, "Could not route AudioRecord to device " + preferredDevice.getId());
+        }
+        audioRecord.startRecording();
+    }
+
+    /**
+     * The open AudioRecord, for measurements; null unless started
+     */
+    AudioRecord getRecord() {
+        return audioRecord;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = audioRecord.read(buffer, offset, length);
+        if (read >= 0) {
+            lastError = 0;
+            return read;
+        }
+        if (read == AudioRecord.ERROR_DEAD_OBJECT) {
+            throw new IOException("Capture device was lost");
+        }
+        // A failing device returns the same error on every read; log it once
+        if (read != lastError) {
+            lastError = read;
+            if (read == AudioRecord.ERROR_INVALID_OPERATION) {
+                Log.e(TAG, "Error reading audio data: INVALID_OPERATION");
+            } else if (read == AudioRecord.ERROR_BAD_VALUE) {
+                Log.e(TAG, "Error reading audio data: BAD_VALUE");
+            } else {
+                Log.e(TAG, "Error reading audio data: ERROR");
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void stop() {
+        if (audioRecord == null) return;
+        try {
+            audioRecord.stop();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Error stopping AudioRecord", e);
+        }
+        audioRecord.release();
+        audioRecord = null;
+    }
+}
@@ -0,0 +1,91 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Per-device calibration values, persisted in SharedPreferences.
+ *
+ * Each value is stored under "<deviceKey>.<field>" so profiles for several
+ * transmitters can live side by side on one tablet. The room noise floor and
+ * the negotiated capture configuration are stored in the compact text forms
+ * of {@link NoiseProfile} and {@link CaptureConfig}.
+ */
+public final class CalibrationProfile {
+    private static final String PREFS_NAME = "nasomEATR.calibration";
+
+    public final String deviceKey;
+    public int sampleRate = 0;
+    public int lagFrames = 0;
+    public float crosstalk = 0f;
+    public float correlation = 0f;
+    public long alignmentMeasuredAt = 0;
+    public NoiseProfile noise = null;
+    public CaptureConfig capture = null;
+
+    private CalibrationProfile(String deviceKey) {
+        this.deviceKey = deviceKey;
+    }
+
+    public boolean hasAlignment() {
+        return alignmentMeasuredAt > 0;
+    }
+
+    public boolean hasNoise() {
+        return noise != null;
+    }
+
+    public boolean hasCaptureConfig() {
+        return capture != null;
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Load the profile of a device; fields that were never measured keep their defaults
+     */
+    public static CalibrationProfile load(Context context, String deviceKey) {
+        SharedPreferences prefs = prefs(context);
+        CalibrationProfile profile = new CalibrationProfile(deviceKey);
+        profile.sampleRate = prefs.getInt(deviceKey + ".sampleRate", 0);
+        profile.lagFrames = prefs.getInt(deviceKey + ".lagFrames", 0);
+        profile.crosstalk = prefs.getFloat(deviceKey + ".crosstalk", 0f);
+        profile.correlation = prefs.getFloat(deviceKey + ".correlation", 0f);
+        profile.alignmentMeasuredAt = prefs.getLong(deviceKey + ".alignmentMeasuredAt", 0);
+        profile.noise = NoiseProfile.decode(prefs.getString(deviceKey + ".noise", null));
+        profile.capture = CaptureConfig.decode(prefs.getString(deviceKey + ".capture", null));
+        return profile;
+    }
+
+    public void save(Context context) {
+        prefs(context).edit()
+            .putInt(deviceKey + ".sampleRate", sampleRate)
+            .putInt(deviceKey + ".lagFrames", lagFrames)
+            .putFloat(deviceKey + ".crosstalk", crosstalk)
+            .putFloat(deviceKey + ".correlation", correlation)
+            .putLong(deviceKey + ".alignmentMeasuredAt", alignmentMeasuredAt)
+            .putString(deviceKey + ".noise", noise != null ? noise.encode() : null)
+            .putString(deviceKey + ".capture", capture != null ? capture.encode() : null)
+            .apply();
+    }
+
+    public void clearAlignment(Context context) {
+        lagFrames = 0;
+        crosstalk = 0f;
+        correlation = 0f;
+        alignmentMeasuredAt = 0;
+        save(context);
+    }
+
+    public void clearNoise(Context context) {
+        noise = null;
+        save(context);
+    }
+
+    public void clearCaptureConfig(Context context) {
+        capture = null;
+        save(context);
+    }
+}
@@ -0,0 +1,97 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import android.media.AudioFormat;
+import android.media.MediaRecorder;
+
+import java.util.Locale;
+
+/**
+ * One way of opening an input: audio source, sample rate and channel mask,
+ * with the latencies measured when it was trial-opened by
+ * {@link CaptureNegotiator}.
+ */
+public final class CaptureConfig {
+    public static final CaptureConfig DEFAULT = new CaptureConfig(MediaRecorder.AudioSource.MIC, 44100,
+            AudioFormat.CHANNEL_IN_STEREO, false, false, 0, 0, 0);
+
+    public final int audioSource;
+    public final int sampleRate;
+    public final int channelMask;
+    // channelMask is a channel index mask (raw device channels) rather than a positional one
+    public final boolean indexMask;
+    // The device lists sampleRate as native, so the stack does not resample
+    public final boolean nativeRate;
+    public final double startupMs;
+    public final double readLatencyMs;
+    public final long measuredAt;
+
+    public CaptureConfig(int audioSource, int sampleRate, int channelMask, boolean indexMask, boolean nativeRate,
+                         double startupMs, double readLatencyMs, long measuredAt) {
+        this.audioSource = audioSource;
+        this.sampleRate = sampleRate;
+        this.channelMask = channelMask;
+        this.indexMask = indexMask;
+        this.nativeRate = nativeRate;
+        this.startupMs = startupMs;
+        this.readLatencyMs = readLatencyMs;
+        this.measuredAt = measuredAt;
+    }
+
+    public boolean isMeasured() {
+        return measuredAt > 0;
+    }
+
+    public String getSourceName() {
+        switch (audioSource) {
+            case MediaRecorder.AudioSource.UNPROCESSED:
+                return "unprocessed";
+            case MediaRecorder.AudioSource.VOICE_RECOGNITION:
+                return "voiceRecognition";
+            case MediaRecorder.AudioSource.MIC:
+                return "mic";
+            default:
+                return "source" + audioSource;
+        }
+    }
+
+    public String getChannelMaskName() {
+        if (indexMask) {
+            return "index:0x" + Integer.toHexString(channelMask);
+        }
+        return channelMask == AudioFormat.CHANNEL_IN_STEREO ? "stereo" : "mask:0x" + Integer.toHexString(channelMask);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s/%d Hz/%s (startup %.1f ms, latency %.1f ms)",
+                getSourceName(), sampleRate, getChannelMaskName(), startupMs, readLatencyMs);
+    }
+
+    /**
+     * Compact text form for SharedPreferences
+     */
+    public String encode() {
+        return String.format(Locale.US, "%d;%d;%d;%d;%d;%.3f;%.3f;%d", audioSource, sampleRate, channelMask,
+                indexMask ? 1 : 0, nativeRate ? 1 : 0, startupMs, readLatencyMs, measuredAt);
+    }
+
+    /**
+     * Parse the form written by encode(); null if the text is missing or malformed
+     */
+    public static CaptureConfig decode(String text) {
+        if (text == null) {
+            return null;
+        }
+        String[] fields = text.split(";");
+        if (fields.length != 8) {
+            return null;
+        }
+        try {
+            return new CaptureConfig(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+                    Integer.parseInt(fields[2]), "1".equals(fields[3]), "1".equals(fields[4]),
+                    Double.parseDouble(fields[5]), Double.parseDouble(fields[6]), Long.parseLong(fields[7]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import android.media.AudioDeviceInfo;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the best way to open an input device by trial-opening every
+ * candidate audio source, sample rate and channel mask and measuring it.
+ *
+ * Startup latency is the time from opening the AudioRecord to the first
+ * buffer of audio; read latency is how old the newest frame is when read()
+ * returns it, from AudioRecord.getTimestamp. Configurations that avoid
+ * resampling in the stack (a native rate) and the MIC source's AGC and noise
+ * suppression are preferred; among those the lowest total latency wins.
+ */
+public final class CaptureNegotiator {
+    private static final String TAG = "CaptureNegotiator";
+
+    private static final int[] CANDIDATE_RATES = {48000, 44100};
+    // Raw device channels 0 and 1, bypassing any positional remix
+    private static final int STEREO_INDEX_MASK = 0x3;
+    private static final int BLOCK_MS = 10;
+    // Audio read per candidate after the first buffer
+    private static final int TRIAL_MS = 150;
+    // Give up on a candidate that delivers nothing for this long
+    private static final long FIRST_BUFFER_TIMEOUT_MS = 1000;
+    private static final long POLL_MS = 2;
+
+    /**
+     * Outcome of one trial: the measured config, or why it failed
+     */
+    public static final class Trial {
+        public final CaptureConfig config;
+        public final String error;
+
+        Trial(CaptureConfig config, String error) {
+            this.config = config;
+            this.error = error;
+        }
+
+        public boolean succeeded() {
+            return error == null;
+        }
+    }
+
+    private final AudioManager audioManager;
+    private final AudioDeviceInfo device;
+
+    /**
+     * @param device Input to negotiate for, or null for the system default input
+     */
+    public CaptureNegotiator(AudioManager audioManager, AudioDeviceInfo device) {
+        this.audioManager = audioManager;
+        this.device = device;
+    }
+
+    /**
+     * Candidate configurations in the order they are tried; latencies are not measured yet
+     */
+    public List<CaptureConfig> candidates() {
+        List<Integer> sources = new ArrayList<Integer>();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N &&
+                "true".equals(audioManager.getProperty(AudioManager.PROPERTY_SUPPORT_AUDIO_SOURCE_UNPROCESSED))) {
+            sources.add(MediaRecorder.AudioSource.UNPROCESSED);
+        }
+        sources.add(MediaRecorder.AudioSource.VOICE_RECOGNITION);
+        sources.add(MediaRecorder.AudioSource.MIC);
+
+        // An empty list means the device takes any rate; a null device is unknown
+        int[] deviceRates = device != null ? device.getSampleRates() : null;
+        List<Integer> rates = new ArrayList<Integer>();
+        for (int rate : CANDIDATE_RATES) {
+            if (deviceRates != null && deviceRates.length > 0 && contains(deviceRates, rate)) {
+                rates.add(rate);
+            }
+        }
+        if (rates.isEmpty()) {
+            for (int rate : CANDIDATE_RATES) {
+                rates.add(rate);
+            }
+        }
+
+        List<CaptureConfig> candidates = new ArrayList<CaptureConfig>();
+        for (int source : sources) {
+            for (int rate : rates) {
+                boolean nativeRate = deviceRates != null && (deviceRates.length == 0 || contains(deviceRates, rate));
+                candidates.add(new CaptureConfig(source, rate, AudioFormat.CHANNEL_IN_STEREO, false, nativeRate, 0, 0, 0));
+                // Index masks need a concrete device to address
+                if (device != null) {
+                    candidates.add(new CaptureConfig(source, rate, STEREO_INDEX_MASK, true, nativeRate, 0, 0, 0));
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Trial-open every candidate in turn; blocks for a few seconds and must
+     * not run while the device is being recorded from
+     */
+    public List<Trial> run() {
+        List<Trial> trials = new ArrayList<Trial>();
+        for (CaptureConfig candidate : candidates()) {
+            Trial trial = measure(candidate);
+            Log.d(TAG, candidate + (trial.succeeded() ? " -> " + trial.config : " failed: " + trial.error));
+            trials.add(trial);
+        }
+        return trials;
+    }
+
+    /**
+     * The winning configuration among successful trials, or null if none worked
+     */
+    public static CaptureConfig pick(List<Trial> trials) {
+        CaptureConfig best = null;
+        for (Trial trial : trials) {
+            if (trial.succeeded() && (best == null || better(trial.config, best))) {
+                best = trial.config;
+            }
+        }
+        return best;
+    }
+
+    private static boolean better(CaptureConfig a, CaptureConfig b) {
+        boolean aClean = isClean(a);
+        boolean bClean = isClean(b);
+        if (aClean != bClean) {
+            return aClean;
+        }
+        return a.startupMs + a.readLatencyMs < b.startupMs + b.readLatencyMs;
+    }
+
+    private static boolean isClean(CaptureConfig config) {
+        return config.nativeRate && config.audioSource != MediaRecorder.AudioSource.MIC;
+    }
+
+    private Trial measure(CaptureConfig candidate) {
+        AudioRecordCaptureSource source = new AudioRecordCaptureSource(candidate, device);
+        long openNanos = System.nanoTime();
+        try {
+            source.start();
+        } catch (IOException e) {
+            return new Trial(candidate, e.getMessage());
+        } catch (RuntimeException e) {
+            return new Trial(candidate, "AudioRecord rejected the configuration: " + e.getMessage());
+        }
+
+        try {
+            AudioRecord record = source.getRecord();
+            if (record.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
+                return new Trial(candidate, "Recording did not start");
+            }
+            if (record.getSampleRate() != candidate.sampleRate) {
+                return new Trial(candidate, "Opened at " + record.getSampleRate() + " Hz instead");
+            }
+            if (source.getChannelCount() != 2 || record.getChannelCount() != 2) {
+                return new Trial(candidate, "Not a stereo input");
+            }
+
+            int frameSize = 4;
+            byte[] block = new byte[candidate.sampleRate * BLOCK_MS / 1000 * frameSize];
+            long frames = 0;
+            long deadline = openNanos + FIRST_BUFFER_TIMEOUT_MS * 1000000L;
+            while (frames == 0) {
+                int read = source.read(block, 0, block.length);
+                if (read > 0) {
+                    frames += read / frameSize;
+                } else if (System.nanoTime() > deadline) {
+                    return new Trial(candidate, "No audio within " + FIRST_BUFFER_TIMEOUT_MS + " ms");
+                } else {
+                    Thread.sleep(POLL_MS);
+                }
+            }
+            double startupMs = (System.nanoTime() - openNanos) / 1e6;
+
+            if (device != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                AudioDeviceInfo routed = record.getRoutedDevice();
+                if (routed != null && routed.getId() != device.getId()) {
+                    return new Trial(candidate, "Routed to device " + routed.getId() + " instead");
+                }
+            }
+
+            // Age of the newest frame at each read, from the capture timestamps
+            AudioTimestamp timestamp = new AudioTimestamp();
+            long trialFrames = (long) candidate.sampleRate * TRIAL_MS / 1000;
+            long trialEnd = frames + trialFrames;
+            double latencySum = 0;
+            int latencyCount = 0;
+            deadline = System.nanoTime() + (TRIAL_MS + FIRST_BUFFER_TIMEOUT_MS) * 1000000L;
+            while (frames < trialEnd && System.nanoTime() < deadline) {
+                int read = source.read(block, 0, block.length);
+                if (read <= 0) {
+                    Thread.sleep(POLL_MS);
+                    continue;
+                }
+                long now = System.nanoTime();
+                frames += read / frameSize;
+                if (record.getTimestamp(timestamp, AudioTimestamp.TIMEBASE_MONOTONIC) == AudioRecord.SUCCESS) {
+                    double newestNanos = timestamp.nanoTime +
+                            (frames - timestamp.framePosition) * 1e9 / candidate.sampleRate;
+                    latencySum += (now - newestNanos) / 1e6;
+                    latencyCount++;
+                }
+            }
+            if (frames < trialEnd) {
+                return new Trial(candidate, "Input stalled after " + frames + " frames");
+            }
+            // Without timestamps, a full buffer is the worst case the reader can see
+            double readLatencyMs = latencyCount > 0 ? Math.max(0, latencySum / latencyCount) :
+                    record.getBufferSizeInFrames() * 1000.0 / candidate.sampleRate;
+
+            return new Trial(new CaptureConfig(candidate.audioSource, candidate.sampleRate, candidate.channelMask,
+                    candidate.indexMask, candidate.nativeRate, startupMs, readLatencyMs,
+                    System.currentTimeMillis()), null);
+        } catch (IOException e) {
+            return new Trial(candidate, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Trial(candidate, "Interrupted");
+        } finally {
+            source.stop();
+        }
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,265 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * A compressed or FLAC recording (m4a, aac, mp3, ogg, flac, ...) decoded on
+ * the fly with MediaExtractor and MediaCodec, so it can be analyzed and
+ * split like a WAV file without a decoded copy ever reaching disk.
+ *
+ * Decoded PCM goes straight from the codec's output buffers into one block
+ * of blockFrames frames that is handed to the consumer and reused, so memory
+ * stays bounded by the codec's own buffers plus that block whatever the
+ * length of the file.
+ *
+ * open() decodes up to the first output buffer to learn the real output
+ * format, which can differ from the container's (HE-AAC doubles the sample
+ * rate, some decoders upmix mono). The stream can be read once.
+ */
+public final class DecodedAudioFile implements PcmBlockSource, Closeable {
+    private static final long TIMEOUT_US = 10000;
+    // Consecutive empty polls after the input has ended before the decoder is given up on
+    private static final int MAX_STALLED_POLLS = 200;
+
+    public final File file;
+    public final String mimeType;
+    private final MediaExtractor extractor;
+    private final MediaCodec codec;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    private final long durationUs;
+
+    private int sampleRate;
+    private int channels;
+    private boolean floatOutput = false;
+    private boolean inputDone = false;
+    private boolean outputDone = false;
+    private boolean consumed = false;
+    // First output buffer, held from open() until it is read
+    private int heldIndex = -1;
+    private long framesDecoded = 0;
+
+    private DecodedAudioFile(File file, String mimeType, MediaExtractor extractor, MediaCodec codec, MediaFormat format) {
+        this.file = file;
+        this.mimeType = mimeType;
+        this.extractor = extractor;
+        this.codec = codec;
+        this.durationUs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : -1;
+        this.sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        this.channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+    }
+
+    /**
+     * Open the first audio track of a file and start decoding it
+     */
+    public static DecodedAudioFile open(File file) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(file.getAbsolutePath());
+            int track = -1;
+            MediaFormat format = null;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat candidate = extractor.getTrackFormat(i);
+                String mime = candidate.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    track = i;
+                    format = candidate;
+                    break;
+                }
+            }
+            if (track < 0) {
+                throw new IOException("No audio track in " + file.getName());
+            }
+            extractor.selectTrack(track);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            codec = MediaCodec.createDecoderByType(mime);
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            DecodedAudioFile decoded = new DecodedAudioFile(file, mime, extractor, codec, format);
+            decoded.heldIndex = decoded.nextOutput();
+            return decoded;
+        } catch (IOException | RuntimeException e) {
+            if (codec != null) {
+                codec.release();
+            }
+            extractor.release();
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            throw new IOException("Cannot decode " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channels;
+    }
+
+    /**
+     * Frames decoded once the stream has been read, otherwise estimated from
+     * the container's duration
+     */
+    @Override
+    public long getFrameCount() {
+        if (outputDone) {
+            return framesDecoded;
+        }
+        return durationUs > 0 ? durationUs * sampleRate / 1000000L : -1;
+    }
+
+    public double getDurationSeconds() {
+        long frames = getFrameCount();
+        return frames > 0 ? (double) frames / sampleRate : 0;
+    }
+
+    @Override
+    public void readBlocks(int blockFrames, PcmBlockConsumer consumer) throws IOException {
+        if (consumed) {
+            throw new IOException("Decoded stream was already read");
+        }
+        consumed = true;
+
+        int blockChannels = channels;
+        short[] block = new short[blockFrames * blockChannels];
+        int filled = 0;
+        try {
+            int index = heldIndex;
+            heldIndex = -1;
+            while (index >= 0) {
+                if (channels != blockChannels) {
+                    codec.releaseOutputBuffer(index, false);
+                    throw new IOException("Channel count changed mid-stream (" + blockChannels + " to " + channels + ")");
+                }
+                ByteBuffer output = codec.getOutputBuffer(index);
+                output.position(info.offset);
+                output.limit(info.offset + info.size);
+                ByteBuffer data = output.slice().order(ByteOrder.nativeOrder());
+                if (floatOutput) {
+                    FloatBuffer floats = data.asFloatBuffer();
+                    while (floats.hasRemaining()) {
+                        int count = Math.min(floats.remaining(), block.length - filled);
+                        for (int i = 0; i < count; i++) {
+                            float sample = Math.max(-1f, Math.min(1f, floats.get()));
+                            block[filled + i] = (short) Math.round(sample * 32767f);
+                        }
+                        filled = deliver(block, filled + count, blockChannels, consumer);
+                    }
+                } else {
+                    ShortBuffer shorts = data.asShortBuffer();
+                    while (shorts.hasRemaining()) {
+                        int count = Math.min(shorts.remaining(), block.length - filled);
+                        shorts.get(block, filled, count);
+                        filled = deliver(block, filled + count, blockChannels, consumer);
+                    }
+                }
+                codec.releaseOutputBuffer(index, false);
+                index = nextOutput();
+            }
+        } catch (IllegalStateException e) {
+            throw new IOException("Decoder failed: " + e.getMessage());
+        }
+        int frames = filled / blockChannels;
+        if (frames > 0) {
+            consumer.process(block, 0, frames);
+            framesDecoded += frames;
+        }
+    }
+
+    // Hand the block over once it is full; returns how many samples it still holds
+    private int deliver(short[] block, int filled, int blockChannels, PcmBlockConsumer consumer) {
+        if (filled < block.length) {
+            return filled;
+        }
+        int frames = block.length / blockChannels;
+        consumer.process(block, 0, frames);
+        framesDecoded += frames;
+        return 0;
+    }
+
+    /**
+     * Feed the decoder until it produces an output buffer holding audio;
+     * returns its index, or -1 at the end of the stream
+     */
+    private int nextOutput() throws IOException {
+        int stalled = 0;
+        while (!outputDone) {
+            if (!inputDone) {
+                feedInput();
+            }
+            int index = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                applyOutputFormat(codec.getOutputFormat());
+            } else if (index >= 0) {
+                stalled = 0;
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    outputDone = true;
+                }
+                if (info.size > 0) {
+                    return index;
+                }
+                codec.releaseOutputBuffer(index, false);
+            } else if (inputDone && ++stalled > MAX_STALLED_POLLS) {
+                throw new IOException("Decoder stopped producing output");
+            }
+        }
+        return -1;
+    }
+
+    private void feedInput() {
+        int index = codec.dequeueInputBuffer(0);
+        if (index < 0) {
+            return;
+        }
+        ByteBuffer input = codec.getInputBuffer(index);
+        int size = extractor.readSampleData(input, 0);
+        if (size < 0) {
+            codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            inputDone = true;
+        } else {
+            codec.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+            extractor.advance();
+        }
+    }
+
+    private void applyOutputFormat(MediaFormat format) throws IOException {
+        sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        int encoding = format.containsKey(MediaFormat.KEY_PCM_ENCODING) ?
+                format.getInteger(MediaFormat.KEY_PCM_ENCODING) : AudioFormat.ENCODING_PCM_16BIT;
+        if (encoding != AudioFormat.ENCODING_PCM_16BIT && encoding != AudioFormat.ENCODING_PCM_FLOAT) {
+            throw new IOException("Unsupported decoder output encoding: " + encoding);
+        }
+        floatOutput = encoding == AudioFormat.ENCODING_PCM_FLOAT;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (heldIndex >= 0) {
+                codec.releaseOutputBuffer(heldIndex, false);
+                heldIndex = -1;
+            }
+            codec.stop();
+        } catch (IllegalStateException ignored) {
+        }
+        codec.release();
+        extractor.release();
+    }
+}
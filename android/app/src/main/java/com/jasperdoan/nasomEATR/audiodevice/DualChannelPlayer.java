@@ -0,0 +1,303 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays a stereo recording through one streaming AudioTrack, fed by a
+ * {@link PlaybackMixer} reading the memory-mapped file, so both channels
+ * come from the same source and stay sample-locked.
+ *
+ * Every AudioTrack call happens on the player thread; pause, resume and seek
+ * only post requests to it. Writes are non-blocking so a request is picked
+ * up within a block even while the track's buffer is full.
+ */
+public final class DualChannelPlayer {
+    private static final String TAG = "DualChannelPlayer";
+
+    private static final int BLOCK_MS = 10;
+    private static final int BUFFER_BLOCKS = 4;
+    private static final long IDLE_WAIT_MS = 20;
+    private static final long FULL_WAIT_MS = 2;
+    // Extra time allowed for the track to play out its buffer at the end
+    private static final long DRAIN_SLACK_MS = 500;
+
+    public interface Listener {
+        /**
+         * Called on the player thread, so it must not block or allocate much
+         */
+        void onPosition(DualChannelPlayer player, long frame, float nasalPeak, float oralPeak);
+
+        void onFinished(DualChannelPlayer player, Exception error);
+    }
+
+    private final PlaybackMixer mixer;
+    private final Listener listener;
+    private final int blockFrames;
+    private final int positionIntervalFrames;
+    private final Object lock = new Object();
+
+    private AudioTrack track;
+    private Thread thread;
+    private volatile boolean paused;
+    private volatile boolean released = false;
+    private final AtomicLong pendingSeek = new AtomicLong(-1);
+    private volatile long position;
+
+    // Player thread state: file frame at track head position 0, frames written since the last flush
+    private long baseFrame;
+    private long writtenFrames;
+    private boolean trackPaused;
+
+    public DualChannelPlayer(PlaybackMixer mixer, int positionIntervalMs, Listener listener) {
+        this.mixer = mixer;
+        this.listener = listener;
+        this.blockFrames = mixer.getSampleRate() * BLOCK_MS / 1000;
+        this.positionIntervalFrames = Math.max(blockFrames, mixer.getSampleRate() * positionIntervalMs / 1000);
+    }
+
+    public PlaybackMixer getMixer() {
+        return mixer;
+    }
+
+    /**
+     * Frame of the file currently coming out of the speaker
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Open the track, queue the first block and start the player thread
+     */
+    public void start(long startFrame, boolean startPaused) throws IOException {
+        int sampleRate = mixer.getSampleRate();
+        int channelMask = AudioFormat.CHANNEL_OUT_STEREO;
+        int encoding = AudioFormat.ENCODING_PCM_16BIT;
+        int minBufferSize = AudioTrack.getMinBufferSize(sampleRate, channelMask, encoding);
+        int bufferSize = Math.max(minBufferSize, blockFrames * 4 * BUFFER_BLOCKS);
+
+        AudioTrack.Builder builder = new AudioTrack.Builder()
+                .setAudioAttributes(new AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_MEDIA)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+                        .build())
+                .setAudioFormat(new AudioFormat.Builder()
+                        .setSampleRate(sampleRate)
+                        .setChannelMask(channelMask)
+                        .setEncoding(encoding)
+                        .build())
+                .setBufferSizeInBytes(bufferSize)
+                .setTransferMode(AudioTrack.MODE_STREAM);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            builder.setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY);
+        }
+        try {
+            track = builder.build();
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to create AudioTrack: " + e.getMessage(), e);
+        }
+        if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+            track.release();
+            track = null;
+            throw new IOException("Failed to initialize AudioTrack");
+        }
+
+        mixer.seek(startFrame);
+        baseFrame = Math.max(0, Math.min(startFrame, mixer.getFrameCount()));
+        position = baseFrame;
+        paused = startPaused;
+        trackPaused = true;
+        final short[] block = new short[blockFrames * 2];
+
+        // Queue one block before play() so the first buffer the mixer pulls is not empty
+        int frames = mixer.read(block, blockFrames);
+        if (frames > 0) {
+            writtenFrames = Math.max(0, track.write(block, 0, frames * 2, AudioTrack.WRITE_NON_BLOCKING)) / 2;
+        }
+        final int primed = frames;
+        if (!startPaused) {
+            track.play();
+            trackPaused = false;
+        }
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+                Exception error = null;
+                try {
+                    loop(block, primed);
+                } catch (Exception e) {
+                    error = e;
+                } finally {
+                    track.release();
+                }
+                if (!released) {
+                    released = true;
+                    listener.onFinished(DualChannelPlayer.this, error);
+                }
+            }
+        }, "DualChannelPlayer Thread");
+        thread.start();
+    }
+
+    public void pause() {
+        paused = true;
+        wake();
+    }
+
+    public void resume() {
+        paused = false;
+        wake();
+    }
+
+    /**
+     * Jump to a frame, dropping whatever is queued in the track; works while paused
+     */
+    public void seek(long frame) {
+        pendingSeek.set(Math.max(0, Math.min(frame, mixer.getFrameCount())));
+        wake();
+    }
+
+    /**
+     * Stop playback and release the track; no finished callback follows
+     */
+    public void release() {
+        released = true;
+        wake();
+        Thread current = thread;
+        if (current != null && current != Thread.currentThread()) {
+            try {
+                current.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void wake() {
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    private void loop(short[] block, int primed) throws IOException, InterruptedException {
+        // Frames of the current block still to be written, and where they start
+        int pendingFrames = 0;
+        int pendingOffset = 0;
+        // Leftover of the priming write, if the track took less than the whole block
+        if (primed > writtenFrames) {
+            pendingOffset = (int) writtenFrames;
+            pendingFrames = primed - (int) writtenFrames;
+        }
+        long lastReported = -positionIntervalFrames;
+        boolean draining = false;
+        long drainDeadline = 0;
+
+        while (!released) {
+            long seek = pendingSeek.getAndSet(-1);
+            if (seek >= 0) {
+                if (!trackPaused) {
+                    track.pause();
+                }
+                track.flush();
+                trackPaused = true;
+                mixer.seek(seek);
+                baseFrame = seek;
+                writtenFrames = 0;
+                pendingFrames = 0;
+                draining = false;
+                position = seek;
+                listener.onPosition(this, seek, 0, 0);
+                lastReported = seek;
+            }
+
+            if (paused != trackPaused) {
+                if (paused) {
+                    track.pause();
+                    position = currentFrame();
+                } else {
+                    track.play();
+                }
+                trackPaused = paused;
+            }
+            if (paused) {
+                synchronized (lock) {
+                    if (paused && !released && pendingSeek.get() < 0) {
+                        lock.wait(IDLE_WAIT_MS);
+                    }
+                }
+                continue;
+            }
+
+            position = currentFrame();
+            if (position - lastReported >= positionIntervalFrames) {
+                lastReported = position;
+                listener.onPosition(this, position, mixer.getBlockPeak(NasalanceAnalyzer.NASAL_CHANNEL),
+                        mixer.getBlockPeak(NasalanceAnalyzer.ORAL_CHANNEL));
+            }
+
+            if (draining) {
+                if (position >= baseFrame + writtenFrames || System.currentTimeMillis() > drainDeadline) {
+                    position = baseFrame + writtenFrames;
+                    listener.onPosition(this, position, 0, 0);
+                    return;
+                }
+                sleep(FULL_WAIT_MS);
+                continue;
+            }
+
+            if (pendingFrames == 0) {
+                pendingFrames = mixer.read(block, blockFrames);
+                pendingOffset = 0;
+                if (pendingFrames == 0) {
+                    // End of file: stop() lets the track play out what is queued
+                    track.stop();
+                    draining = true;
+                    drainDeadline = System.currentTimeMillis() + DRAIN_SLACK_MS +
+                            writtenFrames * 1000 / mixer.getSampleRate();
+                    continue;
+                }
+            }
+
+            int written = track.write(block, pendingOffset * 2, pendingFrames * 2, AudioTrack.WRITE_NON_BLOCKING);
+            if (written < 0) {
+                throw new IOException("AudioTrack write failed: " + written);
+            }
+            int frames = written / 2;
+            writtenFrames += frames;
+            pendingOffset += frames;
+            pendingFrames -= frames;
+            if (pendingFrames > 0) {
+                // Track buffer is full; come back once some of it has played
+                sleep(FULL_WAIT_MS);
+            }
+        }
+        Log.d(TAG, "Playback released at frame " + position);
+    }
+
+    private long currentFrame() {
+        long played = track.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+        return baseFrame + Math.min(played, writtenFrames);
+    }
+
+    private void sleep(long ms) throws InterruptedException {
+        synchronized (lock) {
+            if (!released && pendingSeek.get() < 0) {
+                lock.wait(ms);
+            }
+        }
+    }
+}
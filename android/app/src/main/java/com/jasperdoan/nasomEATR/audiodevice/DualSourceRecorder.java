@@ -0,0 +1,211 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import android.media.AudioDeviceInfo;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records from two separate mono input devices (e.g. two USB mics) and
+ * delivers them as one interleaved stereo stream, nasal left and oral right.
+ *
+ * Each device gets its own AudioRecord and reader thread. Readers stamp every
+ * block with AudioRecord.getTimestamp and hand it to a {@link DualSourceMerger},
+ * which resamples the oral stream onto the nasal device's clock.
+ */
+public final class DualSourceRecorder implements CaptureSource {
+    private static final String TAG = "DualSourceRecorder";
+
+    // How long read() waits for the oral device before filling with silence
+    private static final long STALL_TIMEOUT_NANOS = 200_000_000L;
+    private static final long POLL_NANOS = 1_000_000L;
+
+    private final AudioDeviceInfo nasalDevice;
+    private final AudioDeviceInfo oralDevice;
+    private final int audioSource;
+    private final int sampleRate;
+    private final DualSourceMerger merger;
+
+    private AudioRecord nasalRecord;
+    private AudioRecord oralRecord;
+    private Thread nasalThread;
+    private Thread oralThread;
+    private volatile boolean running = false;
+    // Why a reader stopped, raised from read() so capture ends with the error
+    private volatile String readerError = null;
+    private short[] mergeBuffer = new short[0];
+
+    public DualSourceRecorder(AudioDeviceInfo nasalDevice, AudioDeviceInfo oralDevice,
+                              int audioSource, int sampleRate) {
+        this.nasalDevice = nasalDevice;
+        this.oralDevice = oralDevice;
+        this.audioSource = audioSource;
+        this.sampleRate = sampleRate;
+        // Two seconds of slack per device
+        this.merger = new DualSourceMerger(sampleRate, sampleRate * 2);
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return 2;
+    }
+
+    @Override
+    public void start() throws IOException {
+        nasalRecord = openRecord(nasalDevice);
+        try {
+            oralRecord = openRecord(oralDevice);
+        } catch (IOException e) {
+            nasalRecord.release();
+            nasalRecord = null;
+            throw e;
+        }
+
+        readerError = null;
+        running = true;
+        nasalRecord.startRecording();
+        oralRecord.startRecording();
+        nasalThread = startReader(nasalRecord, true, "DualSource Nasal Reader");
+        oralThread = startReader(oralRecord, false, "DualSource Oral Reader");
+    }
+
+    private AudioRecord openRecord(AudioDeviceInfo device) throws IOException {
+        int channelConfig = AudioFormat.CHANNEL_IN_MONO;
+        int audioFormat = AudioFormat.ENCODING_PCM_16BIT;
+        int minBufferSize = AudioRecord.getMinBufferSize(sampleRate, channelConfig, audioFormat);
+        if (minBufferSize == AudioRecord.ERROR || minBufferSize == AudioRecord.ERROR_BAD_VALUE) {
+            minBufferSize = sampleRate * 2;
+        }
+
+        AudioRecord record = new AudioRecord(audioSource, sampleRate, channelConfig, audioFormat, minBufferSize * 10);
+        if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+            record.release();
+            throw new IOException("Failed to initialize AudioRecord for device " + device.getId());
+        }
+        // Unrouted, both records would capture the same default input
+        if (!record.setPreferredDevice(device)) {
+            record.release();
+            throw new IOException("Could not route AudioRecord to device " + device.getId());
+        }
+        return record;
+    }
+
+    private Thread startReader(final AudioRecord record, final boolean nasal, String name) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                short[] block = new short[sampleRate / 100]; // 10 ms
+                AudioTimestamp timestamp = new AudioTimestamp();
+                while (running) {
+                    int read = record.read(block, 0, block.length);
+                    if (read > 0) {
+                        if (nasal) {
+                            merger.writeNasal(block, 0, read);
+                        } else {
+                            merger.writeOral(block, 0, read);
+                        }
+                        if (record.getTimestamp(timestamp, AudioTimestamp.TIMEBASE_MONOTONIC) == AudioRecord.SUCCESS) {
+                            if (nasal) {
+                                merger.updateNasalClock(timestamp.framePosition, timestamp.nanoTime);
+                            } else {
+                                merger.updateOralClock(timestamp.framePosition, timestamp.nanoTime);
+                            }
+                        }
+                    } else if (read < 0) {
+                        String message = "Error reading " + (nasal ? "nasal" : "oral") + " device: " + read;
+                        Log.e(TAG, message);
+                        readerError = message;
+                        break;
+                    }
+                }
+            }
+        }, name);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Read merged 16-bit stereo PCM as little-endian bytes. Waits briefly for at
+     * least one frame; returns 0 if none arrived or once stopped. Throws once
+     * either device has failed, rather than going on with one side missing.
+     */
+    @Override
+    public int read(byte[] data, int offset, int length) throws IOException {
+        int maxFrames = length / 4;
+        if (mergeBuffer.length < maxFrames * 2) {
+            mergeBuffer = new short[maxFrames * 2];
+        }
+
+        long waitStart = System.nanoTime();
+        int frames = 0;
+        while (running) {
+            String error = readerError;
+            if (error != null) {
+                throw new IOException(error);
+            }
+            long waited = System.nanoTime() - waitStart;
+            frames = merger.read(mergeBuffer, maxFrames, waited > STALL_TIMEOUT_NANOS);
+            if (frames > 0 || waited > 2 * STALL_TIMEOUT_NANOS) {
+                break;
+            }
+            LockSupport.parkNanos(POLL_NANOS);
+        }
+
+        int index = offset;
+        for (int i = 0; i < frames * 2; i++) {
+            short sample = mergeBuffer[i];
+            data[index++] = (byte) (sample & 0xFF);
+            data[index++] = (byte) ((sample >> 8) & 0xFF);
+        }
+        return frames * 4;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        joinQuietly(nasalThread);
+        joinQuietly(oralThread);
+        nasalThread = null;
+        oralThread = null;
+        releaseRecord(nasalRecord);
+        releaseRecord(oralRecord);
+        nasalRecord = null;
+        oralRecord = null;
+    }
+
+    private static void joinQuietly(Thread thread) {
+        if (thread == null) return;
+        try {
+            thread.join(500);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void releaseRecord(AudioRecord record) {
+        if (record == null) return;
+        try {
+            record.stop();
+        } catch (IllegalStateException e) {
+            // Never started
+        }
+        record.release();
+    }
+
+    public double getDriftPpm() {
+        return merger.getDriftPpm();
+    }
+
+    public long getMissingFrames() {
+        return merger.getMissingFrames();
+    }
+}
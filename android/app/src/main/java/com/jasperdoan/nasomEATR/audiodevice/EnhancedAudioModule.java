@@ -4,18 +4,16 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbManager;
+import android.media.AudioDeviceCallback;
 import android.media.AudioDeviceInfo;
-import android.media.AudioFormat;
 import android.media.AudioManager;
-import android.media.AudioRecord;
 import android.media.MediaRecorder;
-import android.media.MediaExtractor;
-import android.media.MediaFormat;
 import android.os.Build;
 import android.content.BroadcastReceiver;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.Context;
+import android.util.Base64;
 import android.util.Log;
 
 import com.facebook.react.bridge.Arguments;
@@ -29,18 +27,17 @@ import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.ShortBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class EnhancedAudioModule extends ReactContextBaseJavaModule {
     private static final String TAG = "EnhancedAudioModule";
@@ -52,6 +49,67 @@ public class EnhancedAudioModule extends ReactContextBaseJavaModule {
     private static final int BITS_PER_SAMPLE = 16; // 16 bits
     private static final int STEREO_CHANNELS = 2;  // Stereo
     private static final int MONO_CHANNELS = 1;    // Mono
+    private static final int CAPTURE_BUFFER_MS = 20;
+    // Biofeedback reads short buffers so a range change reaches JS within a few hops of the speech
+    private static final int BIOFEEDBACK_BUFFER_MS = 5;
+    private static final int DEFAULT_BIOFEEDBACK_LEVEL_INTERVAL_MS = 50;
+    private static final long ANALYSIS_CACHE_MEMORY_BYTES = 4L * 1024 * 1024;
+    private static final long ANALYSIS_CACHE_DISK_BYTES = 16L * 1024 * 1024;
+    private static final String RMS_CACHE_PARAMS = "rms:v1";
+    private static final String RMS_FIXED_CACHE_PARAMS = "rms:v1:dsp=fixed";
+    private static final int DEFAULT_BENCHMARK_RUNS = 3;
+    // How far two readings may drift apart in time, and the region length without markers
+    private static final double DEFAULT_COMPARE_BAND_SECONDS = 3.0;
+    private static final double DEFAULT_COMPARE_REGION_SECONDS = 5.0;
+    // Windows above this nasalance (percent) are counted in percentAbove; matches the "High" band in the app
+    private static final double DEFAULT_NASALANCE_THRESHOLD = 50;
+    private static final String NOISE_SOURCE_SESSION = "session";
+    private static final String NOISE_SOURCE_DEVICE = "device";
+    // How long a new capture waits for the previous one to release the device before opening anyway
+    private static final long PREVIOUS_CAPTURE_TIMEOUT_MS = 2000;
+    // Contour space reserved per session take, so a passage of up to this length is analyzed without growing it
+    private static final int TAKE_RESERVE_SECONDS = 60;
+    // Audio a take's analysis may fall behind the capture thread before capture waits for it
+    private static final int TAKE_HANDOFF_MS = 2000;
+
+    // Largest inter-channel delay the alignment estimator searches for
+    private static final int MAX_ALIGNMENT_LAG_MS = 50;
+    // Shortest interval between playback position events
+    private static final int MIN_POSITION_INTERVAL_MS = 10;
+    // Empty reads for this long mean the input is gone
+    private static final int INPUT_LOSS_TIMEOUT_MS = CAPTURE_BUFFER_MS;
+    // How long a lost input may stay away before the recording ends with an error
+    private static final int INPUT_GIVE_UP_MS = 30000;
+
+    // Processing stages: trace section names and getProcessingStats keys.
+    // "queue" is the wait for the executor, "deliver" the hop to the UI queue thread and the promise call
+    private static final String STAGE_RMS = "rms";
+    private static final String STAGE_RMS_QUEUE = "rms.queue";
+    private static final String STAGE_RMS_OPEN = "rms.open";
+    private static final String STAGE_RMS_PARSE = "rms.parse";
+    private static final String STAGE_RMS_HASH = "rms.hash";
+    private static final String STAGE_RMS_COMPUTE = "rms.compute";
+    private static final String STAGE_ANALYZE = "analyze";
+    private static final String STAGE_ANALYZE_QUEUE = "analyze.queue";
+    private static final String STAGE_ANALYZE_OPEN = "analyze.open";
+    private static final String STAGE_ANALYZE_PARSE = "analyze.parse";
+    private static final String STAGE_ANALYZE_PROFILE = "analyze.profile";
+    private static final String STAGE_ANALYZE_HASH = "analyze.hash";
+    private static final String STAGE_ANALYZE_COMPUTE = "analyze.compute";
+    private static final String STAGE_ANALYZE_SPECTROGRAM = "analyze.spectrogram";
+    private static final String STAGE_ANALYZE_RESULT = "analyze.result";
+    private static final String STAGE_SPLIT = "split";
+    private static final String STAGE_SPLIT_QUEUE = "split.queue";
+    private static final String STAGE_SPLIT_OPEN = "split.open";
+    private static final String STAGE_SPLIT_PARSE = "split.parse";
+    private static final String STAGE_SPLIT_WRITE = "split.write";
+    private static final String STAGE_SPLIT_REGISTER = "split.register";
+    private static final String STAGE_TAKE_FINISH = "take.finish";
+    private static final String STAGE_TILES = "tiles";
+    private static final String STAGE_COMPARE = "compare";
+    private static final String STAGE_COMPARE_FEATURES = "compare.features";
+    private static final String STAGE_COMPARE_ALIGN = "compare.align";
+    private static final String STAGE_DELIVER = "deliver";
     
     private final ReactApplicationContext reactContext;
     private AudioManager audioManager;
@@ -61,12 +119,33 @@ public class EnhancedAudioModule extends ReactContextBaseJavaModule {
     private BroadcastReceiver usbReceiver;
     
     // Audio recording variables
-    private boolean isRecording = false;
-    private AudioRecord audioRecord = null;
-    private Thread recordingThread = null;
-    private int bufferSize = 0;
-    private String recordingFilePath = null;
+    // Latest single-file capture; its state machine says whether it is still recording
+    private volatile CapturePipeline capturePipeline = null;
+    // stopRecording promises, completed by the capture thread once the file is finalized
+    private final Map<CapturePipeline, Promise> stopPromises = new ConcurrentHashMap<CapturePipeline, Promise>();
+    private RecordingSession session = null;
+    private int sessionCounter = 0;
+    // Live biofeedback capture, which records nothing; its meter and stopBiofeedback promise
+    private volatile CapturePipeline biofeedbackPipeline = null;
+    private volatile BiofeedbackMeter biofeedbackMeter = null;
+    private final AtomicReference<Promise> biofeedbackStopPromise = new AtomicReference<Promise>();
     private Executor audioProcessingExecutor = Executors.newSingleThreadExecutor();
+    // Serves spectrogram tiles, so scrolling never waits behind an analysis
+    private final Executor spectrogramExecutor = Executors.newSingleThreadExecutor();
+    private SpectrogramTiles openSpectrogram = null;
+    private String openSpectrogramKey = null;
+    private final AnalysisCache analysisCache;
+    private final RecordingStore recordingStore;
+    private final ProcessingStats processingStats = new ProcessingStats();
+    // Score with integer arithmetic only, bit-exact across devices
+    private volatile boolean fixedPointDsp = false;
+    private final Map<String, ChunkedUploader> uploads = new HashMap<String, ChunkedUploader>();
+    // Set while CaptureNegotiator is trial-opening the input; recording waits for it
+    private volatile boolean negotiating = false;
+    private volatile DualChannelPlayer playbackPlayer = null;
+    // Input of the running capture, told when its device is removed
+    private volatile FailoverCaptureSource activeFailover = null;
+    private volatile int playbackSampleRate = SAMPLE_RATE;
 
     private static final String ACTION_USB_PERMISSION = "com.jasperdoan.nasomEATR.USB_PERMISSION";
     private String pendingDeviceId = null;
@@ -77,6 +156,13 @@ public class EnhancedAudioModule extends ReactContextBaseJavaModule {
         this.reactContext = reactContext;
         this.audioManager = (AudioManager) reactContext.getSystemService(Context.AUDIO_SERVICE);
         this.usbManager = (UsbManager) reactContext.getSystemService(Context.USB_SERVICE);
+        this.analysisCache = new AnalysisCache(new File(reactContext.getCacheDir(), "analysis"),
+                ANALYSIS_CACHE_MEMORY_BYTES, ANALYSIS_CACHE_DISK_BYTES);
+        this.recordingStore = new RecordingStore(new File(reactContext.getFilesDir(), "recordings.index"));
+        processingStats.setTraceSink(new SystraceSink());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            audioManager.registerAudioDeviceCallback(inputRemovalCallback, null);
+        }
         
         // Create USB broadcast receiver
         setupUsbReceiver();
@@ -110,55 +196,6 @@ public class EnhancedAudioModule extends ReactContextBaseJavaModule {
         return path;
     }
     
-    /**
-     * Write a WAV header to the output stream
-     */
-    private void writeWavHeader(FileOutputStream out, int channels, int sampleRate, 
-                               int bitsPerSample, int audioLength) throws IOException {
-        // WAV header structure
-        
-        // RIFF header
-        out.write("RIFF".getBytes()); // ChunkID
-        out.write(intToByteArray(36 + audioLength)); // ChunkSize
-        out.write("WAVE".getBytes()); // Format
-        
-        // fmt subchunk
-        out.write("fmt ".getBytes()); // Subchunk1ID
-        out.write(intToByteArray(16)); // Subchunk1Size (16 for PCM)
-        out.write(shortToByteArray((short) 1)); // AudioFormat (1 for PCM)
-        out.write(shortToByteArray((short) channels)); // NumChannels
-        out.write(intToByteArray(sampleRate)); // SampleRate
-        out.write(intToByteArray(sampleRate * channels * bitsPerSample / 8)); // ByteRate
-        out.write(shortToByteArray((short) (channels * bitsPerSample / 8))); // BlockAlign
-        out.write(shortToByteArray((short) bitsPerSample)); // BitsPerSample
-        
-        // data subchunk
-        out.write("data".getBytes()); // Subchunk2ID
-        out.write(intToByteArray(audioLength)); // Subchunk2Size
-    }
-
-    /**
-     * Convert an integer to a little-endian byte array
-     */
-    private byte[] intToByteArray(int value) {
-        byte[] result = new byte[4];
-        result[0] = (byte) (value & 0xFF);
-        result[1] = (byte) ((value >> 8) & 0xFF);
-        result[2] = (byte) ((value >> 16) & 0xFF);
-        result[3] = (byte) ((value >> 24) & 0xFF);
-        return result;
-    }
-
-    /**
-     * Convert a short to a little-endian byte array
-     */
-    private byte[] shortToByteArray(short value) {
-        byte[] result = new byte[2];
-        result[0] = (byte) (value & 0xFF);
-        result[1] = (byte) ((value >> 8) & 0xFF);
-        return result;
-    }
-
     private void setupUsbReceiver() {
         usbReceiver = new BroadcastReceiver() {
             @Override
@@ -283,13 +320,26 @@ public class EnhancedAudioModule extends ReactContextBaseJavaModule {
         WritableMap capabilities = Arguments.createMap();
         // Force DJI devices to be recognized as stereo
         capabilities.putBoolean("stereo", isDJI || true); // Assume USB audio devices support stereo
+        // Report the rates the audio stack lists for this device; assume the common two until it is routed
+        AudioDeviceInfo input = findUsbInputDevice(name, device.getProductName());
+        int[] rates = input != null ? input.getSampleRates() : new int[0];
         WritableArray sampleRates = Arguments.createArray();
-        sampleRates.pushInt(44100);
-        sampleRates.pushInt(48000);
+        if (rates.length > 0) {
+            for (int rate : rates) {
+                sampleRates.pushInt(rate);
+            }
+        } else {
+            sampleRates.pushInt(44100);
+            sampleRates.pushInt(48000);
+        }
         capabilities.putArray("sampleRates", sampleRates);
+        capabilities.putBoolean("sampleRatesVerified", rates.length > 0);
         capabilities.putInt("channelCount", isDJI ? 2 : 2); // Force DJI to have 2 channels
         
         deviceMap.putMap("capabilities", capabilities);
+        if (input != null) {
+            putCaptureConfig(deviceMap, input);
+        }
         
         return deviceMap;
     }
@@ -352,10 +402,41 @@ public class EnhancedAudioModule extends ReactContextBaseJavaModule {
         capabilities.putInt("channelCount", isDJI ? Math.max(2, maxChannels) : maxChannels);
         
         deviceMap.putMap("capabilities", capabilities);
+        putCaptureConfig(deviceMap, device);
         
         return deviceMap;
     }
 
+    /**
+     * Add the cached negotiated capture configuration of a device, if there is one
+     */
+    private void putCaptureConfig(WritableMap deviceMap, AudioDeviceInfo device) {
+        CaptureConfig config = CalibrationProfile.load(reactContext, deviceKey(device)).capture;
+        if (config != null) {
+            deviceMap.putMap("captureConfig", captureConfigToMap(config));
+        }
+    }
+
+    /**
+     * The input AudioDeviceInfo of a USB device, matched by product name
+     */
+    private AudioDeviceInfo findUsbInputDevice(String name, String productName) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return null;
+        }
+        for (AudioDeviceInfo input : audioManager.getDevices(AudioManager.GET_DEVICES_INPUTS)) {
+            int type = input.getType();
+            if (type != AudioDeviceInfo.TYPE_USB_DEVICE && type != AudioDeviceInfo.TYPE_USB_HEADSET) {
+                continue;
+            }
+            CharSequence inputName = input.getProductName();
+            if (inputName != null && (inputName.toString().equals(productName) || inputName.toString().equals(name))) {
+                return input;
+            }
+        }
+        return null;
+    }
+
     @ReactMethod
     public void startDeviceScan(Promise promise) {
         if (isScanning) {
@@ -577,15 +658,283 @@ public class EnhancedAudioModule extends ReactContextBaseJavaModule {
     
     @ReactMethod
     public void startRecording(String filePath, Promise promise) {
-        if (isRecording) {
+        startCapture(failoverSource(selectedDevice), filePath, promise);
+    }
+    
+    /**
+     * Trial-open the candidate audio sources, sample rates and channel masks
+     * on a device (null = the selected one), measure their startup and read
+     * latency and cache the winner for startRecording and openSession.
+     * Takes a few seconds; a cached result is returned unless options.force.
+     */
+    @ReactMethod
+    public void negotiateCaptureConfig(String deviceId, ReadableMap options, final Promise promise) {
+        CapturePipeline previous = capturePipeline;
+        if ((previous != null && previous.getState() != CapturePipeline.STATE_FINALIZED) || session != null ||
+                isBiofeedbackRunning()) {
+            promise.reject(E_RECORDING_ERROR, "Cannot negotiate while recording");
+            return;
+        }
+        AudioDeviceInfo device = selectedDevice;
+        if (deviceId != null) {
+            device = findInputDevice(deviceId);
+            if (device == null) {
+                promise.reject("DEVICE_NOT_FOUND", "Could not find device with ID: " + deviceId);
+                return;
+            }
+        }
+        final CalibrationProfile profile = CalibrationProfile.load(reactContext, deviceKey(device));
+        boolean force = options != null && options.hasKey("force") && options.getBoolean("force");
+        if (profile.hasCaptureConfig() && !force) {
+            WritableMap result = Arguments.createMap();
+            result.putString("deviceKey", profile.deviceKey);
+            result.putMap("config", captureConfigToMap(profile.capture));
+            result.putBoolean("cached", true);
+            promise.resolve(result);
+            return;
+        }
+        if (negotiating) {
+            promise.reject(E_RECORDING_ERROR, "A negotiation is already running");
+            return;
+        }
+        negotiating = true;
+
+        final CaptureNegotiator negotiator = new CaptureNegotiator(audioManager, device);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    List<CaptureNegotiator.Trial> trials = negotiator.run();
+                    CaptureConfig winner = CaptureNegotiator.pick(trials);
+                    if (winner == null) {
+                        rejectAsync(promise, E_RECORDING_ERROR, "No capture configuration could be opened");
+                        return;
+                    }
+                    profile.capture = winner;
+                    profile.save(reactContext);
+                    Log.d(TAG, "Negotiated capture config for " + profile.deviceKey + ": " + winner);
+
+                    WritableMap result = Arguments.createMap();
+                    result.putString("deviceKey", profile.deviceKey);
+                    result.putMap("config", captureConfigToMap(winner));
+                    result.putBoolean("cached", false);
+                    WritableArray trialArray = Arguments.createArray();
+                    for (CaptureNegotiator.Trial trial : trials) {
+                        WritableMap map = captureConfigToMap(trial.config);
+                        if (!trial.succeeded()) {
+                            map.putString("error", trial.error);
+                        }
+                        trialArray.pushMap(map);
+                    }
+                    result.putArray("trials", trialArray);
+                    resolveAsync(promise, result);
+                } catch (Exception e) {
+                    Log.e(TAG, "Error negotiating capture config", e);
+                    rejectAsync(promise, E_RECORDING_ERROR, e.getMessage());
+                } finally {
+                    negotiating = false;
+                }
+            }
+        }, "CaptureNegotiator Thread").start();
+    }
+
+    @ReactMethod
+    public void clearCaptureConfig(Promise promise) {
+        try {
+            CalibrationProfile profile = CalibrationProfile.load(reactContext, currentDeviceKey());
+            profile.clearCaptureConfig(reactContext);
+            promise.resolve(calibrationToMap(profile));
+        } catch (Exception e) {
+            promise.reject(E_PROCESSING_ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * The negotiated configuration of a device, or the MIC/44.1 kHz default if none was negotiated yet
+     */
+    private CaptureConfig captureConfigFor(AudioDeviceInfo device) {
+        CaptureConfig config = CalibrationProfile.load(reactContext, deviceKey(device)).capture;
+        return config != null ? config : CaptureConfig.DEFAULT;
+    }
+
+    /**
+     * Input of a device that survives the device dropping out: a lost input
+     * is reopened, the same device if it is back (matched by deviceKey, as a
+     * reattached USB device gets a new id) or else another USB input, with
+     * the replacement's cached configuration if it runs at the same rate,
+     * and the time it was away is inserted as a gap
+     */
+    private FailoverCaptureSource failoverSource(final AudioDeviceInfo device) {
+        final CaptureConfig config = captureConfigFor(device);
+        final String key = deviceKey(device);
+        final FailoverCaptureSource source = new FailoverCaptureSource(new AudioRecordCaptureSource(config, device),
+                new FailoverCaptureSource.Reopener() {
+                    @Override
+                    public CaptureSource reopen(int attempt) {
+                        AudioDeviceInfo replacement = device != null ? findReplacementInput(key) : null;
+                        if (device != null && replacement == null) {
+                            return null;
+                        }
+                        CaptureConfig cached = captureConfigFor(replacement);
+                        Log.d(TAG, "Reopening input (attempt " + attempt + ") on " +
+                                (replacement != null ? deviceKey(replacement) + " id " + replacement.getId() : "default"));
+                        return new AudioRecordCaptureSource(cached.sampleRate == config.sampleRate ? cached : config,
+                                replacement);
+                    }
+                }, INPUT_LOSS_TIMEOUT_MS, INPUT_GIVE_UP_MS);
+        source.setListener(failoverListener);
+        return source;
+    }
+
+    /**
+     * An input with this deviceKey, else any USB input; null if none is attached
+     */
+    private AudioDeviceInfo findReplacementInput(String key) {
+        AudioDeviceInfo fallback = null;
+        for (AudioDeviceInfo input : audioManager.getDevices(AudioManager.GET_DEVICES_INPUTS)) {
+            if (deviceKey(input).equals(key)) {
+                return input;
+            }
+            int type = input.getType();
+            if (fallback == null && (type == AudioDeviceInfo.TYPE_USB_DEVICE || type == AudioDeviceInfo.TYPE_USB_HEADSET)) {
+                fallback = input;
+            }
+        }
+        return fallback;
+    }
+
+    // Tells the running capture its device is gone as soon as the audio stack knows, ahead of read errors
+    private final AudioDeviceCallback inputRemovalCallback = new AudioDeviceCallback() {
+        @Override
+        public void onAudioDevicesRemoved(AudioDeviceInfo[] removedDevices) {
+            FailoverCaptureSource failover = activeFailover;
+            AudioDeviceInfo device = failover != null ? inputDevice(failover) : null;
+            if (device == null) {
+                return;
+            }
+            for (AudioDeviceInfo removed : removedDevices) {
+                if (removed.getId() == device.getId()) {
+                    failover.signalLost("Device " + device.getId() + " was removed");
+                    return;
+                }
+            }
+        }
+    };
+
+    /**
+     * Device the input is currently read from, or null for the default input
+     */
+    private static AudioDeviceInfo inputDevice(FailoverCaptureSource failover) {
+        CaptureSource current = failover.getCurrent();
+        return current instanceof AudioRecordCaptureSource ?
+                ((AudioRecordCaptureSource) current).getPreferredDevice() : null;
+    }
+
+    private final FailoverCaptureSource.Listener failoverListener = new FailoverCaptureSource.Listener() {
+        @Override
+        public void onInputLost(FailoverCaptureSource source, final String reason) {
+            Log.w(TAG, "Input lost: " + reason);
+            reactContext.runOnUiQueueThread(new Runnable() {
+                @Override
+                public void run() {
+                    WritableMap params = Arguments.createMap();
+                    params.putString("reason", reason);
+                    sendDeviceEvent("onInputLost", params);
+                }
+            });
+        }
+
+        @Override
+        public void onInputRecovered(FailoverCaptureSource source, final CaptureGap gap) {
+            final int sampleRate = source.getSampleRate();
+            final AudioDeviceInfo device = inputDevice(source);
+            Log.w(TAG, "Input recovered after " + gap.recoveryMs + " ms; inserting " + gap.frames + " frames of silence");
+            reactContext.runOnUiQueueThread(new Runnable() {
+                @Override
+                public void run() {
+                    WritableMap params = gapToMap(gap, sampleRate);
+                    if (device != null) {
+                        params.putString("deviceId", String.valueOf(device.getId()));
+                    }
+                    sendDeviceEvent("onInputRecovered", params);
+                }
+            });
+        }
+    };
+
+    /**
+     * Start recording from two separate mono devices, merged into one stereo
+     * file (nasal device = left channel, oral device = right channel). The oral
+     * device is resampled onto the nasal device's clock to remove drift.
+     */
+    @ReactMethod
+    public void startDualRecording(String filePath, String nasalDeviceId, String oralDeviceId, Promise promise) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            promise.reject(E_RECORDING_ERROR, "Dual-device recording requires Android 7.0 or newer");
+            return;
+        }
+
+        AudioDeviceInfo nasalDevice = findInputDevice(nasalDeviceId);
+        AudioDeviceInfo oralDevice = findInputDevice(oralDeviceId);
+        if (nasalDevice == null || oralDevice == null) {
+            promise.reject("DEVICE_NOT_FOUND", "Could not find device with ID: " +
+                    (nasalDevice == null ? nasalDeviceId : oralDeviceId));
+            return;
+        }
+
+        startCapture(new DualSourceRecorder(nasalDevice, oralDevice, MediaRecorder.AudioSource.MIC, SAMPLE_RATE),
+                filePath, promise);
+    }
+
+    /**
+     * Run the capture pipeline on a recorded WAV file instead of a device, at
+     * speed x real time (0 = as fast as possible). Stop it with stopRecording.
+     * Used to reproduce field problems and to load-test the pipeline.
+     */
+    @ReactMethod
+    public void startReplayRecording(String sourceFilePath, String filePath, double speed, Promise promise) {
+        startCapture(new WavReplayCaptureSource(new File(normalizeFilePath(sourceFilePath)), speed), filePath, promise);
+    }
+
+    private AudioDeviceInfo findInputDevice(String deviceId) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return null;
+        }
+        for (AudioDeviceInfo device : audioManager.getDevices(AudioManager.GET_DEVICES_INPUTS)) {
+            if (String.valueOf(device.getId()).equals(deviceId)) {
+                return device;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Arm a capture on its own thread and resolve once the source is running.
+     * If the previous capture is still draining, the new thread waits for it
+     * to release the device first, so start right after stop never races it.
+     */
+    private void startCapture(final CaptureSource source, String filePath, final Promise promise) {
+        final CapturePipeline previous = capturePipeline;
+        if (previous != null && previous.isActive()) {
             promise.reject(E_RECORDING_ERROR, "Already recording");
             return;
         }
+        if (session != null) {
+            promise.reject(E_RECORDING_ERROR, "A recording session is open");
+            return;
+        }
+        if (isBiofeedbackRunning()) {
+            promise.reject(E_RECORDING_ERROR, "Biofeedback is running");
+            return;
+        }
+        if (negotiating) {
+            promise.reject(E_RECORDING_ERROR, "Capture negotiation in progress");
+            return;
+        }
         
         try {
             // Normalize the file path and ensure WAV extension
-            String normalizedPath = normalizeFilePath(filePath);
-            normalizedPath = ensureWavExtension(normalizedPath);
+            final String normalizedPath = ensureWavExtension(normalizeFilePath(filePath));
             
             Log.d(TAG, "Starting recording to: " + normalizedPath);
             
@@ -596,557 +945,2510 @@ public class EnhancedAudioModule extends ReactContextBaseJavaModule {
                 Log.d(TAG, "Created parent directories for recording");
             }
             
-            // Set up recording parameters
-            int sampleRate = SAMPLE_RATE;
-            int channelConfig = AudioFormat.CHANNEL_IN_STEREO;
-            int audioFormat = AudioFormat.ENCODING_PCM_16BIT;
-            
-            // Calculate buffer size
-            bufferSize = AudioRecord.getMinBufferSize(sampleRate, channelConfig, audioFormat);
-            if (bufferSize == AudioRecord.ERROR || bufferSize == AudioRecord.ERROR_BAD_VALUE) {
-                bufferSize = sampleRate * 2; // 2 bytes per short
-            }
-            
-            Log.d(TAG, "Starting recording with buffer size: " + bufferSize);
-            
-            audioRecord = new AudioRecord(
-                MediaRecorder.AudioSource.MIC,
-                sampleRate,
-                channelConfig,
-                audioFormat,
-                bufferSize * 10
-            );
-            
-            if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
-                audioRecord.release();
-                promise.reject(E_RECORDING_ERROR, "Failed to initialize AudioRecord");
-                return;
-            }
-            
-            recordingFilePath = normalizedPath;
-            isRecording = true;
+            final CapturePipeline pipeline = new CapturePipeline(source, outputFile, CAPTURE_BUFFER_MS);
+            pipeline.setListener(captureListener);
+            pipeline.setQualityListener(qualityListener);
+            capturePipeline = pipeline;
             
-            audioRecord.startRecording();
-            
-            recordingThread = new Thread(new Runnable() {
+            new Thread(new Runnable() {
                 @Override
                 public void run() {
-                    writeAudioDataToFile();
+                    try {
+                        if (previous != null && !previous.awaitFinalized(PREVIOUS_CAPTURE_TIMEOUT_MS)) {
+                            Log.w(TAG, "Previous recording is still releasing the device; starting anyway");
+                        }
+                        // Finalizes the pipeline itself if it fails
+                        pipeline.open();
+                        // Replayed files only know their rate once open
+                        progressSampleRate = source.getSampleRate();
+                        if (source instanceof FailoverCaptureSource) {
+                            activeFailover = (FailoverCaptureSource) source;
+                        }
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error starting recording", e);
+                        // A failed open never reaches onFinished, so settle a stop requested while arming here
+                        Promise stopPromise = stopPromises.remove(pipeline);
+                        if (stopPromise != null) {
+                            rejectAsync(stopPromise, E_RECORDING_ERROR, e.getMessage());
+                        }
+                        rejectAsync(promise, E_RECORDING_ERROR, e.getMessage());
+                        return;
+                    }
+                    WritableMap result = Arguments.createMap();
+                    result.putString("path", normalizedPath);
+                    resolveAsync(promise, result);
+                    pipeline.run();
                 }
-            }, "AudioRecorder Thread");
-            
-            recordingThread.start();
-            
-            WritableMap result = Arguments.createMap();
-            result.putString("path", recordingFilePath);
-            promise.resolve(result);
+            }, "AudioRecorder Thread").start();
         } catch (Exception e) {
             Log.e(TAG, "Error starting recording", e);
-            isRecording = false;
-            if (audioRecord != null) {
-                audioRecord.release();
-                audioRecord = null;
-            }
             promise.reject(E_RECORDING_ERROR, e.getMessage());
         }
     }
     
-    private void writeAudioDataToFile() {
-        // Write audio data as WAV file
-        byte[] data = new byte[bufferSize];
-        ByteArrayOutputStream tempBuffer = new ByteArrayOutputStream();
-        int totalBytesRead = 0;
-        
-        try {
-            Log.d(TAG, "Recording to WAV file: " + recordingFilePath);
-            
-            // Record audio data to temporary buffer first to get total length
-            while (isRecording) {
-                int read = audioRecord.read(data, 0, bufferSize);
-                
-                if (read > 0) {
-                    tempBuffer.write(data, 0, read);
-                    totalBytesRead += read;
-                    
-                    // Log progress periodically
-                    if (totalBytesRead % (bufferSize * 100) == 0) {
-                        Log.d(TAG, "Recording progress: " + totalBytesRead + " bytes read");
+    // Written by the capture thread, read when the progress event is built on the UI queue thread
+    private volatile long progressFrames = 0;
+    private volatile int progressSampleRate = SAMPLE_RATE;
+    private volatile float progressNasalPeak = 0;
+    private volatile float progressOralPeak = 0;
+    private final AtomicBoolean progressPending = new AtomicBoolean(false);
+    
+    private final Runnable progressEmitter = new Runnable() {
+        @Override
+        public void run() {
+            progressPending.set(false);
+            WritableMap params = Arguments.createMap();
+            params.putDouble("durationMs", progressFrames * 1000.0 / progressSampleRate);
+            params.putDouble("nasalPeak", progressNasalPeak);
+            params.putDouble("oralPeak", progressOralPeak);
+            sendDeviceEvent("onRecordingProgress", params);
+        }
+    };
+    
+    // Issue bits raised on the capture thread, 8 bits per channel, and the take they belong to
+    private final AtomicInteger pendingQualityIssues = new AtomicInteger(0);
+    private volatile SignalQuality pendingQuality = null;
+
+    private final Runnable qualityEmitter = new Runnable() {
+        @Override
+        public void run() {
+            int pending = pendingQualityIssues.getAndSet(0);
+            SignalQuality quality = pendingQuality;
+            for (int channel = 0; channel < 4 && pending != 0; channel++) {
+                int issues = (pending >>> (8 * channel)) & 0xff;
+                for (int issue = 1; issue <= issues; issue <<= 1) {
+                    if ((issues & issue) == 0) {
+                        continue;
                     }
-                } else if (read == AudioRecord.ERROR_INVALID_OPERATION) {
-                    Log.e(TAG, "Error reading audio data: INVALID_OPERATION");
-                } else if (read == AudioRecord.ERROR_BAD_VALUE) {
-                    Log.e(TAG, "Error reading audio data: BAD_VALUE");
-                } else if (read == AudioRecord.ERROR) {
-                    Log.e(TAG, "Error reading audio data: ERROR");
+                    WritableMap params = Arguments.createMap();
+                    params.putInt("channel", channel);
+                    params.putString("issue", SignalQuality.issueName(issue));
+                    params.putDouble("timeMs", quality.getFrames() * 1000.0 / quality.getSampleRate());
+                    params.putDouble("clippedSamples", quality.getClippedSamples(channel));
+                    params.putDouble("dcOffset", quality.getDcOffset(channel));
+                    params.putInt("dropouts", quality.getDropouts(channel));
+                    sendDeviceEvent("onSignalQualityWarning", params);
                 }
             }
-            
-            Log.d(TAG, "Recording finished. Total bytes read: " + totalBytesRead);
-            
-            // Now write WAV file with header and audio data
-            byte[] audioData = tempBuffer.toByteArray();
-            FileOutputStream out = new FileOutputStream(recordingFilePath);
-            
-            // Write WAV header
-            writeWavHeader(out, STEREO_CHANNELS, SAMPLE_RATE, BITS_PER_SAMPLE, audioData.length);
-            
-            // Write audio data
-            out.write(audioData);
-            out.close();
-            
-            File outputFile = new File(recordingFilePath);
-            Log.d(TAG, "WAV file created successfully. Size: " + outputFile.length() + " bytes");
-            
-        } catch (Exception e) {
-            Log.e(TAG, "Error writing audio data: " + e.getMessage(), e);
         }
-    }
+    };
+
+    private final SignalQuality.Listener qualityListener = new SignalQuality.Listener() {
+        @Override
+        public void onQualityIssue(SignalQuality quality, int channel, int issue) {
+            if (channel >= 4) {
+                return;
+            }
+            // Like progress: the capture thread only flips bits, the event is built on the UI queue thread
+            pendingQuality = quality;
+            int bits = issue << (8 * channel);
+            int previous;
+            do {
+                previous = pendingQualityIssues.get();
+            } while (!pendingQualityIssues.compareAndSet(previous, previous | bits));
+            if (previous == 0) {
+                reactContext.runOnUiQueueThread(qualityEmitter);
+            }
+        }
+    };
+
+    private final CapturePipeline.Listener captureListener = new CapturePipeline.Listener() {
+        @Override
+        public void onProgress(long framesCaptured, float[] peaks) {
+            // Keep the capture thread allocation free: the event map is built on the UI queue thread
+            progressFrames = framesCaptured;
+            progressNasalPeak = peaks[NasalanceAnalyzer.NASAL_CHANNEL];
+            progressOralPeak = peaks.length > 1 ? peaks[NasalanceAnalyzer.ORAL_CHANNEL] : 0;
+            if (progressPending.compareAndSet(false, true)) {
+                reactContext.runOnUiQueueThread(progressEmitter);
+            }
+        }
+        
+        @Override
+        public void onFinished(CapturePipeline pipeline, Exception error) {
+            if (pipeline.getSource() == activeFailover) {
+                activeFailover = null;
+            }
+            Promise stopPromise = stopPromises.remove(pipeline);
+            if (error != null) {
+                Log.e(TAG, "Error writing audio data: " + error.getMessage(), error);
+                WritableMap params = Arguments.createMap();
+                params.putString("message", error.getMessage());
+                sendDeviceEvent("onRecordingError", params);
+                if (stopPromise != null) {
+                    rejectAsync(stopPromise, E_RECORDING_ERROR, error.getMessage());
+                }
+                return;
+            }
+            Log.d(TAG, "Recording finished. Captured " + pipeline.getFramesCaptured() + " frames at " +
+                    pipeline.getRealTimeFactor() + "x real time");
+            if (stopPromise != null) {
+                completeStop(pipeline, stopPromise);
+            }
+        }
+    };
     
+    /**
+     * Request the capture thread to stop. Returns at once; the promise
+     * resolves once the capture thread has released the device and finalized
+     * the file.
+     */
     @ReactMethod
     public void stopRecording(Promise promise) {
-        if (!isRecording) {
+        CapturePipeline pipeline = capturePipeline;
+        if (pipeline == null) {
             promise.reject(E_RECORDING_ERROR, "Not recording");
             return;
         }
-        
+        // Registered before the stop request so the capture thread always finds it
+        if (stopPromises.putIfAbsent(pipeline, promise) != null) {
+            promise.reject(E_RECORDING_ERROR, "Stop already pending");
+            return;
+        }
+        // Capture may have ended on its own meanwhile; settle here only if onFinished has not taken the promise
+        if (!pipeline.requestStop() && stopPromises.remove(pipeline, promise)) {
+            promise.reject(E_RECORDING_ERROR, "Not recording");
+        }
+    }
+
+    /**
+     * Verify and register a finalized recording; runs on its capture thread
+     */
+    private void completeStop(CapturePipeline pipeline, Promise promise) {
         try {
-            isRecording = false;
-            if (audioRecord != null) {
-                audioRecord.stop();
-                audioRecord.release();
-                audioRecord = null;
-            }
-            
-            // Wait for recording thread to complete
-            if (recordingThread != null) {
-                try {
-                    recordingThread.join(2000); // Wait up to 2 seconds for thread to finish
-                } catch (InterruptedException e) {
-                    Log.e(TAG, "Interrupted while waiting for recording thread to finish", e);
-                }
-                recordingThread = null;
-            }
-            
-            // Verify the file exists and has content
-            File recordingFile = new File(recordingFilePath);
+            File recordingFile = pipeline.getOutputFile();
+            String recordingFilePath = recordingFile.getAbsolutePath();
             if (!recordingFile.exists()) {
-                Log.e(TAG, "Recording file does not exist: " + recordingFilePath);
-                promise.reject(E_RECORDING_ERROR, "Recording file does not exist: " + recordingFilePath);
+                rejectAsync(promise, E_RECORDING_ERROR, "Recording file does not exist: " + recordingFilePath);
                 return;
             }
             
-            if (recordingFile.length() == 0) {
-                Log.e(TAG, "Recording file is empty: " + recordingFilePath);
-                promise.reject(E_RECORDING_ERROR, "Recording file is empty: " + recordingFilePath);
+            if (recordingFile.length() <= WavWriter.HEADER_SIZE) {
+                rejectAsync(promise, E_RECORDING_ERROR, "Recording file is empty: " + recordingFilePath);
                 return;
             }
             
             Log.d(TAG, "Recording stopped successfully. File size: " + recordingFile.length() + " bytes");
+            recordingStore.register(recordingFile, RecordingStore.KIND_STEREO);
             
             WritableMap result = Arguments.createMap();
             result.putString("path", recordingFilePath);
-            promise.resolve(result);
+            WavFile wav = WavFile.read(recordingFile);
+            result.putArray("markers", markersToArray(wav.markers, wav.sampleRate));
+            result.putMap("quality", qualityToMap(pipeline.getQuality()));
+            result.putArray("gaps", gapsToArray(pipeline.getGaps(), wav.sampleRate));
+            if (pipeline.getSource() instanceof FailoverCaptureSource) {
+                result.putBoolean("inputLost", ((FailoverCaptureSource) pipeline.getSource()).isLost());
+            }
+            if (pipeline.getSource() instanceof DualSourceRecorder) {
+                DualSourceRecorder dual = (DualSourceRecorder) pipeline.getSource();
+                result.putDouble("driftPpm", dual.getDriftPpm());
+                result.putDouble("missingFrames", dual.getMissingFrames());
+            }
+            resolveAsync(promise, result);
         } catch (Exception e) {
             Log.e(TAG, "Error stopping recording", e);
-            promise.reject(E_RECORDING_ERROR, e.getMessage());
+            rejectAsync(promise, E_RECORDING_ERROR, e.getMessage());
         }
     }
     
+    /**
+     * Start live biofeedback: the input is scored continuously against a
+     * target nasalance range and nothing is recorded, so memory stays
+     * constant however long the practice runs. Emits onBiofeedbackState when
+     * the state (silent, below, inRange, above) changes and onBiofeedbackLevel
+     * every levelIntervalMs.
+     *
+     * config: targetMin and targetMax (percent, required), hysteresis (how far
+     * outside the range the nasalance must go to leave it, default 2),
+     * windowMs (rolling window, default 20), releaseMs (silence before the
+     * state turns silent, default 150), levelIntervalMs (default 50),
+     * deviceId (default the selected device)
+     */
     @ReactMethod
-    public void splitStereoToMono(String stereoFilePath, final String leftFilePath, final String rightFilePath, final Promise promise) {
-        audioProcessingExecutor.execute(new Runnable() {
-            @Override
-            public void run() {
-                FileInputStream fis = null;
-                FileOutputStream leftOS = null;
-                FileOutputStream rightOS = null;
-                
-                try {
-                    // Normalize paths - just remove file:// prefix
-                    String normalizedStereoPath = normalizeFilePath(stereoFilePath);
-                    String normalizedLeftPath = normalizeFilePath(leftFilePath);
-                    String normalizedRightPath = normalizeFilePath(rightFilePath);
-                    
-                    // Always ensure WAV extension for output files
-                    normalizedLeftPath = ensureWavExtension(normalizedLeftPath);
-                    normalizedRightPath = ensureWavExtension(normalizedRightPath);
-                    
-                    Log.d(TAG, "Splitting stereo file: " + normalizedStereoPath);
-                    Log.d(TAG, "Output paths - Left: " + normalizedLeftPath + ", Right: " + normalizedRightPath);
-                    
-                    // Check input file
-                    File stereoFile = new File(normalizedStereoPath);
-                    if (!stereoFile.exists()) {
-                        String errMsg = "Stereo file does not exist: " + normalizedStereoPath;
-                        Log.e(TAG, errMsg);
-                        reactContext.runOnUiQueueThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                promise.reject(E_PROCESSING_ERROR, errMsg);
-                            }
-                        });
-                        return;
-                    }
-                    
-                    // Create directories for output files
-                    File leftFile = new File(normalizedLeftPath);
-                    File rightFile = new File(normalizedRightPath);
-                    leftFile.getParentFile().mkdirs();
-                    rightFile.getParentFile().mkdirs();
-                    
-                    // Read WAV file header
-                    fis = new FileInputStream(stereoFile);
-                    byte[] header = new byte[44]; // Standard WAV header
-                    fis.read(header);
-                    
-                    // Verify WAV format
-                    if (!new String(header, 0, 4).equals("RIFF") || 
-                        !new String(header, 8, 4).equals("WAVE")) {
-                        fis.close();
-                        String errMsg = "Input is not a valid WAV file: " + normalizedStereoPath;
-                        Log.e(TAG, errMsg);
-                        reactContext.runOnUiQueueThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                promise.reject(E_PROCESSING_ERROR, errMsg);
-                            }
-                        });
-                        return;
-                    }
+    public void startBiofeedback(ReadableMap config, final Promise promise) {
+        CapturePipeline previous = capturePipeline;
+        if ((previous != null && previous.getState() != CapturePipeline.STATE_FINALIZED) || session != null) {
+            promise.reject(E_RECORDING_ERROR, "Already recording");
+            return;
+        }
+        if (isBiofeedbackRunning()) {
+            promise.reject(E_RECORDING_ERROR, "Biofeedback is already running");
+            return;
+        }
+        if (negotiating) {
+            promise.reject(E_RECORDING_ERROR, "Capture negotiation in progress");
+            return;
+        }
+        if (config == null || !config.hasKey("targetMin") || !config.hasKey("targetMax")) {
+            promise.reject(E_RECORDING_ERROR, "targetMin and targetMax are required");
+            return;
+        }
+
+        AudioDeviceInfo device = selectedDevice;
+        if (config.hasKey("deviceId") && !config.isNull("deviceId")) {
+            device = findInputDevice(config.getString("deviceId"));
+            if (device == null) {
+                promise.reject("DEVICE_NOT_FOUND", "Could not find device with ID: " + config.getString("deviceId"));
+                return;
+            }
+        }
+
+        try {
+            CaptureSource source = failoverSource(device);
+            if (source.getChannelCount() != STEREO_CHANNELS) {
+                promise.reject(E_RECORDING_ERROR, "Biofeedback needs a stereo input");
+                return;
+            }
+            int sampleRate = source.getSampleRate();
+            final BiofeedbackMeter meter = new BiofeedbackMeter(sampleRate,
+                    (float) config.getDouble("targetMin"), (float) config.getDouble("targetMax"),
+                    config.hasKey("hysteresis") ? (float) config.getDouble("hysteresis") : BiofeedbackMeter.DEFAULT_HYSTERESIS,
+                    config.hasKey("windowMs") ? config.getInt("windowMs") : BiofeedbackMeter.DEFAULT_WINDOW_MS,
+                    config.hasKey("releaseMs") ? config.getInt("releaseMs") : BiofeedbackMeter.DEFAULT_RELEASE_MS);
+            meter.setFixedPoint(fixedPointDsp);
+            CalibrationProfile profile = CalibrationProfile.load(reactContext, deviceKey(device));
+            if (profile.hasAlignment() && profile.sampleRate == sampleRate) {
+                meter.setCorrector(new ChannelAligner.Corrector(profile.lagFrames, profile.crosstalk));
+            }
+            meter.setListener(biofeedbackStateListener);
+
+            // No take is ever started: every buffer goes to the meter as idle input
+            final CapturePipeline pipeline = new CapturePipeline(source, BIOFEEDBACK_BUFFER_MS);
+            pipeline.setIdleConsumer(meter);
+            pipeline.setProgressIntervalMs(config.hasKey("levelIntervalMs") ?
+                    config.getInt("levelIntervalMs") : DEFAULT_BIOFEEDBACK_LEVEL_INTERVAL_MS);
+            pipeline.setListener(biofeedbackListener);
+            biofeedbackMeter = meter;
+            biofeedbackPipeline = pipeline;
+            final CaptureSource armedSource = source;
+            final boolean aligned = profile.hasAlignment() && profile.sampleRate == sampleRate;
+
+            // The device is opened on the capture thread, not the bridge thread
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // Finalizes the pipeline itself if it fails
+                        pipeline.open();
+                        if (armedSource instanceof FailoverCaptureSource) {
+                            activeFailover = (FailoverCaptureSource) armedSource;
+                        }
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error starting biofeedback", e);
+                        // A failed open never reaches onFinished, so settle a stop requested while arming here
+                        Promise stopPromise = biofeedbackStopPromise.getAndSet(null);
+                        if (stopPromise != null) {
+                            rejectAsync(stopPromise, E_RECORDING_ERROR, e.getMessage());
+                        }
+                        rejectAsync(promise, E_RECORDING_ERROR, e.getMessage());
+                        return;
+                    }
+                    Log.d(TAG, "Started biofeedback, target " + meter.getTargetMin() + "-" + meter.getTargetMax() + "%");
+                    WritableMap result = Arguments.createMap();
+                    result.putInt("sampleRate", armedSource.getSampleRate());
+                    result.putInt("windowMs", meter.getWindowMs());
+                    result.putBoolean("aligned", aligned);
+                    resolveAsync(promise, result);
+                    pipeline.run();
+                }
+            }, "Biofeedback Thread").start();
+        } catch (Exception e) {
+            Log.e(TAG, "Error starting biofeedback", e);
+            promise.reject(E_RECORDING_ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * Stop biofeedback and release the device. Resolves once the capture
+     * thread has stopped, with a summary of the practice.
+     */
+    @ReactMethod
+    public void stopBiofeedback(Promise promise) {
+        CapturePipeline pipeline = biofeedbackPipeline;
+        if (pipeline == null) {
+            promise.reject(E_RECORDING_ERROR, "Biofeedback is not running");
+            return;
+        }
+        // Set before the stop request so the capture thread always finds it
+        if (!biofeedbackStopPromise.compareAndSet(null, promise)) {
+            promise.reject(E_RECORDING_ERROR, "Stop already pending");
+            return;
+        }
+        // Settle here only if the capture thread has not taken the promise already
+        if (!pipeline.requestStop() && biofeedbackStopPromise.compareAndSet(promise, null)) {
+            promise.reject(E_RECORDING_ERROR, "Biofeedback is not running");
+        }
+    }
+
+    private boolean isBiofeedbackRunning() {
+        CapturePipeline pipeline = biofeedbackPipeline;
+        return pipeline != null && pipeline.getState() != CapturePipeline.STATE_FINALIZED;
+    }
+
+    // Latest state change, written by the capture thread and read when the event is built on the UI queue thread
+    private volatile int biofeedbackState = BiofeedbackMeter.STATE_SILENT;
+    private volatile float biofeedbackStateNasalance = 0;
+    private volatile long biofeedbackStateFrame = 0;
+    private volatile long biofeedbackStateNanos = 0;
+    private final AtomicBoolean biofeedbackStatePending = new AtomicBoolean(false);
+    private final AtomicBoolean biofeedbackLevelPending = new AtomicBoolean(false);
+
+    private final Runnable biofeedbackStateEmitter = new Runnable() {
+        @Override
+        public void run() {
+            biofeedbackStatePending.set(false);
+            BiofeedbackMeter meter = biofeedbackMeter;
+            if (meter == null) {
+                return;
+            }
+            int state = biofeedbackState;
+            WritableMap params = Arguments.createMap();
+            params.putString("state", BiofeedbackMeter.stateName(state));
+            params.putBoolean("inRange", state == BiofeedbackMeter.STATE_IN_RANGE);
+            params.putDouble("nasalance", biofeedbackStateNasalance);
+            params.putDouble("timeMs", biofeedbackStateFrame * 1000.0 / meter.getSampleRate());
+            params.putInt("transitions", meter.getTransitions());
+            // Time from the end of the hop that changed state to this event being sent
+            params.putDouble("deliveryMs", (System.nanoTime() - biofeedbackStateNanos) / 1e6);
+            sendDeviceEvent("onBiofeedbackState", params);
+        }
+    };
+
+    private final Runnable biofeedbackLevelEmitter = new Runnable() {
+        @Override
+        public void run() {
+            biofeedbackLevelPending.set(false);
+            BiofeedbackMeter meter = biofeedbackMeter;
+            if (meter == null) {
+                return;
+            }
+            WritableMap params = Arguments.createMap();
+            params.putDouble("nasalance", meter.getNasalance());
+            params.putBoolean("voiced", meter.isVoiced());
+            params.putString("state", BiofeedbackMeter.stateName(meter.getState()));
+            params.putDouble("timeMs", meter.getFramesProcessed() * 1000.0 / meter.getSampleRate());
+            sendDeviceEvent("onBiofeedbackLevel", params);
+        }
+    };
+
+    private final BiofeedbackMeter.Listener biofeedbackStateListener = new BiofeedbackMeter.Listener() {
+        @Override
+        public void onStateChanged(BiofeedbackMeter meter, int state, int previous, float nasalance, long frame) {
+            // Changes closer together than one UI queue hop are sent once, with the latest state
+            biofeedbackStateNanos = System.nanoTime();
+            biofeedbackState = state;
+            biofeedbackStateNasalance = nasalance;
+            biofeedbackStateFrame = frame;
+            if (biofeedbackStatePending.compareAndSet(false, true)) {
+                reactContext.runOnUiQueueThread(biofeedbackStateEmitter);
+            }
+        }
+    };
+
+    private final CapturePipeline.Listener biofeedbackListener = new CapturePipeline.Listener() {
+        @Override
+        public void onProgress(long framesCaptured, float[] peaks) {
+            if (biofeedbackLevelPending.compareAndSet(false, true)) {
+                reactContext.runOnUiQueueThread(biofeedbackLevelEmitter);
+            }
+        }
+
+        @Override
+        public void onFinished(CapturePipeline pipeline, Exception error) {
+            if (pipeline.getSource() == activeFailover) {
+                activeFailover = null;
+            }
+            BiofeedbackMeter meter = biofeedbackMeter;
+            Promise stopPromise = biofeedbackStopPromise.getAndSet(null);
+            if (error != null) {
+                Log.e(TAG, "Biofeedback stopped: " + error.getMessage(), error);
+                WritableMap params = Arguments.createMap();
+                params.putString("message", error.getMessage());
+                sendDeviceEvent("onBiofeedbackError", params);
+                if (stopPromise != null) {
+                    rejectAsync(stopPromise, E_RECORDING_ERROR, error.getMessage());
+                }
+                return;
+            }
+            Log.d(TAG, "Biofeedback stopped after " + pipeline.getCapturedSeconds() + " s; longest block " +
+                    pipeline.getMaxBlockNanos() / 1e6 + " ms");
+            if (stopPromise != null) {
+                resolveAsync(stopPromise, biofeedbackSummary(meter, pipeline));
+            }
+        }
+    };
+
+    private static WritableMap biofeedbackSummary(BiofeedbackMeter meter, CapturePipeline pipeline) {
+        double voiced = meter.getVoicedSeconds();
+        double inRange = meter.getSecondsIn(BiofeedbackMeter.STATE_IN_RANGE);
+        WritableMap result = Arguments.createMap();
+        result.putDouble("duration", pipeline.getCapturedSeconds());
+        result.putDouble("voicedSeconds", voiced);
+        result.putDouble("inRangeSeconds", inRange);
+        result.putDouble("belowSeconds", meter.getSecondsIn(BiofeedbackMeter.STATE_BELOW));
+        result.putDouble("aboveSeconds", meter.getSecondsIn(BiofeedbackMeter.STATE_ABOVE));
+        result.putDouble("percentInRange", voiced > 0 ? inRange / voiced * 100.0 : 0);
+        result.putDouble("meanNasalance", meter.getMeanNasalance());
+        result.putInt("transitions", meter.getTransitions());
+        result.putDouble("maxBlockMs", pipeline.getMaxBlockNanos() / 1e6);
+        return result;
+    }
+
+    /**
+     * Open the input device for a series of takes. The device stays open until
+     * closeSession, so consecutive passages need no teardown. deviceId null
+     * uses the selected device.
+     *
+     * config: progressIntervalMs (default 100), subtractNoise (default false:
+     * subtract the room noise floor learned between takes, or the device's
+     * measured floor until enough room tone has been heard)
+     */
+    @ReactMethod
+    public void openSession(String deviceId, ReadableMap config, final Promise promise) {
+        CapturePipeline previous = capturePipeline;
+        if ((previous != null && previous.getState() != CapturePipeline.STATE_FINALIZED) || session != null) {
+            promise.reject(E_RECORDING_ERROR, "Already recording");
+            return;
+        }
+        if (isBiofeedbackRunning()) {
+            promise.reject(E_RECORDING_ERROR, "Biofeedback is running");
+            return;
+        }
+        if (negotiating) {
+            promise.reject(E_RECORDING_ERROR, "Capture negotiation in progress");
+            return;
+        }
+
+        AudioDeviceInfo device = selectedDevice;
+        if (deviceId != null) {
+            device = findInputDevice(deviceId);
+            if (device == null) {
+                promise.reject("DEVICE_NOT_FOUND", "Could not find device with ID: " + deviceId);
+                return;
+            }
+        }
+
+        try {
+            final CaptureSource source = failoverSource(device);
+            final CapturePipeline pipeline = new CapturePipeline(source, CAPTURE_BUFFER_MS);
+            progressSampleRate = source.getSampleRate();
+            pipeline.setQualityListener(qualityListener);
+            if (config != null && config.hasKey("progressIntervalMs")) {
+                pipeline.setProgressIntervalMs(config.getInt("progressIntervalMs"));
+            }
+
+            String deviceKey = deviceKey(device);
+            CalibrationProfile profile = CalibrationProfile.load(reactContext, deviceKey);
+            boolean aligned = profile.hasAlignment() && profile.sampleRate == source.getSampleRate();
+            boolean subtractNoise = config != null && config.hasKey("subtractNoise") && config.getBoolean("subtractNoise");
+            final RecordingSession newSession = new RecordingSession("session-" + (++sessionCounter),
+                    pipeline, deviceKey, aligned ? profile : null, subtractNoise);
+
+            pipeline.setListener(new CapturePipeline.Listener() {
+                @Override
+                public void onProgress(long framesCaptured, float[] peaks) {
+                    captureListener.onProgress(framesCaptured, peaks);
+                }
+
+                @Override
+                public void onFinished(CapturePipeline pipeline, Exception error) {
+                    captureListener.onFinished(pipeline, error);
+                    // Queued behind the analysis of the last take
+                    audioProcessingExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            finishSession(newSession);
+                        }
+                    });
+                }
+            });
+            // Claimed before arming so a second openSession is refused meanwhile
+            session = newSession;
+
+            // The device is opened on the capture thread, not the bridge thread
+            newSession.thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // Finalizes the pipeline itself if it fails
+                        pipeline.open();
+                        if (source instanceof FailoverCaptureSource) {
+                            activeFailover = (FailoverCaptureSource) source;
+                        }
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error opening recording session", e);
+                        if (session == newSession) {
+                            session = null;
+                        }
+                        // A failed open never reaches onFinished, so settle a close requested while arming here
+                        if (newSession.closePromise != null) {
+                            rejectAsync(newSession.closePromise, E_RECORDING_ERROR, e.getMessage());
+                        }
+                        rejectAsync(promise, E_RECORDING_ERROR, e.getMessage());
+                        return;
+                    }
+                    Log.d(TAG, "Opened recording session " + newSession.id);
+                    WritableMap result = Arguments.createMap();
+                    result.putString("sessionId", newSession.id);
+                    result.putInt("sampleRate", source.getSampleRate());
+                    resolveAsync(promise, result);
+                    pipeline.run();
+                }
+            }, "AudioRecorder Thread");
+            newSession.thread.start();
+        } catch (Exception e) {
+            Log.e(TAG, "Error opening recording session", e);
+            promise.reject(E_RECORDING_ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * Start recording the session's input into a new file from the next buffer on
+     */
+    @ReactMethod
+    public void startTake(String sessionId, String filePath, Promise promise) {
+        RecordingSession current = findSession(sessionId, promise);
+        if (current == null) {
+            return;
+        }
+        if (current.activeTake != null) {
+            promise.reject(E_RECORDING_ERROR, "A take is already in progress");
+            return;
+        }
+
+        try {
+            String normalizedPath = ensureWavExtension(normalizeFilePath(filePath));
+            File outputFile = new File(normalizedPath);
+            if (!outputFile.getParentFile().exists()) {
+                outputFile.getParentFile().mkdirs();
+            }
+
+            int sampleRate = current.pipeline.getSource().getSampleRate();
+            RecordingAnalysis analysis = new RecordingAnalysis(sampleRate);
+            analysis.setFixedPoint(fixedPointDsp);
+            if (current.alignment != null) {
+                analysis.setAlignment(current.alignment.sampleRate, current.alignment.lagFrames, current.alignment.crosstalk);
+            }
+            String noiseSource = null;
+            if (current.subtractNoise) {
+                // Room tone heard so far in this session, else the device's measured floor
+                NoiseProfile noise = current.noiseProfiler.getProfile();
+                noiseSource = NOISE_SOURCE_SESSION;
+                if (noise == null) {
+                    noise = CalibrationProfile.load(reactContext, current.deviceKey).noise;
+                    noiseSource = NOISE_SOURCE_DEVICE;
+                }
+                if (!analysis.setNoiseProfile(noise)) {
+                    noiseSource = null;
+                }
+            }
+            NasalanceAnalyzer analyzer = analysis.newAnalyzer();
+            analyzer.reserve((long) sampleRate * TAKE_RESERVE_SECONDS);
+
+            // The analyzer runs on its own thread; the capture thread only copies blocks to it
+            int channels = current.pipeline.getSource().getChannelCount();
+            int blockFrames = sampleRate * CAPTURE_BUFFER_MS / 1000;
+            BlockHandoff handoff = new BlockHandoff(analyzer, channels, blockFrames, TAKE_HANDOFF_MS / CAPTURE_BUFFER_MS);
+
+            CapturePipeline.Take take = new CapturePipeline.Take(outputFile);
+            take.addConsumer(handoff);
+            final RecordingSession.TakeRecord record = current.addTake(take, analysis, analyzer, handoff);
+            record.noiseSource = noiseSource;
+            final RecordingSession owner = current;
+            take.setListener(new CapturePipeline.TakeListener() {
+                @Override
+                public void onTakeFinished(CapturePipeline.Take take, Exception error) {
+                    onSessionTakeFinished(owner, record, error);
+                }
+            });
+            current.pipeline.startTake(take);
+            new Thread(handoff, "Take Analysis Thread").start();
+            current.activeTake = record;
+            Log.d(TAG, "Session " + current.id + " take " + record.index + " recording to: " + normalizedPath);
+
+            WritableMap result = Arguments.createMap();
+            result.putString("sessionId", current.id);
+            result.putInt("takeIndex", record.index);
+            result.putString("path", normalizedPath);
+            promise.resolve(result);
+        } catch (Exception e) {
+            Log.e(TAG, "Error starting take", e);
+            promise.reject(E_RECORDING_ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * End the current take. Resolves once its file is finalized; the analysis
+     * follows in the background and is delivered by onTakeAnalyzed and
+     * getTakeAnalysis.
+     */
+    @ReactMethod
+    public void stopTake(String sessionId, Promise promise) {
+        RecordingSession current = findSession(sessionId, promise);
+        if (current == null) {
+            return;
+        }
+        RecordingSession.TakeRecord record = current.activeTake;
+        if (record == null) {
+            promise.reject(E_RECORDING_ERROR, "No take in progress");
+            return;
+        }
+
+        current.activeTake = null;
+        boolean finished;
+        synchronized (record) {
+            finished = record.finished;
+            if (!finished) {
+                record.stopPromise = promise;
+            }
+        }
+        if (finished) {
+            // Capture already ended with an error
+            resolveTake(record, promise);
+            return;
+        }
+        current.pipeline.stopTake();
+    }
+
+    /**
+     * Analysis of a take of the open session; waits for it if it is still running
+     */
+    @ReactMethod
+    public void getTakeAnalysis(String sessionId, int takeIndex, Promise promise) {
+        RecordingSession current = findSession(sessionId, promise);
+        if (current == null) {
+            return;
+        }
+        RecordingSession.TakeRecord record = current.getTake(takeIndex);
+        if (record == null) {
+            promise.reject(E_PROCESSING_ERROR, "No take " + takeIndex + " in session " + sessionId);
+            return;
+        }
+        synchronized (record) {
+            if (!record.analyzed) {
+                record.analysisWaiters.add(promise);
+                return;
+            }
+        }
+        resolveTakeAnalysis(record, promise);
+    }
+
+    /**
+     * Stop any take in progress and release the device. Resolves once every
+     * take is analyzed, with the takes and their analyses.
+     */
+    @ReactMethod
+    public void closeSession(String sessionId, Promise promise) {
+        RecordingSession current = findSession(sessionId, promise);
+        if (current == null) {
+            return;
+        }
+        session = null;
+        current.activeTake = null;
+        current.closePromise = promise;
+        current.pipeline.requestStop();
+        Log.d(TAG, "Closing recording session " + current.id);
+    }
+
+    private RecordingSession findSession(String sessionId, Promise promise) {
+        RecordingSession current = session;
+        if (current == null || !current.id.equals(sessionId)) {
+            promise.reject(E_RECORDING_ERROR, "No open session with ID: " + sessionId);
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * Called on the capture thread once a take's file is closed
+     */
+    private void onSessionTakeFinished(final RecordingSession owner, final RecordingSession.TakeRecord record,
+                                       Exception error) {
+        Promise stopPromise;
+        synchronized (record) {
+            record.finished = true;
+            record.error = error;
+            stopPromise = record.stopPromise;
+            record.stopPromise = null;
+        }
+        if (stopPromise != null) {
+            resolveTake(record, stopPromise);
+        }
+        // No more blocks; the analysis thread drains what it has left and ends
+        record.handoff.finish();
+        audioProcessingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long span = processingStats.begin(STAGE_TAKE_FINISH);
+                try {
+                    analyzeSessionTake(owner, record);
+                } finally {
+                    processingStats.end(STAGE_TAKE_FINISH, span);
+                }
+            }
+        });
+    }
+
+    private void analyzeSessionTake(RecordingSession owner, RecordingSession.TakeRecord record) {
+        AnalysisSummary summary = null;
+        String analysisError = null;
+        File file = record.take.getOutputFile();
+        boolean drained = true;
+        try {
+            // At most TAKE_HANDOFF_MS of audio is still queued for the analyzer
+            record.handoff.awaitDone();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        if (record.handoff.getStalls() > 0) {
+            Log.w(TAG, "Take " + record.index + " analysis fell " + TAKE_HANDOFF_MS + " ms behind capture " +
+                    record.handoff.getStalls() + " times");
+        }
+        if (record.error != null) {
+            analysisError = "Take failed: " + record.error.getMessage();
+        } else if (!drained) {
+            analysisError = "Interrupted while analyzing take";
+        } else if (record.handoff.getError() != null) {
+            analysisError = "Failed to analyze take: " + record.handoff.getError().getMessage();
+        } else if (record.take.getFramesCaptured() == 0) {
+            analysisError = "Take is empty: " + file.getPath();
+        } else {
+            try {
+                recordingStore.register(file, RecordingStore.KIND_STEREO);
+                summary = AnalysisSummary.of(record.analyzer);
+                // Seed the cache so a later analyzeRecording of the file is a hit
+                WavFile wav = WavFile.read(file);
+                analysisCache.put(analysisCache.contentHash(wav), record.analysis.cacheParams(wav), summary);
+            } catch (Exception e) {
+                Log.e(TAG, "Error analyzing take: " + e.getMessage(), e);
+                if (summary == null) {
+                    analysisError = "Failed to analyze take: " + e.getMessage();
+                }
+            }
+        }
+
+        List<Promise> waiters;
+        synchronized (record) {
+            record.summary = summary;
+            record.analysisError = analysisError;
+            record.analyzed = true;
+            waiters = new ArrayList<Promise>(record.analysisWaiters);
+            record.analysisWaiters.clear();
+        }
+        for (Promise waiter : waiters) {
+            resolveTakeAnalysis(record, waiter);
+        }
+
+        WritableMap params = takeToMap(record);
+        params.putString("sessionId", owner.id);
+        if (summary != null) {
+            params.putMap("analysis", takeAnalysisToMap(record));
+        } else {
+            params.putString("error", analysisError);
+        }
+        sendDeviceEvent("onTakeAnalyzed", params);
+    }
+
+    /**
+     * Runs on the processing executor after the last take's analysis
+     */
+    private void finishSession(RecordingSession finished) {
+        Log.d(TAG, "Recording session " + finished.id + " closed after " + finished.pipeline.getCapturedSeconds() + " s");
+        if (finished.closePromise == null) {
+            // Capture ended on its own (device error); the session can no longer record
+            if (session == finished) {
+                session = null;
+            }
+            return;
+        }
+        WritableArray takes = Arguments.createArray();
+        NasalanceStats sessionStats = new NasalanceStats();
+        for (RecordingSession.TakeRecord record : finished.getTakes()) {
+            WritableMap take = takeToMap(record);
+            synchronized (record) {
+                if (record.summary != null) {
+                    sessionStats.merge(record.summary.stats);
+                    take.putMap("analysis", takeAnalysisToMap(record));
+                } else if (record.analysisError != null) {
+                    take.putString("error", record.analysisError);
+                }
+            }
+            takes.pushMap(take);
+        }
+        WritableMap result = Arguments.createMap();
+        result.putString("sessionId", finished.id);
+        result.putDouble("duration", finished.pipeline.getCapturedSeconds());
+        result.putArray("takes", takes);
+        // Distribution over every take, merged from the per-take accumulators
+        result.putMap("stats", statsToMap(sessionStats, DEFAULT_NASALANCE_THRESHOLD));
+        NoiseProfile roomNoise = finished.noiseProfiler.getProfile();
+        if (roomNoise != null) {
+            result.putMap("roomNoise", noiseToMap(roomNoise));
+        }
+        resolveAsync(finished.closePromise, result);
+    }
+
+    private void resolveTake(RecordingSession.TakeRecord record, Promise promise) {
+        File file = record.take.getOutputFile();
+        if (record.error != null) {
+            rejectAsync(promise, "Take failed: " + record.error.getMessage());
+        } else if (file.length() <= WavWriter.HEADER_SIZE) {
+            rejectAsync(promise, "Recording file is empty: " + file.getPath());
+        } else {
+            resolveAsync(promise, takeToMap(record));
+        }
+    }
+
+    private void resolveTakeAnalysis(RecordingSession.TakeRecord record, Promise promise) {
+        if (record.summary == null) {
+            rejectAsync(promise, record.analysisError);
+            return;
+        }
+        WritableMap result = takeAnalysisToMap(record);
+        result.putInt("takeIndex", record.index);
+        result.putString("path", record.take.getOutputFile().getAbsolutePath());
+        result.putDouble("duration", record.getDurationSeconds());
+        resolveAsync(promise, result);
+    }
+
+    private WritableMap takeAnalysisToMap(RecordingSession.TakeRecord record) {
+        WritableMap result = analysisToMap(record.summary);
+        result.putMap("noise", appliedNoiseToMap(record.analyzer.getNoiseProfile(), record.noiseSource));
+        return result;
+    }
+
+    private WritableMap takeToMap(RecordingSession.TakeRecord record) {
+        WritableMap map = Arguments.createMap();
+        map.putInt("takeIndex", record.index);
+        map.putString("path", record.take.getOutputFile().getAbsolutePath());
+        map.putDouble("duration", record.getDurationSeconds());
+        map.putArray("markers", markersToArray(record.take.getMarkers(), record.analyzer.getSampleRate()));
+        map.putArray("gaps", gapsToArray(record.take.getGaps(), record.analyzer.getSampleRate()));
+        if (record.take.getQuality() != null) {
+            map.putMap("quality", qualityToMap(record.take.getQuality()));
+        }
+        return map;
+    }
+
+    private static WritableMap qualityToMap(SignalQuality quality) {
+        WritableMap map = Arguments.createMap();
+        WritableArray channels = Arguments.createArray();
+        boolean ok = true;
+        double msPerFrame = 1000.0 / quality.getSampleRate();
+        for (int channel = 0; channel < quality.getChannelCount(); channel++) {
+            WritableMap stats = Arguments.createMap();
+            stats.putDouble("clippedSamples", quality.getClippedSamples(channel));
+            stats.putDouble("clippedPercent", quality.getFrames() > 0 ?
+                    quality.getClippedSamples(channel) * 100.0 / quality.getFrames() : 0);
+            stats.putDouble("dcOffset", quality.getDcOffset(channel));
+            stats.putDouble("peak", quality.getPeak(channel));
+            stats.putDouble("peakDb", 20.0 * Math.log10(Math.max(quality.getPeak(channel), 1e-7)));
+            stats.putDouble("snrDb", quality.getSnrDb(channel));
+            stats.putInt("dropouts", quality.getDropouts(channel));
+            stats.putDouble("dropoutMs", quality.getDropoutFrames(channel) * msPerFrame);
+            stats.putDouble("longestDropoutMs", quality.getLongestDropoutFrames(channel) * msPerFrame);
+            WritableArray issues = Arguments.createArray();
+            int raised = quality.getIssues(channel);
+            for (int issue = 1; issue <= raised; issue <<= 1) {
+                if ((raised & issue) != 0) {
+                    issues.pushString(SignalQuality.issueName(issue));
+                }
+            }
+            stats.putArray("issues", issues);
+            ok &= raised == 0;
+            channels.pushMap(stats);
+        }
+        map.putArray("channels", channels);
+        map.putBoolean("ok", ok);
+        return map;
+    }
+
+    /**
+     * Start a labelled segment (e.g. one stimulus sentence) in the recording
+     * or session take in progress. The marker is stamped on an exact frame by
+     * the capture thread and saved in the file as a WAV cue point; analysis
+     * then reports nasalance, RMS and voiced duration per segment.
+     */
+    @ReactMethod
+    public void markSegment(String label, Promise promise) {
+        RecordingSession current = session;
+        CapturePipeline pipeline = current != null ? current.pipeline : capturePipeline;
+        if (pipeline == null || !pipeline.isActive() || (current != null && current.activeTake == null)) {
+            promise.reject(E_RECORDING_ERROR, "Not recording");
+            return;
+        }
+        pipeline.markSegment(label);
+        WritableMap result = Arguments.createMap();
+        result.putString("label", label);
+        promise.resolve(result);
+    }
+
+    /**
+     * Upload a recording with the tus resumable protocol. If the file is the
+     * recording in progress, chunks are sent while it is still being captured
+     * and the promise resolves shortly after stopRecording. An upload of the
+     * same path that was interrupted earlier resumes where the server left off.
+     *
+     * options: endpoint (tus URL, required), headers and metadata (string maps),
+     * chunkSize (bytes, default 6 MB as Supabase Storage requires)
+     */
+    @ReactMethod
+    public void uploadRecording(String filePath, ReadableMap options, final Promise promise) {
+        try {
+            final String normalizedPath = normalizeFilePath(filePath);
+            if (!options.hasKey("endpoint")) {
+                promise.reject(E_PROCESSING_ERROR, "Upload endpoint is required");
+                return;
+            }
+            synchronized (uploads) {
+                if (uploads.containsKey(normalizedPath)) {
+                    promise.reject(E_PROCESSING_ERROR, "Already uploading: " + normalizedPath);
+                    return;
+                }
+            }
+
+            TusUploadTransport transport = new TusUploadTransport(options.getString("endpoint"));
+            if (options.hasKey("headers")) {
+                for (Map.Entry<String, Object> header : options.getMap("headers").toHashMap().entrySet()) {
+                    transport.setHeader(header.getKey(), String.valueOf(header.getValue()));
+                }
+            }
+            if (options.hasKey("metadata")) {
+                for (Map.Entry<String, Object> entry : options.getMap("metadata").toHashMap().entrySet()) {
+                    transport.setMetadata(entry.getKey(), String.valueOf(entry.getValue()));
+                }
+            }
+            int chunkSize = options.hasKey("chunkSize") ? options.getInt("chunkSize") : ChunkedUploader.DEFAULT_CHUNK_SIZE;
+
+            ChunkedUploader uploader = new ChunkedUploader(new File(normalizedPath), transport, chunkSize);
+            uploader.setListener(new ChunkedUploader.Listener() {
+                @Override
+                public void onProgress(ChunkedUploader uploader, long bytesUploaded) {
+                    WritableMap params = Arguments.createMap();
+                    params.putString("path", normalizedPath);
+                    params.putDouble("bytesUploaded", bytesUploaded);
+                    sendDeviceEvent("onUploadProgress", params);
+                }
+
+                @Override
+                public void onFinished(ChunkedUploader uploader, Exception error) {
+                    synchronized (uploads) {
+                        uploads.remove(normalizedPath);
+                    }
+                    if (error != null) {
+                        Log.e(TAG, "Upload failed: " + error.getMessage(), error);
+                        rejectAsync(promise, "Failed to upload recording: " + error.getMessage());
+                        return;
+                    }
+                    Log.d(TAG, "Uploaded " + uploader.getBytesUploaded() + " bytes to " + uploader.getUploadUrl());
+                    recordingStore.markUploaded(normalizedPath, uploader.getUploadUrl());
+                    WritableMap result = Arguments.createMap();
+                    result.putString("path", normalizedPath);
+                    result.putString("uploadUrl", uploader.getUploadUrl());
+                    result.putDouble("bytes", uploader.getBytesUploaded());
+                    result.putString("crc32c", uploader.getCrc32c());
+                    result.putString("sha256", uploader.getSha256());
+                    resolveAsync(promise, result);
+                }
+            });
+
+            CapturePipeline pipeline = capturePipeline;
+            boolean live = pipeline != null && pipeline.getOutputFile().getAbsolutePath().equals(
+                    new File(normalizedPath).getAbsolutePath());
+            if (live) {
+                // A new recording replaces whatever an older upload of this path sent
+                uploader.discardSavedState();
+                // Finishes the upload itself if the recording is already finalized
+                pipeline.setUploader(uploader);
+            } else if (new File(normalizedPath).exists()) {
+                uploader.finish();
+            } else {
+                promise.reject(E_PROCESSING_ERROR, "Recording file does not exist: " + normalizedPath);
+                return;
+            }
+
+            synchronized (uploads) {
+                uploads.put(normalizedPath, uploader);
+            }
+            new Thread(uploader, "Upload Thread").start();
+        } catch (Exception e) {
+            Log.e(TAG, "Error starting upload", e);
+            promise.reject(E_PROCESSING_ERROR, "Failed to start upload: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stop an upload in progress. Its promise rejects; calling uploadRecording
+     * again with the same path resumes it.
+     */
+    @ReactMethod
+    public void cancelUpload(String filePath, Promise promise) {
+        ChunkedUploader uploader;
+        synchronized (uploads) {
+            uploader = uploads.get(normalizeFilePath(filePath));
+        }
+        if (uploader != null) {
+            uploader.cancel();
+        }
+        promise.resolve(uploader != null);
+    }
+    
+    @ReactMethod
+    public void splitStereoToMono(String stereoFilePath, final String leftFilePath, final String rightFilePath, final Promise promise) {
+        final long queued = processingStats.beginAsync(STAGE_SPLIT_QUEUE, System.identityHashCode(promise));
+        audioProcessingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                processingStats.endAsync(STAGE_SPLIT_QUEUE, System.identityHashCode(promise), queued);
+                long job = processingStats.begin(STAGE_SPLIT);
+                DecodedAudioFile decoded = null;
+                try {
+                    // Normalize paths - just remove file:// prefix
+                    String normalizedStereoPath = normalizeFilePath(stereoFilePath);
+                    
+                    // Always ensure WAV extension for output files
+                    String normalizedLeftPath = ensureWavExtension(normalizeFilePath(leftFilePath));
+                    String normalizedRightPath = ensureWavExtension(normalizeFilePath(rightFilePath));
+                    
+                    Log.d(TAG, "Splitting stereo file: " + normalizedStereoPath);
+                    Log.d(TAG, "Output paths - Left: " + normalizedLeftPath + ", Right: " + normalizedRightPath);
+                    
+                    // Check input file
+                    File stereoFile = new File(normalizedStereoPath);
+                    long span = processingStats.begin(STAGE_SPLIT_OPEN);
+                    boolean exists = stereoFile.exists();
+                    processingStats.end(STAGE_SPLIT_OPEN, span);
+                    if (!exists) {
+                        rejectAsync(promise, "Stereo file does not exist: " + normalizedStereoPath);
+                        return;
+                    }
+                    
+                    // Create directories for output files
+                    File leftFile = new File(normalizedLeftPath);
+                    File rightFile = new File(normalizedRightPath);
+                    leftFile.getParentFile().mkdirs();
+                    rightFile.getParentFile().mkdirs();
+                    
+                    WavFile wav = null;
+                    span = processingStats.begin(STAGE_SPLIT_PARSE);
+                    try {
+                        wav = WavFile.read(stereoFile);
+                    } catch (IOException e) {
+                        // Compressed recordings, e.g. imported from other tools, are decoded as they are split
+                        try {
+                            decoded = decodeAudioFile(stereoFile);
+                        } catch (IOException decodeError) {
+                            rejectAsync(promise, "Input is not a valid WAV file or could not be decoded: " + normalizedStereoPath);
+                            return;
+                        }
+                    } finally {
+                        processingStats.end(STAGE_SPLIT_PARSE, span);
+                    }
+                    
+                    PcmBlockSource source = wav != null ? wav : decoded;
+                    if (source.getChannelCount() != 2) {
+                        rejectAsync(promise, "Not a stereo recording (channels: " + source.getChannelCount() + ")");
+                        return;
+                    }
+                    
+                    long framesSplit;
+                    span = processingStats.begin(STAGE_SPLIT_WRITE);
+                    try {
+                        framesSplit = wav != null ? StereoSplitter.split(wav, leftFile, rightFile) :
+                                StereoSplitter.split(decoded, leftFile, rightFile);
+                    } finally {
+                        processingStats.end(STAGE_SPLIT_WRITE, span);
+                    }
                     
-                    // Extract WAV parameters
-                    int channels = header[22] & 0xFF | (header[23] & 0xFF) << 8;
-                    int sampleRate = header[24] & 0xFF | 
-                                   (header[25] & 0xFF) << 8 | 
-                                   (header[26] & 0xFF) << 16 | 
-                                   (header[27] & 0xFF) << 24;
-                    int bitsPerSample = header[34] & 0xFF | (header[35] & 0xFF) << 8;
+                    Log.d(TAG, "Split completed successfully, processed " + framesSplit + " frames");
+                    Log.d(TAG, "Left file: " + leftFile.length() + " bytes, Right file: " + rightFile.length() + " bytes");
+                    span = processingStats.begin(STAGE_SPLIT_REGISTER);
+                    try {
+                        recordingStore.register(leftFile, RecordingStore.KIND_NASAL);
+                        recordingStore.register(rightFile, RecordingStore.KIND_ORAL);
+                    } finally {
+                        processingStats.end(STAGE_SPLIT_REGISTER, span);
+                    }
+                    
+                    // Return paths that match the actual file extensions created
+                    WritableMap result = Arguments.createMap();
+                    result.putString("leftPath", ensureWavExtension(leftFilePath));
+                    result.putString("rightPath", ensureWavExtension(rightFilePath));
+                    resolveAsync(promise, result);
+                } catch (final Exception e) {
+                    Log.e(TAG, "Error splitting stereo audio: " + e.getMessage(), e);
+                    rejectAsync(promise, "Failed to split stereo audio: " + e.getMessage());
+                } finally {
+                    if (decoded != null) {
+                        decoded.close();
+                    }
+                    processingStats.end(STAGE_SPLIT, job);
+                }
+            }
+        });
+    }
+    
+    @ReactMethod
+    public void startPlayback(String stereoFilePath, ReadableMap options, Promise promise) {
+        // Runs on the calling thread: queuing behind analysis jobs on the executor would blow the start budget
+        long startNanos = System.nanoTime();
+        try {
+            String normalizedPath = normalizeFilePath(stereoFilePath);
+            File file = new File(normalizedPath);
+            if (!file.exists()) {
+                promise.reject(E_PROCESSING_ERROR, "Audio file does not exist: " + normalizedPath);
+                return;
+            }
+            WavFile wav;
+            try {
+                wav = WavFile.read(file);
+            } catch (IOException e) {
+                promise.reject(E_PROCESSING_ERROR, "Input is not a valid WAV file: " + normalizedPath);
+                return;
+            }
+
+            PlaybackMixer mixer = PlaybackMixer.open(wav);
+            if (options != null) {
+                if (options.hasKey("nasal")) {
+                    applyChannelMix(mixer, NasalanceAnalyzer.NASAL_CHANNEL, options.getMap("nasal"));
+                }
+                if (options.hasKey("oral")) {
+                    applyChannelMix(mixer, NasalanceAnalyzer.ORAL_CHANNEL, options.getMap("oral"));
+                }
+            }
+            long startFrame = options != null && options.hasKey("positionMs") ?
+                    (long) (options.getDouble("positionMs") * wav.sampleRate / 1000) : 0;
+            boolean startPaused = options != null && options.hasKey("paused") && options.getBoolean("paused");
+            // Default to one event per contour window so the UI can index the contour directly
+            int positionIntervalMs = options != null && options.hasKey("positionIntervalMs") ?
+                    Math.max(MIN_POSITION_INTERVAL_MS, options.getInt("positionIntervalMs")) : NasalanceAnalyzer.DEFAULT_WINDOW_MS;
+
+            stopPlaybackInternal();
+            DualChannelPlayer player = new DualChannelPlayer(mixer, positionIntervalMs, playbackListener);
+            playbackSampleRate = wav.sampleRate;
+            player.start(startFrame, startPaused);
+            playbackPlayer = player;
+            double startupMs = (System.nanoTime() - startNanos) / 1e6;
+            Log.d(TAG, "Playback of " + normalizedPath + " started in " + startupMs + " ms");
+
+            WritableMap result = Arguments.createMap();
+            result.putString("path", stereoFilePath);
+            result.putInt("sampleRate", wav.sampleRate);
+            result.putDouble("durationMs", wav.getFrameCount() * 1000.0 / wav.sampleRate);
+            result.putDouble("positionMs", player.getPosition() * 1000.0 / wav.sampleRate);
+            result.putInt("contourWindowMs", NasalanceAnalyzer.DEFAULT_WINDOW_MS);
+            result.putDouble("startupMs", startupMs);
+            promise.resolve(result);
+        } catch (Exception e) {
+            Log.e(TAG, "Error starting playback", e);
+            promise.reject(E_PROCESSING_ERROR, e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void pausePlayback(Promise promise) {
+        DualChannelPlayer player = playbackPlayer;
+        if (player != null) {
+            player.pause();
+        }
+        promise.resolve(player != null);
+    }
+
+    @ReactMethod
+    public void resumePlayback(Promise promise) {
+        DualChannelPlayer player = playbackPlayer;
+        if (player != null) {
+            player.resume();
+        }
+        promise.resolve(player != null);
+    }
+
+    /**
+     * Sample-accurate seek; cheap enough to call on every scrub gesture update
+     */
+    @ReactMethod
+    public void seekPlayback(double positionMs, Promise promise) {
+        DualChannelPlayer player = playbackPlayer;
+        if (player == null) {
+            promise.reject(E_PROCESSING_ERROR, "No playback in progress");
+            return;
+        }
+        player.seek((long) (positionMs * playbackSampleRate / 1000));
+        promise.resolve(true);
+    }
+
+    /**
+     * Change gain, mute or solo of one channel ("nasal" or "oral") while playing
+     */
+    @ReactMethod
+    public void setPlaybackChannel(String channel, ReadableMap settings, Promise promise) {
+        DualChannelPlayer player = playbackPlayer;
+        if (player == null) {
+            promise.reject(E_PROCESSING_ERROR, "No playback in progress");
+            return;
+        }
+        int index = playbackChannel(channel);
+        if (index < 0) {
+            promise.reject(E_PROCESSING_ERROR, "Unknown channel: " + channel);
+            return;
+        }
+        applyChannelMix(player.getMixer(), index, settings);
+        promise.resolve(playbackStateToMap(player));
+    }
+
+    @ReactMethod
+    public void getPlaybackState(Promise promise) {
+        DualChannelPlayer player = playbackPlayer;
+        promise.resolve(player != null ? playbackStateToMap(player) : null);
+    }
+
+    @ReactMethod
+    public void stopPlayback(Promise promise) {
+        promise.resolve(stopPlaybackInternal());
+    }
+
+    private boolean stopPlaybackInternal() {
+        DualChannelPlayer player = playbackPlayer;
+        playbackPlayer = null;
+        if (player == null) {
+            return false;
+        }
+        player.release();
+        return true;
+    }
+
+    private static int playbackChannel(String name) {
+        if ("nasal".equals(name)) return NasalanceAnalyzer.NASAL_CHANNEL;
+        if ("oral".equals(name)) return NasalanceAnalyzer.ORAL_CHANNEL;
+        return -1;
+    }
+
+    private static void applyChannelMix(PlaybackMixer mixer, int channel, ReadableMap settings) {
+        if (settings == null) {
+            return;
+        }
+        if (settings.hasKey("gain")) {
+            mixer.setGain(channel, (float) settings.getDouble("gain"));
+        }
+        if (settings.hasKey("mute")) {
+            mixer.setMute(channel, settings.getBoolean("mute"));
+        }
+        if (settings.hasKey("solo")) {
+            mixer.setSolo(channel, settings.getBoolean("solo"));
+        }
+    }
+
+    private WritableMap playbackStateToMap(DualChannelPlayer player) {
+        PlaybackMixer mixer = player.getMixer();
+        WritableMap map = Arguments.createMap();
+        map.putDouble("positionMs", player.getPosition() * 1000.0 / mixer.getSampleRate());
+        map.putDouble("durationMs", mixer.getFrameCount() * 1000.0 / mixer.getSampleRate());
+        map.putBoolean("paused", player.isPaused());
+        String[] names = {"nasal", "oral"};
+        int[] channels = {NasalanceAnalyzer.NASAL_CHANNEL, NasalanceAnalyzer.ORAL_CHANNEL};
+        for (int i = 0; i < names.length; i++) {
+            WritableMap channel = Arguments.createMap();
+            channel.putDouble("gain", mixer.getGain(channels[i]));
+            channel.putBoolean("mute", mixer.isMuted(channels[i]));
+            channel.putBoolean("solo", mixer.isSoloed(channels[i]));
+            map.putMap(names[i], channel);
+        }
+        return map;
+    }
+
+    // Written by the player thread, read when the position event is built on the UI queue thread
+    private volatile long playbackFrame = 0;
+    private volatile float playbackNasalPeak = 0;
+    private volatile float playbackOralPeak = 0;
+    private final AtomicBoolean playbackPositionPending = new AtomicBoolean(false);
+
+    private final Runnable playbackPositionEmitter = new Runnable() {
+        @Override
+        public void run() {
+            playbackPositionPending.set(false);
+            long frame = playbackFrame;
+            WritableMap params = Arguments.createMap();
+            params.putDouble("positionMs", frame * 1000.0 / playbackSampleRate);
+            params.putDouble("frame", frame);
+            params.putInt("contourIndex", (int) (frame * 1000 / ((long) playbackSampleRate * NasalanceAnalyzer.DEFAULT_WINDOW_MS)));
+            params.putDouble("nasalPeak", playbackNasalPeak);
+            params.putDouble("oralPeak", playbackOralPeak);
+            sendDeviceEvent("onPlaybackPosition", params);
+        }
+    };
+
+    private final DualChannelPlayer.Listener playbackListener = new DualChannelPlayer.Listener() {
+        @Override
+        public void onPosition(DualChannelPlayer player, long frame, float nasalPeak, float oralPeak) {
+            playbackFrame = frame;
+            playbackNasalPeak = nasalPeak;
+            playbackOralPeak = oralPeak;
+            if (playbackPositionPending.compareAndSet(false, true)) {
+                reactContext.runOnUiQueueThread(playbackPositionEmitter);
+            }
+        }
+
+        @Override
+        public void onFinished(DualChannelPlayer player, Exception error) {
+            if (playbackPlayer == player) {
+                playbackPlayer = null;
+            }
+            WritableMap params = Arguments.createMap();
+            if (error != null) {
+                Log.e(TAG, "Playback failed: " + error.getMessage(), error);
+                params.putString("message", error.getMessage());
+                sendDeviceEvent("onPlaybackError", params);
+                return;
+            }
+            params.putDouble("positionMs", player.getPosition() * 1000.0 / player.getMixer().getSampleRate());
+            sendDeviceEvent("onPlaybackEnded", params);
+        }
+    };
+    
+    @ReactMethod
+    public void calculateRms(String audioFilePath, final Promise promise) {
+        final boolean fixedPoint = fixedPointDsp;
+        final long queued = processingStats.beginAsync(STAGE_RMS_QUEUE, System.identityHashCode(promise));
+        audioProcessingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                processingStats.endAsync(STAGE_RMS_QUEUE, System.identityHashCode(promise), queued);
+                long job = processingStats.begin(STAGE_RMS);
+                DecodedAudioFile decoded = null;
+                try {
+                    // Normalize the file path
+                    final String normalizedPath = normalizeFilePath(audioFilePath);
+                    Log.d(TAG, "Calculating RMS for: " + normalizedPath);
                     
-                    if (channels != 2) {
-                        fis.close();
-                        String errMsg = "Not a stereo WAV file (channels: " + channels + ")";
-                        Log.e(TAG, errMsg);
-                        reactContext.runOnUiQueueThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                promise.reject(E_PROCESSING_ERROR, errMsg);
-                            }
-                        });
+                    // First verify the file exists
+                    File audioFile = new File(normalizedPath);
+                    long span = processingStats.begin(STAGE_RMS_OPEN);
+                    boolean exists = audioFile.exists();
+                    long length = exists ? audioFile.length() : 0;
+                    processingStats.end(STAGE_RMS_OPEN, span);
+                    if (!exists) {
+                        rejectAsync(promise, "Audio file does not exist: " + normalizedPath);
                         return;
                     }
                     
-                    // Skip to the data chunk
-                    boolean foundData = false;
-                    int dataSize = 0;
-                    byte[] chunkHeader = new byte[8];
-                    
-                    // Reset to beginning of file
-                    fis.close();
-                    fis = new FileInputStream(stereoFile);
-                    fis.skip(12); // Skip "RIFF", size, and "WAVE"
-                    
-                    while (!foundData) {
-                        if (fis.read(chunkHeader) < 8) break;
-                        
-                        String id = new String(chunkHeader, 0, 4);
-                        int size = chunkHeader[4] & 0xFF | 
-                                 (chunkHeader[5] & 0xFF) << 8 | 
-                                 (chunkHeader[6] & 0xFF) << 16 | 
-                                 (chunkHeader[7] & 0xFF) << 24;
-                        
-                        if (id.equals("data")) {
-                            foundData = true;
-                            dataSize = size;
-                        } else {
-                            // Skip this chunk
-                            fis.skip(size);
-                        }
-                    }
-                    
-                    if (!foundData) {
-                        fis.close();
-                        String errMsg = "No data chunk found in WAV file";
-                        Log.e(TAG, errMsg);
-                        reactContext.runOnUiQueueThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                promise.reject(E_PROCESSING_ERROR, errMsg);
-                            }
-                        });
+                    if (length == 0) {
+                        rejectAsync(promise, "Audio file is empty: " + normalizedPath);
                         return;
                     }
                     
-                    // Create output files
-                    leftOS = new FileOutputStream(leftFile);
-                    rightOS = new FileOutputStream(rightFile);
-                    
-                    // Write WAV headers for mono files
-                    writeWavHeader(leftOS, 1, sampleRate, bitsPerSample, dataSize / 2);
-                    writeWavHeader(rightOS, 1, sampleRate, bitsPerSample, dataSize / 2);
-                    
-                    // Split stereo data into two mono channels
-                    int bytesPerSample = bitsPerSample / 8;
-                    byte[] buffer = new byte[bytesPerSample * 2]; // One stereo frame
-                    int framesRead = 0;
-                    int bytesRead;
-                    
-                    while ((bytesRead = fis.read(buffer)) == buffer.length) {
-                        // Write left channel
-                        leftOS.write(buffer, 0, bytesPerSample);
-                        
-                        // Write right channel
-                        rightOS.write(buffer, bytesPerSample, bytesPerSample);
+                    WavFile wav = null;
+                    span = processingStats.begin(STAGE_RMS_PARSE);
+                    try {
+                        wav = WavFile.read(audioFile);
+                    } catch (IOException e) {
+                        decoded = decodeAudioFile(audioFile);
+                    } finally {
+                        processingStats.end(STAGE_RMS_PARSE, span);
+                    }
+                    recordingStore.touch(normalizedPath);
+                    PcmBlockSource source = wav != null ? wav : decoded;
+                    if (wav != null) {
+                        Log.d(TAG, "WAV file properties - Channels: " + wav.channels + 
+                                ", Bits Per Sample: " + wav.bitsPerSample);
                         
-                        framesRead++;
+                        // Skip other bit depths for simplicity
+                        if (wav.bitsPerSample != 16) {
+                            rejectAsync(promise, "Unsupported bit depth: " + wav.bitsPerSample);
+                            return;
+                        }
                     }
                     
-                    // Close all streams
-                    fis.close();
-                    leftOS.close();
-                    rightOS.close();
-                    
-                    Log.d(TAG, "Split completed successfully, processed " + framesRead + " frames");
-                    Log.d(TAG, "Left file: " + leftFile.length() + " bytes, Right file: " + rightFile.length() + " bytes");
-                    
-                    // Return paths that match the actual file extensions created
-                    String outputLeftPath = ensureWavExtension(leftFilePath);
-                    String outputRightPath = ensureWavExtension(rightFilePath);
-                    
-                    reactContext.runOnUiQueueThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            WritableMap result = Arguments.createMap();
-                            result.putString("leftPath", outputLeftPath);
-                            result.putString("rightPath", outputRightPath);
-                            promise.resolve(result);
+                    String contentHash;
+                    span = processingStats.begin(STAGE_RMS_HASH);
+                    try {
+                        contentHash = wav != null ? analysisCache.contentHash(wav) : analysisCache.contentHash(audioFile);
+                    } finally {
+                        processingStats.end(STAGE_RMS_HASH, span);
+                    }
+                    String params = fixedPoint ? RMS_FIXED_CACHE_PARAMS : RMS_CACHE_PARAMS;
+                    AnalysisSummary summary = analysisCache.get(contentHash, params);
+                    if (summary == null) {
+                        RmsMeter meter = new RmsMeter(source.getChannelCount(), fixedPoint);
+                        span = processingStats.begin(STAGE_RMS_COMPUTE);
+                        try {
+                            source.readBlocks(4096, meter);
+                        } finally {
+                            processingStats.end(STAGE_RMS_COMPUTE, span);
                         }
-                    });
+                        if (meter.getSamplesProcessed() == 0) {
+                            rejectAsync(promise, "No valid samples found for RMS calculation");
+                            return;
+                        }
+                        summary = AnalysisSummary.ofRms(meter.getRms(), meter.getPeak());
+                        analysisCache.put(contentHash, params, summary);
+                        Log.d(TAG, "Calculated RMS: " + summary.rms[0] + " from " + meter.getSamplesProcessed() + " samples");
+                    }
                     
+                    resolveAsync(promise, summary.rms[0]);
                 } catch (final Exception e) {
-                    Log.e(TAG, "Error splitting stereo audio: " + e.getMessage(), e);
-                    reactContext.runOnUiQueueThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            promise.reject(E_PROCESSING_ERROR, "Failed to split stereo audio: " + e.getMessage());
-                        }
-                    });
+                    Log.e(TAG, "Error calculating RMS: " + e.getMessage(), e);
+                    rejectAsync(promise, "Failed to calculate RMS: " + e.getMessage());
                 } finally {
+                    if (decoded != null) {
+                        decoded.close();
+                    }
+                    processingStats.end(STAGE_RMS, job);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Analyze a stereo recording in a single pass: per-channel RMS, nasalance,
+     * windowed nasalance contour and its distribution, long-term average
+     * spectra and band nasalance. Files that are not WAV are decoded on the
+     * fly, with no decoded copy written.
+     *
+     * options: threshold (nasalance percent for percentAbove, default 50),
+     * subtractNoise (subtract the device's measured room noise floor, default false),
+     * fixedPoint (integer-only scoring, default as set by setFixedPointDsp)
+     */
+    @ReactMethod
+    public void analyzeRecording(String stereoFilePath, ReadableMap options, final Promise promise) {
+        final double threshold = options != null && options.hasKey("threshold") ?
+                options.getDouble("threshold") : DEFAULT_NASALANCE_THRESHOLD;
+        final boolean subtractNoise = options != null && options.hasKey("subtractNoise") &&
+                options.getBoolean("subtractNoise");
+        final boolean spectrogram = options == null || !options.hasKey("spectrogram") ||
+                options.getBoolean("spectrogram");
+        final boolean fixedPoint = options != null && options.hasKey("fixedPoint") ?
+                options.getBoolean("fixedPoint") : fixedPointDsp;
+        final long queued = processingStats.beginAsync(STAGE_ANALYZE_QUEUE, System.identityHashCode(promise));
+        audioProcessingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                processingStats.endAsync(STAGE_ANALYZE_QUEUE, System.identityHashCode(promise), queued);
+                long job = processingStats.begin(STAGE_ANALYZE);
+                DecodedAudioFile decoded = null;
+                try {
+                    final String normalizedPath = normalizeFilePath(stereoFilePath);
+                    File stereoFile = new File(normalizedPath);
+                    long span = processingStats.begin(STAGE_ANALYZE_OPEN);
+                    boolean exists = stereoFile.exists();
+                    processingStats.end(STAGE_ANALYZE_OPEN, span);
+                    if (!exists) {
+                        rejectAsync(promise, "Stereo file does not exist: " + normalizedPath);
+                        return;
+                    }
+
+                    WavFile wav = null;
+                    span = processingStats.begin(STAGE_ANALYZE_PARSE);
                     try {
-                        if (fis != null) fis.close();
-                        if (leftOS != null) leftOS.close();
-                        if (rightOS != null) rightOS.close();
+                        wav = WavFile.read(stereoFile);
                     } catch (IOException e) {
-                        Log.e(TAG, "Error closing streams", e);
+                        decoded = decodeAudioFile(stereoFile);
+                    } finally {
+                        processingStats.end(STAGE_ANALYZE_PARSE, span);
+                    }
+                    recordingStore.touch(normalizedPath);
+                    PcmBlockSource source = wav != null ? wav : decoded;
+                    if (source.getChannelCount() != 2) {
+                        rejectAsync(promise, "Not a stereo recording (channels: " + source.getChannelCount() + ")");
+                        return;
+                    }
+                    span = processingStats.begin(STAGE_ANALYZE_PROFILE);
+                    CalibrationProfile profile = CalibrationProfile.load(reactContext, currentDeviceKey());
+                    processingStats.end(STAGE_ANALYZE_PROFILE, span);
+                    RecordingAnalysis analysis = new RecordingAnalysis(source.getSampleRate());
+                    analysis.setFixedPoint(fixedPoint);
+                    if (profile.hasAlignment()) {
+                        analysis.setAlignment(profile.sampleRate, profile.lagFrames, profile.crosstalk);
+                    }
+                    if (subtractNoise) {
+                        analysis.setNoiseProfile(profile.noise);
+                    }
+
+                    long startTime = System.nanoTime();
+                    String params = analysis.cacheParams(source);
+                    String contentHash;
+                    span = processingStats.begin(STAGE_ANALYZE_HASH);
+                    try {
+                        contentHash = wav != null ? analysisCache.contentHash(wav) : analysisCache.contentHash(stereoFile);
+                    } finally {
+                        processingStats.end(STAGE_ANALYZE_HASH, span);
+                    }
+                    File tilesFile = SpectrogramTiles.sidecarFile(stereoFile);
+                    boolean writeTiles = spectrogram && !SpectrogramTiles.isCurrent(tilesFile, contentHash);
+                    AnalysisSummary summary = analysisCache.get(contentHash, params);
+                    boolean cached = summary != null;
+                    if (!cached) {
+                        // Tiles come out of the analysis's own FFT pass
+                        SpectrogramWriter writer = writeTiles ? new SpectrogramWriter(tilesFile, contentHash) : null;
+                        span = processingStats.begin(STAGE_ANALYZE_COMPUTE);
+                        try {
+                            summary = AnalysisSummary.of(analysis.analyze(source, writer));
+                        } finally {
+                            processingStats.end(STAGE_ANALYZE_COMPUTE, span);
+                        }
+                        analysisCache.put(contentHash, params, summary);
+                        if (writer != null) {
+                            span = processingStats.begin(STAGE_ANALYZE_SPECTROGRAM);
+                            try {
+                                writer.finish();
+                            } catch (IOException e) {
+                                Log.e(TAG, "Error writing spectrogram: " + e.getMessage(), e);
+                            } finally {
+                                processingStats.end(STAGE_ANALYZE_SPECTROGRAM, span);
+                            }
+                        }
+                    } else if (writeTiles) {
+                        span = processingStats.begin(STAGE_ANALYZE_SPECTROGRAM);
+                        try {
+                            SpectrogramWriter.write(source, contentHash, tilesFile);
+                        } catch (IOException e) {
+                            Log.e(TAG, "Error writing spectrogram: " + e.getMessage(), e);
+                        } finally {
+                            processingStats.end(STAGE_ANALYZE_SPECTROGRAM, span);
+                        }
+                    }
+                    double processingSeconds = (System.nanoTime() - startTime) / 1e9;
+                    double audioSeconds = wav != null ? wav.getDurationSeconds() : decoded.getDurationSeconds();
+
+                    Log.d(TAG, "Analyzed " + audioSeconds + " s of audio in " + processingSeconds + " s" +
+                            (cached ? " (cached)" : ""));
+
+                    span = processingStats.begin(STAGE_ANALYZE_RESULT);
+                    WritableMap result;
+                    try {
+                        result = analysisToMap(summary, threshold);
+                    } finally {
+                        processingStats.end(STAGE_ANALYZE_RESULT, span);
+                    }
+                    result.putBoolean("cached", cached);
+                    result.putBoolean("fixedPoint", fixedPoint);
+                    WritableMap alignment = Arguments.createMap();
+                    alignment.putBoolean("applied", analysis.isAligned());
+                    alignment.putInt("lagFrames", analysis.getLagFrames());
+                    alignment.putDouble("crosstalk", analysis.getCrosstalk());
+                    result.putMap("alignment", alignment);
+                    result.putMap("noise", appliedNoiseToMap(analysis.getNoiseProfile(), NOISE_SOURCE_DEVICE));
+                    if (spectrogram && SpectrogramTiles.isCurrent(tilesFile, contentHash)) {
+                        SpectrogramTiles tiles = SpectrogramTiles.open(tilesFile);
+                        try {
+                            result.putMap("spectrogram", spectrogramInfoToMap(tiles));
+                        } finally {
+                            tiles.close();
+                        }
+                    }
+                    result.putDouble("duration", audioSeconds);
+                    result.putDouble("processingMs", processingSeconds * 1000.0);
+                    // How many seconds of audio one core analyzes per second
+                    result.putDouble("realTimeFactor", processingSeconds > 0 ? audioSeconds / processingSeconds : 0);
+                    resolveAsync(promise, result);
+                } catch (final Exception e) {
+                    Log.e(TAG, "Error analyzing recording: " + e.getMessage(), e);
+                    rejectAsync(promise, "Failed to analyze recording: " + e.getMessage());
+                } finally {
+                    if (decoded != null) {
+                        decoded.close();
+                    }
+                    processingStats.end(STAGE_ANALYZE, job);
+                }
+            }
+        });
+    }
+
+    /**
+     * Compare two readings of the same passage, e.g. before and after
+     * surgery: their band levels are aligned by banded dynamic time warping
+     * and nasalance is compared along the aligned path, per marked segment
+     * of the reference (or per fixed region when it has no markers)
+     *
+     * options: bandSeconds (how far the readings may drift apart in time,
+     * default 3), regionSeconds (region length without markers, default 5)
+     */
+    @ReactMethod
+    public void compareRecordings(String referenceFilePath, String otherFilePath, ReadableMap options,
+                                  final Promise promise) {
+        final double bandSeconds = options != null && options.hasKey("bandSeconds") ?
+                options.getDouble("bandSeconds") : DEFAULT_COMPARE_BAND_SECONDS;
+        final double regionSeconds = options != null && options.hasKey("regionSeconds") ?
+                options.getDouble("regionSeconds") : DEFAULT_COMPARE_REGION_SECONDS;
+        final File referenceFile = new File(normalizeFilePath(referenceFilePath));
+        final File otherFile = new File(normalizeFilePath(otherFilePath));
+        audioProcessingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long job = processingStats.begin(STAGE_COMPARE);
+                try {
+                    if (!referenceFile.exists()) {
+                        rejectAsync(promise, "Reference file does not exist: " + referenceFile.getPath());
+                        return;
+                    }
+                    if (!otherFile.exists()) {
+                        rejectAsync(promise, "Comparison file does not exist: " + otherFile.getPath());
+                        return;
+                    }
+                    long startTime = System.nanoTime();
+                    PassageFeatures reference;
+                    PassageFeatures other;
+                    long span = processingStats.begin(STAGE_COMPARE_FEATURES);
+                    try {
+                        reference = passageFeatures(referenceFile);
+                        other = passageFeatures(otherFile);
+                    } finally {
+                        processingStats.end(STAGE_COMPARE_FEATURES, span);
+                    }
+
+                    PassageComparison comparison;
+                    double windowSeconds = reference.getWindowSeconds();
+                    span = processingStats.begin(STAGE_COMPARE_ALIGN);
+                    try {
+                        comparison = PassageComparison.compare(reference, other,
+                                (int) Math.ceil(bandSeconds / windowSeconds),
+                                (int) Math.max(1, Math.round(regionSeconds / windowSeconds)));
+                    } finally {
+                        processingStats.end(STAGE_COMPARE_ALIGN, span);
+                    }
+
+                    WritableArray regions = Arguments.createArray();
+                    for (PassageComparison.Region region : comparison.regions) {
+                        regions.pushMap(comparisonRegionToMap(region, windowSeconds, other.getWindowSeconds()));
+                    }
+                    // Window of the other reading first matched to each reference window
+                    WritableArray warp = Arguments.createArray();
+                    DtwAligner.Path path = comparison.path;
+                    for (int k = 0; k < path.length(); k++) {
+                        if (k == 0 || path.reference[k] != path.reference[k - 1]) {
+                            warp.pushInt(path.other[k]);
+                        }
+                    }
+
+                    WritableMap result = comparisonRegionToMap(comparison.overall, windowSeconds, other.getWindowSeconds());
+                    result.putInt("windowMs", reference.getWindowMs());
+                    result.putDouble("referenceDuration", reference.getWindowCount() * windowSeconds);
+                    result.putDouble("otherDuration", other.getWindowCount() * other.getWindowSeconds());
+                    result.putDouble("alignmentCost", path.getMeanCost());
+                    result.putArray("regions", regions);
+                    result.putArray("warp", warp);
+                    result.putDouble("processingMs", (System.nanoTime() - startTime) / 1e6);
+                    resolveAsync(promise, result);
+                } catch (Exception e) {
+                    Log.e(TAG, "Error comparing recordings: " + e.getMessage(), e);
+                    rejectAsync(promise, "Failed to compare recordings: " + e.getMessage());
+                } finally {
+                    processingStats.end(STAGE_COMPARE, job);
+                }
+            }
+        });
+    }
+
+    // Alignment features of a WAV or compressed stereo recording, with the WAV's segment markers
+    private static PassageFeatures passageFeatures(File file) throws IOException {
+        WavFile wav;
+        try {
+            wav = WavFile.read(file);
+        } catch (IOException e) {
+            DecodedAudioFile decoded = decodeAudioFile(file);
+            try {
+                if (decoded.getChannelCount() != 2) {
+                    throw new IOException("Not a stereo recording: " + file.getName());
+                }
+                PassageFeatures features = new PassageFeatures(decoded.getSampleRate());
+                decoded.readBlocks(4096, features);
+                return features;
+            } finally {
+                decoded.close();
+            }
+        }
+        if (wav.channels != 2) {
+            throw new IOException("Not a stereo recording: " + file.getName());
+        }
+        PassageFeatures features = new PassageFeatures(wav.sampleRate);
+        wav.readBlocks(4096, wav.markers, features);
+        return features;
+    }
+
+    private static WritableMap comparisonRegionToMap(PassageComparison.Region region, double referenceWindowSeconds,
+                                                     double otherWindowSeconds) {
+        WritableMap map = Arguments.createMap();
+        if (region.label != null) {
+            map.putString("label", region.label);
+        }
+        map.putDouble("start", region.referenceStart * referenceWindowSeconds);
+        map.putDouble("end", region.referenceEnd * referenceWindowSeconds);
+        if (region.otherStart >= 0) {
+            map.putDouble("otherStart", region.otherStart * otherWindowSeconds);
+            map.putDouble("otherEnd", region.otherEnd * otherWindowSeconds);
+        }
+        map.putDouble("referenceNasalance", region.referenceNasalance);
+        map.putDouble("otherNasalance", region.otherNasalance);
+        map.putDouble("delta", region.getDelta());
+        map.putInt("voicedPairs", region.voicedPairs);
+        return map;
+    }
+
+    /**
+     * Fetch spectrogram tiles of a recording at one zoom level. Tiles come
+     * from the sidecar written by analyzeRecording, so scrolling only reads
+     * the requested bytes; a missing or stale sidecar is built once first.
+     */
+    @ReactMethod
+    public void getSpectrogramTiles(String stereoFilePath, ReadableMap options, final Promise promise) {
+        final int level = options != null && options.hasKey("level") ? options.getInt("level") : 0;
+        final int firstTile = options != null && options.hasKey("firstTile") ? options.getInt("firstTile") : 0;
+        final int tileCount = options != null && options.hasKey("tileCount") ? options.getInt("tileCount") : 1;
+        final File stereoFile = new File(normalizeFilePath(stereoFilePath));
+        spectrogramExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long span = processingStats.begin(STAGE_TILES);
+                try {
+                    serveSpectrogramTiles(stereoFile, level, firstTile, tileCount, promise, true);
+                } finally {
+                    processingStats.end(STAGE_TILES, span);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs on the spectrogram executor, which owns openSpectrogram
+     */
+    private void serveSpectrogramTiles(final File stereoFile, final int level, final int firstTile,
+                                       final int tileCount, final Promise promise, boolean allowBuild) {
+        try {
+            if (!stereoFile.exists()) {
+                rejectAsync(promise, "Stereo file does not exist: " + stereoFile.getPath());
+                return;
+            }
+            SpectrogramTiles tiles = currentSpectrogram(stereoFile);
+            if (tiles == null) {
+                if (!allowBuild) {
+                    rejectAsync(promise, "Could not build the spectrogram of " + stereoFile.getPath());
+                    return;
+                }
+                // Built on the analysis executor so it never races analyzeRecording writing the same sidecar
+                audioProcessingExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            String contentHash = recordingContentHash(stereoFile);
+                            File tilesFile = SpectrogramTiles.sidecarFile(stereoFile);
+                            if (!SpectrogramTiles.isCurrent(tilesFile, contentHash)) {
+                                writeSpectrogram(stereoFile, contentHash, tilesFile);
+                            }
+                        } catch (Exception e) {
+                            Log.e(TAG, "Error building spectrogram: " + e.getMessage(), e);
+                            rejectAsync(promise, "Failed to build spectrogram: " + e.getMessage());
+                            return;
+                        }
+                        spectrogramExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serveSpectrogramTiles(stereoFile, level, firstTile, tileCount, promise, false);
+                            }
+                        });
+                    }
+                });
+                return;
+            }
+            if (level < 0 || level >= tiles.getLevelCount()) {
+                rejectAsync(promise, "No spectrogram level " + level);
+                return;
+            }
+
+            WritableMap result = spectrogramInfoToMap(tiles);
+            result.putInt("level", level);
+            result.putDouble("columnSeconds", tiles.getColumnSeconds(level));
+            result.putDouble("columnCount", tiles.getColumnCount(level));
+            result.putInt("tileCount", tiles.getTileCount(level));
+            WritableArray tileArray = Arguments.createArray();
+            int end = Math.min(tiles.getTileCount(level), firstTile + Math.max(0, tileCount));
+            for (int t = Math.max(0, firstTile); t < end; t++) {
+                byte[] bytes = tiles.readTile(level, t);
+                int half = bytes.length / 2;
+                WritableMap tile = Arguments.createMap();
+                tile.putInt("index", t);
+                tile.putDouble("startColumn", (double) t * tiles.tileColumns);
+                tile.putDouble("startSeconds", t * tiles.tileColumns * tiles.getColumnSeconds(level));
+                tile.putInt("columns", tiles.getTileColumnCount(level, t));
+                tile.putString("nasal", Base64.encodeToString(bytes, 0, half, Base64.NO_WRAP));
+                tile.putString("oral", Base64.encodeToString(bytes, half, half, Base64.NO_WRAP));
+                tileArray.pushMap(tile);
+            }
+            result.putArray("tiles", tileArray);
+            resolveAsync(promise, result);
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading spectrogram tiles: " + e.getMessage(), e);
+            rejectAsync(promise, "Failed to read spectrogram tiles: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Open a recording that is not a WAV file, e.g. an m4a or FLAC file
+     * imported from another tool, for decoding on the fly; the caller closes it
+     */
+    private static DecodedAudioFile decodeAudioFile(File file) throws IOException {
+        try {
+            DecodedAudioFile decoded = DecodedAudioFile.open(file);
+            Log.d(TAG, "Decoding " + decoded.mimeType + " (" + decoded.getSampleRate() + " Hz, " +
+                    decoded.getChannelCount() + " channels): " + file.getPath());
+            return decoded;
+        } catch (IOException e) {
+            throw new IOException("Not a WAV file and could not be decoded: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Cache key of a recording: the data chunk of a WAV file, or the whole
+     * file when it is compressed
+     */
+    private String recordingContentHash(File file) throws IOException {
+        WavFile wav;
+        try {
+            wav = WavFile.read(file);
+        } catch (IOException e) {
+            return analysisCache.contentHash(file);
+        }
+        return analysisCache.contentHash(wav);
+    }
+
+    private static void writeSpectrogram(File stereoFile, String contentHash, File tilesFile) throws IOException {
+        WavFile wav;
+        try {
+            wav = WavFile.read(stereoFile);
+        } catch (IOException e) {
+            DecodedAudioFile decoded = decodeAudioFile(stereoFile);
+            try {
+                SpectrogramWriter.write(decoded, contentHash, tilesFile);
+            } finally {
+                decoded.close();
+            }
+            return;
+        }
+        SpectrogramWriter.write(wav, contentHash, tilesFile);
+    }
+
+    /**
+     * The open sidecar of a recording if it is complete and matches the
+     * recording's content, reusing the last one while neither file changed
+     */
+    private SpectrogramTiles currentSpectrogram(File stereoFile) throws IOException {
+        File tilesFile = SpectrogramTiles.sidecarFile(stereoFile);
+        String key = stereoFile.getAbsolutePath() + ":" + stereoFile.length() + ":" + stereoFile.lastModified() +
+                ":" + tilesFile.length() + ":" + tilesFile.lastModified();
+        if (openSpectrogram != null && key.equals(openSpectrogramKey)) {
+            return openSpectrogram;
+        }
+        if (openSpectrogram != null) {
+            openSpectrogram.close();
+            openSpectrogram = null;
+            openSpectrogramKey = null;
+        }
+        if (!tilesFile.exists()) {
+            return null;
+        }
+        SpectrogramTiles tiles;
+        try {
+            tiles = SpectrogramTiles.open(tilesFile);
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable spectrogram " + tilesFile + ": " + e.getMessage());
+            return null;
+        }
+        if (!tiles.contentHash.equals(recordingContentHash(stereoFile))) {
+            tiles.close();
+            return null;
+        }
+        openSpectrogram = tiles;
+        openSpectrogramKey = key;
+        return tiles;
+    }
+
+    /**
+     * Geometry of a spectrogram sidecar, for the analysis result and tile fetches
+     */
+    private static WritableMap spectrogramInfoToMap(SpectrogramTiles tiles) {
+        WritableMap map = Arguments.createMap();
+        map.putInt("levels", tiles.getLevelCount());
+        map.putInt("levelFactor", tiles.levelFactor);
+        map.putInt("rows", tiles.rows);
+        map.putDouble("rowHz", tiles.getRowHz());
+        map.putInt("tileColumns", tiles.tileColumns);
+        map.putDouble("dbFloor", tiles.dbFloor);
+        map.putDouble("dbRange", tiles.dbRange);
+        WritableArray columnCounts = Arguments.createArray();
+        WritableArray columnSeconds = Arguments.createArray();
+        for (int level = 0; level < tiles.getLevelCount(); level++) {
+            columnCounts.pushDouble(tiles.getColumnCount(level));
+            columnSeconds.pushDouble(tiles.getColumnSeconds(level));
+        }
+        map.putArray("levelColumnCounts", columnCounts);
+        map.putArray("levelColumnSeconds", columnSeconds);
+        return map;
+    }
+
+    /**
+     * Measure the delay and crosstalk between the nasal and oral channels of a
+     * calibration recording and store them in the current device's profile.
+     * The recording should be an oral-only passage (e.g. the Zoo passage) so
+     * that whatever the nasal mic shares with the oral mic is crosstalk.
+     */
+    @ReactMethod
+    public void measureChannelAlignment(String stereoFilePath, final Promise promise) {
+        audioProcessingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final String normalizedPath = normalizeFilePath(stereoFilePath);
+                    File stereoFile = new File(normalizedPath);
+                    if (!stereoFile.exists()) {
+                        rejectAsync(promise, "Stereo file does not exist: " + normalizedPath);
+                        return;
                     }
+
+                    WavFile wav = WavFile.read(stereoFile);
+                    int maxLagFrames = wav.sampleRate * MAX_ALIGNMENT_LAG_MS / 1000;
+                    ChannelAligner.Alignment alignment = ChannelAligner.estimate(wav, maxLagFrames);
+
+                    CalibrationProfile profile = CalibrationProfile.load(reactContext, currentDeviceKey());
+                    profile.sampleRate = wav.sampleRate;
+                    profile.lagFrames = alignment.lagFrames;
+                    profile.crosstalk = alignment.crosstalk;
+                    profile.correlation = alignment.correlation;
+                    profile.alignmentMeasuredAt = System.currentTimeMillis();
+                    profile.save(reactContext);
+
+                    Log.d(TAG, "Channel alignment for " + profile.deviceKey + ": lag " + alignment.lagFrames +
+                            " frames, crosstalk " + alignment.crosstalk);
+                    resolveAsync(promise, calibrationToMap(profile));
+                } catch (final Exception e) {
+                    Log.e(TAG, "Error measuring channel alignment: " + e.getMessage(), e);
+                    rejectAsync(promise, "Failed to measure channel alignment: " + e.getMessage());
                 }
             }
         });
     }
-    
+
+    /**
+     * Learn the room noise floor from a recording of room tone (nobody
+     * speaking, a few seconds) and store it in the current device's profile
+     */
     @ReactMethod
-    public void calculateRms(String audioFilePath, final Promise promise) {
+    public void measureRoomNoise(String stereoFilePath, final Promise promise) {
         audioProcessingExecutor.execute(new Runnable() {
             @Override
             public void run() {
-                FileInputStream fis = null;
-                
                 try {
-                    // Normalize the file path
-                    final String normalizedPath = normalizeFilePath(audioFilePath);
-                    Log.d(TAG, "Calculating RMS for: " + normalizedPath);
-                    
-                    // First verify the file exists
-                    File audioFile = new File(normalizedPath);
-                    if (!audioFile.exists()) {
-                        Log.e(TAG, "Audio file does not exist: " + normalizedPath);
-                        reactContext.runOnUiQueueThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                promise.reject(E_PROCESSING_ERROR, "Audio file does not exist: " + normalizedPath);
-                            }
-                        });
-                        return;
-                    }
-                    
-                    if (audioFile.length() == 0) {
-                        Log.e(TAG, "Audio file is empty: " + normalizedPath);
-                        reactContext.runOnUiQueueThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                promise.reject(E_PROCESSING_ERROR, "Audio file is empty: " + normalizedPath);
-                            }
-                        });
+                    final String normalizedPath = normalizeFilePath(stereoFilePath);
+                    File stereoFile = new File(normalizedPath);
+                    if (!stereoFile.exists()) {
+                        rejectAsync(promise, "Stereo file does not exist: " + normalizedPath);
                         return;
                     }
-                    
-                    // Parse WAV file
-                    fis = new FileInputStream(audioFile);
-                    
-                    // Skip WAV header to get to PCM data
-                    byte[] headerBuffer = new byte[44]; // Standard WAV header is 44 bytes
-                    fis.read(headerBuffer);
-                    
-                    // Verify it's a WAV file with PCM format
-                    if (!new String(headerBuffer, 0, 4).equals("RIFF") || 
-                        !new String(headerBuffer, 8, 4).equals("WAVE")) {
-                        fis.close();
-                        Log.e(TAG, "Not a valid WAV file: " + normalizedPath);
-                        reactContext.runOnUiQueueThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                promise.reject(E_PROCESSING_ERROR, "Not a valid WAV file: " + normalizedPath);
-                            }
-                        });
+
+                    NoiseProfile noise = NoiseProfiler.profileFile(WavFile.read(stereoFile));
+                    if (noise == null) {
+                        rejectAsync(promise, "Room tone recording is shorter than " + NoiseProfiler.MIN_PROFILE_MS + " ms");
                         return;
                     }
-                    
-                    // Parse format chunk
-                    int channels = headerBuffer[22] & 0xFF | (headerBuffer[23] & 0xFF) << 8;
-                    int bitsPerSample = headerBuffer[34] & 0xFF | (headerBuffer[35] & 0xFF) << 8;
-                    
-                    Log.d(TAG, "WAV file properties - Channels: " + channels + 
-                            ", Bits Per Sample: " + bitsPerSample);
-                    
-                    // Find data chunk - reset file position and skip RIFF header
-                    fis.close();
-                    fis = new FileInputStream(audioFile);
-                    fis.skip(12); // Skip "RIFF", size, and "WAVE"
-                    
-                    boolean foundDataChunk = false;
-                    byte[] chunkHeader = new byte[8]; // 4 bytes ID, 4 bytes size
-                    int dataSize = 0;
-                    
-                    // Find the data chunk
-                    while (!foundDataChunk) {
-                        if (fis.read(chunkHeader) < 8) {
-                            fis.close();
-                            Log.e(TAG, "Failed to find data chunk");
-                            reactContext.runOnUiQueueThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    promise.reject(E_PROCESSING_ERROR, "Invalid WAV file format - no data chunk found");
-                                }
-                            });
-                            return;
-                        }
-                        
-                        String id = new String(chunkHeader, 0, 4);
-                        int size = chunkHeader[4] & 0xFF | 
-                                (chunkHeader[5] & 0xFF) << 8 | 
-                                (chunkHeader[6] & 0xFF) << 16 | 
-                                (chunkHeader[7] & 0xFF) << 24;
-                        
-                        if (id.equals("data")) {
-                            foundDataChunk = true;
-                            dataSize = size;
-                        } else {
-                            // Skip this chunk
-                            fis.skip(size);
-                        }
-                    }
-                    
-                    if (!foundDataChunk) {
-                        fis.close();
-                        Log.e(TAG, "No data chunk found");
-                        reactContext.runOnUiQueueThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                promise.reject(E_PROCESSING_ERROR, "Invalid WAV file format - no data chunk found");
-                            }
-                        });
+                    CalibrationProfile profile = CalibrationProfile.load(reactContext, currentDeviceKey());
+                    profile.noise = noise;
+                    profile.save(reactContext);
+
+                    Log.d(TAG, "Room noise for " + profile.deviceKey + ": nasal " + noise.getLevelDb(NasalanceAnalyzer.NASAL_CHANNEL) +
+                            " dB, oral " + noise.getLevelDb(NasalanceAnalyzer.ORAL_CHANNEL) + " dB");
+                    resolveAsync(promise, calibrationToMap(profile));
+                } catch (final Exception e) {
+                    Log.e(TAG, "Error measuring room noise: " + e.getMessage(), e);
+                    rejectAsync(promise, "Failed to measure room noise: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Drop all cached analysis results, e.g. after changing analysis code paths
+     */
+    @ReactMethod
+    public void clearAnalysisCache(final Promise promise) {
+        audioProcessingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                analysisCache.clear();
+                resolveAsync(promise, true);
+            }
+        });
+    }
+
+    /**
+     * Turn per-stage timing of processing jobs on or off. Trace sections are
+     * also emitted whenever Perfetto or systrace is capturing (Android Q+).
+     */
+    @ReactMethod
+    public void setProcessingStatsEnabled(boolean enabled, Promise promise) {
+        processingStats.setEnabled(enabled);
+        promise.resolve(enabled);
+    }
+
+    /**
+     * Per-stage timing summary over the last ProcessingStats.WINDOW runs of
+     * each stage; options: reset (clear the stats after reading, default false)
+     */
+    @ReactMethod
+    public void getProcessingStats(ReadableMap options, Promise promise) {
+        boolean reset = options != null && options.hasKey("reset") && options.getBoolean("reset");
+        Map<String, ProcessingStats.Summary> summaries = processingStats.snapshot();
+        if (reset) {
+            processingStats.reset();
+        }
+        WritableMap stages = Arguments.createMap();
+        for (Map.Entry<String, ProcessingStats.Summary> entry : summaries.entrySet()) {
+            ProcessingStats.Summary summary = entry.getValue();
+            WritableMap stage = Arguments.createMap();
+            stage.putDouble("count", summary.count);
+            stage.putInt("window", summary.window);
+            stage.putDouble("meanMs", summary.meanMs);
+            stage.putDouble("p50Ms", summary.p50Ms);
+            stage.putDouble("p95Ms", summary.p95Ms);
+            stage.putDouble("p99Ms", summary.p99Ms);
+            stage.putDouble("maxMs", summary.maxMs);
+            stages.putMap(entry.getKey(), stage);
+        }
+        WritableMap result = Arguments.createMap();
+        result.putBoolean("enabled", processingStats.isEnabled());
+        result.putInt("windowSize", ProcessingStats.WINDOW);
+        result.putMap("stages", stages);
+        promise.resolve(result);
+    }
+
+    /**
+     * Switch calculateRms, analyzeRecording and session takes to integer-only
+     * scoring (64-bit sums of squares, Q15 crosstalk, integer square roots),
+     * whose results are bit-exact on every device
+     */
+    @ReactMethod
+    public void setFixedPointDsp(boolean enabled, Promise promise) {
+        fixedPointDsp = enabled;
+        promise.resolve(enabled);
+    }
+
+    /**
+     * Analyze a stereo recording in both floating- and fixed-point mode,
+     * alternating, and report the throughput of each and how far their
+     * scores agree; options: runs (per mode, default 3). Nothing is cached.
+     */
+    @ReactMethod
+    public void benchmarkDspModes(String stereoFilePath, ReadableMap options, final Promise promise) {
+        final int runs = options != null && options.hasKey("runs") ?
+                Math.max(1, options.getInt("runs")) : DEFAULT_BENCHMARK_RUNS;
+        final File stereoFile = new File(normalizeFilePath(stereoFilePath));
+        audioProcessingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!stereoFile.exists()) {
+                        rejectAsync(promise, "Stereo file does not exist: " + stereoFile.getPath());
                         return;
                     }
-                    
-                    Log.d(TAG, "Found data chunk with size: " + dataSize + " bytes");
-                    
-                    // Calculate RMS for 16-bit audio (most common)
-                    if (bitsPerSample == 16) {
-                        double sumSquares = 0;
-                        int samplesProcessed = 0;
-                        int bytesPerSample = bitsPerSample / 8;
-                        
-                        // Process in small chunks to save memory
-                        byte[] buffer = new byte[1024 * bytesPerSample];
-                        int bytesRead;
-                        
-                        while ((bytesRead = fis.read(buffer)) > 0) {
-                            int samplesInBuffer = bytesRead / bytesPerSample;
-                            
-                            for (int i = 0; i < samplesInBuffer; i++) {
-                                int sampleOffset = i * bytesPerSample;
-                                
-                                // Convert bytes to short (16-bit sample)
-                                short sample = (short) ((buffer[sampleOffset + 1] & 0xff) << 8 | 
-                                                    (buffer[sampleOffset] & 0xff));
-                                
-                                sumSquares += sample * sample;
-                                samplesProcessed++;
-                            }
-                        }
-                        
-                        if (samplesProcessed == 0) {
-                            Log.e(TAG, "No samples processed for RMS calculation");
-                            reactContext.runOnUiQueueThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    promise.reject(E_PROCESSING_ERROR, "No valid samples found for RMS calculation");
-                                }
-                            });
-                            return;
-                        }
-                        
-                        // Calculate RMS (Root Mean Square)
-                        double rms = Math.sqrt(sumSquares / samplesProcessed);
-                        
-                        // Normalize to 0-1 range (16-bit PCM has range -32768 to 32767)
-                        double normalizedRms = rms / 32768.0;
-                        
-                        Log.d(TAG, "Calculated RMS: " + normalizedRms + " from " + samplesProcessed + " samples");
-                        
-                        // Return result
-                        final double finalRms = normalizedRms;
-                        reactContext.runOnUiQueueThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                promise.resolve(finalRms);
-                            }
-                        });
-                    } else {
-                        // Skip other bit depths for simplicity
-                        Log.e(TAG, "Unsupported bit depth: " + bitsPerSample);
-                        reactContext.runOnUiQueueThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                promise.reject(E_PROCESSING_ERROR, "Unsupported bit depth: " + bitsPerSample);
-                            }
-                        });
+                    long[] floatNanos = new long[runs];
+                    long[] fixedNanos = new long[runs];
+                    NasalanceAnalyzer floatResult = null;
+                    NasalanceAnalyzer fixedResult = null;
+                    for (int i = 0; i < runs; i++) {
+                        long start = System.nanoTime();
+                        floatResult = analyzeRecordingFile(stereoFile, false);
+                        floatNanos[i] = System.nanoTime() - start;
+                        start = System.nanoTime();
+                        fixedResult = analyzeRecordingFile(stereoFile, true);
+                        fixedNanos[i] = System.nanoTime() - start;
                     }
-                    
-                } catch (final Exception e) {
-                    Log.e(TAG, "Error calculating RMS: " + e.getMessage(), e);
-                    reactContext.runOnUiQueueThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            promise.reject(E_PROCESSING_ERROR, "Failed to calculate RMS: " + e.getMessage());
-                        }
-                    });
-                } finally {
-                    try {
-                        if (fis != null) fis.close();
-                    } catch (IOException e) {
-                        Log.e(TAG, "Error closing file stream", e);
+                    double audioSeconds = (double) floatResult.getFramesProcessed() / floatResult.getSampleRate();
+
+                    float[] floatContour = floatResult.getContour();
+                    float[] fixedContour = fixedResult.getContour();
+                    double maxDiff = 0;
+                    double sumDiff = 0;
+                    for (int i = 0; i < floatContour.length; i++) {
+                        double diff = Math.abs(floatContour[i] - fixedContour[i]);
+                        maxDiff = Math.max(maxDiff, diff);
+                        sumDiff += diff;
                     }
+                    WritableMap agreement = Arguments.createMap();
+                    agreement.putDouble("nasalanceDiff", Math.abs(floatResult.getNasalance() - fixedResult.getNasalance()));
+                    agreement.putDouble("nasalRmsDiff", Math.abs(floatResult.getNasalRms() - fixedResult.getNasalRms()));
+                    agreement.putDouble("oralRmsDiff", Math.abs(floatResult.getOralRms() - fixedResult.getOralRms()));
+                    agreement.putDouble("contourMaxDiff", maxDiff);
+                    agreement.putDouble("contourMeanDiff", floatContour.length > 0 ? sumDiff / floatContour.length : 0);
+                    agreement.putDouble("floatVoicedWindows", floatResult.getStats().getCount());
+                    agreement.putDouble("fixedVoicedWindows", fixedResult.getStats().getCount());
+
+                    WritableMap result = Arguments.createMap();
+                    result.putInt("runs", runs);
+                    result.putDouble("duration", audioSeconds);
+                    result.putMap("float", benchmarkTimingToMap(floatNanos, audioSeconds, floatResult.getNasalance()));
+                    result.putMap("fixed", benchmarkTimingToMap(fixedNanos, audioSeconds, fixedResult.getNasalance()));
+                    result.putMap("agreement", agreement);
+                    resolveAsync(promise, result);
+                } catch (Exception e) {
+                    Log.e(TAG, "Error benchmarking DSP modes: " + e.getMessage(), e);
+                    rejectAsync(promise, "Failed to benchmark DSP modes: " + e.getMessage());
                 }
             }
         });
     }
-    
+
+    // Uncorrected, noise-free analysis of a WAV or compressed recording
+    private static NasalanceAnalyzer analyzeRecordingFile(File file, boolean fixedPoint) throws IOException {
+        WavFile wav;
+        try {
+            wav = WavFile.read(file);
+        } catch (IOException e) {
+            DecodedAudioFile decoded = decodeAudioFile(file);
+            try {
+                return analyzeRecordingSource(decoded, fixedPoint);
+            } finally {
+                decoded.close();
+            }
+        }
+        return analyzeRecordingSource(wav, fixedPoint);
+    }
+
+    private static NasalanceAnalyzer analyzeRecordingSource(PcmBlockSource source, boolean fixedPoint) throws IOException {
+        RecordingAnalysis analysis = new RecordingAnalysis(source.getSampleRate());
+        analysis.setFixedPoint(fixedPoint);
+        return analysis.analyze(source, null);
+    }
+
+    private static WritableMap benchmarkTimingToMap(long[] nanos, double audioSeconds, double nasalance) {
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        for (long value : nanos) {
+            best = Math.min(best, value);
+            total += value;
+        }
+        WritableMap map = Arguments.createMap();
+        map.putDouble("bestMs", best / 1e6);
+        map.putDouble("meanMs", total / 1e6 / nanos.length);
+        // Seconds of audio per second of processing, best run
+        map.putDouble("realTimeFactor", best > 0 ? audioSeconds / (best / 1e9) : 0);
+        map.putDouble("nasalance", nasalance);
+        return map;
+    }
+
+    @ReactMethod
+    public void getCalibrationProfile(Promise promise) {
+        try {
+            promise.resolve(calibrationToMap(CalibrationProfile.load(reactContext, currentDeviceKey())));
+        } catch (Exception e) {
+            promise.reject("ERROR", "Failed to load calibration profile: " + e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void clearChannelAlignment(Promise promise) {
+        try {
+            CalibrationProfile profile = CalibrationProfile.load(reactContext, currentDeviceKey());
+            profile.clearAlignment(reactContext);
+            promise.resolve(calibrationToMap(profile));
+        } catch (Exception e) {
+            promise.reject("ERROR", "Failed to clear channel alignment: " + e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void clearRoomNoise(Promise promise) {
+        try {
+            CalibrationProfile profile = CalibrationProfile.load(reactContext, currentDeviceKey());
+            profile.clearNoise(reactContext);
+            promise.resolve(calibrationToMap(profile));
+        } catch (Exception e) {
+            promise.reject("ERROR", "Failed to clear room noise: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Recordings written by this module, newest first, from the storage index
+     */
+    @ReactMethod
+    public void listRecordings(Promise promise) {
+        try {
+            WritableArray recordings = Arguments.createArray();
+            for (RecordingStore.Entry entry : recordingStore.list()) {
+                WritableMap map = Arguments.createMap();
+                map.putString("path", entry.path);
+                map.putString("kind", entry.kind);
+                map.putDouble("sizeBytes", entry.sizeBytes);
+                map.putDouble("createdAt", entry.createdAt);
+                map.putDouble("lastAccessedAt", entry.lastAccessedAt);
+                map.putBoolean("uploaded", entry.isUploaded());
+                if (entry.isUploaded()) {
+                    map.putString("uploadUrl", entry.uploadUrl);
+                }
+                recordings.pushMap(map);
+            }
+            promise.resolve(recordings);
+        } catch (Exception e) {
+            promise.reject("ERROR", "Failed to list recordings: " + e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void getStorageInfo(Promise promise) {
+        try {
+            promise.resolve(storageInfoToMap(0));
+        } catch (Exception e) {
+            promise.reject("ERROR", "Failed to get storage info: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Set the byte quota for local recordings; uploaded recordings are evicted
+     * least recently used first until the total fits
+     */
+    @ReactMethod
+    public void setStorageQuota(double quotaBytes, Promise promise) {
+        try {
+            int evicted = recordingStore.setQuotaBytes((long) quotaBytes);
+            Log.d(TAG, "Storage quota set to " + (long) quotaBytes + " bytes, evicted " + evicted + " files");
+            promise.resolve(storageInfoToMap(evicted));
+        } catch (Exception e) {
+            promise.reject("ERROR", "Failed to set storage quota: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Record that a recording was uploaded by other means (e.g. from JS),
+     * which makes it eligible for eviction
+     */
+    @ReactMethod
+    public void markRecordingUploaded(String filePath, String uploadUrl, Promise promise) {
+        try {
+            recordingStore.markUploaded(normalizeFilePath(filePath), uploadUrl);
+            promise.resolve(true);
+        } catch (Exception e) {
+            promise.reject("ERROR", "Failed to mark recording uploaded: " + e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void deleteRecording(String filePath, Promise promise) {
+        try {
+            promise.resolve(recordingStore.delete(normalizeFilePath(filePath)));
+        } catch (Exception e) {
+            promise.reject("ERROR", "Failed to delete recording: " + e.getMessage());
+        }
+    }
+
+    private WritableMap storageInfoToMap(int evicted) {
+        WritableMap info = Arguments.createMap();
+        info.putDouble("totalBytes", recordingStore.getTotalBytes());
+        info.putDouble("quotaBytes", recordingStore.getQuotaBytes());
+        info.putInt("recordingCount", recordingStore.list().size());
+        info.putInt("evicted", evicted);
+        return info;
+    }
+
+    /**
+     * Stable key for the selected input device, used to look up calibration data.
+     * Device ids change on every reattach, so the product name and type are used instead.
+     */
+    private String currentDeviceKey() {
+        return deviceKey(selectedDevice);
+    }
+
+    private static String deviceKey(AudioDeviceInfo device) {
+        if (device == null) {
+            return "default";
+        }
+        CharSequence name = device.getProductName();
+        return "device:" + device.getType() + ":" + (name != null ? name.toString() : "unknown");
+    }
+
+    private WritableMap calibrationToMap(CalibrationProfile profile) {
+        WritableMap map = Arguments.createMap();
+        map.putString("deviceKey", profile.deviceKey);
+        map.putBoolean("hasAlignment", profile.hasAlignment());
+        map.putInt("sampleRate", profile.sampleRate);
+        map.putInt("lagFrames", profile.lagFrames);
+        map.putDouble("lagMs", profile.sampleRate > 0 ? profile.lagFrames * 1000.0 / profile.sampleRate : 0);
+        map.putDouble("crosstalk", profile.crosstalk);
+        map.putDouble("correlation", profile.correlation);
+        map.putDouble("alignmentMeasuredAt", profile.alignmentMeasuredAt);
+        map.putBoolean("hasNoise", profile.hasNoise());
+        if (profile.hasNoise()) {
+            map.putMap("noise", noiseToMap(profile.noise));
+        }
+        map.putBoolean("hasCaptureConfig", profile.hasCaptureConfig());
+        if (profile.hasCaptureConfig()) {
+            map.putMap("captureConfig", captureConfigToMap(profile.capture));
+        }
+        return map;
+    }
+
+    private static WritableMap captureConfigToMap(CaptureConfig config) {
+        WritableMap map = Arguments.createMap();
+        map.putString("source", config.getSourceName());
+        map.putInt("sampleRate", config.sampleRate);
+        map.putString("channelMask", config.getChannelMaskName());
+        map.putBoolean("nativeRate", config.nativeRate);
+        if (config.isMeasured()) {
+            map.putDouble("startupMs", config.startupMs);
+            map.putDouble("readLatencyMs", config.readLatencyMs);
+            map.putDouble("measuredAt", config.measuredAt);
+        }
+        return map;
+    }
+
+    private static WritableMap noiseToMap(NoiseProfile noise) {
+        WritableMap map = Arguments.createMap();
+        map.putDouble("nasalLevelDb", noise.getLevelDb(NasalanceAnalyzer.NASAL_CHANNEL));
+        map.putDouble("oralLevelDb", noise.getLevelDb(NasalanceAnalyzer.ORAL_CHANNEL));
+        map.putArray("nasalBandsDb", toWritableArray(noise.getBandLevelsDb(NasalanceAnalyzer.NASAL_CHANNEL)));
+        map.putArray("oralBandsDb", toWritableArray(noise.getBandLevelsDb(NasalanceAnalyzer.ORAL_CHANNEL)));
+        map.putInt("sampleRate", noise.sampleRate);
+        map.putDouble("seconds", noise.seconds);
+        map.putDouble("measuredAt", noise.measuredAt);
+        return map;
+    }
+
     /**
-     * Utility method to help with ByteArrayOutputStream
+     * The noise floor an analysis subtracted, and where it came from
      */
-    private static class ByteArrayOutputStream extends java.io.ByteArrayOutputStream {
-        public byte[] getBuffer() {
-            return buf;
+    private static WritableMap appliedNoiseToMap(NoiseProfile noise, String source) {
+        WritableMap map = noise != null ? noiseToMap(noise) : Arguments.createMap();
+        map.putBoolean("applied", noise != null);
+        if (noise != null) {
+            map.putString("source", source);
+        }
+        return map;
+    }
+
+    private WritableMap analysisToMap(AnalysisSummary summary) {
+        return analysisToMap(summary, DEFAULT_NASALANCE_THRESHOLD);
+    }
+
+    private WritableMap analysisToMap(AnalysisSummary summary, double threshold) {
+        WritableMap result = Arguments.createMap();
+        result.putDouble("nasalRms", summary.rms[NasalanceAnalyzer.NASAL_CHANNEL]);
+        result.putDouble("oralRms", summary.rms[NasalanceAnalyzer.ORAL_CHANNEL]);
+        result.putDouble("nasalPeak", summary.peaks[NasalanceAnalyzer.NASAL_CHANNEL]);
+        result.putDouble("oralPeak", summary.peaks[NasalanceAnalyzer.ORAL_CHANNEL]);
+        result.putDouble("nasalance", summary.nasalance);
+        result.putInt("contourWindowMs", summary.contourWindowMs);
+        result.putArray("contour", toWritableArray(summary.contour));
+        result.putMap("stats", statsToMap(summary.stats, threshold));
+
+        WritableMap pitch = Arguments.createMap();
+        pitch.putInt("windowMs", summary.contourWindowMs);
+        pitch.putArray("f0", toWritableArray(summary.f0));
+        pitch.putDouble("meanF0", summary.meanF0);
+        result.putMap("pitch", pitch);
+
+        WritableMap spectrum = Arguments.createMap();
+        spectrum.putInt("fftSize", summary.fftSize);
+        spectrum.putInt("sampleRate", summary.sampleRate);
+        spectrum.putArray("bandEdges", toWritableArray(summary.bandEdges));
+        spectrum.putArray("nasalLtas", toWritableArray(summary.nasalLtas));
+        spectrum.putArray("oralLtas", toWritableArray(summary.oralLtas));
+        spectrum.putArray("nasalBands", toWritableArray(summary.nasalBands));
+        spectrum.putArray("oralBands", toWritableArray(summary.oralBands));
+        spectrum.putArray("bandNasalance", toWritableArray(summary.bandNasalance));
+        result.putMap("spectrum", spectrum);
+
+        WritableArray segments = Arguments.createArray();
+        for (SegmentAnalyzer.Segment segment : summary.segments) {
+            WritableMap map = Arguments.createMap();
+            map.putString("label", segment.label);
+            map.putDouble("startFrame", segment.startFrame);
+            map.putDouble("start", (double) segment.startFrame / summary.sampleRate);
+            map.putDouble("duration", (double) segment.frameCount / summary.sampleRate);
+            map.putDouble("voicedDuration", (double) segment.voicedFrames / summary.sampleRate);
+            map.putDouble("nasalRms", segment.nasalRms);
+            map.putDouble("oralRms", segment.oralRms);
+            map.putDouble("nasalance", segment.nasalance);
+            map.putMap("stats", statsToMap(segment.stats, threshold));
+            segments.pushMap(map);
+        }
+        result.putArray("segments", segments);
+        return result;
+    }
+
+    private static WritableMap statsToMap(NasalanceStats stats, double threshold) {
+        WritableMap map = Arguments.createMap();
+        map.putDouble("windows", stats.getCount());
+        map.putDouble("mean", stats.getMean());
+        map.putDouble("sd", stats.getStandardDeviation());
+        map.putDouble("min", stats.getMin());
+        map.putDouble("max", stats.getMax());
+        map.putDouble("p10", stats.getPercentile(0.1));
+        map.putDouble("p50", stats.getPercentile(0.5));
+        map.putDouble("p90", stats.getPercentile(0.9));
+        map.putDouble("threshold", threshold);
+        map.putDouble("percentAbove", stats.getFractionAbove(threshold) * 100.0);
+        return map;
+    }
+
+    private static WritableArray gapsToArray(List<CaptureGap> gaps, int sampleRate) {
+        WritableArray array = Arguments.createArray();
+        for (CaptureGap gap : gaps) {
+            array.pushMap(gapToMap(gap, sampleRate));
+        }
+        return array;
+    }
+
+    private static WritableMap gapToMap(CaptureGap gap, int sampleRate) {
+        WritableMap map = Arguments.createMap();
+        map.putDouble("frame", gap.startFrame);
+        map.putDouble("frames", gap.frames);
+        map.putDouble("time", (double) gap.startFrame / sampleRate);
+        map.putDouble("durationMs", gap.frames * 1000.0 / sampleRate);
+        map.putDouble("recoveryMs", gap.recoveryMs);
+        map.putString("reason", gap.reason);
+        return map;
+    }
+
+    private static WritableArray markersToArray(List<SegmentMarker> markers, int sampleRate) {
+        WritableArray array = Arguments.createArray();
+        for (SegmentMarker marker : markers) {
+            WritableMap map = Arguments.createMap();
+            map.putString("label", marker.label);
+            map.putDouble("frame", marker.frame);
+            map.putDouble("time", (double) marker.frame / sampleRate);
+            array.pushMap(map);
+        }
+        return array;
+    }
+
+    private static WritableArray toWritableArray(float[] values) {
+        WritableArray array = Arguments.createArray();
+        for (float value : values) {
+            array.pushDouble(value);
         }
+        return array;
+    }
+
+    private void resolveAsync(final Promise promise, final Object value) {
+        final long queued = processingStats.beginAsync(STAGE_DELIVER, System.identityHashCode(promise));
+        reactContext.runOnUiQueueThread(new Runnable() {
+            @Override
+            public void run() {
+                promise.resolve(value);
+                processingStats.endAsync(STAGE_DELIVER, System.identityHashCode(promise), queued);
+            }
+        });
+    }
+
+    private void rejectAsync(final Promise promise, final String message) {
+        rejectAsync(promise, E_PROCESSING_ERROR, message);
+    }
+
+    private void rejectAsync(final Promise promise, final String code, final String message) {
+        Log.e(TAG, message);
+        final long queued = processingStats.beginAsync(STAGE_DELIVER, System.identityHashCode(promise));
+        reactContext.runOnUiQueueThread(new Runnable() {
+            @Override
+            public void run() {
+                promise.reject(code, message);
+                processingStats.endAsync(STAGE_DELIVER, System.identityHashCode(promise), queued);
+            }
+        });
     }
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import com.facebook.react.bridge.Promise;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An input device held open across several takes (e.g. the Zoo passage, the
+ * Rainbow passage and the nasal sentences of one protocol).
+ *
+ * Each take gets its own {@link NasalanceAnalyzer}, fed live through a
+ * {@link BlockHandoff} on a thread of its own so the capture thread only
+ * copies blocks, so when a take stops only the summary, cache entry and index
+ * update are left; those run on the processing executor while the next take
+ * records.
+ * Between takes the input feeds a {@link NoiseProfiler}, so the session learns
+ * the room's noise floor from its own pre-roll.
+ */
+public final class RecordingSession {
+    public final String id;
+    public final CapturePipeline pipeline;
+    public final String deviceKey;
+    /** Alignment applied to every take, or null */
+    public final CalibrationProfile alignment;
+    /** Room tone heard between takes */
+    public final NoiseProfiler noiseProfiler;
+    /** Whether takes subtract a noise floor */
+    public final boolean subtractNoise;
+
+    Thread thread = null;
+    TakeRecord activeTake = null;
+    volatile Promise closePromise = null;
+    private final List<TakeRecord> takes = new ArrayList<TakeRecord>();
+
+    /**
+     * One take and its analysis. Fields below the final ones are written by the
+     * capture and processing threads and guarded by the record's monitor.
+     */
+    public static final class TakeRecord {
+        public final int index;
+        public final CapturePipeline.Take take;
+        /** Settings the analyzer was built with, which also key its cache entry */
+        public final RecordingAnalysis analysis;
+        public final NasalanceAnalyzer analyzer;
+        /** Feeds the analyzer off the capture thread */
+        public final BlockHandoff handoff;
+
+        boolean finished = false;
+        Exception error = null;
+        Promise stopPromise = null;
+        boolean analyzed = false;
+        AnalysisSummary summary = null;
+        String analysisError = null;
+        /** Where the subtracted noise floor came from, or null */
+        String noiseSource = null;
+        final List<Promise> analysisWaiters = new ArrayList<Promise>();
+
+        TakeRecord(int index, CapturePipeline.Take take, RecordingAnalysis analysis, NasalanceAnalyzer analyzer,
+                   BlockHandoff handoff) {
+            this.index = index;
+            this.take = take;
+            this.analysis = analysis;
+            this.analyzer = analyzer;
+            this.handoff = handoff;
+        }
+
+        public double getDurationSeconds() {
+            int sampleRate = analyzer.getSampleRate();
+            return sampleRate > 0 ? (double) take.getFramesCaptured() / sampleRate : 0;
+        }
+    }
+
+    public RecordingSession(String id, CapturePipeline pipeline, String deviceKey, CalibrationProfile alignment,
+                            boolean subtractNoise) {
+        this.id = id;
+        this.pipeline = pipeline;
+        this.deviceKey = deviceKey;
+        this.alignment = alignment;
+        this.subtractNoise = subtractNoise;
+        this.noiseProfiler = new NoiseProfiler(pipeline.getSource().getSampleRate());
+        pipeline.setIdleConsumer(noiseProfiler);
+    }
+
+    TakeRecord addTake(CapturePipeline.Take take, RecordingAnalysis analysis, NasalanceAnalyzer analyzer,
+                       BlockHandoff handoff) {
+        synchronized (takes) {
+            TakeRecord record = new TakeRecord(takes.size(), take, analysis, analyzer, handoff);
+            takes.add(record);
+            return record;
+        }
+    }
+
+    TakeRecord getTake(int index) {
+        synchronized (takes) {
+            return index >= 0 && index < takes.size() ? takes.get(index) : null;
+        }
+    }
+
+    List<TakeRecord> getTakes() {
+        synchronized (takes) {
+            return new ArrayList<TakeRecord>(takes);
+        }
+    }
+}
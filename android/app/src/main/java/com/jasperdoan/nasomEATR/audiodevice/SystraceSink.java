@@ -0,0 +1,43 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Reports {@link ProcessingStats} spans as android.os.Trace sections, so
+ * processing stages show up in Perfetto and systrace captures.
+ *
+ * Before Android Q there is no way to ask whether a trace is being captured
+ * and no async sections, so spans are only emitted while stats are enabled
+ * and async spans (promise delivery) are left out.
+ */
+final class SystraceSink implements ProcessingStats.TraceSink {
+    @Override
+    public boolean isEnabled() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && Trace.isEnabled();
+    }
+
+    @Override
+    public void beginSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    @Override
+    public void endSection() {
+        Trace.endSection();
+    }
+
+    @Override
+    public void beginAsyncSection(String name, int cookie) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(name, cookie);
+        }
+    }
+
+    @Override
+    public void endAsyncSection(String name, int cookie) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(name, cookie);
+        }
+    }
+}
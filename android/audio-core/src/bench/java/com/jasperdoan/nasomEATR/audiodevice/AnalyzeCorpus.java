@@ -0,0 +1,148 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs the full analysis over every stereo WAV file under a directory through
+ * {@link RecordingAnalysis}, as analyzeRecording does on a device, and prints
+ * one tab-separated line per file: path, seconds, nasalance, mean
+ * voiced-window nasalance, mean F0 and real-time factor. Sorted by path, so
+ * two runs can be diffed to catch regressions in the scores.
+ *
+ * Options after the directory apply a device's calibration the same way:
+ *   --alignment RATE,LAG,CROSSTALK  channel alignment measured at RATE Hz
+ *   --noise FILE                    room noise floor in NoiseProfile.encode() form
+ *   --fixed-point                   integer-only scoring
+ *   --cache DIR                     read and write an AnalysisCache directory,
+ *                                   keyed as on the device; hits print "cached"
+ *                                   for the real-time factor
+ */
+public final class AnalyzeCorpus {
+    private static final long CACHE_MEMORY_BYTES = 16L * 1024 * 1024;
+    private static final long CACHE_DISK_BYTES = 1024L * 1024 * 1024;
+
+    private AnalyzeCorpus() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        File root = new File(args.length > 0 && !args[0].startsWith("--") ? args[0] : ".");
+        int[] alignment = null;
+        float crosstalk = 0f;
+        NoiseProfile noise = null;
+        boolean fixedPoint = false;
+        AnalysisCache cache = null;
+        for (int i = args.length > 0 && !args[0].startsWith("--") ? 1 : 0; i < args.length; i++) {
+            if (args[i].equals("--alignment") && i + 1 < args.length) {
+                String[] fields = args[++i].split(",");
+                alignment = new int[] { Integer.parseInt(fields[0]), Integer.parseInt(fields[1]) };
+                crosstalk = Float.parseFloat(fields[2]);
+            } else if (args[i].equals("--noise") && i + 1 < args.length) {
+                noise = NoiseProfile.decode(readText(new File(args[++i])));
+                if (noise == null) {
+                    System.err.println("Not a noise profile: " + args[i]);
+                    return;
+                }
+            } else if (args[i].equals("--fixed-point")) {
+                fixedPoint = true;
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                cache = new AnalysisCache(new File(args[++i]), CACHE_MEMORY_BYTES, CACHE_DISK_BYTES);
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+
+        List<File> files = new ArrayList<File>();
+        collect(root, files);
+        Collections.sort(files);
+        if (files.isEmpty()) {
+            System.err.println("No WAV files under " + root.getAbsolutePath());
+            return;
+        }
+
+        // Let the JIT compile the hot loops before anything is timed
+        try {
+            WavFile first = WavFile.read(files.get(0));
+            new RecordingAnalysis(first.sampleRate).analyze(first, null);
+        } catch (IOException ignored) {
+        }
+
+        double totalAudio = 0;
+        double totalSeconds = 0;
+        System.out.println("path\tseconds\tnasalance\tvoicedMean\tmeanF0\trealTimeFactor");
+        for (File file : files) {
+            WavFile wav;
+            try {
+                wav = WavFile.read(file);
+            } catch (IOException e) {
+                System.out.println(file.getPath() + "\terror: " + e.getMessage());
+                continue;
+            }
+            if (wav.channels != 2 || wav.bitsPerSample != 16) {
+                continue;
+            }
+            RecordingAnalysis analysis = new RecordingAnalysis(wav.sampleRate);
+            analysis.setFixedPoint(fixedPoint);
+            if (alignment != null) {
+                analysis.setAlignment(alignment[0], alignment[1], crosstalk);
+            }
+            analysis.setNoiseProfile(noise);
+
+            String contentHash = null;
+            String params = analysis.cacheParams(wav);
+            AnalysisSummary summary = null;
+            if (cache != null) {
+                contentHash = cache.contentHash(wav);
+                summary = cache.get(contentHash, params);
+            }
+            double audio = wav.getDurationSeconds();
+            String realTime = "cached";
+            if (summary == null) {
+                long start = System.nanoTime();
+                summary = AnalysisSummary.of(analysis.analyze(wav, null));
+                double seconds = (System.nanoTime() - start) / 1e9;
+                totalAudio += audio;
+                totalSeconds += seconds;
+                realTime = String.format(Locale.US, "%.1f", seconds > 0 ? audio / seconds : 0);
+                if (cache != null) {
+                    cache.put(contentHash, params, summary);
+                }
+            }
+            System.out.println(String.format(Locale.US, "%s\t%.3f\t%.3f\t%.3f\t%.1f\t%s",
+                    file.getPath(), audio, summary.nasalance, summary.stats.getMean(), summary.meanF0, realTime));
+        }
+        System.out.println(String.format(Locale.US, "total\t%.3f\t\t\t\t%.1f",
+                totalAudio, totalSeconds > 0 ? totalAudio / totalSeconds : 0));
+    }
+
+    private static String readText(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int read = in.read(bytes);
+            return new String(bytes, 0, Math.max(0, read), "UTF-8").trim();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void collect(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collect(child, files);
+            } else if (child.getName().toLowerCase(Locale.US).endsWith(".wav")) {
+                files.add(child);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Throughput and accuracy of the YIN {@link PitchTracker} on a synthetic
+ * voice: the tracker alone, then the whole {@link NasalanceAnalyzer} it runs
+ * inside, so its share of the analysis cost shows. Each is run several times
+ * after a warm-up and the best and mean runs are printed, tab-separated, as
+ * {@link SpectralBench} does. The track is then checked against the known F0
+ * of the signal.
+ */
+public final class PitchBench {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int BLOCK_FRAMES = 4096;
+    // Windows this close to a pause are left out of the accuracy figures
+    private static final double EDGE_SECONDS = 0.1;
+
+    private PitchBench() {
+    }
+
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 60;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        short[] samples = SyntheticVoice.stereo(SAMPLE_RATE, seconds, 1);
+
+        // Let the JIT compile the hot loops before anything is timed
+        runTracker(samples);
+        runAnalyzer(samples);
+
+        System.out.println("stage\tbestMs\tmeanMs\tthroughput");
+        PitchTracker tracker = null;
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        for (int run = 0; run < runs; run++) {
+            long start = System.nanoTime();
+            tracker = runTracker(samples);
+            long elapsed = System.nanoTime() - start;
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+        print("pitchTracker", best, total / runs,
+                String.format(Locale.US, "%.1fx real time", seconds / (best / 1e9)));
+
+        best = Long.MAX_VALUE;
+        total = 0;
+        for (int run = 0; run < runs; run++) {
+            long start = System.nanoTime();
+            runAnalyzer(samples);
+            long elapsed = System.nanoTime() - start;
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+        print("nasalanceAnalyzer", best, total / runs,
+                String.format(Locale.US, "%.1fx real time", seconds / (best / 1e9)));
+
+        printAccuracy(tracker.getTrack());
+    }
+
+    private static PitchTracker runTracker(short[] samples) {
+        PitchTracker tracker = new PitchTracker(SAMPLE_RATE, NasalanceAnalyzer.DEFAULT_WINDOW_MS,
+                NasalanceAnalyzer.ORAL_CHANNEL);
+        int frames = samples.length / 2;
+        tracker.reserve(frames);
+        for (int done = 0; done < frames; done += BLOCK_FRAMES) {
+            tracker.process(samples, done * 2, Math.min(BLOCK_FRAMES, frames - done));
+        }
+        return tracker;
+    }
+
+    private static void runAnalyzer(short[] samples) {
+        NasalanceAnalyzer analyzer = new NasalanceAnalyzer(SAMPLE_RATE);
+        int frames = samples.length / 2;
+        analyzer.reserve(frames);
+        for (int done = 0; done < frames; done += BLOCK_FRAMES) {
+            analyzer.process(samples, done * 2, Math.min(BLOCK_FRAMES, frames - done));
+        }
+    }
+
+    // Each value covers the signal just before the end of its window; compare it with the F0 there
+    private static void printAccuracy(float[] track) {
+        double window = NasalanceAnalyzer.DEFAULT_WINDOW_MS / 1000.0;
+        double[] errors = new double[track.length];
+        int compared = 0;
+        int missed = 0;
+        for (int i = 0; i < track.length; i++) {
+            double end = (i + 1) * window;
+            if (!SyntheticVoice.isVoiced(end - window - EDGE_SECONDS)
+                    || !SyntheticVoice.isVoiced(end + EDGE_SECONDS) || end < EDGE_SECONDS + window) {
+                continue;
+            }
+            if (track[i] <= 0) {
+                missed++;
+                continue;
+            }
+            double truth = SyntheticVoice.f0(end - window / 2);
+            errors[compared++] = Math.abs(track[i] - truth) / truth * 100;
+        }
+        Arrays.sort(errors, 0, compared);
+        System.out.println(String.format(Locale.US,
+                "f0 error over %d windows: median %.2f%%, p95 %.2f%%, max %.2f%%; %d voiced windows missed",
+                compared, percentile(errors, compared, 0.5), percentile(errors, compared, 0.95),
+                compared > 0 ? errors[compared - 1] : 0, missed));
+    }
+
+    private static double percentile(double[] sorted, int count, double p) {
+        return count > 0 ? sorted[Math.min(count - 1, (int) (p * count))] : 0;
+    }
+
+    private static void print(String stage, long bestNanos, long meanNanos, String throughput) {
+        System.out.println(String.format(Locale.US, "%s\t%.1f\t%.1f\t%s",
+                stage, bestNanos / 1e6, meanNanos / 1e6, throughput));
+    }
+}
@@ -0,0 +1,85 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.util.Locale;
+
+/**
+ * Throughput of the real-FFT analysis path on a synthetic voice: the bare
+ * {@link RealFft} power spectrum at the analysis size, then
+ * {@link SpectralAnalyzer} over the whole signal as analyzeRecording feeds
+ * it. Each is run several times after a warm-up and the best and mean runs
+ * are printed, tab-separated, so two builds can be compared.
+ */
+public final class SpectralBench {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int BLOCK_FRAMES = 4096;
+
+    private SpectralBench() {
+    }
+
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 60;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        short[] samples = SyntheticVoice.stereo(SAMPLE_RATE, seconds, 1);
+
+        // Let the JIT compile the hot loops before anything is timed
+        runFft(samples);
+        runAnalyzer(samples);
+
+        System.out.println("stage\tbestMs\tmeanMs\tthroughput");
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        int transforms = 0;
+        for (int run = 0; run < runs; run++) {
+            long start = System.nanoTime();
+            transforms = runFft(samples);
+            long elapsed = System.nanoTime() - start;
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+        print("realFft" + SpectralAnalyzer.DEFAULT_FFT_SIZE, best, total / runs,
+                String.format(Locale.US, "%.0f transforms/s", transforms / (best / 1e9)));
+
+        best = Long.MAX_VALUE;
+        total = 0;
+        for (int run = 0; run < runs; run++) {
+            long start = System.nanoTime();
+            runAnalyzer(samples);
+            long elapsed = System.nanoTime() - start;
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+        print("spectralAnalyzer", best, total / runs,
+                String.format(Locale.US, "%.1fx real time", seconds / (best / 1e9)));
+    }
+
+    // One power spectrum per half-overlapped frame of the nasal channel, as the analyzer takes them
+    private static int runFft(short[] samples) {
+        int size = SpectralAnalyzer.DEFAULT_FFT_SIZE;
+        RealFft fft = new RealFft(size);
+        float[] frame = new float[size];
+        float[] power = new float[fft.getBinCount()];
+        int frames = samples.length / 2;
+        int transforms = 0;
+        for (int start = 0; start + size <= frames; start += size / 2) {
+            for (int k = 0; k < size; k++) {
+                frame[k] = samples[2 * (start + k)] / 32768f;
+            }
+            fft.powerSpectrum(frame, 0, power);
+            transforms++;
+        }
+        return transforms;
+    }
+
+    private static void runAnalyzer(short[] samples) {
+        SpectralAnalyzer analyzer = new SpectralAnalyzer(SAMPLE_RATE);
+        int frames = samples.length / 2;
+        for (int done = 0; done < frames; done += BLOCK_FRAMES) {
+            analyzer.process(samples, done * 2, Math.min(BLOCK_FRAMES, frames - done));
+        }
+    }
+
+    private static void print(String stage, long bestNanos, long meanNanos, String throughput) {
+        System.out.println(String.format(Locale.US, "%s\t%.1f\t%.1f\t%s",
+                stage, bestNanos / 1e6, meanNanos / 1e6, throughput));
+    }
+}
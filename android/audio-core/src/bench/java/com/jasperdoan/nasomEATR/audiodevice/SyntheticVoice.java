@@ -0,0 +1,53 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.util.Random;
+
+/**
+ * Deterministic speech-like stereo signal for the benchmarks: a harmonic
+ * source whose F0 glides between 90 and 240 Hz, with pauses, a weaker
+ * nasal channel and a little noise. The same seed gives the same samples on
+ * every run, so timings compare like with like.
+ */
+final class SyntheticVoice {
+    private SyntheticVoice() {
+    }
+
+    /**
+     * Interleaved 16-bit stereo frames, nasal channel first
+     */
+    static short[] stereo(int sampleRate, double seconds, long seed) {
+        int frames = (int) (sampleRate * seconds);
+        short[] samples = new short[frames * 2];
+        Random random = new Random(seed);
+        double phase = 0;
+        for (int i = 0; i < frames; i++) {
+            double t = (double) i / sampleRate;
+            phase += 2 * Math.PI * f0(t) / sampleRate;
+            double voice = 0;
+            if (isVoiced(t)) {
+                for (int h = 1; h <= 12; h++) {
+                    voice += Math.sin(h * phase) / h;
+                }
+            }
+            double oral = voice * 6000 + random.nextGaussian() * 30;
+            double nasal = voice * 2500 + random.nextGaussian() * 30;
+            samples[2 * i + NasalanceAnalyzer.NASAL_CHANNEL] = (short) Math.max(-32768, Math.min(32767, nasal));
+            samples[2 * i + NasalanceAnalyzer.ORAL_CHANNEL] = (short) Math.max(-32768, Math.min(32767, oral));
+        }
+        return samples;
+    }
+
+    /**
+     * The F0 in Hz at time t, in seconds
+     */
+    static double f0(double t) {
+        return 165 + 75 * Math.sin(2 * Math.PI * 0.7 * t);
+    }
+
+    /**
+     * 1.5 s of speech, 0.5 s of pause
+     */
+    static boolean isVoiced(double t) {
+        return t % 2.0 < 1.5;
+    }
+}
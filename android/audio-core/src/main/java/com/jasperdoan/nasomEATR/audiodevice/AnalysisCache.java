@@ -0,0 +1,342 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Content-addressed cache of {@link AnalysisSummary} results.
+ *
+ * Entries are keyed by a 64-bit hash of the WAV data chunk (plus its format),
+ * or of the whole file for a compressed recording, and a string describing the analysis parameters, so a renamed copy of a
+ * recording hits and a changed parameter misses. There are two tiers: an
+ * access-ordered in-memory LRU bounded by approximate heap size, and a
+ * directory of small files bounded by total size, evicted by last use.
+ *
+ * Hashing still reads the whole data chunk, so the hash of each file is
+ * remembered by path, length and modification time; an unchanged file is
+ * looked up without touching its contents.
+ */
+public final class AnalysisCache {
+    private static final String FILE_SUFFIX = ".summary";
+    private static final int HASH_BUFFER_BYTES = 64 * 1024;
+    private static final int MAX_REMEMBERED_FILES = 256;
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+
+    private final File directory;
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+
+    private final LinkedHashMap<String, AnalysisSummary> memory =
+            new LinkedHashMap<String, AnalysisSummary>(16, 0.75f, true);
+    private long memoryBytes = 0;
+
+    private final LinkedHashMap<String, FileIdentity> identities =
+            new LinkedHashMap<String, FileIdentity>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, FileIdentity> eldest) {
+                    return size() > MAX_REMEMBERED_FILES;
+                }
+            };
+
+    private final ByteBuffer hashBuffer = ByteBuffer.allocateDirect(HASH_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+    private long memoryHits = 0;
+    private long diskHits = 0;
+    private long misses = 0;
+
+    public AnalysisCache(File directory, long maxMemoryBytes, long maxDiskBytes) {
+        this.directory = directory;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * Hash of the file's format and data chunk, reusing the last result while
+     * the file's length and modification time are unchanged
+     */
+    public synchronized String contentHash(WavFile wav) throws IOException {
+        return contentHash(wav.file, wav);
+    }
+
+    /**
+     * Hash of a whole file, for compressed recordings whose decoded PCM is
+     * never on disk; remembered the same way
+     */
+    public synchronized String contentHash(File file) throws IOException {
+        return contentHash(file, null);
+    }
+
+    private String contentHash(File file, WavFile wav) throws IOException {
+        String path = file.getAbsolutePath();
+        long length = file.length();
+        long modified = file.lastModified();
+
+        FileIdentity identity = identities.get(path);
+        if (identity != null && identity.length == length && identity.lastModified == modified) {
+            return identity.hash;
+        }
+
+        String hash = toHex(wav != null ? hashDataChunk(wav) : hashRange(file, 0, length, PRIME1 ^ length));
+        identities.put(path, new FileIdentity(length, modified, hash));
+        return hash;
+    }
+
+    /**
+     * Cached result for a content hash and parameter string, or null
+     */
+    public synchronized AnalysisSummary get(String contentHash, String params) {
+        String key = entryKey(contentHash, params);
+        AnalysisSummary summary = memory.get(key);
+        if (summary != null) {
+            memoryHits++;
+            return summary;
+        }
+
+        summary = readFromDisk(key, params);
+        if (summary != null) {
+            diskHits++;
+            putInMemory(key, summary);
+            return summary;
+        }
+
+        misses++;
+        return null;
+    }
+
+    public synchronized void put(String contentHash, String params, AnalysisSummary summary) {
+        String key = entryKey(contentHash, params);
+        putInMemory(key, summary);
+        writeToDisk(key, params, summary);
+    }
+
+    /**
+     * Drop every entry from both tiers
+     */
+    public synchronized void clear() {
+        memory.clear();
+        memoryBytes = 0;
+        identities.clear();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(FILE_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    public synchronized long getMemoryHits() {
+        return memoryHits;
+    }
+
+    public synchronized long getDiskHits() {
+        return diskHits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private void putInMemory(String key, AnalysisSummary summary) {
+        AnalysisSummary previous = memory.put(key, summary);
+        if (previous != null) {
+            memoryBytes -= previous.getApproximateBytes();
+        }
+        memoryBytes += summary.getApproximateBytes();
+
+        // Access order puts the least recently used entry first
+        Iterator<AnalysisSummary> iterator = memory.values().iterator();
+        while (memoryBytes > maxMemoryBytes && memory.size() > 1 && iterator.hasNext()) {
+            memoryBytes -= iterator.next().getApproximateBytes();
+            iterator.remove();
+        }
+    }
+
+    private AnalysisSummary readFromDisk(String key, String params) {
+        File file = new File(directory, key + FILE_SUFFIX);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            // The file name only holds a hash of the parameters; check the real thing
+            if (!params.equals(in.readUTF())) {
+                return null;
+            }
+            AnalysisSummary summary = AnalysisSummary.readFrom(in);
+            file.setLastModified(System.currentTimeMillis());
+            return summary;
+        } catch (IOException e) {
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeToDisk(String key, String params, AnalysisSummary summary) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            return;
+        }
+
+        File file = new File(directory, key + FILE_SUFFIX);
+        File temp = new File(directory, key + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeUTF(params);
+            summary.writeTo(out);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                return;
+            }
+        } catch (IOException e) {
+            closeQuietly(out);
+            temp.delete();
+            return;
+        }
+        trimDisk();
+    }
+
+    /**
+     * Delete the least recently used files until the tier fits its budget
+     */
+    private void trimDisk() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxDiskBytes) return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (int i = 0; i < files.length && total > maxDiskBytes; i++) {
+            long size = files[i].length();
+            if (files[i].delete()) {
+                total -= size;
+            }
+        }
+    }
+
+    private String entryKey(String contentHash, String params) {
+        return contentHash + "-" + toHex(hashString(params));
+    }
+
+    /**
+     * 64-bit hash of a WAV file's format fields and data chunk, read through a
+     * direct buffer eight bytes at a time
+     */
+    long hashDataChunk(WavFile wav) throws IOException {
+        long hash = PRIME3 ^ wav.dataSize;
+        hash = mix(hash, wav.channels);
+        hash = mix(hash, wav.sampleRate);
+        hash = mix(hash, wav.bitsPerSample);
+
+        return hashRange(wav.file, wav.dataOffset, wav.dataSize, hash);
+    }
+
+    private long hashRange(File file, long position, long remaining, long hash) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            FileChannel channel = fis.getChannel();
+            while (remaining > 0) {
+                hashBuffer.clear();
+                if (remaining < hashBuffer.capacity()) {
+                    hashBuffer.limit((int) remaining);
+                }
+                int read = channel.read(hashBuffer, position);
+                if (read <= 0) break;
+                position += read;
+                remaining -= read;
+
+                hashBuffer.flip();
+                while (hashBuffer.remaining() >= 8) {
+                    hash = mix(hash, hashBuffer.getLong());
+                }
+                while (hashBuffer.hasRemaining()) {
+                    hash = mix(hash, hashBuffer.get() & 0xFF);
+                }
+            }
+        } finally {
+            fis.close();
+        }
+        return finish(hash);
+    }
+
+    private static long hashString(String value) {
+        long hash = PRIME3 ^ value.length();
+        for (int i = 0; i < value.length(); i++) {
+            hash = mix(hash, value.charAt(i));
+        }
+        return finish(hash);
+    }
+
+    private static long mix(long hash, long value) {
+        hash ^= Long.rotateLeft(value * PRIME2, 31) * PRIME1;
+        return Long.rotateLeft(hash, 27) * PRIME1 + PRIME3;
+    }
+
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static String toHex(long value) {
+        String hex = Long.toHexString(value);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing useful to do
+        }
+    }
+
+    private static final class FileIdentity {
+        final long length;
+        final long lastModified;
+        final String hash;
+
+        FileIdentity(long length, long lastModified, String hash) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+}
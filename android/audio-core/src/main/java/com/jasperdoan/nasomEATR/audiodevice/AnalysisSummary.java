@@ -0,0 +1,205 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Immutable result of analyzing one recording, small enough to cache.
+ *
+ * rms and peaks hold one value per channel (nasal, oral for stereo analysis)
+ * or a single value for a whole-file RMS. The nasalance, contour and spectrum
+ * fields are only filled in by a full stereo analysis; otherwise they are 0
+ * and empty arrays. segments holds one entry per marked segment and stats
+ * the distribution of the voiced contour windows. f0 is the oral channel's
+ * pitch track on the contour's windows, 0 where unvoiced.
+ */
+public final class AnalysisSummary {
+    private static final int FORMAT_VERSION = 4;
+    private static final float[] EMPTY = new float[0];
+    private static final SegmentAnalyzer.Segment[] NO_SEGMENTS = new SegmentAnalyzer.Segment[0];
+
+    public final double[] rms;
+    public final double[] peaks;
+    public final double nasalance;
+    public final int contourWindowMs;
+    public final float[] contour;
+
+    public final int fftSize;
+    public final int sampleRate;
+    public final float[] bandEdges;
+    public final float[] nasalLtas;
+    public final float[] oralLtas;
+    public final float[] nasalBands;
+    public final float[] oralBands;
+    public final float[] bandNasalance;
+    public final SegmentAnalyzer.Segment[] segments;
+    public final NasalanceStats stats;
+    public final float[] f0;
+    public final double meanF0;
+
+    private AnalysisSummary(double[] rms, double[] peaks, double nasalance, int contourWindowMs, float[] contour,
+                            int fftSize, int sampleRate, float[] bandEdges, float[] nasalLtas, float[] oralLtas,
+                            float[] nasalBands, float[] oralBands, float[] bandNasalance,
+                            SegmentAnalyzer.Segment[] segments, NasalanceStats stats, float[] f0, double meanF0) {
+        this.rms = rms;
+        this.peaks = peaks;
+        this.nasalance = nasalance;
+        this.contourWindowMs = contourWindowMs;
+        this.contour = contour;
+        this.fftSize = fftSize;
+        this.sampleRate = sampleRate;
+        this.bandEdges = bandEdges;
+        this.nasalLtas = nasalLtas;
+        this.oralLtas = oralLtas;
+        this.nasalBands = nasalBands;
+        this.oralBands = oralBands;
+        this.bandNasalance = bandNasalance;
+        this.segments = segments;
+        this.stats = stats;
+        this.f0 = f0;
+        this.meanF0 = meanF0;
+    }
+
+    /**
+     * Snapshot a finished stereo analysis
+     */
+    public static AnalysisSummary of(NasalanceAnalyzer analyzer) {
+        SpectralAnalyzer spectral = analyzer.getSpectral();
+        return new AnalysisSummary(
+            new double[] { analyzer.getNasalRms(), analyzer.getOralRms() },
+            new double[] { analyzer.getNasalPeak(), analyzer.getOralPeak() },
+            analyzer.getNasalance(),
+            analyzer.getWindowMs(),
+            analyzer.getContour(),
+            spectral.getFftSize(),
+            spectral.getSampleRate(),
+            spectral.getBandEdges(),
+            spectral.getLtasDb(NasalanceAnalyzer.NASAL_CHANNEL),
+            spectral.getLtasDb(NasalanceAnalyzer.ORAL_CHANNEL),
+            spectral.getBandLevelsDb(NasalanceAnalyzer.NASAL_CHANNEL),
+            spectral.getBandLevelsDb(NasalanceAnalyzer.ORAL_CHANNEL),
+            spectral.getBandNasalance(NasalanceAnalyzer.NASAL_CHANNEL, NasalanceAnalyzer.ORAL_CHANNEL),
+            analyzer.getSegments(),
+            analyzer.getStats().copy(),
+            analyzer.getPitch().getTrack(),
+            analyzer.getPitch().getMeanF0()
+        );
+    }
+
+    /**
+     * Summary holding only a whole-file RMS and peak (all channels together)
+     */
+    public static AnalysisSummary ofRms(double rms, double peak) {
+        return new AnalysisSummary(new double[] { rms }, new double[] { peak }, 0, 0, EMPTY,
+                0, 0, EMPTY, EMPTY, EMPTY, EMPTY, EMPTY, EMPTY, NO_SEGMENTS, new NasalanceStats(), EMPTY, 0);
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        writeDoubles(out, rms);
+        writeDoubles(out, peaks);
+        out.writeDouble(nasalance);
+        out.writeInt(contourWindowMs);
+        writeFloats(out, contour);
+        out.writeInt(fftSize);
+        out.writeInt(sampleRate);
+        writeFloats(out, bandEdges);
+        writeFloats(out, nasalLtas);
+        writeFloats(out, oralLtas);
+        writeFloats(out, nasalBands);
+        writeFloats(out, oralBands);
+        writeFloats(out, bandNasalance);
+        out.writeInt(segments.length);
+        for (SegmentAnalyzer.Segment segment : segments) {
+            out.writeUTF(segment.label);
+            out.writeLong(segment.startFrame);
+            out.writeLong(segment.frameCount);
+            out.writeDouble(segment.nasalRms);
+            out.writeDouble(segment.oralRms);
+            out.writeDouble(segment.nasalance);
+            out.writeLong(segment.voicedFrames);
+            segment.stats.writeTo(out);
+        }
+        stats.writeTo(out);
+        writeFloats(out, f0);
+        out.writeDouble(meanF0);
+    }
+
+    static AnalysisSummary readFrom(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported summary version: " + version);
+        }
+        double[] rms = readDoubles(in);
+        double[] peaks = readDoubles(in);
+        double nasalance = in.readDouble();
+        int contourWindowMs = in.readInt();
+        float[] contour = readFloats(in);
+        int fftSize = in.readInt();
+        int sampleRate = in.readInt();
+        float[] bandEdges = readFloats(in);
+        float[] nasalLtas = readFloats(in);
+        float[] oralLtas = readFloats(in);
+        float[] nasalBands = readFloats(in);
+        float[] oralBands = readFloats(in);
+        float[] bandNasalance = readFloats(in);
+        SegmentAnalyzer.Segment[] segments = new SegmentAnalyzer.Segment[readLength(in)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new SegmentAnalyzer.Segment(in.readUTF(), in.readLong(), in.readLong(),
+                    in.readDouble(), in.readDouble(), in.readDouble(), in.readLong(), NasalanceStats.readFrom(in));
+        }
+        return new AnalysisSummary(rms, peaks, nasalance, contourWindowMs, contour, fftSize, sampleRate,
+                bandEdges, nasalLtas, oralLtas, nasalBands, oralBands, bandNasalance, segments,
+                NasalanceStats.readFrom(in), readFloats(in), in.readDouble());
+    }
+
+    /**
+     * Rough heap footprint, used to size the in-memory cache tier
+     */
+    int getApproximateBytes() {
+        int floats = contour.length + f0.length + bandEdges.length + nasalLtas.length + oralLtas.length +
+                nasalBands.length + oralBands.length + bandNasalance.length;
+        // Stats histograms are 4 KB each
+        return 128 + (rms.length + peaks.length) * 8 + floats * 4 + (segments.length + 1) * (96 + NasalanceStats.BINS * 4);
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static double[] readDoubles(DataInputStream in) throws IOException {
+        double[] values = new double[readLength(in)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    private static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+        out.writeInt(values.length);
+        for (float value : values) {
+            out.writeFloat(value);
+        }
+    }
+
+    private static float[] readFloats(DataInputStream in) throws IOException {
+        float[] values = new float[readLength(in)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readFloat();
+        }
+        return values;
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        // Guard against a corrupt file asking for a huge allocation
+        if (length < 0 || length > 1 << 22) {
+            throw new IOException("Corrupt summary array length: " + length);
+        }
+        return length;
+    }
+}
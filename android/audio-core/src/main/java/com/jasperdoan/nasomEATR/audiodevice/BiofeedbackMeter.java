@@ -0,0 +1,289 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+/**
+ * Live nasalance for biofeedback practice, judged against a target range.
+ *
+ * Sums of squares are kept per hop of HOP_MS in a fixed ring, and the
+ * nasalance of the most recent window is recomputed at the end of every hop
+ * from the running window sums, so a window that slides every few
+ * milliseconds costs one subtraction and one square root per channel. Memory
+ * is the ring alone, however long the practice runs; nothing is recorded.
+ *
+ * The state is silent, below, in range or above. It only leaves the range
+ * once the nasalance is more than the hysteresis outside it, so speech
+ * hovering at a bound does not flicker, and it only turns silent after the
+ * window has been unvoiced for the release time, so the pauses between
+ * words keep the last judgement. A change is reported at the end of the hop
+ * it happens in, on the capture thread.
+ *
+ * Time per state is counted in voiced hops for the practice summary.
+ */
+public final class BiofeedbackMeter implements PcmBlockConsumer {
+    public static final int STATE_SILENT = 0;
+    public static final int STATE_BELOW = 1;
+    public static final int STATE_IN_RANGE = 2;
+    public static final int STATE_ABOVE = 3;
+
+    public static final int HOP_MS = 5;
+    public static final int DEFAULT_WINDOW_MS = 20;
+    public static final int DEFAULT_RELEASE_MS = 150;
+    public static final float DEFAULT_HYSTERESIS = 2f;
+
+    /**
+     * Called on the capture thread
+     */
+    public interface Listener {
+        /**
+         * @param frame Frames processed up to the end of the hop the change happened in
+         */
+        void onStateChanged(BiofeedbackMeter meter, int state, int previous, float nasalance, long frame);
+    }
+
+    private final int sampleRate;
+    private final int hopFrames;
+    private final float targetMin;
+    private final float targetMax;
+    private final float hysteresis;
+    private final int releaseHops;
+    private ChannelAligner.Corrector corrector = null;
+    private boolean fixedPoint = false;
+    private Listener listener = null;
+
+    // Per-hop sums of squares of the current window, as a ring
+    private final long[] hopNasal;
+    private final long[] hopOral;
+    private int hopPosition = 0;
+    private long windowNasal = 0;
+    private long windowOral = 0;
+    private long currentNasal = 0;
+    private long currentOral = 0;
+    private int hopFill = 0;
+    private int unvoicedHops = 0;
+    private long framesProcessed = 0;
+
+    private volatile float nasalance = 0;
+    private volatile boolean voiced = false;
+    private volatile int state = STATE_SILENT;
+    private volatile int transitions = 0;
+    // Voiced hops judged below, in and above the range
+    private final long[] stateHops = new long[4];
+    private double voicedNasalanceSum = 0;
+    private long voicedHops = 0;
+
+    public BiofeedbackMeter(int sampleRate, float targetMin, float targetMax) {
+        this(sampleRate, targetMin, targetMax, DEFAULT_HYSTERESIS, DEFAULT_WINDOW_MS, DEFAULT_RELEASE_MS);
+    }
+
+    /**
+     * @param targetMin Lower bound of the target range, nasalance in percent
+     * @param targetMax Upper bound of the target range
+     * @param hysteresis How far outside the range, in percent, the nasalance must go to leave it
+     * @param windowMs Length of the rolling window, rounded to whole hops
+     * @param releaseMs How long the window must stay unvoiced before the state turns silent
+     */
+    public BiofeedbackMeter(int sampleRate, float targetMin, float targetMax, float hysteresis, int windowMs,
+                            int releaseMs) {
+        if (targetMin > targetMax) {
+            throw new IllegalArgumentException("Target range " + targetMin + "-" + targetMax + " is empty");
+        }
+        this.sampleRate = sampleRate;
+        this.hopFrames = Math.max(1, sampleRate * HOP_MS / 1000);
+        this.targetMin = targetMin;
+        this.targetMax = targetMax;
+        this.hysteresis = Math.max(0f, hysteresis);
+        this.releaseHops = Math.max(0, Math.round((float) releaseMs / HOP_MS));
+        int hops = Math.max(1, Math.round((float) windowMs / HOP_MS));
+        this.hopNasal = new long[hops];
+        this.hopOral = new long[hops];
+    }
+
+    public void setCorrector(ChannelAligner.Corrector corrector) {
+        this.corrector = corrector;
+    }
+
+    /**
+     * Score with integer arithmetic only, like {@link NasalanceAnalyzer#setFixedPoint}
+     */
+    public void setFixedPoint(boolean fixedPoint) {
+        this.fixedPoint = fixedPoint;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Feed interleaved 16-bit stereo frames. The block is modified in place
+     * when a corrector is set.
+     */
+    @Override
+    public void process(short[] interleaved, int offset, int frameCount) {
+        if (corrector != null) {
+            if (fixedPoint) {
+                corrector.applyFixedPoint(interleaved, offset, frameCount);
+            } else {
+                corrector.apply(interleaved, offset, frameCount);
+            }
+        }
+        int index = offset;
+        for (int i = 0; i < frameCount; i++) {
+            int nasal = interleaved[index + NasalanceAnalyzer.NASAL_CHANNEL];
+            int oral = interleaved[index + NasalanceAnalyzer.ORAL_CHANNEL];
+            index += 2;
+            currentNasal += nasal * nasal;
+            currentOral += oral * oral;
+            if (++hopFill == hopFrames) {
+                framesProcessed += hopFill;
+                endHop();
+            }
+        }
+    }
+
+    private void endHop() {
+        windowNasal += currentNasal - hopNasal[hopPosition];
+        windowOral += currentOral - hopOral[hopPosition];
+        hopNasal[hopPosition] = currentNasal;
+        hopOral[hopPosition] = currentOral;
+        if (++hopPosition == hopNasal.length) {
+            hopPosition = 0;
+        }
+        currentNasal = 0;
+        currentOral = 0;
+        hopFill = 0;
+
+        long windowFrames = (long) hopNasal.length * hopFrames;
+        boolean hopVoiced;
+        float value;
+        if (fixedPoint) {
+            long nasalPower = FixedPoint.meanSquareQ24(windowNasal, windowFrames);
+            long oralPower = FixedPoint.meanSquareQ24(windowOral, windowFrames);
+            hopVoiced = nasalPower + oralPower > FixedPoint.VOICED_POWER_Q24;
+            value = FixedPoint.nasalance(nasalPower, oralPower) / 100f;
+        } else {
+            double nasalPower = (double) windowNasal / windowFrames;
+            double oralPower = (double) windowOral / windowFrames;
+            hopVoiced = nasalPower + oralPower > SegmentAnalyzer.VOICED_ENERGY;
+            value = NasalanceAnalyzer.nasalance(Math.sqrt(nasalPower), Math.sqrt(oralPower));
+        }
+        voiced = hopVoiced;
+
+        int previous = state;
+        int next = previous;
+        if (hopVoiced) {
+            unvoicedHops = 0;
+            nasalance = value;
+            next = judge(previous, value);
+            stateHops[next]++;
+            voicedNasalanceSum += value;
+            voicedHops++;
+        } else if (previous != STATE_SILENT && ++unvoicedHops > releaseHops) {
+            next = STATE_SILENT;
+        }
+        if (next != previous) {
+            state = next;
+            transitions++;
+            if (listener != null) {
+                listener.onStateChanged(this, next, previous, nasalance, framesProcessed);
+            }
+        }
+    }
+
+    private int judge(int previous, float value) {
+        if (previous == STATE_IN_RANGE) {
+            if (value > targetMax + hysteresis) {
+                return STATE_ABOVE;
+            }
+            return value < targetMin - hysteresis ? STATE_BELOW : STATE_IN_RANGE;
+        }
+        if (value > targetMax) {
+            return STATE_ABOVE;
+        }
+        return value < targetMin ? STATE_BELOW : STATE_IN_RANGE;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public float getTargetMin() {
+        return targetMin;
+    }
+
+    public float getTargetMax() {
+        return targetMax;
+    }
+
+    /**
+     * Length of the rolling window in milliseconds
+     */
+    public int getWindowMs() {
+        return hopNasal.length * hopFrames * 1000 / sampleRate;
+    }
+
+    /**
+     * Nasalance of the latest voiced window in percent; safe from any thread
+     */
+    public float getNasalance() {
+        return nasalance;
+    }
+
+    /**
+     * Whether the latest window is voiced; safe from any thread
+     */
+    public boolean isVoiced() {
+        return voiced;
+    }
+
+    /**
+     * Current state; safe from any thread
+     */
+    public int getState() {
+        return state;
+    }
+
+    public int getTransitions() {
+        return transitions;
+    }
+
+    public long getFramesProcessed() {
+        return framesProcessed;
+    }
+
+    /**
+     * Voiced seconds judged below, in or above the range, or the unvoiced
+     * seconds for STATE_SILENT; read once processing has stopped
+     */
+    public double getSecondsIn(int state) {
+        if (state == STATE_SILENT) {
+            return (double) framesProcessed / sampleRate - getVoicedSeconds();
+        }
+        return (double) stateHops[state] * hopFrames / sampleRate;
+    }
+
+    /**
+     * Seconds with a voiced window
+     */
+    public double getVoicedSeconds() {
+        return (double) voicedHops * hopFrames / sampleRate;
+    }
+
+    /**
+     * Mean nasalance over the voiced hops in percent
+     */
+    public double getMeanNasalance() {
+        return voicedHops > 0 ? voicedNasalanceSum / voicedHops : 0;
+    }
+
+    public static String stateName(int state) {
+        switch (state) {
+            case STATE_BELOW:
+                return "below";
+            case STATE_IN_RANGE:
+                return "inRange";
+            case STATE_ABOVE:
+                return "above";
+            default:
+                return "silent";
+        }
+    }
+}
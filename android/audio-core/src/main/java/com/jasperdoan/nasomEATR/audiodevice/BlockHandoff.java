@@ -0,0 +1,197 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+/**
+ * Moves a consumer off the capture thread: process() copies each block into
+ * a fixed ring of slots and returns, and run(), on a thread of its own, feeds
+ * the slots to the consumer in order. Segment starts travel through the same
+ * ring, so they land between the same frames as they would inline.
+ *
+ * Nothing is dropped. The ring is allocated up front and holds a bounded
+ * backlog; if the consumer falls that far behind, process() waits for a slot
+ * to come free and counts a stall, which is never worse than running the
+ * consumer inline. Neither side allocates once the ring is built. If the
+ * consumer throws, run() ends and later blocks are discarded; getError()
+ * tells.
+ */
+public final class BlockHandoff implements SegmentedConsumer, Runnable {
+    private final PcmBlockConsumer target;
+    private final int channels;
+    private final int slotFrames;
+
+    private final Object lock = new Object();
+    private final short[][] blocks;
+    private final int[] frames;
+    // Segment starts ride in slots of their own, with no frames
+    private final String[] labels;
+    private int head = 0;
+    private int count = 0;
+    private boolean finished = false;
+    private boolean done = false;
+    private RuntimeException error = null;
+    private int stalls = 0;
+    private int maxBacklog = 0;
+
+    /**
+     * @param slotFrames Frames per slot; larger blocks take several
+     * @param slots Blocks that may be waiting at once, which bounds how far the consumer may fall behind
+     */
+    public BlockHandoff(PcmBlockConsumer target, int channels, int slotFrames, int slots) {
+        this.target = target;
+        this.channels = channels;
+        this.slotFrames = Math.max(1, slotFrames);
+        this.blocks = new short[Math.max(2, slots)][this.slotFrames * channels];
+        this.frames = new int[blocks.length];
+        this.labels = new String[blocks.length];
+    }
+
+    /**
+     * Copy a block for the consumer; waits only while every slot is full
+     */
+    @Override
+    public void process(short[] interleaved, int offset, int frameCount) {
+        int copied = 0;
+        while (copied < frameCount) {
+            int n = Math.min(slotFrames, frameCount - copied);
+            int slot = claim();
+            if (slot < 0) {
+                return;
+            }
+            System.arraycopy(interleaved, offset + copied * channels, blocks[slot], 0, n * channels);
+            publish(slot, n, null);
+            copied += n;
+        }
+    }
+
+    @Override
+    public void startSegment(String label) {
+        int slot = claim();
+        if (slot >= 0) {
+            publish(slot, 0, label);
+        }
+    }
+
+    /**
+     * No more blocks follow; run() returns once the ring is drained
+     */
+    public void finish() {
+        synchronized (lock) {
+            finished = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Wait until run() has fed every block to the consumer and returned
+     */
+    public void awaitDone() throws InterruptedException {
+        synchronized (lock) {
+            while (!done) {
+                lock.wait();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                int slot;
+                synchronized (lock) {
+                    while (count == 0 && !finished) {
+                        lock.wait();
+                    }
+                    if (count == 0) {
+                        return;
+                    }
+                    slot = (head - count + blocks.length) % blocks.length;
+                }
+                if (labels[slot] != null) {
+                    if (target instanceof SegmentedConsumer) {
+                        ((SegmentedConsumer) target).startSegment(labels[slot]);
+                    }
+                    labels[slot] = null;
+                } else {
+                    target.process(blocks[slot], 0, frames[slot]);
+                }
+                synchronized (lock) {
+                    count--;
+                    lock.notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            synchronized (lock) {
+                error = e;
+            }
+        } finally {
+            synchronized (lock) {
+                done = true;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * What stopped the consumer, if it threw; the blocks after it were discarded
+     */
+    public RuntimeException getError() {
+        synchronized (lock) {
+            return error;
+        }
+    }
+
+    /**
+     * Times process() had to wait for the consumer to catch up
+     */
+    public int getStalls() {
+        synchronized (lock) {
+            return stalls;
+        }
+    }
+
+    /**
+     * Most slots that were waiting at once
+     */
+    public int getMaxBacklog() {
+        synchronized (lock) {
+            return maxBacklog;
+        }
+    }
+
+    public int getCapacity() {
+        return blocks.length;
+    }
+
+    private int claim() {
+        synchronized (lock) {
+            if (count == blocks.length) {
+                stalls++;
+                boolean interrupted = false;
+                while (count == blocks.length && !done) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            // Once the consumer has stopped there is nobody to hand blocks to
+            return done ? -1 : head;
+        }
+    }
+
+    private void publish(int slot, int frameCount, String label) {
+        synchronized (lock) {
+            frames[slot] = frameCount;
+            labels[slot] = label;
+            head = (slot + 1) % blocks.length;
+            count++;
+            maxBacklog = Math.max(maxBacklog, count);
+            lock.notifyAll();
+        }
+    }
+}
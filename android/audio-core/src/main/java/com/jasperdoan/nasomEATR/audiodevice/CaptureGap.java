@@ -0,0 +1,26 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+/**
+ * A run of silence inserted into a recording where the input was lost, in
+ * frames from the start of the data chunk, sized to the wall-clock time the
+ * input was away so the rest of the recording stays on time.
+ */
+public final class CaptureGap {
+    public final long startFrame;
+    public final long frames;
+    /** Time from detecting the loss to the first audio of the reopened input */
+    public final double recoveryMs;
+    /** Why the input was considered lost */
+    public final String reason;
+
+    public CaptureGap(long startFrame, long frames, double recoveryMs, String reason) {
+        this.startFrame = startFrame;
+        this.frames = frames;
+        this.recoveryMs = recoveryMs;
+        this.reason = reason;
+    }
+
+    CaptureGap extend(long moreFrames) {
+        return new CaptureGap(startFrame, frames + moreFrames, recoveryMs, reason);
+    }
+}
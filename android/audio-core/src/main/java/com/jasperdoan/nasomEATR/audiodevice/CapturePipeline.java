@@ -0,0 +1,560 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Capture loop: pulls PCM from a {@link CaptureSource}, streams it to WAV
+ * files, feeds live {@link PcmBlockConsumer}s and reports progress.
+ *
+ * Output is organised in takes. A take owns one WAV file and the consumers
+ * that see its frames; the source keeps running between takes, so
+ * back-to-back passages need no device teardown. Take changes are queued to
+ * the capture thread and applied at a buffer boundary, so consecutive takes
+ * neither lose nor duplicate a frame. Segment markers are stamped the same
+ * way, on the first frame of the next buffer, so a marker's position in the
+ * file is exactly where {@link SegmentedConsumer}s started the segment.
+ * Every take also keeps {@link SignalQuality} counters in the same loop.
+ * With a {@link FailoverCaptureSource}, silence it inserts for a lost input
+ * is recorded as the take's gaps and kept from the idle consumer.
+ *
+ * Lifecycle is a lock-free state machine, idle -> arming -> recording ->
+ * draining -> finalized, advanced with compare-and-set so that start and
+ * stop requests from any thread cannot race each other. A stop only moves
+ * the state to draining; the capture thread notices at the next buffer,
+ * stops the source, finalizes the files and then reports completion, so
+ * the source is never released while a read is in flight and the caller
+ * never waits for it.
+ *
+ * The loop has no Android dependencies, so it can be run on a plain JVM with
+ * a {@link WavReplayCaptureSource} to load-test the writer and analyzers.
+ */
+public final class CapturePipeline implements Runnable {
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_ARMING = 1;
+    public static final int STATE_RECORDING = 2;
+    public static final int STATE_DRAINING = 3;
+    public static final int STATE_FINALIZED = 4;
+
+    private static final int BITS_PER_SAMPLE = 16;
+
+    /**
+     * Callbacks from the capture thread
+     */
+    public interface Listener {
+        /** Called about every progressIntervalMs of captured audio with peak levels (0-1) per channel */
+        void onProgress(long framesCaptured, float[] peaks);
+
+        /** Called once capture has ended and the last take is finalized, or with the error that ended capture */
+        void onFinished(CapturePipeline pipeline, Exception error);
+    }
+
+    /**
+     * Called on the capture thread once a take's file is finalized
+     */
+    public interface TakeListener {
+        void onTakeFinished(Take take, Exception error);
+    }
+
+    /**
+     * One output file and the consumers that see exactly its frames
+     */
+    public static final class Take {
+        private final File outputFile;
+        private final List<PcmBlockConsumer> consumers = new ArrayList<PcmBlockConsumer>();
+        private TakeListener listener = null;
+        private volatile ChunkedUploader uploader = null;
+        private WavWriter writer = null;
+        private volatile long framesCaptured = 0;
+        private final List<SegmentMarker> markers = new ArrayList<SegmentMarker>();
+        private final List<CaptureGap> gaps = new ArrayList<CaptureGap>();
+        // Source gap the last entry of gaps belongs to, so a gap spanning several buffers stays one entry
+        private CaptureGap lastSourceGap = null;
+        private volatile boolean finished = false;
+        private volatile SignalQuality quality = null;
+
+        public Take(File outputFile) {
+            this.outputFile = outputFile;
+        }
+
+        /**
+         * Add a consumer before the take is started. Consumers run in the order
+         * added, after the signal-quality counters have seen the raw block, and
+         * each sees the block as the ones before it left it.
+         */
+        public void addConsumer(PcmBlockConsumer consumer) {
+            consumers.add(consumer);
+        }
+
+        public void setListener(TakeListener listener) {
+            this.listener = listener;
+        }
+
+        public File getOutputFile() {
+            return outputFile;
+        }
+
+        public long getFramesCaptured() {
+            return framesCaptured;
+        }
+
+        /**
+         * Signal-quality counters, once the take has been started; complete once it is finished
+         */
+        public SignalQuality getQuality() {
+            return quality;
+        }
+
+        /**
+         * Markers stamped so far, in order
+         */
+        public List<SegmentMarker> getMarkers() {
+            synchronized (markers) {
+                return new ArrayList<SegmentMarker>(markers);
+            }
+        }
+
+        /**
+         * Silence inserted where the input was lost, in frames from the start of the take, in order
+         */
+        public List<CaptureGap> getGaps() {
+            synchronized (gaps) {
+                return new ArrayList<CaptureGap>(gaps);
+            }
+        }
+
+        void addGap(CaptureGap sourceGap, int frames) {
+            synchronized (gaps) {
+                if (sourceGap == lastSourceGap && !gaps.isEmpty()) {
+                    gaps.add(gaps.remove(gaps.size() - 1).extend(frames));
+                } else {
+                    gaps.add(new CaptureGap(framesCaptured, frames, sourceGap.recoveryMs, sourceGap.reason));
+                    lastSourceGap = sourceGap;
+                }
+            }
+        }
+
+        void mark(String label) {
+            SegmentMarker marker = new SegmentMarker(framesCaptured, label);
+            synchronized (markers) {
+                markers.add(marker);
+            }
+            writer.addMarker(marker);
+            for (int i = 0; i < consumers.size(); i++) {
+                if (consumers.get(i) instanceof SegmentedConsumer) {
+                    ((SegmentedConsumer) consumers.get(i)).startSegment(label);
+                }
+            }
+        }
+
+        void open(CaptureSource source, SignalQuality.Listener qualityListener) throws IOException {
+            writer = new WavWriter(outputFile, source.getChannelCount(), source.getSampleRate(), BITS_PER_SAMPLE);
+            quality = new SignalQuality(source.getChannelCount(), source.getSampleRate(), qualityListener);
+        }
+
+        void finish(Exception error) {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    if (error == null) error = e;
+                }
+            }
+            finished = true;
+            ChunkedUploader currentUploader = uploader;
+            if (currentUploader != null) {
+                currentUploader.finish(outputFile.length());
+            }
+            if (listener != null) {
+                listener.onTakeFinished(this, error);
+            }
+        }
+
+        void setUploader(ChunkedUploader uploader) {
+            this.uploader = uploader;
+            // Written before finished is checked, mirroring finish(), so one side always finishes the upload
+            if (finished) {
+                uploader.finish(outputFile.length());
+            }
+        }
+    }
+
+    // Queued in place of a take to end the current one
+    private static final Take STOP_TAKE = new Take(null);
+
+    private final CaptureSource source;
+    // Set when the source inserts gaps for lost input
+    private final FailoverCaptureSource failover;
+    private final int bufferMs;
+    private Listener listener = null;
+    private int progressIntervalMs = 100;
+
+    private final ConcurrentLinkedQueue<Take> takeRequests = new ConcurrentLinkedQueue<Take>();
+    private final ConcurrentLinkedQueue<String> markerRequests = new ConcurrentLinkedQueue<String>();
+    // Last take requested by the controlling thread
+    private volatile Take latestTake = null;
+    // Take being written; owned by the capture thread
+    private Take currentTake = null;
+    private Take firstTake = null;
+    // Sees the input while no take is recording, e.g. to learn the room noise
+    private volatile PcmBlockConsumer idleConsumer = null;
+    private volatile SignalQuality.Listener qualityListener = null;
+
+    private final AtomicInteger state = new AtomicInteger(STATE_IDLE);
+    private final CountDownLatch finalized = new CountDownLatch(1);
+    private volatile long framesCaptured = 0;
+    private long startNanos = 0;
+    private long endNanos = 0;
+    private long maxBlockNanos = 0;
+
+    // Whether the source was started; only touched by the arming thread and then the capture thread
+    private boolean opened = false;
+
+    /**
+     * Pipeline that records nothing until a take is started
+     */
+    public CapturePipeline(CaptureSource source, int bufferMs) {
+        this.source = source;
+        this.failover = source instanceof FailoverCaptureSource ? (FailoverCaptureSource) source : null;
+        this.bufferMs = bufferMs;
+    }
+
+    /**
+     * Pipeline that records everything into one file
+     */
+    public CapturePipeline(CaptureSource source, File outputFile, int bufferMs) {
+        this(source, bufferMs);
+        this.firstTake = new Take(outputFile);
+    }
+
+    /**
+     * Add a consumer to the take given to the constructor
+     */
+    public void addConsumer(PcmBlockConsumer consumer) {
+        firstTake.addConsumer(consumer);
+    }
+
+    /**
+     * Feed every buffer captured while no take is recording to a consumer, on
+     * the capture thread
+     */
+    public void setIdleConsumer(PcmBlockConsumer consumer) {
+        this.idleConsumer = consumer;
+    }
+
+    /**
+     * Receive signal-quality threshold events of takes started after this call
+     */
+    public void setQualityListener(SignalQuality.Listener listener) {
+        this.qualityListener = listener;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Stream the latest take's file to an uploader as it is written. May be
+     * attached while capture is running; the uploader catches up from the
+     * start of the file.
+     *
+     * The header is always sent with the streaming sizes it has while
+     * recording, since the first chunk may go out before close patches it.
+     * The stored object is the take as a streaming WAV, marker chunks
+     * included, and the upload's checksums describe those bytes rather than
+     * the finalized file on disk.
+     */
+    public void setUploader(ChunkedUploader uploader) {
+        Take take = latestTake != null ? latestTake : firstTake;
+        if (take != null) {
+            uploader.setPrefix(WavWriter.streamingHeader(source.getChannelCount(), source.getSampleRate(), BITS_PER_SAMPLE));
+            take.setUploader(uploader);
+        }
+    }
+
+    public void setProgressIntervalMs(int progressIntervalMs) {
+        this.progressIntervalMs = progressIntervalMs;
+    }
+
+    public CaptureSource getSource() {
+        return source;
+    }
+
+    /**
+     * Signal quality of the latest take, or of the take given to the constructor
+     */
+    public SignalQuality getQuality() {
+        Take take = latestTake != null ? latestTake : firstTake;
+        return take != null ? take.quality : null;
+    }
+
+    /**
+     * Gaps of the latest take, or of the take given to the constructor
+     */
+    public List<CaptureGap> getGaps() {
+        Take take = latestTake != null ? latestTake : firstTake;
+        return take != null ? take.getGaps() : new ArrayList<CaptureGap>();
+    }
+
+    /**
+     * File of the latest take, or of the take given to the constructor
+     */
+    public File getOutputFile() {
+        Take take = latestTake != null ? latestTake : firstTake;
+        return take != null ? take.outputFile : null;
+    }
+
+    public int getState() {
+        return state.get();
+    }
+
+    public boolean isRunning() {
+        return state.get() == STATE_RECORDING;
+    }
+
+    /**
+     * True until a stop has been requested or capture has ended on its own
+     */
+    public boolean isActive() {
+        return state.get() < STATE_DRAINING;
+    }
+
+    /**
+     * Ask the capture loop to finish; the source is stopped and the last take
+     * finalized on the capture thread. Never blocks. Returns false if the
+     * pipeline was already stopping or finished.
+     */
+    public boolean requestStop() {
+        while (true) {
+            int current = state.get();
+            if (current >= STATE_DRAINING) {
+                return false;
+            }
+            if (state.compareAndSet(current, STATE_DRAINING)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Wait until the capture thread has released the source and finalized
+     * every take; returns false on timeout
+     */
+    public boolean awaitFinalized(long timeoutMs) throws InterruptedException {
+        return finalized.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start the source and create the first output file on the calling thread,
+     * so failures can be reported before capture begins. Optional; run()
+     * opens the pipeline itself if needed. Does nothing if the pipeline was
+     * already opened or stopped; if stop is requested while arming, the
+     * capture thread finalizes straight away. A failed open finalizes the
+     * pipeline without calling the listener.
+     */
+    public void open() throws IOException {
+        if (!state.compareAndSet(STATE_IDLE, STATE_ARMING)) {
+            return;
+        }
+        try {
+            source.start();
+            opened = true;
+            if (firstTake != null) {
+                firstTake.open(source, qualityListener);
+                latestTake = firstTake;
+                takeRequests.add(firstTake);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (opened) {
+                source.stop();
+                opened = false;
+            }
+            state.set(STATE_FINALIZED);
+            finalized.countDown();
+            throw e;
+        }
+        // Fails if a stop arrived while arming; the state then stays draining
+        state.compareAndSet(STATE_ARMING, STATE_RECORDING);
+    }
+
+    /**
+     * Record into a new take from the next buffer on. The file is created on
+     * the calling thread; a take already running is finalized at the same
+     * buffer boundary, so the two files are contiguous.
+     */
+    public void startTake(Take take) throws IOException {
+        if (state.get() != STATE_RECORDING) {
+            throw new IOException("Capture is not running");
+        }
+        take.open(source, qualityListener);
+        latestTake = take;
+        takeRequests.add(take);
+    }
+
+    /**
+     * End the current take at the next buffer boundary; the source keeps running
+     */
+    public void stopTake() {
+        takeRequests.add(STOP_TAKE);
+    }
+
+    /**
+     * Start a labelled segment of the current take at the first frame of the
+     * next buffer. Ignored when no take is recording.
+     */
+    public void markSegment(String label) {
+        markerRequests.add(label);
+    }
+
+    @Override
+    public void run() {
+        Exception error = null;
+        try {
+            if (state.get() == STATE_IDLE) {
+                open();
+            }
+            int channels = source.getChannelCount();
+            int frameSize = channels * BITS_PER_SAMPLE / 8;
+            int blockFrames = Math.max(1, source.getSampleRate() * bufferMs / 1000);
+
+            byte[] data = new byte[blockFrames * frameSize];
+            short[] samples = new short[data.length / 2];
+            ShortBuffer shorts = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            float[] peaks = new float[channels];
+            int[] blockPeaks = new int[channels];
+            long progressFrames = Math.max(1, (long) source.getSampleRate() * progressIntervalMs / 1000);
+            long nextProgress = progressFrames;
+
+            startNanos = System.nanoTime();
+            while (state.get() == STATE_RECORDING) {
+                int read = source.read(data, 0, data.length);
+                if (read < 0) break;
+                if (read == 0) continue;
+
+                long blockStart = System.nanoTime();
+                applyTakeRequests(null);
+
+                int frames = read / frameSize;
+                boolean gap = failover != null && failover.isGapRead();
+                shorts.clear();
+                shorts.get(samples, 0, frames * channels);
+
+                // Measured before the consumers, which may correct the block in place
+                if (listener != null) {
+                    for (int i = 0; i < frames * channels; i++) {
+                        int magnitude = Math.abs(samples[i]);
+                        int channel = i % channels;
+                        if (magnitude > blockPeaks[channel]) blockPeaks[channel] = magnitude;
+                    }
+                }
+
+                Take take = currentTake;
+                String label;
+                while ((label = markerRequests.poll()) != null) {
+                    if (take != null) {
+                        take.mark(label);
+                    }
+                }
+                if (take != null) {
+                    take.writer.write(data, 0, read);
+                    ChunkedUploader currentUploader = take.uploader;
+                    if (currentUploader != null) {
+                        currentUploader.onBytesAvailable(take.writer.getLength());
+                    }
+                    take.quality.process(samples, 0, frames);
+                    List<PcmBlockConsumer> consumers = take.consumers;
+                    for (int i = 0; i < consumers.size(); i++) {
+                        consumers.get(i).process(samples, 0, frames);
+                    }
+                    if (gap) {
+                        take.addGap(failover.getCurrentGap(), frames);
+                    }
+                    take.framesCaptured += frames;
+                } else if (idleConsumer != null && !gap) {
+                    idleConsumer.process(samples, 0, frames);
+                }
+
+                framesCaptured += frames;
+                maxBlockNanos = Math.max(maxBlockNanos, System.nanoTime() - blockStart);
+
+                if (listener != null && framesCaptured >= nextProgress) {
+                    for (int c = 0; c < channels; c++) {
+                        peaks[c] = blockPeaks[c] / 32768f;
+                        blockPeaks[c] = 0;
+                    }
+                    listener.onProgress(framesCaptured, peaks);
+                    nextProgress = framesCaptured + progressFrames;
+                }
+            }
+        } catch (Exception e) {
+            error = e;
+        } finally {
+            // Capture may also end here on its own (end of input or an error)
+            state.set(STATE_DRAINING);
+            endNanos = System.nanoTime();
+            if (opened) {
+                source.stop();
+            }
+            // Finalize every take still queued, then the current one
+            applyTakeRequests(error);
+            if (currentTake != null) {
+                currentTake.finish(error);
+                currentTake = null;
+            }
+            state.set(STATE_FINALIZED);
+            finalized.countDown();
+        }
+        if (listener != null) {
+            listener.onFinished(this, error);
+        }
+    }
+
+    /**
+     * Apply queued take changes in order. Takes started and stopped before the
+     * loop reached them are still finalized, as empty files.
+     */
+    private void applyTakeRequests(Exception error) {
+        Take request;
+        while ((request = takeRequests.poll()) != null) {
+            if (currentTake != null) {
+                currentTake.finish(error);
+            }
+            currentTake = request == STOP_TAKE ? null : request;
+        }
+    }
+
+    public long getFramesCaptured() {
+        return framesCaptured;
+    }
+
+    public double getCapturedSeconds() {
+        int sampleRate = source.getSampleRate();
+        return sampleRate > 0 ? (double) framesCaptured / sampleRate : 0;
+    }
+
+    /**
+     * Seconds of audio captured per second of wall time; with an unthrottled
+     * replay source this is the maximum sustainable throughput
+     */
+    public double getRealTimeFactor() {
+        long end = state.get() < STATE_DRAINING ? System.nanoTime() : endNanos;
+        double wallSeconds = (end - startNanos) / 1e9;
+        return wallSeconds > 0 ? getCapturedSeconds() / wallSeconds : 0;
+    }
+
+    /**
+     * Longest time spent writing and analyzing a single block
+     */
+    public long getMaxBlockNanos() {
+        return maxBlockNanos;
+    }
+}
@@ -0,0 +1,29 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.IOException;
+
+/**
+ * A source of interleaved 16-bit little-endian PCM for the capture pipeline.
+ *
+ * Implementations wrap a live input (AudioRecord, two merged devices) or a
+ * recorded file, so the writer and analyzers can run without a device.
+ */
+public interface CaptureSource {
+    int getSampleRate();
+
+    int getChannelCount();
+
+    void start() throws IOException;
+
+    /**
+     * Read up to length bytes of whole frames. Returns the number of bytes read,
+     * 0 if nothing is available yet, or -1 once the source is exhausted.
+     * Throws if the source is lost and cannot deliver any more data.
+     */
+    int read(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Stop capturing and release the underlying resources
+     */
+    void stop();
+}
@@ -0,0 +1,215 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.IOException;
+
+/**
+ * Estimates the delay and crosstalk between the nasal and oral channels.
+ *
+ * Each block of BLOCK_FRAMES frames is zero-padded to twice its length and
+ * transformed; the cross-spectrum N[k] * conj(O[k]) is averaged over all
+ * blocks and transformed back once, giving the cross-correlation for every
+ * lag up to BLOCK_FRAMES in O(n log n). A positive lag means the nasal channel
+ * arrives later than the oral channel.
+ *
+ * Measured on an oral-only passage (e.g. the Zoo passage) the least-squares
+ * gain of the aligned oral signal in the nasal channel is the acoustic
+ * crosstalk between the two mics.
+ */
+public final class ChannelAligner implements PcmBlockConsumer {
+    public static final int BLOCK_FRAMES = 4096;
+
+    private static final int READ_FRAMES = 4096;
+
+    private final RealFft fft;
+    private final int fftSize;
+    private final int maxLag;
+
+    private final float[] nasalBlock;
+    private final float[] oralBlock;
+    private final float[] nasalRe;
+    private final float[] nasalIm;
+    private final double[] crossRe;
+    private final double[] crossIm;
+    private int fill = 0;
+
+    private double nasalEnergy = 0;
+    private double oralEnergy = 0;
+    private long blocks = 0;
+
+    public ChannelAligner(int maxLagFrames) {
+        this.fftSize = BLOCK_FRAMES * 2;
+        this.fft = new RealFft(fftSize);
+        this.maxLag = Math.min(maxLagFrames, BLOCK_FRAMES - 1);
+
+        int bins = fft.getBinCount();
+        nasalBlock = new float[fftSize];
+        oralBlock = new float[fftSize];
+        nasalRe = new float[bins];
+        nasalIm = new float[bins];
+        crossRe = new double[bins];
+        crossIm = new double[bins];
+    }
+
+    /**
+     * Feed interleaved 16-bit stereo frames
+     */
+    @Override
+    public void process(short[] interleaved, int offset, int frameCount) {
+        int index = offset;
+        for (int i = 0; i < frameCount; i++) {
+            float nasal = interleaved[index + NasalanceAnalyzer.NASAL_CHANNEL] / 32768f;
+            float oral = interleaved[index + NasalanceAnalyzer.ORAL_CHANNEL] / 32768f;
+            index += 2;
+            nasalBlock[fill] = nasal;
+            oralBlock[fill] = oral;
+            if (++fill == BLOCK_FRAMES) {
+                accumulateBlock();
+            }
+        }
+    }
+
+    private void accumulateBlock() {
+        // Second half of each block stays zero so the correlation is linear, not circular
+        fft.forward(nasalBlock, 0, false);
+        System.arraycopy(fft.getSpectrumRe(), 0, nasalRe, 0, nasalRe.length);
+        System.arraycopy(fft.getSpectrumIm(), 0, nasalIm, 0, nasalIm.length);
+        fft.forward(oralBlock, 0, false);
+        float[] oralRe = fft.getSpectrumRe();
+        float[] oralIm = fft.getSpectrumIm();
+
+        for (int k = 0; k < crossRe.length; k++) {
+            crossRe[k] += nasalRe[k] * oralRe[k] + nasalIm[k] * oralIm[k];
+            crossIm[k] += nasalIm[k] * oralRe[k] - nasalRe[k] * oralIm[k];
+        }
+        for (int i = 0; i < BLOCK_FRAMES; i++) {
+            nasalEnergy += nasalBlock[i] * nasalBlock[i];
+            oralEnergy += oralBlock[i] * oralBlock[i];
+        }
+        fill = 0;
+        blocks++;
+    }
+
+    /**
+     * Lag, crosstalk gain and peak correlation over all complete blocks fed so far
+     */
+    public Alignment getAlignment() {
+        if (blocks == 0 || nasalEnergy == 0 || oralEnergy == 0) {
+            return new Alignment(0, 0f, 0f);
+        }
+
+        float[] re = new float[crossRe.length];
+        float[] im = new float[crossIm.length];
+        for (int k = 0; k < re.length; k++) {
+            re[k] = (float) crossRe[k];
+            im[k] = (float) crossIm[k];
+        }
+        float[] correlation = new float[fftSize];
+        fft.inverse(re, im, correlation);
+
+        int bestLag = 0;
+        float bestValue = 0;
+        for (int lag = -maxLag; lag <= maxLag; lag++) {
+            float value = correlation[lag >= 0 ? lag : fftSize + lag];
+            if (Math.abs(value) > Math.abs(bestValue)) {
+                bestValue = value;
+                bestLag = lag;
+            }
+        }
+
+        float crosstalk = (float) Math.max(0, bestValue / oralEnergy);
+        float peakCorrelation = (float) (bestValue / Math.sqrt(nasalEnergy * oralEnergy));
+        return new Alignment(bestLag, crosstalk, peakCorrelation);
+    }
+
+    /**
+     * Estimate the alignment of a 16-bit stereo WAV file
+     */
+    public static Alignment estimate(WavFile wav, int maxLagFrames) throws IOException {
+        if (wav.channels != 2 || wav.bitsPerSample != 16) {
+            throw new IOException("Alignment requires a 16-bit stereo WAV file");
+        }
+
+        ChannelAligner aligner = new ChannelAligner(maxLagFrames);
+        wav.readBlocks(READ_FRAMES, aligner);
+        return aligner.getAlignment();
+    }
+
+    /**
+     * Measured relation between the two channels
+     */
+    public static final class Alignment {
+        /** Frames by which the nasal channel lags the oral channel (negative = leads) */
+        public final int lagFrames;
+        /** Least-squares gain of the aligned oral signal found in the nasal channel */
+        public final float crosstalk;
+        /** Normalized cross-correlation at the chosen lag */
+        public final float correlation;
+
+        public Alignment(int lagFrames, float crosstalk, float correlation) {
+            this.lagFrames = lagFrames;
+            this.crosstalk = crosstalk;
+            this.correlation = correlation;
+        }
+    }
+
+    /**
+     * Applies a measured alignment to interleaved stereo blocks in place.
+     *
+     * The channel that arrives early is delayed through a small ring buffer,
+     * then the crosstalk gain times the aligned oral sample is removed from the
+     * nasal channel. Allocation happens only in the constructor.
+     */
+    public static final class Corrector {
+        private final int delayedChannel;
+        private final short[] delayLine;
+        private final float crosstalk;
+        private final int crosstalkQ15;
+        private int position = 0;
+
+        public Corrector(int lagFrames, float crosstalk) {
+            // Nasal lags oral -> hold the oral channel back, and vice versa
+            this.delayedChannel = lagFrames >= 0 ? NasalanceAnalyzer.ORAL_CHANNEL : NasalanceAnalyzer.NASAL_CHANNEL;
+            this.delayLine = new short[Math.abs(lagFrames)];
+            this.crosstalk = crosstalk;
+            this.crosstalkQ15 = FixedPoint.q15(crosstalk);
+        }
+
+        public void apply(short[] interleaved, int offset, int frameCount) {
+            apply(interleaved, offset, frameCount, false);
+        }
+
+        /**
+         * As apply(), subtracting the crosstalk with a Q15 coefficient and
+         * integer rounding, for the fixed-point analysis mode
+         */
+        public void applyFixedPoint(short[] interleaved, int offset, int frameCount) {
+            apply(interleaved, offset, frameCount, true);
+        }
+
+        private void apply(short[] interleaved, int offset, int frameCount, boolean fixedPoint) {
+            int index = offset;
+            for (int i = 0; i < frameCount; i++) {
+                if (delayLine.length > 0) {
+                    short current = interleaved[index + delayedChannel];
+                    interleaved[index + delayedChannel] = delayLine[position];
+                    delayLine[position] = current;
+                    if (++position == delayLine.length) {
+                        position = 0;
+                    }
+                }
+                if (crosstalk > 0) {
+                    int nasalIndex = index + NasalanceAnalyzer.NASAL_CHANNEL;
+                    int oral = interleaved[index + NasalanceAnalyzer.ORAL_CHANNEL];
+                    int corrected;
+                    if (fixedPoint) {
+                        corrected = interleaved[nasalIndex] - ((crosstalkQ15 * oral + (1 << 14)) >> 15);
+                    } else {
+                        corrected = Math.round(interleaved[nasalIndex] - crosstalk * oral);
+                    }
+                    interleaved[nasalIndex] = (short) Math.max(-32768, Math.min(32767, corrected));
+                }
+                index += 2;
+            }
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Uploads a file in fixed-size chunks while it is still being written.
+ *
+ * The writer reports how far the file has grown with onBytesAvailable and
+ * calls finish once it is closed; every complete chunk is sent in the
+ * background as soon as it exists, so after the recording stops only the
+ * last partial chunk is left. Each chunk is read once and feeds both the
+ * request body and the running CRC-32C / SHA-256 of the uploaded bytes.
+ *
+ * The append-only protocol cannot go back for bytes the writer rewrites on
+ * close, such as a WAV header with streaming sizes. {@link #setPrefix}
+ * fixes what is sent in their place, so the stored object, the checksums
+ * and a resumed upload all describe the same bytes however far the file
+ * had got when each chunk went out.
+ *
+ * The upload URL, and the prefix if any, are kept in a sidecar file next to
+ * the source, so an upload interrupted by a network failure or an app
+ * restart resumes from the server's offset instead of starting over.
+ */
+public final class ChunkedUploader implements Runnable {
+    public static final int DEFAULT_CHUNK_SIZE = 6 * 1024 * 1024;
+    public static final String STATE_SUFFIX = ".upload";
+
+    private static final long MIN_RETRY_DELAY_MS = 1000;
+    private static final long MAX_RETRY_DELAY_MS = 30000;
+    // Consecutive failed requests without progress before giving up
+    private static final int MAX_FAILURES = 8;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Callbacks from the upload thread
+     */
+    public interface Listener {
+        void onProgress(ChunkedUploader uploader, long bytesUploaded);
+
+        /** Called once the whole file is stored, or with the error that ended the upload */
+        void onFinished(ChunkedUploader uploader, Exception error);
+    }
+
+    private final File file;
+    private final File stateFile;
+    private final UploadTransport transport;
+    private final int chunkSize;
+    private Listener listener = null;
+
+    // Sent in place of the first bytes of the file
+    private byte[] prefix = null;
+
+    private final Object lock = new Object();
+    private long available = 0;
+    private long totalLength = UploadTransport.UNKNOWN_LENGTH;
+    private boolean cancelled = false;
+
+    private volatile String uploadUrl = null;
+    private volatile long bytesUploaded = 0;
+    private volatile boolean complete = false;
+
+    private final Crc32c crc = new Crc32c();
+    private final MessageDigest sha256;
+    private long hashedOffset = 0;
+
+    public ChunkedUploader(File file, UploadTransport transport, int chunkSize) {
+        this.file = file;
+        this.stateFile = new File(file.getPath() + STATE_SUFFIX);
+        this.transport = transport;
+        this.chunkSize = chunkSize;
+        try {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * The file has been written up to length bytes. Called from the writer thread.
+     */
+    public void onBytesAvailable(long length) {
+        synchronized (lock) {
+            if (length - available >= chunkSize || available / chunkSize != length / chunkSize) {
+                available = length;
+                lock.notifyAll();
+            } else {
+                available = length;
+            }
+        }
+    }
+
+    /**
+     * Send these bytes in place of the start of the file, which the writer
+     * rewrites when it is closed. Set before the upload starts; a resumed
+     * upload keeps the prefix it was created with.
+     */
+    public void setPrefix(byte[] prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * The file is complete at totalLength bytes; the rest can be sent
+     */
+    public void finish(long totalLength) {
+        synchronized (lock) {
+            this.available = totalLength;
+            this.totalLength = totalLength;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Finish with the file's current length, for uploading a file that is already closed
+     */
+    public void finish() {
+        finish(file.length());
+    }
+
+    /**
+     * Forget an earlier upload of this path, e.g. when a new recording replaces the file
+     */
+    public void discardSavedState() {
+        stateFile.delete();
+    }
+
+    /**
+     * Stop uploading; the sidecar stays so the upload can be resumed later
+     */
+    public void cancel() {
+        synchronized (lock) {
+            cancelled = true;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        Exception error = null;
+        RandomAccessFile input = null;
+        try {
+            input = new RandomAccessFile(file, "r");
+            byte[] buffer = new byte[chunkSize];
+            long offset = startOrResume();
+            int failures = 0;
+
+            while (true) {
+                long total;
+                int length;
+                synchronized (lock) {
+                    while (!cancelled && totalLength == UploadTransport.UNKNOWN_LENGTH &&
+                            available - offset < chunkSize) {
+                        lock.wait();
+                    }
+                    if (cancelled) {
+                        throw new IOException("Upload cancelled");
+                    }
+                    total = totalLength;
+                    length = (int) Math.min(chunkSize, (total != UploadTransport.UNKNOWN_LENGTH ? total : available) - offset);
+                }
+                input.seek(offset);
+                input.readFully(buffer, 0, length);
+                overlayPrefix(buffer, offset, length);
+                // Only the request that reaches the end carries the final length. If the
+                // last full chunk went out before the length was known this is an empty request.
+                long announcedTotal = offset + length == total ? total : UploadTransport.UNKNOWN_LENGTH;
+
+                long newOffset;
+                try {
+                    newOffset = transport.append(uploadUrl, offset, buffer, length, announcedTotal);
+                } catch (IOException e) {
+                    if (++failures > MAX_FAILURES) {
+                        throw e;
+                    }
+                    sleepBeforeRetry(failures);
+                    newOffset = recoverOffset();
+                    if (newOffset < 0) {
+                        // The server dropped the upload; start a new one
+                        offset = restart();
+                        continue;
+                    }
+                }
+
+                if (newOffset > offset) {
+                    failures = 0;
+                }
+                hashUpTo(newOffset, buffer, offset, length);
+                offset = newOffset;
+                bytesUploaded = offset;
+                if (listener != null) {
+                    listener.onProgress(this, offset);
+                }
+                if (offset == total) {
+                    complete = true;
+                    break;
+                }
+            }
+            stateFile.delete();
+        } catch (Exception e) {
+            error = e;
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    // Nothing useful to do
+                }
+            }
+        }
+        if (listener != null) {
+            listener.onFinished(this, error);
+        }
+    }
+
+    /**
+     * Resume the upload recorded in the sidecar, or create a new one
+     */
+    private long startOrResume() throws IOException {
+        String savedUrl = loadState();
+        if (savedUrl != null) {
+            long offset = transport.getOffset(savedUrl);
+            if (offset >= 0) {
+                uploadUrl = savedUrl;
+                hashUpTo(offset, null, 0, 0);
+                bytesUploaded = offset;
+                return offset;
+            }
+        }
+        return restart();
+    }
+
+    private long restart() throws IOException {
+        long total;
+        synchronized (lock) {
+            total = totalLength;
+        }
+        uploadUrl = transport.create(total);
+        saveState();
+        crc.reset();
+        sha256.reset();
+        hashedOffset = 0;
+        bytesUploaded = 0;
+        return 0;
+    }
+
+    private long recoverOffset() {
+        try {
+            return transport.getOffset(uploadUrl);
+        } catch (IOException e) {
+            // Still offline; the next append will fail fast and retry
+            return bytesUploaded;
+        }
+    }
+
+    /**
+     * Extend the checksums to cover everything the server has accepted, taking
+     * bytes from the chunk buffer when they are there and from the file otherwise
+     */
+    private void hashUpTo(long target, byte[] buffer, long bufferStart, int bufferLength) throws IOException {
+        if (target < hashedOffset) {
+            crc.reset();
+            sha256.reset();
+            hashedOffset = 0;
+        }
+        if (buffer != null && hashedOffset >= bufferStart && target <= bufferStart + bufferLength) {
+            int from = (int) (hashedOffset - bufferStart);
+            int count = (int) (target - hashedOffset);
+            crc.update(buffer, from, count);
+            sha256.update(buffer, from, count);
+            hashedOffset = target;
+            return;
+        }
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.seek(hashedOffset);
+            byte[] block = new byte[64 * 1024];
+            while (hashedOffset < target) {
+                int read = in.read(block, 0, (int) Math.min(block.length, target - hashedOffset));
+                if (read <= 0) throw new IOException("Source file is shorter than the uploaded data");
+                overlayPrefix(block, hashedOffset, read);
+                crc.update(block, 0, read);
+                sha256.update(block, 0, read);
+                hashedOffset += read;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Replace the bytes read from the file at position start with the prefix where they overlap
+     */
+    private void overlayPrefix(byte[] data, long start, int length) {
+        if (prefix != null && start < prefix.length) {
+            System.arraycopy(prefix, (int) start, data, 0, (int) Math.min(length, prefix.length - start));
+        }
+    }
+
+    private void sleepBeforeRetry(int failures) throws InterruptedException {
+        long delay = Math.min(MAX_RETRY_DELAY_MS, MIN_RETRY_DELAY_MS << Math.min(failures - 1, 5));
+        synchronized (lock) {
+            if (!cancelled) {
+                lock.wait(delay);
+            }
+        }
+    }
+
+    private String loadState() {
+        if (!stateFile.exists()) {
+            return null;
+        }
+        try {
+            FileInputStream in = new FileInputStream(stateFile);
+            try {
+                byte[] bytes = new byte[(int) stateFile.length()];
+                int read = in.read(bytes);
+                // The URL, then the prefix in hex on a second line if one was sent
+                String[] lines = new String(bytes, 0, Math.max(0, read), UTF8).trim().split("\n");
+                String url = lines[0].trim();
+                if (url.isEmpty()) {
+                    return null;
+                }
+                if (lines.length > 1) {
+                    prefix = fromHex(lines[1].trim());
+                }
+                return url;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (NumberFormatException e) {
+            // A damaged sidecar; start over
+            return null;
+        }
+    }
+
+    private void saveState() throws IOException {
+        FileOutputStream out = new FileOutputStream(stateFile);
+        try {
+            out.write(uploadUrl.getBytes(UTF8));
+            if (prefix != null) {
+                out.write(("\n" + toHex(prefix)).getBytes(UTF8));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public String getUploadUrl() {
+        return uploadUrl;
+    }
+
+    public long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * CRC-32C of the uploaded bytes as 8 hex digits; final once complete
+     */
+    public String getCrc32c() {
+        String hex = Long.toHexString(crc.getValue());
+        return "00000000".substring(hex.length()) + hex;
+    }
+
+    /**
+     * SHA-256 of the uploaded bytes as hex; only valid once complete
+     */
+    public String getSha256() {
+        byte[] digest;
+        try {
+            digest = ((MessageDigest) sha256.clone()).digest();
+        } catch (CloneNotSupportedException e) {
+            return null;
+        }
+        return toHex(digest);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
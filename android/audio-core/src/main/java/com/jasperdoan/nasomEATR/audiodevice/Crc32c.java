@@ -0,0 +1,60 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+/**
+ * CRC-32C (Castagnoli), the checksum used by cloud object stores, computed
+ * incrementally eight bytes at a time with slicing-by-8 tables.
+ * java.util.zip.CRC32C is not available on every Android version we support.
+ */
+public final class Crc32c {
+    private static final int POLYNOMIAL = 0x82F63B78; // Reflected
+    private static final int[][] TABLES = buildTables();
+
+    private int crc = 0xFFFFFFFF;
+
+    public void update(byte[] data, int offset, int length) {
+        int c = crc;
+        int i = offset;
+        int end = offset + length;
+        int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+        int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+
+        while (end - i >= 8) {
+            int low = c ^ (data[i] & 0xFF | (data[i + 1] & 0xFF) << 8 |
+                    (data[i + 2] & 0xFF) << 16 | (data[i + 3] & 0xFF) << 24);
+            c = t7[low & 0xFF] ^ t6[(low >>> 8) & 0xFF] ^ t5[(low >>> 16) & 0xFF] ^ t4[low >>> 24] ^
+                t3[data[i + 4] & 0xFF] ^ t2[data[i + 5] & 0xFF] ^ t1[data[i + 6] & 0xFF] ^ t0[data[i + 7] & 0xFF];
+            i += 8;
+        }
+        while (i < end) {
+            c = (c >>> 8) ^ t0[(c ^ data[i++]) & 0xFF];
+        }
+        crc = c;
+    }
+
+    public long getValue() {
+        return ~crc & 0xFFFFFFFFL;
+    }
+
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+
+    private static int[][] buildTables() {
+        int[][] tables = new int[8][256];
+        for (int n = 0; n < 256; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? (c >>> 1) ^ POLYNOMIAL : c >>> 1;
+            }
+            tables[0][n] = c;
+        }
+        for (int n = 0; n < 256; n++) {
+            int c = tables[0][n];
+            for (int t = 1; t < 8; t++) {
+                c = (c >>> 8) ^ tables[0][c & 0xFF];
+                tables[t][n] = c;
+            }
+        }
+        return tables;
+    }
+}
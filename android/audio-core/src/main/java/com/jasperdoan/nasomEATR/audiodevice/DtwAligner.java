@@ -0,0 +1,155 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+/**
+ * Dynamic time warping of two feature sequences within a Sakoe-Chiba band.
+ *
+ * Only cells within band of the diagonal (scaled to the two lengths) are
+ * evaluated and stored, so time and memory are O(n * band) rather than
+ * O(n * m). Steps are horizontal, vertical and diagonal, each costing the
+ * Euclidean distance of the two feature rows; the path runs from the first
+ * pair of rows to the last.
+ */
+public final class DtwAligner {
+    private static final byte FROM_DIAGONAL = 0;
+    private static final byte FROM_REFERENCE = 1;
+    private static final byte FROM_OTHER = 2;
+
+    /**
+     * An alignment: step k pairs reference[k] with other[k]
+     */
+    public static final class Path {
+        public final int[] reference;
+        public final int[] other;
+        /** Sum of the distances along the path */
+        public final double cost;
+
+        Path(int[] reference, int[] other, double cost) {
+            this.reference = reference;
+            this.other = other;
+            this.cost = cost;
+        }
+
+        public int length() {
+            return reference.length;
+        }
+
+        /**
+         * Mean distance per step
+         */
+        public double getMeanCost() {
+            return reference.length > 0 ? cost / reference.length : 0;
+        }
+    }
+
+    private DtwAligner() {
+    }
+
+    /**
+     * Align two sequences of equally long feature rows. The band is widened
+     * when needed so the path can always reach the last pair.
+     *
+     * @param band Cells either side of the diagonal to evaluate, per row of the reference
+     */
+    public static Path align(float[][] reference, float[][] other, int band) {
+        int n = reference.length;
+        int m = other.length;
+        if (n == 0 || m == 0) {
+            return new Path(new int[0], new int[0], 0);
+        }
+        // Consecutive rows' bands must overlap however steep the diagonal is
+        band = Math.max(band, n > 1 ? (m - 1 + n - 2) / (n - 1) : m);
+        int width = 2 * band + 1;
+        float[] cost = new float[n * width];
+        byte[] from = new byte[n * width];
+
+        for (int i = 0; i < n; i++) {
+            int first = centre(i, n, m) - band;
+            int previousFirst = i > 0 ? centre(i - 1, n, m) - band : 0;
+            for (int c = 0; c < width; c++) {
+                int j = first + c;
+                int cell = i * width + c;
+                if (j < 0 || j >= m) {
+                    cost[cell] = Float.POSITIVE_INFINITY;
+                    continue;
+                }
+                float best;
+                byte step;
+                if (i == 0 && j == 0) {
+                    best = 0;
+                    step = FROM_DIAGONAL;
+                } else {
+                    best = Float.POSITIVE_INFINITY;
+                    step = FROM_DIAGONAL;
+                    if (i > 0) {
+                        float diagonal = cellCost(cost, (i - 1) * width, j - 1 - previousFirst, width);
+                        if (diagonal < best) {
+                            best = diagonal;
+                            step = FROM_DIAGONAL;
+                        }
+                        float up = cellCost(cost, (i - 1) * width, j - previousFirst, width);
+                        if (up < best) {
+                            best = up;
+                            step = FROM_REFERENCE;
+                        }
+                    }
+                    if (c > 0 && cost[cell - 1] < best) {
+                        best = cost[cell - 1];
+                        step = FROM_OTHER;
+                    }
+                }
+                cost[cell] = best + distance(reference[i], other[j]);
+                from[cell] = step;
+            }
+        }
+
+        // Walk back from the last pair
+        int[] pathReference = new int[n + m];
+        int[] pathOther = new int[n + m];
+        int length = 0;
+        int i = n - 1;
+        int j = m - 1;
+        double total = cost[i * width + (j - (centre(i, n, m) - band))];
+        while (true) {
+            pathReference[length] = i;
+            pathOther[length] = j;
+            length++;
+            if (i == 0 && j == 0) {
+                break;
+            }
+            byte step = from[i * width + (j - (centre(i, n, m) - band))];
+            if (step == FROM_DIAGONAL) {
+                i--;
+                j--;
+            } else if (step == FROM_REFERENCE) {
+                i--;
+            } else {
+                j--;
+            }
+        }
+        int[] reversedReference = new int[length];
+        int[] reversedOther = new int[length];
+        for (int k = 0; k < length; k++) {
+            reversedReference[k] = pathReference[length - 1 - k];
+            reversedOther[k] = pathOther[length - 1 - k];
+        }
+        return new Path(reversedReference, reversedOther, total);
+    }
+
+    // Column of the scaled diagonal in row i
+    private static int centre(int i, int n, int m) {
+        return n > 1 ? (int) ((long) i * (m - 1) / (n - 1)) : 0;
+    }
+
+    private static float cellCost(float[] cost, int rowStart, int column, int width) {
+        return column >= 0 && column < width ? cost[rowStart + column] : Float.POSITIVE_INFINITY;
+    }
+
+    private static float distance(float[] a, float[] b) {
+        float sum = 0;
+        for (int k = 0; k < a.length; k++) {
+            float d = a[k] - b[k];
+            sum += d * d;
+        }
+        return (float) Math.sqrt(sum);
+    }
+}
@@ -0,0 +1,255 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+/**
+ * Merges two independently clocked mono streams into one aligned stereo stream.
+ *
+ * The nasal stream is the reference clock and passes through untouched. The
+ * oral stream is resampled onto the nasal clock with linear interpolation; its
+ * step per output frame is the ratio of the two measured device rates plus a
+ * small proportional correction that pulls the read position towards where
+ * the timestamps say it should be. Each producer writes into its own
+ * single-producer ring and reports (framePosition, nanoTime) timestamps; the
+ * merger itself does no I/O, so it can be driven from synthetic sources.
+ */
+public final class DualSourceMerger {
+    // Clock estimates need this much history before they are trusted
+    private static final long MIN_BASELINE_NANOS = 500_000_000L;
+    // Largest correction applied on top of the rate ratio (1000 ppm)
+    private static final double MAX_CORRECTION = 0.001;
+    // Offsets beyond this many milliseconds are fixed by jumping instead of slewing
+    private static final double RESYNC_MS = 20;
+
+    private final int sampleRate;
+    private final MonoRingBuffer nasal;
+    private final MonoRingBuffer oral;
+    private final ClockTrack nasalClock = new ClockTrack();
+    private final ClockTrack oralClock = new ClockTrack();
+
+    private long nasalRead = 0;
+    private double oralPosition = 0;
+    private double step = 1.0;
+    private double rateRatio = 1.0;
+    private boolean synced = false;
+    private long missingFrames = 0;
+    private long overrunFrames = 0;
+
+    // Snapshot buffers so clock reads don't allocate
+    private final long[] nasalSnapshot = new long[4];
+    private final long[] oralSnapshot = new long[4];
+
+    public DualSourceMerger(int sampleRate, int capacityFrames) {
+        this.sampleRate = sampleRate;
+        this.nasal = new MonoRingBuffer(capacityFrames);
+        this.oral = new MonoRingBuffer(capacityFrames);
+    }
+
+    /**
+     * Called from the nasal reader thread with a block it just read
+     */
+    public void writeNasal(short[] block, int offset, int frames) {
+        nasal.write(block, offset, frames);
+    }
+
+    /**
+     * Called from the oral reader thread with a block it just read
+     */
+    public void writeOral(short[] block, int offset, int frames) {
+        oral.write(block, offset, frames);
+    }
+
+    /**
+     * Record that nasal frame framePosition was captured at nanoTime (monotonic clock)
+     */
+    public void updateNasalClock(long framePosition, long nanoTime) {
+        nasalClock.update(framePosition, nanoTime);
+    }
+
+    /**
+     * Record that oral frame framePosition was captured at nanoTime (monotonic clock)
+     */
+    public void updateOralClock(long framePosition, long nanoTime) {
+        oralClock.update(framePosition, nanoTime);
+    }
+
+    /**
+     * Produce up to maxFrames interleaved stereo frames (nasal left, oral right).
+     * Returns the number of frames written, 0 if either stream has not delivered
+     * enough data yet. With fillMissing set, frames the oral stream cannot cover
+     * are written as silence instead of waiting for it, e.g. after it has stalled.
+     */
+    public synchronized int read(short[] interleaved, int maxFrames, boolean fillMissing) {
+        long nasalAvailable = nasal.getWritePosition() - nasalRead;
+        if (nasalAvailable > nasal.getCapacity()) {
+            // The nasal reader lapped us; skip what was overwritten
+            long lost = nasalAvailable - nasal.getCapacity();
+            nasalRead += lost;
+            oralPosition += lost * step;
+            overrunFrames += lost;
+            nasalAvailable = nasal.getCapacity();
+        }
+        int frames = (int) Math.min(maxFrames, nasalAvailable);
+        if (frames <= 0) {
+            return 0;
+        }
+
+        updateStep();
+
+        if (!fillMissing) {
+            // Keep one frame beyond the last interpolation point
+            double oralAvailable = oral.getWritePosition() - 1 - oralPosition;
+            int oralFrames = oralAvailable <= 0 ? 0 : (int) (oralAvailable / step);
+            frames = Math.min(frames, oralFrames);
+            if (frames <= 0) {
+                return 0;
+            }
+        }
+
+        long oralWritten = oral.getWritePosition();
+        long oralOldest = oralWritten - oral.getCapacity();
+        int index = 0;
+        for (int i = 0; i < frames; i++) {
+            interleaved[index + NasalanceAnalyzer.NASAL_CHANNEL] = nasal.get(nasalRead + i);
+
+            long base = (long) Math.floor(oralPosition);
+            short value;
+            if (base >= oralOldest && base >= 0 && base + 1 < oralWritten) {
+                double fraction = oralPosition - base;
+                int a = oral.get(base);
+                int b = oral.get(base + 1);
+                value = (short) Math.round(a + (b - a) * fraction);
+            } else {
+                value = 0;
+                missingFrames++;
+            }
+            interleaved[index + NasalanceAnalyzer.ORAL_CHANNEL] = value;
+            oralPosition += step;
+            index += 2;
+        }
+        nasalRead += frames;
+        return frames;
+    }
+
+    /**
+     * Recompute the oral step from the two device clocks
+     */
+    private void updateStep() {
+        if (!nasalClock.snapshot(nasalSnapshot) || !oralClock.snapshot(oralSnapshot)) {
+            return;
+        }
+
+        // Frames per nanosecond of each device over the longest baseline available
+        double nasalRate = (double) (nasalSnapshot[2] - nasalSnapshot[0]) / (nasalSnapshot[3] - nasalSnapshot[1]);
+        double oralRate = (double) (oralSnapshot[2] - oralSnapshot[0]) / (oralSnapshot[3] - oralSnapshot[1]);
+        if (nasalRate <= 0 || oralRate <= 0) {
+            return;
+        }
+        rateRatio = oralRate / nasalRate;
+
+        // Where the oral stream should be for the next nasal frame
+        double nasalTime = nasalSnapshot[3] + (nasalRead - nasalSnapshot[2]) / nasalRate;
+        double desired = oralSnapshot[2] + (nasalTime - oralSnapshot[3]) * oralRate;
+        double error = desired - oralPosition;
+
+        if (!synced || Math.abs(error) > sampleRate * RESYNC_MS / 1000.0) {
+            oralPosition = Math.max(0, desired);
+            error = 0;
+            synced = true;
+        }
+
+        // Slew out the remaining offset over roughly one second
+        double correction = Math.max(-MAX_CORRECTION, Math.min(MAX_CORRECTION, error / sampleRate));
+        step = rateRatio + correction;
+    }
+
+    /**
+     * Measured clock drift of the oral device relative to the nasal device
+     */
+    public synchronized double getDriftPpm() {
+        return (rateRatio - 1.0) * 1e6;
+    }
+
+    /**
+     * Oral frames that had to be filled with silence
+     */
+    public synchronized long getMissingFrames() {
+        return missingFrames;
+    }
+
+    /**
+     * Nasal frames dropped because the merger fell more than a ring behind
+     */
+    public synchronized long getOverrunFrames() {
+        return overrunFrames;
+    }
+
+    /**
+     * First and latest timestamp of one device, written by its reader thread
+     */
+    private static final class ClockTrack {
+        private long firstFrame;
+        private long firstNanos;
+        private long lastFrame;
+        private long lastNanos;
+        private boolean started = false;
+
+        synchronized void update(long framePosition, long nanoTime) {
+            if (!started) {
+                firstFrame = framePosition;
+                firstNanos = nanoTime;
+                started = true;
+            }
+            lastFrame = framePosition;
+            lastNanos = nanoTime;
+        }
+
+        /**
+         * Copy {firstFrame, firstNanos, lastFrame, lastNanos}; false while the baseline is too short
+         */
+        synchronized boolean snapshot(long[] out) {
+            if (!started || lastNanos - firstNanos < MIN_BASELINE_NANOS) {
+                return false;
+            }
+            out[0] = firstFrame;
+            out[1] = firstNanos;
+            out[2] = lastFrame;
+            out[3] = lastNanos;
+            return true;
+        }
+    }
+
+    /**
+     * Single-producer ring of mono samples addressed by absolute frame index.
+     * The producer never blocks; if it laps the consumer the oldest frames are lost.
+     */
+    static final class MonoRingBuffer {
+        private final short[] data;
+        private final int mask;
+        private volatile long writePosition = 0;
+
+        MonoRingBuffer(int capacityFrames) {
+            int capacity = Integer.highestOneBit(Math.max(2, capacityFrames - 1)) << 1;
+            data = new short[capacity];
+            mask = capacity - 1;
+        }
+
+        void write(short[] block, int offset, int frames) {
+            long position = writePosition;
+            for (int i = 0; i < frames; i++) {
+                data[(int) ((position + i) & mask)] = block[offset + i];
+            }
+            writePosition = position + frames;
+        }
+
+        short get(long index) {
+            return data[(int) (index & mask)];
+        }
+
+        long getWritePosition() {
+            return writePosition;
+        }
+
+        int getCapacity() {
+            return data.length;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Capture source that survives its input going away mid-recording, e.g. a
+ * USB transmitter glitching off the bus and back.
+ *
+ * The input counts as lost when a read throws, when reads keep coming back
+ * empty for longer than the loss timeout (a failing AudioRecord returns
+ * error codes rather than blocking), or when {@link #signalLost} is called
+ * from a device callback. The lost input is stopped and a {@link Reopener}
+ * is asked for a replacement, the same device or a fallback, every
+ * RETRY_MS until one delivers audio or the give-up time passes.
+ *
+ * Once the replacement delivers its first block, the time the input was
+ * away is inserted as silence ahead of it: from the end of the last block
+ * read before the loss to the start of the first block after it, judged by
+ * the read times on both sides, so the gap is accurate to well within a
+ * buffer. Reads return either gap silence or audio, never both, and
+ * {@link #isGapRead} tells which, so {@link CapturePipeline} can list the
+ * gaps of each take.
+ */
+public final class FailoverCaptureSource implements CaptureSource {
+    // Pause between attempts to reopen a lost input
+    static final long RETRY_MS = 20;
+    // How long a reopened input may take to deliver its first block
+    private static final long FIRST_DATA_TIMEOUT_MS = 500;
+    private static final long POLL_MS = 2;
+
+    /**
+     * Opens a replacement input. Called on the capture thread; the returned
+     * source is started by the caller.
+     */
+    public interface Reopener {
+        /**
+         * @param attempt 1 for the first attempt after a loss
+         * @return A new source, or null if no input is available yet
+         */
+        CaptureSource reopen(int attempt) throws IOException;
+    }
+
+    /**
+     * Called on the capture thread
+     */
+    public interface Listener {
+        void onInputLost(FailoverCaptureSource source, String reason);
+
+        /**
+         * @param gap The silence about to be inserted, in frames from the start of capture
+         */
+        void onInputRecovered(FailoverCaptureSource source, CaptureGap gap);
+    }
+
+    private final Reopener reopener;
+    private final long lossTimeoutNanos;
+    private final long giveUpNanos;
+    private Listener listener = null;
+
+    private CaptureSource current;
+    private int sampleRate;
+    private int channels;
+    private int frameSize;
+    private volatile String lostSignal = null;
+
+    // Capture thread state
+    private long framesDelivered = 0;
+    private long lastDataNanos = 0;
+    private volatile boolean lost = false;
+    private String lostReason = null;
+    private long lostNanos = 0;
+    private long nextAttemptNanos = 0;
+    private int attempts = 0;
+    private String lastReopenError = null;
+    private long gapRemaining = 0;
+    private CaptureGap currentGap = null;
+    private boolean gapRead = false;
+    // First block of the replacement, held back until the gap ahead of it is delivered
+    private byte[] pending = new byte[0];
+    private int pendingLength = 0;
+    private int pendingOffset = 0;
+    private final List<CaptureGap> gaps = new ArrayList<CaptureGap>();
+
+    /**
+     * @param lossTimeoutMs Empty reads for this long count as a loss; one capture buffer is enough
+     * @param giveUpMs Stop trying to reopen after this long and end capture with an error
+     */
+    public FailoverCaptureSource(CaptureSource initial, Reopener reopener, int lossTimeoutMs, int giveUpMs) {
+        this.current = initial;
+        this.reopener = reopener;
+        this.lossTimeoutNanos = lossTimeoutMs * 1000000L;
+        this.giveUpNanos = giveUpMs * 1000000L;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * The input currently being read
+     */
+    public synchronized CaptureSource getCurrent() {
+        return current;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate > 0 ? sampleRate : current.getSampleRate();
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channels > 0 ? channels : current.getChannelCount();
+    }
+
+    @Override
+    public void start() throws IOException {
+        current.start();
+        sampleRate = current.getSampleRate();
+        channels = current.getChannelCount();
+        frameSize = channels * 2;
+        lastDataNanos = System.nanoTime();
+    }
+
+    /**
+     * Treat the input as lost at the next read, e.g. when the device is
+     * reported removed; safe from any thread
+     */
+    public void signalLost(String reason) {
+        lostSignal = reason;
+    }
+
+    /**
+     * True while the input is lost and not yet replaced
+     */
+    public boolean isLost() {
+        return lost;
+    }
+
+    /**
+     * Whether the last read returned inserted silence rather than audio;
+     * capture thread only
+     */
+    public boolean isGapRead() {
+        return gapRead;
+    }
+
+    /**
+     * The gap the last gap read belongs to
+     */
+    public CaptureGap getCurrentGap() {
+        return currentGap;
+    }
+
+    /**
+     * Every gap inserted so far, in frames from the start of capture
+     */
+    public List<CaptureGap> getGaps() {
+        synchronized (gaps) {
+            return new ArrayList<CaptureGap>(gaps);
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        gapRead = false;
+        int frameBytes = length - length % frameSize;
+        if (gapRemaining > 0) {
+            int frames = (int) Math.min(frameBytes / frameSize, gapRemaining);
+            Arrays.fill(buffer, offset, offset + frames * frameSize, (byte) 0);
+            gapRemaining -= frames;
+            framesDelivered += frames;
+            gapRead = true;
+            return frames * frameSize;
+        }
+        if (pendingLength > 0) {
+            int bytes = Math.min(frameBytes, pendingLength);
+            System.arraycopy(pending, pendingOffset, buffer, offset, bytes);
+            pendingOffset += bytes;
+            pendingLength -= bytes;
+            framesDelivered += bytes / frameSize;
+            return bytes;
+        }
+
+        if (!lost) {
+            String signal = lostSignal;
+            if (signal != null) {
+                markLost(signal);
+            } else {
+                int read;
+                try {
+                    read = current.read(buffer, offset, length);
+                } catch (IOException e) {
+                    read = 0;
+                    markLost(e.getMessage());
+                }
+                if (!lost) {
+                    long now = System.nanoTime();
+                    if (read > 0) {
+                        lastDataNanos = now;
+                        framesDelivered += read / frameSize;
+                        return read;
+                    }
+                    if (read < 0) {
+                        return read;
+                    }
+                    if (now - lastDataNanos < lossTimeoutNanos) {
+                        // A failing device returns at once; pause so the capture loop does not spin meanwhile
+                        pause(POLL_MS);
+                        return 0;
+                    }
+                    markLost("No audio for " + (now - lastDataNanos) / 1000000 + " ms");
+                }
+            }
+        }
+        return recover(buffer, offset, length);
+    }
+
+    private void markLost(String reason) {
+        lostSignal = null;
+        lost = true;
+        lostReason = reason != null ? reason : "Input lost";
+        lostNanos = System.nanoTime();
+        nextAttemptNanos = lostNanos;
+        attempts = 0;
+        lastReopenError = null;
+        CaptureSource lostSource = current;
+        lostSource.stop();
+        if (listener != null) {
+            listener.onInputLost(this, lostReason);
+        }
+    }
+
+    /**
+     * One reopen attempt; returns 0 while the input is still away, or the
+     * first gap read once a replacement is delivering
+     */
+    private int recover(byte[] buffer, int offset, int length) throws IOException {
+        long now = System.nanoTime();
+        if (now - lostNanos > giveUpNanos) {
+            throw new IOException(lostReason + "; no input came back within " + giveUpNanos / 1000000 + " ms" +
+                    (lastReopenError != null ? " (" + lastReopenError + ")" : ""));
+        }
+        if (now < nextAttemptNanos) {
+            pause((nextAttemptNanos - now) / 1000000 + 1);
+            return 0;
+        }
+        nextAttemptNanos = now + RETRY_MS * 1000000L;
+        attempts++;
+
+        CaptureSource replacement = null;
+        try {
+            replacement = reopener.reopen(attempts);
+            if (replacement == null) {
+                return 0;
+            }
+            replacement.start();
+            if (replacement.getSampleRate() != sampleRate || replacement.getChannelCount() != channels) {
+                throw new IOException("Replacement input runs at " + replacement.getSampleRate() + " Hz with " +
+                        replacement.getChannelCount() + " channels");
+            }
+            if (pending.length < length) {
+                pending = new byte[length];
+            }
+            int read = 0;
+            long deadline = System.nanoTime() + FIRST_DATA_TIMEOUT_MS * 1000000L;
+            while (read == 0) {
+                read = replacement.read(pending, 0, length);
+                if (read < 0) {
+                    throw new IOException("Replacement input ended at once");
+                }
+                if (read == 0) {
+                    if (System.nanoTime() > deadline) {
+                        throw new IOException("Replacement input delivered no audio");
+                    }
+                    pause(POLL_MS);
+                }
+            }
+            long readNanos = System.nanoTime();
+
+            // The first block started playing into the buffer frames/rate before it was read
+            int frames = read / frameSize;
+            double dataStartNanos = readNanos - frames * 1e9 / sampleRate;
+            long gapFrames = Math.max(0, Math.round((dataStartNanos - lastDataNanos) * sampleRate / 1e9));
+            CaptureGap gap = new CaptureGap(framesDelivered, gapFrames, (readNanos - lostNanos) / 1e6, lostReason);
+            synchronized (this) {
+                current = replacement;
+            }
+            replacement = null;
+            synchronized (gaps) {
+                gaps.add(gap);
+            }
+            currentGap = gap;
+            gapRemaining = gapFrames;
+            pendingOffset = 0;
+            pendingLength = read;
+            lastDataNanos = readNanos;
+            lost = false;
+            if (listener != null) {
+                listener.onInputRecovered(this, gap);
+            }
+        } catch (IOException | RuntimeException e) {
+            lastReopenError = e.getMessage();
+            return 0;
+        } finally {
+            if (replacement != null) {
+                replacement.stop();
+            }
+        }
+        return read(buffer, offset, length);
+    }
+
+    private static void pause(long ms) throws IOException {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the input to come back");
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (!lost) {
+            current.stop();
+        }
+    }
+}
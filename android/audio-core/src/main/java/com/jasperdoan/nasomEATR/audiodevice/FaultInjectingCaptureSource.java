@@ -0,0 +1,144 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Capture source that plays a scripted series of device losses over a
+ * real-time source such as a {@link WavReplayCaptureSource} at speed 1, to
+ * exercise {@link FailoverCaptureSource} without unplugging anything.
+ *
+ * At each fault the device detaches: reads throw (FAULT_THROW, like a dead
+ * AudioRecord) or come back empty (FAULT_ERROR, like AudioRecord error
+ * codes), and start() fails until the outage has passed. The wrapped source
+ * keeps its wall-clock schedule meanwhile, so when the device is started
+ * again the audio that played during the outage is dropped, exactly as a
+ * real input would lose it. getDroppedFrames() is the ground truth the
+ * inserted gaps can be checked against.
+ *
+ * The same instance is both the initial source and what the reopener hands
+ * back; stop() during an outage only drops the handle.
+ */
+public final class FaultInjectingCaptureSource implements CaptureSource {
+    public static final int FAULT_THROW = 1;
+    public static final int FAULT_ERROR = 2;
+
+    private static final class Fault {
+        final long atFrame;
+        final int kind;
+        final long outageMs;
+
+        Fault(long atFrame, int kind, long outageMs) {
+            this.atFrame = atFrame;
+            this.kind = kind;
+            this.outageMs = outageMs;
+        }
+    }
+
+    private final CaptureSource device;
+    private final List<Fault> script = new ArrayList<Fault>();
+    private final List<Long> droppedFrames = new ArrayList<Long>();
+
+    private boolean deviceStarted = false;
+    private long deviceStartNanos = 0;
+    private long framesRead = 0;
+    private int nextFault = 0;
+    private Fault activeFault = null;
+    private long faultNanos = 0;
+    private byte[] scratch = new byte[0];
+
+    public FaultInjectingCaptureSource(CaptureSource device) {
+        this.device = device;
+    }
+
+    /**
+     * Detach the device once atFrame frames have been read, for outageMs;
+     * faults must be added in frame order
+     */
+    public FaultInjectingCaptureSource addFault(long atFrame, int kind, long outageMs) {
+        script.add(new Fault(atFrame, kind, outageMs));
+        return this;
+    }
+
+    /**
+     * Frames that played while the device was detached, one entry per fault recovered from
+     */
+    public synchronized List<Long> getDroppedFrames() {
+        return new ArrayList<Long>(droppedFrames);
+    }
+
+    @Override
+    public int getSampleRate() {
+        return device.getSampleRate();
+    }
+
+    @Override
+    public int getChannelCount() {
+        return device.getChannelCount();
+    }
+
+    @Override
+    public void start() throws IOException {
+        if (!deviceStarted) {
+            device.start();
+            deviceStarted = true;
+            deviceStartNanos = System.nanoTime();
+            return;
+        }
+        if (activeFault == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - faultNanos < activeFault.outageMs * 1000000L) {
+            throw new IOException("Device is not attached");
+        }
+        // Reattach: whatever the device produced in the meantime is gone
+        long frameSize = device.getChannelCount() * 2L;
+        long dueFrames = (now - deviceStartNanos) * device.getSampleRate() / 1000000000L;
+        long drop = Math.max(0, dueFrames - framesRead);
+        long dropped = 0;
+        if (scratch.length == 0) {
+            scratch = new byte[(int) (frameSize * device.getSampleRate() / 100)];
+        }
+        while (dropped < drop) {
+            int bytes = (int) Math.min(scratch.length, (drop - dropped) * frameSize);
+            int read = device.read(scratch, 0, bytes);
+            if (read < 0) {
+                break;
+            }
+            dropped += read / frameSize;
+        }
+        framesRead += dropped;
+        synchronized (this) {
+            droppedFrames.add(dropped);
+        }
+        activeFault = null;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (activeFault == null && nextFault < script.size() && framesRead >= script.get(nextFault).atFrame) {
+            activeFault = script.get(nextFault++);
+            faultNanos = System.nanoTime();
+        }
+        if (activeFault != null) {
+            if (activeFault.kind == FAULT_THROW) {
+                throw new IOException("Capture device was lost");
+            }
+            return 0;
+        }
+        int read = device.read(buffer, offset, length);
+        if (read > 0) {
+            framesRead += read / (device.getChannelCount() * 2);
+        }
+        return read;
+    }
+
+    @Override
+    public void stop() {
+        if (activeFault == null) {
+            device.stop();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+/**
+ * Integer arithmetic behind the fixed-point scoring mode of
+ * {@link NasalanceAnalyzer}, {@link SegmentAnalyzer} and {@link RmsMeter}.
+ *
+ * Sums of squares of 16-bit samples are kept exactly in 64 bits. A mean
+ * square is taken in Q24 (24 fractional bits), so its square root is an
+ * amplitude in Q12 and even sub-LSB levels keep their resolution. Nasalance
+ * is computed in hundredths of a percent with rounding. Nothing here touches
+ * floating point until the final integer is converted for output, so results
+ * are bit-exact on every device and JVM.
+ */
+final class FixedPoint {
+    static final int POWER_FRACTION_BITS = 24;
+    /** Full-scale amplitude (32768) in Q12 */
+    static final double FULL_SCALE_Q12 = 32768.0 * 4096.0;
+    /** Nasalance in hundredths of a percent */
+    static final int NASALANCE_SCALE = 10000;
+    /** SegmentAnalyzer.VOICED_ENERGY (2^31 / 10^4 per frame) in Q24; voiced means strictly above */
+    static final long VOICED_POWER_Q24 = (1L << 55) / 10000;
+
+    private FixedPoint() {
+    }
+
+    /**
+     * floor(sumSquares * 2^24 / frames) without overflow, for sums of up to 2^39 frames
+     */
+    static long meanSquareQ24(long sumSquares, long frames) {
+        if (frames <= 0) {
+            return 0;
+        }
+        long whole = sumSquares / frames;
+        long rest = sumSquares % frames;
+        return (whole << POWER_FRACTION_BITS) + (rest << POWER_FRACTION_BITS) / frames;
+    }
+
+    /**
+     * floor(sqrt(value)) for value >= 0
+     */
+    static long isqrt(long value) {
+        if (value <= 0) {
+            return 0;
+        }
+        // Seed from the bit length, then Newton steps from above until they stop decreasing
+        int bits = 64 - Long.numberOfLeadingZeros(value);
+        long x = 1L << ((bits + 1) / 2);
+        while (true) {
+            long next = (x + value / x) >>> 1;
+            if (next >= x) {
+                return x;
+            }
+            x = next;
+        }
+    }
+
+    /**
+     * Nasalance of two Q24 powers, in hundredths of a percent, rounded
+     */
+    static int nasalance(long nasalPowerQ24, long oralPowerQ24) {
+        long nasal = isqrt(nasalPowerQ24);
+        long total = nasal + isqrt(oralPowerQ24);
+        return total > 0 ? (int) ((nasal * NASALANCE_SCALE + total / 2) / total) : 0;
+    }
+
+    /**
+     * A mean square on the 0-1 full scale, e.g. a noise floor, as a Q24 power in 16-bit units
+     */
+    static long powerQ24(double meanSquare) {
+        return Math.round(meanSquare * 32768.0 * 32768.0 * (1 << POWER_FRACTION_BITS));
+    }
+
+    /**
+     * Normalized 0-1 RMS of a Q24 power
+     */
+    static double rms(long powerQ24) {
+        return isqrt(powerQ24) / FULL_SCALE_Q12;
+    }
+
+    /**
+     * A 0-1 coefficient in Q15, clamped to 32767
+     */
+    static int q15(float coefficient) {
+        return (int) Math.max(-32768, Math.min(32767, Math.round(coefficient * 32768.0)));
+    }
+}
@@ -0,0 +1,427 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Single-pass analysis of a stereo nasometer recording.
+ *
+ * Left channel = nasal mic, right channel = oral mic. Computes the broadband
+ * RMS of each channel, the overall nasalance score, a windowed nasalance
+ * contour, the spectral statistics of {@link SpectralAnalyzer} and the
+ * per-segment statistics of {@link SegmentAnalyzer}. Voiced contour windows
+ * also feed a {@link NasalanceStats} distribution, and a {@link PitchTracker}
+ * follows F0 on the oral channel window by window. When a
+ * {@link ChannelAligner.Corrector} is set, blocks are aligned and crosstalk
+ * corrected in place before anything else sees them. When a
+ * {@link NoiseProfile} is set, its floor is subtracted as power from the
+ * nasalance scores (overall, per window and per segment) and from the band
+ * energies; RMS and peak values stay as measured.
+ *
+ * In fixed-point mode the broadband scores (RMS, nasalance, contour, voicing
+ * and segments) come from exact 64-bit sums of squares and integer square
+ * roots, and crosstalk is corrected with a Q15 coefficient, so they are
+ * bit-exact across devices and JVMs (see {@link FixedPoint}). The spectral
+ * statistics and F0 stay in floating point.
+ */
+public final class NasalanceAnalyzer implements SegmentedConsumer {
+    public static final int NASAL_CHANNEL = 0;
+    public static final int ORAL_CHANNEL = 1;
+    public static final int DEFAULT_WINDOW_MS = 50;
+
+    private static final int READ_FRAMES = 4096;
+
+    private final int sampleRate;
+    private final int windowFrames;
+    private final SpectralAnalyzer spectral;
+    private final SegmentAnalyzer segments;
+    private final PitchTracker pitch;
+    private final NasalanceStats stats = new NasalanceStats();
+    private ChannelAligner.Corrector corrector = null;
+    private NoiseProfile noise = null;
+    // Noise mean square per channel in 16-bit units
+    private double nasalNoise = 0;
+    private double oralNoise = 0;
+
+    private double nasalSumSquares = 0;
+    private double oralSumSquares = 0;
+    private int nasalPeak = 0;
+    private int oralPeak = 0;
+    private long framesProcessed = 0;
+
+    private double windowNasal = 0;
+    private double windowOral = 0;
+    private int windowFill = 0;
+
+    private boolean fixedPoint = false;
+    private long nasalNoiseQ24 = 0;
+    private long oralNoiseQ24 = 0;
+    private long nasalSumSquaresFixed = 0;
+    private long oralSumSquaresFixed = 0;
+    private long windowNasalFixed = 0;
+    private long windowOralFixed = 0;
+    private float[] contour = new float[256];
+    private int contourLength = 0;
+
+    public NasalanceAnalyzer(int sampleRate) {
+        this(sampleRate, DEFAULT_WINDOW_MS);
+    }
+
+    public NasalanceAnalyzer(int sampleRate, int windowMs) {
+        this.sampleRate = sampleRate;
+        this.windowFrames = Math.max(1, sampleRate * windowMs / 1000);
+        this.spectral = new SpectralAnalyzer(sampleRate);
+        this.segments = new SegmentAnalyzer(sampleRate);
+        this.pitch = new PitchTracker(sampleRate, windowMs, ORAL_CHANNEL);
+    }
+
+    /**
+     * Size the contour for frameCount frames up front, so process() does not
+     * have to grow it (and allocate) part way through a recording
+     */
+    public void reserve(long frameCount) {
+        int windows = (int) Math.min(Integer.MAX_VALUE - 8, frameCount / windowFrames + 1);
+        if (windows > contour.length) {
+            contour = Arrays.copyOf(contour, windows);
+        }
+        pitch.reserve(frameCount);
+    }
+
+    public void setCorrector(ChannelAligner.Corrector corrector) {
+        this.corrector = corrector;
+    }
+
+    /**
+     * Subtract a room noise floor from the scores; set before processing starts
+     */
+    public void setNoiseProfile(NoiseProfile noise) {
+        this.noise = noise;
+        nasalNoise = noise != null ? noise.meanSquare[NASAL_CHANNEL] * 32768.0 * 32768.0 : 0;
+        oralNoise = noise != null ? noise.meanSquare[ORAL_CHANNEL] * 32768.0 * 32768.0 : 0;
+        nasalNoiseQ24 = noise != null ? FixedPoint.powerQ24(noise.meanSquare[NASAL_CHANNEL]) : 0;
+        oralNoiseQ24 = noise != null ? FixedPoint.powerQ24(noise.meanSquare[ORAL_CHANNEL]) : 0;
+        spectral.setNoiseFloor(noise);
+        segments.setNoiseFloor(noise);
+    }
+
+    public NoiseProfile getNoiseProfile() {
+        return noise;
+    }
+
+    /**
+     * Score with integer arithmetic only; set before processing starts
+     */
+    public void setFixedPoint(boolean fixedPoint) {
+        this.fixedPoint = fixedPoint;
+        segments.setFixedPoint(fixedPoint);
+    }
+
+    public boolean isFixedPoint() {
+        return fixedPoint;
+    }
+
+    /**
+     * Write spectrogram tiles from the spectral pass; set before processing starts
+     */
+    public void setSpectrogram(SpectrogramWriter writer) {
+        spectral.setSpectrogram(writer);
+    }
+
+    @Override
+    public void startSegment(String label) {
+        segments.startSegment(label);
+    }
+
+    /**
+     * Feed interleaved 16-bit stereo frames. The block is modified in place
+     * when a corrector is set.
+     */
+    @Override
+    public void process(short[] interleaved, int offset, int frameCount) {
+        if (fixedPoint) {
+            if (corrector != null) {
+                corrector.applyFixedPoint(interleaved, offset, frameCount);
+            }
+            processFixedPoint(interleaved, offset, frameCount);
+        } else {
+            if (corrector != null) {
+                corrector.apply(interleaved, offset, frameCount);
+            }
+            processFloat(interleaved, offset, frameCount);
+        }
+        framesProcessed += frameCount;
+        spectral.process(interleaved, offset, frameCount);
+        segments.process(interleaved, offset, frameCount);
+        pitch.process(interleaved, offset, frameCount);
+    }
+
+    private void processFloat(short[] interleaved, int offset, int frameCount) {
+        int index = offset;
+        for (int i = 0; i < frameCount; i++) {
+            int nasalSample = interleaved[index];
+            int oralSample = interleaved[index + 1];
+            index += 2;
+
+            double nasal = nasalSample;
+            double oral = oralSample;
+            nasalPeak = Math.max(nasalPeak, Math.abs(nasalSample));
+            oralPeak = Math.max(oralPeak, Math.abs(oralSample));
+
+            nasalSumSquares += nasal * nasal;
+            oralSumSquares += oral * oral;
+            windowNasal += nasal * nasal;
+            windowOral += oral * oral;
+
+            if (++windowFill == windowFrames) {
+                double nasalPower = Math.max(0, windowNasal / windowFill - nasalNoise);
+                double oralPower = Math.max(0, windowOral / windowFill - oralNoise);
+                float value = nasalance(Math.sqrt(nasalPower), Math.sqrt(oralPower));
+                appendContour(value);
+                // Silent windows carry no nasalance information, only noise
+                if (nasalPower + oralPower > SegmentAnalyzer.VOICED_ENERGY) {
+                    stats.add(value);
+                    segments.addWindow(value);
+                }
+                windowNasal = 0;
+                windowOral = 0;
+                windowFill = 0;
+            }
+        }
+    }
+
+    private void processFixedPoint(short[] interleaved, int offset, int frameCount) {
+        int index = offset;
+        for (int i = 0; i < frameCount; i++) {
+            int nasal = interleaved[index];
+            int oral = interleaved[index + 1];
+            index += 2;
+
+            nasalPeak = Math.max(nasalPeak, Math.abs(nasal));
+            oralPeak = Math.max(oralPeak, Math.abs(oral));
+            int nasalSquare = nasal * nasal;
+            int oralSquare = oral * oral;
+            windowNasalFixed += nasalSquare;
+            windowOralFixed += oralSquare;
+
+            if (++windowFill == windowFrames) {
+                long nasalPower = Math.max(0, FixedPoint.meanSquareQ24(windowNasalFixed, windowFill) - nasalNoiseQ24);
+                long oralPower = Math.max(0, FixedPoint.meanSquareQ24(windowOralFixed, windowFill) - oralNoiseQ24);
+                float value = FixedPoint.nasalance(nasalPower, oralPower) / 100f;
+                appendContour(value);
+                if (nasalPower + oralPower > FixedPoint.VOICED_POWER_Q24) {
+                    stats.add(value);
+                    segments.addWindow(value);
+                }
+                nasalSumSquaresFixed += windowNasalFixed;
+                oralSumSquaresFixed += windowOralFixed;
+                windowNasalFixed = 0;
+                windowOralFixed = 0;
+                windowFill = 0;
+            }
+        }
+    }
+
+    // Whole-recording sums, the open window included
+    private long nasalSumFixed() {
+        return nasalSumSquaresFixed + windowNasalFixed;
+    }
+
+    private long oralSumFixed() {
+        return oralSumSquaresFixed + windowOralFixed;
+    }
+
+    private void appendContour(float value) {
+        if (contourLength == contour.length) {
+            contour = Arrays.copyOf(contour, contour.length * 2);
+        }
+        contour[contourLength++] = value;
+    }
+
+    static float nasalance(double nasalRms, double oralRms) {
+        return nasalRms + oralRms > 0 ? (float) (nasalRms / (nasalRms + oralRms) * 100.0) : 0f;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public long getFramesProcessed() {
+        return framesProcessed;
+    }
+
+    /**
+     * RMS of the nasal channel normalized to the 0-1 range
+     */
+    public double getNasalRms() {
+        if (fixedPoint) {
+            return FixedPoint.rms(FixedPoint.meanSquareQ24(nasalSumFixed(), framesProcessed));
+        }
+        return framesProcessed == 0 ? 0 : Math.sqrt(nasalSumSquares / framesProcessed) / 32768.0;
+    }
+
+    /**
+     * RMS of the oral channel normalized to the 0-1 range
+     */
+    public double getOralRms() {
+        if (fixedPoint) {
+            return FixedPoint.rms(FixedPoint.meanSquareQ24(oralSumFixed(), framesProcessed));
+        }
+        return framesProcessed == 0 ? 0 : Math.sqrt(oralSumSquares / framesProcessed) / 32768.0;
+    }
+
+    /**
+     * Largest absolute nasal sample normalized to the 0-1 range
+     */
+    public double getNasalPeak() {
+        return nasalPeak / 32768.0;
+    }
+
+    /**
+     * Largest absolute oral sample normalized to the 0-1 range
+     */
+    public double getOralPeak() {
+        return oralPeak / 32768.0;
+    }
+
+    /**
+     * Nasalance score (nasal / (nasal + oral) * 100) over everything processed so far
+     */
+    public double getNasalance() {
+        if (framesProcessed == 0) {
+            return 0;
+        }
+        if (fixedPoint) {
+            long nasalPower = Math.max(0, FixedPoint.meanSquareQ24(nasalSumFixed(), framesProcessed) - nasalNoiseQ24);
+            long oralPower = Math.max(0, FixedPoint.meanSquareQ24(oralSumFixed(), framesProcessed) - oralNoiseQ24);
+            return FixedPoint.nasalance(nasalPower, oralPower) / 100.0;
+        }
+        double nasalPower = Math.max(0, nasalSumSquares / framesProcessed - nasalNoise);
+        double oralPower = Math.max(0, oralSumSquares / framesProcessed - oralNoise);
+        return nasalance(Math.sqrt(nasalPower), Math.sqrt(oralPower));
+    }
+
+    public int getWindowMs() {
+        return windowFrames * 1000 / sampleRate;
+    }
+
+    /**
+     * Nasalance per complete window, in percent
+     */
+    public float[] getContour() {
+        return Arrays.copyOf(contour, contourLength);
+    }
+
+    public SpectralAnalyzer getSpectral() {
+        return spectral;
+    }
+
+    public SegmentAnalyzer.Segment[] getSegments() {
+        return segments.getSegments();
+    }
+
+    /**
+     * F0 track of the oral channel, one value per contour window
+     */
+    public PitchTracker getPitch() {
+        return pitch;
+    }
+
+    /**
+     * Distribution of the voiced contour windows so far
+     */
+    public NasalanceStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Run the analysis over the data chunk of a 16-bit stereo WAV file
+     */
+    public static NasalanceAnalyzer analyzeFile(WavFile wav) throws IOException {
+        return analyzeFile(wav, null);
+    }
+
+    /**
+     * Run the analysis over a 16-bit stereo WAV file, correcting channel
+     * alignment on the fly when a corrector is given. Segments start at the
+     * file's cue markers.
+     */
+    public static NasalanceAnalyzer analyzeFile(WavFile wav, ChannelAligner.Corrector corrector) throws IOException {
+        return analyzeFile(wav, corrector, null);
+    }
+
+    /**
+     * As above, also subtracting a room noise floor when one is given
+     */
+    public static NasalanceAnalyzer analyzeFile(WavFile wav, ChannelAligner.Corrector corrector,
+                                                NoiseProfile noise) throws IOException {
+        return analyzeFile(wav, corrector, noise, null);
+    }
+
+    /**
+     * As above, also feeding spectrogram tiles to a writer when one is given.
+     * The caller finishes the writer; it is aborted if reading fails.
+     */
+    public static NasalanceAnalyzer analyzeFile(WavFile wav, ChannelAligner.Corrector corrector,
+                                                NoiseProfile noise, SpectrogramWriter spectrogram) throws IOException {
+        return analyzeFile(wav, corrector, noise, spectrogram, false);
+    }
+
+    /**
+     * As above, scoring in fixed point when asked
+     */
+    public static NasalanceAnalyzer analyzeFile(WavFile wav, ChannelAligner.Corrector corrector, NoiseProfile noise,
+                                                SpectrogramWriter spectrogram, boolean fixedPoint) throws IOException {
+        if (wav.channels != 2) {
+            throw new IOException("Not a stereo WAV file (channels: " + wav.channels + ")");
+        }
+        if (wav.bitsPerSample != 16) {
+            throw new IOException("Unsupported bit depth: " + wav.bitsPerSample);
+        }
+
+        NasalanceAnalyzer analyzer = new NasalanceAnalyzer(wav.sampleRate);
+        analyzer.setFixedPoint(fixedPoint);
+        analyzer.setCorrector(corrector);
+        analyzer.setNoiseProfile(noise);
+        analyzer.reserve(wav.getFrameCount());
+        analyzer.setSpectrogram(spectrogram);
+        try {
+            wav.readBlocks(READ_FRAMES, wav.markers, analyzer);
+        } catch (IOException e) {
+            if (spectrogram != null) {
+                spectrogram.abort();
+            }
+            throw e;
+        }
+        return analyzer;
+    }
+
+    /**
+     * Run the analysis over a stereo stream such as a decoded compressed
+     * file, scoring in fixed point when asked. There are no markers, so
+     * everything is one segment.
+     */
+    public static NasalanceAnalyzer analyzeStream(PcmBlockSource source, ChannelAligner.Corrector corrector, NoiseProfile noise,
+                                                  SpectrogramWriter spectrogram, boolean fixedPoint) throws IOException {
+        if (source.getChannelCount() != 2) {
+            throw new IOException("Not a stereo recording (channels: " + source.getChannelCount() + ")");
+        }
+
+        NasalanceAnalyzer analyzer = new NasalanceAnalyzer(source.getSampleRate());
+        analyzer.setFixedPoint(fixedPoint);
+        analyzer.setCorrector(corrector);
+        analyzer.setNoiseProfile(noise);
+        if (source.getFrameCount() > 0) {
+            analyzer.reserve(source.getFrameCount());
+        }
+        analyzer.setSpectrogram(spectrogram);
+        try {
+            source.readBlocks(READ_FRAMES, analyzer);
+        } catch (IOException e) {
+            if (spectrogram != null) {
+                spectrogram.abort();
+            }
+            throw e;
+        }
+        return analyzer;
+    }
+}
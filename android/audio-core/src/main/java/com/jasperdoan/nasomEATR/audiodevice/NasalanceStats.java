@@ -0,0 +1,168 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Streaming distribution of windowed nasalance values, in constant memory.
+ *
+ * Mean and variance use Welford's update (and Chan's formula to merge).
+ * Percentiles and the share of windows above a threshold come from a
+ * histogram of 0.1 % wide bins over the 0-100 % range nasalance is bounded
+ * to; this is exact to within a bin, costs 4 KB however long the session
+ * runs, and unlike P-square markers merges exactly, so segment and take
+ * statistics can be combined into session statistics after the fact.
+ */
+public final class NasalanceStats {
+    public static final int BINS = 1000;
+    private static final double BIN_WIDTH = 100.0 / BINS;
+
+    private final int[] histogram = new int[BINS];
+    private long count = 0;
+    private double mean = 0;
+    private double m2 = 0;
+    private float min = Float.POSITIVE_INFINITY;
+    private float max = Float.NEGATIVE_INFINITY;
+
+    public void add(float nasalance) {
+        count++;
+        double delta = nasalance - mean;
+        mean += delta / count;
+        m2 += delta * (nasalance - mean);
+        if (nasalance < min) min = nasalance;
+        if (nasalance > max) max = nasalance;
+        histogram[bin(nasalance)]++;
+    }
+
+    /**
+     * Fold another accumulator into this one, as if its values had been added here
+     */
+    public void merge(NasalanceStats other) {
+        if (other.count == 0) {
+            return;
+        }
+        long total = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        m2 += other.m2 + delta * delta * count * other.count / total;
+        count = total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        for (int i = 0; i < BINS; i++) {
+            histogram[i] += other.histogram[i];
+        }
+    }
+
+    public NasalanceStats copy() {
+        NasalanceStats copy = new NasalanceStats();
+        copy.merge(this);
+        return copy;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return count > 0 ? mean : 0;
+    }
+
+    /**
+     * Sample standard deviation
+     */
+    public double getStandardDeviation() {
+        return count > 1 ? Math.sqrt(m2 / (count - 1)) : 0;
+    }
+
+    public double getMin() {
+        return count > 0 ? min : 0;
+    }
+
+    public double getMax() {
+        return count > 0 ? max : 0;
+    }
+
+    /**
+     * Value below which a fraction p (0-1) of the windows fall, interpolated within its bin
+     */
+    public double getPercentile(double p) {
+        if (count == 0) {
+            return 0;
+        }
+        double target = Math.max(0, Math.min(1, p)) * count;
+        long cumulative = 0;
+        for (int i = 0; i < BINS; i++) {
+            int inBin = histogram[i];
+            if (inBin > 0 && cumulative + inBin >= target) {
+                double value = (i + (target - cumulative) / inBin) * BIN_WIDTH;
+                return Math.max(min, Math.min(max, value));
+            }
+            cumulative += inBin;
+        }
+        return max;
+    }
+
+    /**
+     * Fraction (0-1) of windows above a nasalance threshold in percent
+     */
+    public double getFractionAbove(double threshold) {
+        if (count == 0) {
+            return 0;
+        }
+        double position = Math.max(0, Math.min(BINS, threshold / BIN_WIDTH));
+        int edge = (int) position;
+        double above = 0;
+        if (edge < BINS) {
+            // Assume values are spread evenly within the bin holding the threshold
+            above = histogram[edge] * (1 - (position - edge));
+            for (int i = edge + 1; i < BINS; i++) {
+                above += histogram[i];
+            }
+        }
+        return above / count;
+    }
+
+    private static int bin(float nasalance) {
+        int bin = (int) (nasalance / BIN_WIDTH);
+        return bin < 0 ? 0 : bin >= BINS ? BINS - 1 : bin;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(count);
+        out.writeDouble(mean);
+        out.writeDouble(m2);
+        out.writeFloat(min);
+        out.writeFloat(max);
+        // Sparse: a typical passage occupies a few hundred bins
+        int used = 0;
+        for (int value : histogram) {
+            if (value != 0) used++;
+        }
+        out.writeShort(used);
+        for (int i = 0; i < BINS; i++) {
+            if (histogram[i] != 0) {
+                out.writeShort(i);
+                out.writeInt(histogram[i]);
+            }
+        }
+    }
+
+    static NasalanceStats readFrom(DataInputStream in) throws IOException {
+        NasalanceStats stats = new NasalanceStats();
+        stats.count = in.readLong();
+        stats.mean = in.readDouble();
+        stats.m2 = in.readDouble();
+        stats.min = in.readFloat();
+        stats.max = in.readFloat();
+        int used = in.readUnsignedShort();
+        for (int i = 0; i < used; i++) {
+            int bin = in.readUnsignedShort();
+            if (bin >= BINS) {
+                throw new IOException("Corrupt histogram bin: " + bin);
+            }
+            stats.histogram[bin] = in.readInt();
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,103 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.util.Locale;
+
+/**
+ * Noise floor of a room and input device, per channel: the broadband mean
+ * square and the mean power in each of the spectral analysis bands.
+ *
+ * Learned by {@link NoiseProfiler}. Powers are on the 0-1 full scale, band
+ * powers normalized like {@link SpectralAnalyzer#getBandLevelsDb}.
+ */
+public final class NoiseProfile {
+    public final int sampleRate;
+    public final int fftSize;
+    /** Broadband mean square per channel */
+    public final double[] meanSquare;
+    /** Mean power per frame, [channel][band] */
+    public final double[][] bandPower;
+    /** Seconds of audio the floor was learned from */
+    public final double seconds;
+    public final long measuredAt;
+
+    public NoiseProfile(int sampleRate, int fftSize, double[] meanSquare, double[][] bandPower,
+                        double seconds, long measuredAt) {
+        this.sampleRate = sampleRate;
+        this.fftSize = fftSize;
+        this.meanSquare = meanSquare;
+        this.bandPower = bandPower;
+        this.seconds = seconds;
+        this.measuredAt = measuredAt;
+    }
+
+    /**
+     * Whether the floor can be subtracted in an analysis at this sample rate
+     * with the default FFT size and bands
+     */
+    public boolean matches(int sampleRate) {
+        return this.sampleRate == sampleRate && fftSize == SpectralAnalyzer.DEFAULT_FFT_SIZE &&
+                bandPower[0].length == SpectralAnalyzer.DEFAULT_BAND_EDGES.length - 1;
+    }
+
+    public double getLevelDb(int channel) {
+        return toDb(meanSquare[channel]);
+    }
+
+    public float[] getBandLevelsDb(int channel) {
+        float[] levels = new float[bandPower[channel].length];
+        for (int b = 0; b < levels.length; b++) {
+            levels[b] = (float) toDb(bandPower[channel][b]);
+        }
+        return levels;
+    }
+
+    private static double toDb(double power) {
+        return 10.0 * Math.log10(Math.max(power, 1e-14));
+    }
+
+    /**
+     * Compact text form for SharedPreferences
+     */
+    public String encode() {
+        StringBuilder text = new StringBuilder();
+        text.append(sampleRate).append(';').append(fftSize).append(';')
+            .append(seconds).append(';').append(measuredAt);
+        for (int channel = 0; channel < meanSquare.length; channel++) {
+            text.append(';').append(String.format(Locale.US, "%.6e", meanSquare[channel]));
+            for (double power : bandPower[channel]) {
+                text.append(',').append(String.format(Locale.US, "%.6e", power));
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Parse the form written by encode(); null if the text is missing or malformed
+     */
+    public static NoiseProfile decode(String text) {
+        if (text == null) {
+            return null;
+        }
+        try {
+            String[] fields = text.split(";");
+            int channels = fields.length - 4;
+            if (channels != SpectralAnalyzer.CHANNELS) {
+                return null;
+            }
+            double[] meanSquare = new double[channels];
+            double[][] bandPower = new double[channels][];
+            for (int channel = 0; channel < channels; channel++) {
+                String[] values = fields[4 + channel].split(",");
+                meanSquare[channel] = Double.parseDouble(values[0]);
+                bandPower[channel] = new double[values.length - 1];
+                for (int b = 0; b < bandPower[channel].length; b++) {
+                    bandPower[channel][b] = Double.parseDouble(values[b + 1]);
+                }
+            }
+            return new NoiseProfile(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), meanSquare,
+                    bandPower, Double.parseDouble(fields[2]), Long.parseLong(fields[3]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.IOException;
+
+/**
+ * Learns a {@link NoiseProfile} from room tone.
+ *
+ * The input is cut into 250 ms blocks and, per channel and per band, the
+ * lowest block mean seen so far is kept (minimum statistics). A stretch of
+ * pre-roll that includes some talking, a cough or a chair creak therefore
+ * still yields the steady floor: HVAC hum, fan noise, mains. Band powers come
+ * from the same frames and bands as {@link SpectralAnalyzer}, so the floor can
+ * be subtracted from an analysis band for band.
+ */
+public final class NoiseProfiler implements PcmBlockConsumer {
+    public static final int BLOCK_MS = 250;
+    /** Least room tone a profile is learned from */
+    public static final int MIN_PROFILE_MS = 500;
+
+    private static final int CHANNELS = SpectralAnalyzer.CHANNELS;
+    private static final int READ_FRAMES = 4096;
+
+    private final int sampleRate;
+    private final int blockFrames;
+    private final SpectralAnalyzer spectral;
+    private final int bands;
+
+    private final double[] blockSquares = new double[CHANNELS];
+    private int blockFill = 0;
+    private final double[][] lastBandSums;
+    private long lastSpectralFrames = 0;
+
+    // Minimum block means so far; guarded by this, read from other threads by getProfile()
+    private final double[] minMeanSquare = new double[CHANNELS];
+    private final double[][] minBandPower;
+    private int blocks = 0;
+
+    public NoiseProfiler(int sampleRate) {
+        this.sampleRate = sampleRate;
+        this.blockFrames = Math.max(1, sampleRate * BLOCK_MS / 1000);
+        this.spectral = new SpectralAnalyzer(sampleRate);
+        this.bands = SpectralAnalyzer.DEFAULT_BAND_EDGES.length - 1;
+        lastBandSums = new double[CHANNELS][bands];
+        minBandPower = new double[CHANNELS][bands];
+    }
+
+    /**
+     * Feed interleaved 16-bit stereo frames
+     */
+    @Override
+    public void process(short[] interleaved, int offset, int frameCount) {
+        int done = 0;
+        while (done < frameCount) {
+            int count = Math.min(frameCount - done, blockFrames - blockFill);
+            int start = offset + done * CHANNELS;
+            spectral.process(interleaved, start, count);
+            int end = start + count * CHANNELS;
+            for (int index = start; index < end; index += CHANNELS) {
+                double nasal = interleaved[index];
+                double oral = interleaved[index + 1];
+                blockSquares[0] += nasal * nasal;
+                blockSquares[1] += oral * oral;
+            }
+            done += count;
+            blockFill += count;
+            if (blockFill == blockFrames) {
+                closeBlock();
+            }
+        }
+    }
+
+    private void closeBlock() {
+        long spectralFrames = spectral.getFrameCount() - lastSpectralFrames;
+        lastSpectralFrames = spectral.getFrameCount();
+        double scale = spectral.getBandPowerScale();
+        synchronized (this) {
+            for (int channel = 0; channel < CHANNELS; channel++) {
+                double meanSquare = blockSquares[channel] / blockFill / (32768.0 * 32768.0);
+                if (blocks == 0 || meanSquare < minMeanSquare[channel]) {
+                    minMeanSquare[channel] = meanSquare;
+                }
+                for (int b = 0; b < bands; b++) {
+                    double sum = spectral.getBandEnergySum(channel, b);
+                    if (spectralFrames > 0) {
+                        double power = (sum - lastBandSums[channel][b]) / spectralFrames * scale;
+                        if (blocks == 0 || power < minBandPower[channel][b]) {
+                            minBandPower[channel][b] = power;
+                        }
+                    }
+                    lastBandSums[channel][b] = sum;
+                }
+                blockSquares[channel] = 0;
+            }
+            blocks++;
+        }
+        blockFill = 0;
+    }
+
+    public double getSeconds() {
+        return (double) blocks * blockFrames / sampleRate;
+    }
+
+    /**
+     * The floor learned so far, or null until MIN_PROFILE_MS of input has been seen
+     */
+    public synchronized NoiseProfile getProfile() {
+        if (getSeconds() * 1000 < MIN_PROFILE_MS) {
+            return null;
+        }
+        double[][] bandPower = new double[CHANNELS][];
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            bandPower[channel] = minBandPower[channel].clone();
+        }
+        return new NoiseProfile(sampleRate, spectral.getFftSize(), minMeanSquare.clone(), bandPower,
+                getSeconds(), System.currentTimeMillis());
+    }
+
+    /**
+     * Learn the floor of a 16-bit stereo WAV file of room tone
+     */
+    public static NoiseProfile profileFile(WavFile wav) throws IOException {
+        if (wav.channels != 2) {
+            throw new IOException("Not a stereo WAV file (channels: " + wav.channels + ")");
+        }
+        if (wav.bitsPerSample != 16) {
+            throw new IOException("Unsupported bit depth: " + wav.bitsPerSample);
+        }
+        NoiseProfiler profiler = new NoiseProfiler(wav.sampleRate);
+        wav.readBlocks(READ_FRAMES, profiler);
+        return profiler.getProfile();
+    }
+}
@@ -0,0 +1,147 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares two readings of the same passage, e.g. before and after surgery,
+ * window by window instead of as two whole-file averages.
+ *
+ * The band levels of the two recordings are aligned with {@link DtwAligner};
+ * then, along the aligned path, the nasalance of every pair of windows that
+ * are both voiced is averaged per region of the reference reading. Regions
+ * are the reference's marked segments when it has markers, otherwise fixed
+ * stretches of it.
+ */
+public final class PassageComparison {
+    /**
+     * Nasalance of both readings over one region of the reference
+     */
+    public static final class Region {
+        /** Segment label, or null for a fixed stretch */
+        public final String label;
+        public final int referenceStart;
+        public final int referenceEnd;
+        /** Windows of the other reading aligned to the region, -1 if none */
+        public final int otherStart;
+        public final int otherEnd;
+        public final double referenceNasalance;
+        public final double otherNasalance;
+        /** Path steps where both windows were voiced */
+        public final int voicedPairs;
+
+        Region(String label, int referenceStart, int referenceEnd, int otherStart, int otherEnd,
+               double referenceNasalance, double otherNasalance, int voicedPairs) {
+            this.label = label;
+            this.referenceStart = referenceStart;
+            this.referenceEnd = referenceEnd;
+            this.otherStart = otherStart;
+            this.otherEnd = otherEnd;
+            this.referenceNasalance = referenceNasalance;
+            this.otherNasalance = otherNasalance;
+            this.voicedPairs = voicedPairs;
+        }
+
+        /**
+         * Other minus reference, in nasalance points; 0 without voiced pairs
+         */
+        public double getDelta() {
+            return voicedPairs > 0 ? otherNasalance - referenceNasalance : 0;
+        }
+    }
+
+    public final DtwAligner.Path path;
+    public final Region[] regions;
+    /** Over every voiced pair of the path */
+    public final Region overall;
+
+    private PassageComparison(DtwAligner.Path path, Region[] regions, Region overall) {
+        this.path = path;
+        this.regions = regions;
+        this.overall = overall;
+    }
+
+    /**
+     * @param bandWindows How far, in windows, the alignment may stray from the scaled diagonal
+     * @param regionWindows Length of the fixed regions used when the reference has no markers
+     */
+    public static PassageComparison compare(PassageFeatures reference, PassageFeatures other,
+                                            int bandWindows, int regionWindows) {
+        DtwAligner.Path path = DtwAligner.align(reference.getNormalizedLevels(), other.getNormalizedLevels(), bandWindows);
+
+        // Region boundaries in reference windows; windows before the first marker belong to none
+        int windows = reference.getWindowCount();
+        List<String> labels = new ArrayList<String>();
+        List<Integer> starts = new ArrayList<Integer>();
+        List<PassageFeatures.Mark> marks = reference.getMarks();
+        if (!marks.isEmpty()) {
+            for (PassageFeatures.Mark mark : marks) {
+                labels.add(mark.label);
+                starts.add(Math.min(mark.window, windows));
+            }
+        } else {
+            for (int start = 0; start < windows; start += Math.max(1, regionWindows)) {
+                labels.add(null);
+                starts.add(start);
+            }
+        }
+        int count = starts.size();
+        int[] regionOf = new int[windows];
+        for (int w = 0; w < windows; w++) {
+            regionOf[w] = -1;
+        }
+        for (int r = 0; r < count; r++) {
+            int end = r + 1 < count ? starts.get(r + 1) : windows;
+            for (int w = starts.get(r); w < end; w++) {
+                regionOf[w] = r;
+            }
+        }
+
+        double[] referenceSums = new double[count];
+        double[] otherSums = new double[count];
+        int[] pairs = new int[count];
+        int[] otherStart = new int[count];
+        int[] otherEnd = new int[count];
+        for (int r = 0; r < count; r++) {
+            otherStart[r] = -1;
+            otherEnd[r] = -1;
+        }
+        double referenceTotal = 0;
+        double otherTotal = 0;
+        int totalPairs = 0;
+        for (int k = 0; k < path.length(); k++) {
+            int i = path.reference[k];
+            int j = path.other[k];
+            int r = regionOf[i];
+            if (r >= 0) {
+                if (otherStart[r] < 0) {
+                    otherStart[r] = j;
+                }
+                otherEnd[r] = j + 1;
+            }
+            if (!reference.isVoiced(i) || !other.isVoiced(j)) {
+                continue;
+            }
+            referenceTotal += reference.getNasalance(i);
+            otherTotal += other.getNasalance(j);
+            totalPairs++;
+            if (r >= 0) {
+                referenceSums[r] += reference.getNasalance(i);
+                otherSums[r] += other.getNasalance(j);
+                pairs[r]++;
+            }
+        }
+
+        Region[] regions = new Region[count];
+        for (int r = 0; r < count; r++) {
+            int end = r + 1 < count ? starts.get(r + 1) : windows;
+            regions[r] = new Region(labels.get(r), starts.get(r), end, otherStart[r], otherEnd[r],
+                    pairs[r] > 0 ? referenceSums[r] / pairs[r] : 0, pairs[r] > 0 ? otherSums[r] / pairs[r] : 0,
+                    pairs[r]);
+        }
+        Region overall = new Region(null, 0, windows, 0, other.getWindowCount(),
+                totalPairs > 0 ? referenceTotal / totalPairs : 0, totalPairs > 0 ? otherTotal / totalPairs : 0,
+                totalPairs);
+        return new PassageComparison(path, regions, overall);
+    }
+}
@@ -0,0 +1,209 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-window features of a stereo recording for aligning two readings of
+ * the same passage with {@link DtwAligner}.
+ *
+ * Windows are the nasalance contour windows of {@link NasalanceAnalyzer}.
+ * For each one it keeps the nasalance and whether the window is voiced,
+ * computed the same way as the contour, and the octave band levels in dB
+ * of both channels summed, from one Hann-windowed FFT frame over the most
+ * recent samples when the window closes. One transform per window rather
+ * than per half frame keeps a three-minute reading to a few thousand FFTs.
+ * The levels describe what is being said rather than how nasal it is, so
+ * the alignment does not bend towards the quantity being compared.
+ *
+ * Marked segments are remembered by their first window, so a comparison can
+ * report deltas per segment.
+ */
+public final class PassageFeatures implements SegmentedConsumer {
+    private static final double MIN_POWER = 1e-14;
+
+    /**
+     * A marked segment, by the first window that starts inside it
+     */
+    public static final class Mark {
+        public final String label;
+        public final int window;
+
+        Mark(String label, int window) {
+            this.label = label;
+            this.window = window;
+        }
+    }
+
+    private final int sampleRate;
+    private final int windowFrames;
+    private final RealFft fft;
+    private final int[] bandStartBin;
+    private final int[] bandEndBin;
+
+    // Most recent samples of both channels summed, as a ring
+    private final int[] history;
+    private int historyPosition = 0;
+    private final float[] frame;
+    private final float[] power;
+    private final int bands;
+    private long windowNasal = 0;
+    private long windowOral = 0;
+    private int windowFill = 0;
+    private long framesProcessed = 0;
+
+    private float[] levels;
+    private float[] nasalance = new float[256];
+    private boolean[] voiced = new boolean[256];
+    private int windowCount = 0;
+    private final List<Mark> marks = new ArrayList<Mark>();
+
+    public PassageFeatures(int sampleRate) {
+        this(sampleRate, NasalanceAnalyzer.DEFAULT_WINDOW_MS);
+    }
+
+    public PassageFeatures(int sampleRate, int windowMs) {
+        this.sampleRate = sampleRate;
+        this.windowFrames = Math.max(1, sampleRate * windowMs / 1000);
+        this.fft = new RealFft(SpectralAnalyzer.DEFAULT_FFT_SIZE);
+
+        int bins = fft.getBinCount();
+        bands = SpectralAnalyzer.DEFAULT_BAND_EDGES.length - 1;
+        bandStartBin = new int[bands];
+        bandEndBin = new int[bands];
+        for (int b = 0; b < bands; b++) {
+            bandStartBin[b] = Math.min(bins, frequencyToBin(SpectralAnalyzer.DEFAULT_BAND_EDGES[b]));
+            bandEndBin[b] = Math.min(bins, frequencyToBin(SpectralAnalyzer.DEFAULT_BAND_EDGES[b + 1]));
+        }
+        history = new int[SpectralAnalyzer.DEFAULT_FFT_SIZE];
+        frame = new float[SpectralAnalyzer.DEFAULT_FFT_SIZE];
+        power = new float[bins];
+        levels = new float[256 * bands];
+    }
+
+    private int frequencyToBin(float frequency) {
+        return (int) Math.ceil(frequency * (double) fft.getSize() / sampleRate);
+    }
+
+    @Override
+    public void startSegment(String label) {
+        // A segment starting part way through a window counts from the next one
+        marks.add(new Mark(label, (int) ((framesProcessed + windowFrames - 1) / windowFrames)));
+    }
+
+    /**
+     * Feed interleaved 16-bit stereo frames
+     */
+    @Override
+    public void process(short[] interleaved, int offset, int frameCount) {
+        int index = offset;
+        for (int i = 0; i < frameCount; i++) {
+            int nasal = interleaved[index + NasalanceAnalyzer.NASAL_CHANNEL];
+            int oral = interleaved[index + NasalanceAnalyzer.ORAL_CHANNEL];
+            index += 2;
+
+            windowNasal += nasal * nasal;
+            windowOral += oral * oral;
+            history[historyPosition] = nasal + oral;
+            if (++historyPosition == history.length) {
+                historyPosition = 0;
+            }
+            if (++windowFill == windowFrames) {
+                closeWindow();
+            }
+        }
+        framesProcessed += frameCount;
+    }
+
+    private void closeWindow() {
+        if (windowCount == nasalance.length) {
+            nasalance = Arrays.copyOf(nasalance, windowCount * 2);
+            voiced = Arrays.copyOf(voiced, windowCount * 2);
+            levels = Arrays.copyOf(levels, windowCount * 2 * bands);
+        }
+        // Oldest sample first; before the ring has filled its start is still silence
+        for (int k = 0; k < frame.length; k++) {
+            int position = historyPosition + k;
+            frame[k] = history[position < history.length ? position : position - history.length] / 65536f;
+        }
+        fft.powerSpectrum(frame, 0, power);
+        double norm = 2.0 / fft.getWindowNorm();
+        for (int b = 0; b < bands; b++) {
+            double energy = 0;
+            for (int k = bandStartBin[b]; k < bandEndBin[b]; k++) {
+                energy += power[k];
+            }
+            levels[windowCount * bands + b] = (float) (10.0 * Math.log10(Math.max(energy * norm, MIN_POWER)));
+        }
+        double nasalPower = (double) windowNasal / windowFill;
+        double oralPower = (double) windowOral / windowFill;
+        nasalance[windowCount] = NasalanceAnalyzer.nasalance(Math.sqrt(nasalPower), Math.sqrt(oralPower));
+        voiced[windowCount] = nasalPower + oralPower > SegmentAnalyzer.VOICED_ENERGY;
+        windowCount++;
+
+        windowNasal = 0;
+        windowOral = 0;
+        windowFill = 0;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getWindowMs() {
+        return windowFrames * 1000 / sampleRate;
+    }
+
+    /**
+     * Length of one window in seconds
+     */
+    public double getWindowSeconds() {
+        return (double) windowFrames / sampleRate;
+    }
+
+    public int getWindowCount() {
+        return windowCount;
+    }
+
+    public int getBandCount() {
+        return bands;
+    }
+
+    /**
+     * Band levels in dB of every window, each band with its mean over the
+     * voiced windows removed, so a different mic gain or distance does not
+     * count as a difference; one row per window
+     */
+    public float[][] getNormalizedLevels() {
+        double[] mean = new double[bands];
+        int counted = 0;
+        for (int w = 0; w < windowCount; w++) {
+            if (voiced[w]) {
+                for (int b = 0; b < bands; b++) {
+                    mean[b] += levels[w * bands + b];
+                }
+                counted++;
+            }
+        }
+        float[][] rows = new float[windowCount][bands];
+        for (int w = 0; w < windowCount; w++) {
+            for (int b = 0; b < bands; b++) {
+                rows[w][b] = (float) (levels[w * bands + b] - (counted > 0 ? mean[b] / counted : 0));
+            }
+        }
+        return rows;
+    }
+
+    public float getNasalance(int window) {
+        return nasalance[window];
+    }
+
+    public boolean isVoiced(int window) {
+        return voiced[window];
+    }
+
+    public List<Mark> getMarks() {
+        return new ArrayList<Mark>(marks);
+    }
+}
@@ -0,0 +1,8 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+/**
+ * Receives blocks of interleaved 16-bit PCM frames.
+ */
+public interface PcmBlockConsumer {
+    void process(short[] interleaved, int offset, int frameCount);
+}
@@ -0,0 +1,24 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.IOException;
+
+/**
+ * A finite stream of interleaved 16-bit PCM that can be read once, block by
+ * block: a WAV file, or a compressed file decoded on the fly.
+ */
+public interface PcmBlockSource {
+    int getSampleRate();
+
+    int getChannelCount();
+
+    /**
+     * Frames the stream holds, or an estimate when it is decoded and the
+     * container only gives a duration; -1 if unknown
+     */
+    long getFrameCount();
+
+    /**
+     * Stream every frame to a consumer in blocks of up to blockFrames frames
+     */
+    void readBlocks(int blockFrames, PcmBlockConsumer consumer) throws IOException;
+}
@@ -0,0 +1,255 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.util.Arrays;
+
+/**
+ * Incremental YIN fundamental frequency (F0) tracker for the oral channel.
+ *
+ * The input is low-pass filtered and decimated to about 11 kHz, which still
+ * covers voice F0 with plenty of margin and cuts the work by the decimation
+ * factor. At the end of every window of the same length as the nasalance
+ * contour, the most recent ~46 ms of decimated signal is analysed: the YIN
+ * difference function is built from one FFT cross-correlation plus running
+ * energies, normalized by its cumulative mean, and the first dip below the
+ * absolute threshold is refined by parabolic interpolation. The result is one
+ * F0 value per contour window (0 when unvoiced), so track[i] lines up with
+ * contour[i].
+ *
+ * All buffers are allocated in the constructor; process() does not allocate.
+ */
+public final class PitchTracker implements PcmBlockConsumer {
+    public static final float MIN_F0 = 60f;
+    public static final float MAX_F0 = 600f;
+    /** YIN absolute threshold on the cumulative mean normalized difference */
+    public static final float YIN_THRESHOLD = 0.15f;
+
+    private static final int TARGET_RATE = 11025;
+    private static final int FILTER_TAPS = 32;
+    private static final float INTEGRATION_MS = 29f;
+
+    private final int channel;
+    private final int windowFrames;
+    private final int decimation;
+    private final float rate;
+
+    // Anti-aliasing FIR, run only at the decimated output positions
+    private final float[] taps;
+    private final float[] history;
+    private int historyPos = 0;
+    private int phase = 0;
+
+    // Most recent span decimated samples, circular
+    private final int integration;
+    private final int tauMin;
+    private final int tauMax;
+    private final int span;
+    private final float[] ring;
+    private int ringPos = 0;
+    private long decimatedCount = 0;
+
+    private final RealFft fft;
+    private final float[] frame;
+    private final float[] reference;
+    private final float[] refRe;
+    private final float[] refIm;
+    private final float[] crossRe;
+    private final float[] crossIm;
+    private final float[] correlation;
+    private final float[] difference;
+
+    private final double voicedEnergy;
+    private double windowEnergy = 0;
+    private int windowFill = 0;
+
+    private float[] track = new float[256];
+    private int trackLength = 0;
+    private double f0Sum = 0;
+    private int voicedWindows = 0;
+
+    public PitchTracker(int sampleRate, int windowMs, int channel) {
+        this.channel = channel;
+        this.windowFrames = Math.max(1, sampleRate * windowMs / 1000);
+        this.decimation = Math.max(1, sampleRate / TARGET_RATE);
+        this.rate = (float) sampleRate / decimation;
+
+        taps = lowPass(FILTER_TAPS, 0.45f / decimation);
+        history = new float[FILTER_TAPS * 2];
+
+        integration = (int) (rate * INTEGRATION_MS / 1000f);
+        tauMin = Math.max(2, (int) (rate / MAX_F0));
+        tauMax = (int) Math.ceil(rate / MIN_F0);
+        span = integration + tauMax + 1;
+        ring = new float[span];
+
+        // Linear (not circular) correlation of the reference with the whole span
+        int size = Integer.highestOneBit(span - 1) << 1;
+        fft = new RealFft(size);
+        frame = new float[size];
+        reference = new float[size];
+        int bins = fft.getBinCount();
+        refRe = new float[bins];
+        refIm = new float[bins];
+        crossRe = new float[bins];
+        crossIm = new float[bins];
+        correlation = new float[size];
+        difference = new float[tauMax + 2];
+
+        // Same per-frame voicing level as the segment statistics, for one channel
+        voicedEnergy = SegmentAnalyzer.VOICED_ENERGY / 2;
+    }
+
+    /**
+     * Feed interleaved 16-bit stereo frames
+     */
+    @Override
+    public void process(short[] interleaved, int offset, int frameCount) {
+        int index = offset + channel;
+        for (int i = 0; i < frameCount; i++) {
+            float sample = interleaved[index];
+            index += 2;
+            windowEnergy += sample * sample;
+
+            // Doubled history so the filter reads a contiguous run of taps
+            history[historyPos] = sample;
+            history[historyPos + FILTER_TAPS] = sample;
+            if (++historyPos == FILTER_TAPS) historyPos = 0;
+            if (++phase == decimation) {
+                phase = 0;
+                float filtered = 0;
+                for (int k = 0; k < FILTER_TAPS; k++) {
+                    filtered += taps[k] * history[historyPos + k];
+                }
+                ring[ringPos] = filtered / 32768f;
+                if (++ringPos == span) ringPos = 0;
+                decimatedCount++;
+            }
+
+            if (++windowFill == windowFrames) {
+                boolean voiced = windowEnergy > voicedEnergy * windowFill;
+                appendTrack(voiced && decimatedCount >= span ? estimate() : 0f);
+                windowEnergy = 0;
+                windowFill = 0;
+            }
+        }
+    }
+
+    /**
+     * F0 of the most recent span, or 0 if it is not periodic enough
+     */
+    private float estimate() {
+        // Unroll the ring, oldest first; the reference is its first integration samples
+        int tail = span - ringPos;
+        System.arraycopy(ring, ringPos, frame, 0, tail);
+        System.arraycopy(ring, 0, frame, tail, ringPos);
+        System.arraycopy(frame, 0, reference, 0, integration);
+
+        fft.forward(reference, 0, false);
+        System.arraycopy(fft.getSpectrumRe(), 0, refRe, 0, refRe.length);
+        System.arraycopy(fft.getSpectrumIm(), 0, refIm, 0, refIm.length);
+        fft.forward(frame, 0, false);
+        float[] re = fft.getSpectrumRe();
+        float[] im = fft.getSpectrumIm();
+        for (int k = 0; k < crossRe.length; k++) {
+            // conj(Ref) * Frame gives r(tau) = sum x[j] * x[j + tau]
+            crossRe[k] = refRe[k] * re[k] + refIm[k] * im[k];
+            crossIm[k] = refRe[k] * im[k] - refIm[k] * re[k];
+        }
+        fft.inverse(crossRe, crossIm, correlation);
+
+        // d(tau) = e(0) + e(tau) - 2 r(tau), with e(tau) the energy of frame[tau, tau + integration)
+        double energy0 = 0;
+        for (int j = 0; j < integration; j++) {
+            energy0 += frame[j] * frame[j];
+        }
+        if (energy0 <= 0) {
+            return 0f;
+        }
+        double energyTau = energy0;
+        double runningSum = 0;
+        difference[0] = 1f;
+        for (int tau = 1; tau <= tauMax; tau++) {
+            energyTau += frame[tau + integration - 1] * frame[tau + integration - 1] - frame[tau - 1] * frame[tau - 1];
+            float d = (float) Math.max(0, energy0 + energyTau - 2 * correlation[tau]);
+            runningSum += d;
+            // Cumulative mean normalized difference
+            difference[tau] = runningSum > 0 ? (float) (d * tau / runningSum) : 1f;
+        }
+
+        int best = -1;
+        for (int tau = tauMin; tau < tauMax; tau++) {
+            if (difference[tau] < YIN_THRESHOLD) {
+                while (tau + 1 < tauMax && difference[tau + 1] < difference[tau]) {
+                    tau++;
+                }
+                best = tau;
+                break;
+            }
+        }
+        if (best < 0) {
+            return 0f;
+        }
+
+        float left = difference[best - 1];
+        float center = difference[best];
+        float right = difference[best + 1];
+        float curvature = left + right - 2 * center;
+        float shift = curvature > 0 ? 0.5f * (left - right) / curvature : 0f;
+        return rate / (best + Math.max(-0.5f, Math.min(0.5f, shift)));
+    }
+
+    private void appendTrack(float f0) {
+        if (trackLength == track.length) {
+            track = Arrays.copyOf(track, track.length * 2);
+        }
+        track[trackLength++] = f0;
+        if (f0 > 0) {
+            f0Sum += f0;
+            voicedWindows++;
+        }
+    }
+
+    /**
+     * Size the track for frameCount frames up front, like {@link NasalanceAnalyzer#reserve}
+     */
+    public void reserve(long frameCount) {
+        int windows = (int) Math.min(Integer.MAX_VALUE - 8, frameCount / windowFrames + 1);
+        if (windows > track.length) {
+            track = Arrays.copyOf(track, windows);
+        }
+    }
+
+    /**
+     * F0 in Hz per window, 0 where unvoiced
+     */
+    public float[] getTrack() {
+        return Arrays.copyOf(track, trackLength);
+    }
+
+    public double getMeanF0() {
+        return voicedWindows > 0 ? f0Sum / voicedWindows : 0;
+    }
+
+    public int getVoicedWindows() {
+        return voicedWindows;
+    }
+
+    /**
+     * Windowed-sinc low-pass with cutoff as a fraction of the input sample rate
+     */
+    private static float[] lowPass(int length, float cutoff) {
+        float[] h = new float[length];
+        double center = (length - 1) / 2.0;
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            double x = i - center;
+            double sinc = x == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+            double window = 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (length - 1));
+            h[i] = (float) (sinc * window);
+            sum += h[i];
+        }
+        for (int i = 0; i < length; i++) {
+            h[i] /= sum;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,188 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a 16-bit stereo WAV file straight from a memory map and mixes it to a
+ * stereo output block with per-channel gain, mute and solo.
+ *
+ * While both channels are audible the output keeps the recording's layout,
+ * nasal left and oral right; when only one is audible it is played centered.
+ * Mix settings and seeks may be changed from any thread and take effect at the
+ * next block; read() itself belongs to a single playback thread.
+ */
+public final class PlaybackMixer {
+    private final int sampleRate;
+    private final long frameCount;
+    private final ShortBuffer samples;
+
+    private final float[] gain = {1f, 1f};
+    private final boolean[] mute = new boolean[2];
+    private final boolean[] solo = new boolean[2];
+    // Bumped on every settings change so read() only recomputes the mix when needed
+    private volatile int settingsVersion = 0;
+    private int appliedVersion = -1;
+    private float leftNasal, leftOral, rightNasal, rightOral;
+
+    private volatile long pendingSeek = -1;
+    private long position = 0;
+    private final float[] blockPeaks = new float[2];
+
+    private PlaybackMixer(int sampleRate, long frameCount, ShortBuffer samples) {
+        this.sampleRate = sampleRate;
+        this.frameCount = frameCount;
+        this.samples = samples;
+    }
+
+    public static PlaybackMixer open(WavFile wav) throws IOException {
+        if (wav.channels != 2 || wav.bitsPerSample != 16) {
+            throw new IOException("Playback needs a 16-bit stereo WAV file (channels: " + wav.channels +
+                    ", bits: " + wav.bitsPerSample + ")");
+        }
+        long frames = wav.getFrameCount();
+        if (frames * 4 > Integer.MAX_VALUE) {
+            throw new IOException("WAV file too large to map: " + wav.dataSize + " bytes");
+        }
+
+        RandomAccessFile file = new RandomAccessFile(wav.file, "r");
+        try {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, wav.dataOffset, frames * 4);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            return new PlaybackMixer(wav.sampleRate, frames, map.asShortBuffer());
+        } finally {
+            file.close();
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Frame the next read() starts at, not counting a seek that is still pending
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Peak of the last block read for a channel, 0..1, before gain
+     */
+    public float getBlockPeak(int channel) {
+        return blockPeaks[channel];
+    }
+
+    /**
+     * Move to a frame; applied at the start of the next read()
+     */
+    public void seek(long frame) {
+        pendingSeek = Math.max(0, Math.min(frame, frameCount));
+    }
+
+    public synchronized void setGain(int channel, float value) {
+        gain[channel] = Math.max(0f, value);
+        settingsVersion++;
+    }
+
+    public synchronized void setMute(int channel, boolean value) {
+        mute[channel] = value;
+        settingsVersion++;
+    }
+
+    public synchronized void setSolo(int channel, boolean value) {
+        solo[channel] = value;
+        settingsVersion++;
+    }
+
+    public synchronized float getGain(int channel) {
+        return gain[channel];
+    }
+
+    public synchronized boolean isMuted(int channel) {
+        return mute[channel];
+    }
+
+    public synchronized boolean isSoloed(int channel) {
+        return solo[channel];
+    }
+
+    /**
+     * Mix up to maxFrames frames into out (interleaved stereo); returns the
+     * frames written, 0 at the end of the file
+     */
+    public int read(short[] out, int maxFrames) {
+        long seek = pendingSeek;
+        if (seek >= 0) {
+            pendingSeek = -1;
+            position = seek;
+        }
+        if (appliedVersion != settingsVersion) {
+            updateMix();
+        }
+
+        int frames = (int) Math.min(Math.min(maxFrames, out.length / 2), frameCount - position);
+        if (frames <= 0) {
+            blockPeaks[0] = 0;
+            blockPeaks[1] = 0;
+            return 0;
+        }
+
+        int base = (int) (position * 2);
+        int nasalPeak = 0;
+        int oralPeak = 0;
+        for (int i = 0; i < frames; i++) {
+            int nasal = samples.get(base + 2 * i + NasalanceAnalyzer.NASAL_CHANNEL);
+            int oral = samples.get(base + 2 * i + NasalanceAnalyzer.ORAL_CHANNEL);
+            int nasalAbs = nasal < 0 ? -nasal : nasal;
+            int oralAbs = oral < 0 ? -oral : oral;
+            if (nasalAbs > nasalPeak) nasalPeak = nasalAbs;
+            if (oralAbs > oralPeak) oralPeak = oralAbs;
+            out[2 * i] = clamp(nasal * leftNasal + oral * leftOral);
+            out[2 * i + 1] = clamp(nasal * rightNasal + oral * rightOral);
+        }
+        blockPeaks[NasalanceAnalyzer.NASAL_CHANNEL] = nasalPeak / 32768f;
+        blockPeaks[NasalanceAnalyzer.ORAL_CHANNEL] = oralPeak / 32768f;
+        position += frames;
+        return frames;
+    }
+
+    private synchronized void updateMix() {
+        int nasal = NasalanceAnalyzer.NASAL_CHANNEL;
+        int oral = NasalanceAnalyzer.ORAL_CHANNEL;
+        boolean anySolo = solo[nasal] || solo[oral];
+        boolean nasalAudible = !mute[nasal] && (!anySolo || solo[nasal]);
+        boolean oralAudible = !mute[oral] && (!anySolo || solo[oral]);
+        float nasalGain = nasalAudible ? gain[nasal] : 0f;
+        float oralGain = oralAudible ? gain[oral] : 0f;
+
+        if (nasalAudible && oralAudible) {
+            leftNasal = nasalGain;
+            leftOral = 0f;
+            rightNasal = 0f;
+            rightOral = oralGain;
+        } else {
+            // A single audible channel (or none) goes to both ears
+            leftNasal = nasalGain;
+            rightNasal = nasalGain;
+            leftOral = oralGain;
+            rightOral = oralGain;
+        }
+        appliedVersion = settingsVersion;
+    }
+
+    private static short clamp(float value) {
+        if (value > 32767f) return 32767;
+        if (value < -32768f) return -32768;
+        return (short) value;
+    }
+}
@@ -0,0 +1,202 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Named timing spans around the stages of processing jobs, with a running
+ * p50/p95/p99 summary per stage.
+ *
+ * Each span goes to an optional {@link TraceSink} (android.os.Trace in the
+ * app, so spans show up in Perfetto and systrace) and, when stats are
+ * enabled, its duration is kept in a fixed ring of the last WINDOW samples
+ * of its stage. Percentiles are computed from the ring only when a snapshot
+ * is taken. With stats disabled and no trace being captured, begin() is a
+ * volatile read and end() a compare, with nothing allocated.
+ *
+ * Stage names should be constants: they are map keys and span labels.
+ */
+public final class ProcessingStats {
+    /** Samples kept per stage for the percentiles */
+    public static final int WINDOW = 512;
+    /** Returned by begin() when nothing is listening; end() ignores it */
+    public static final long OFF = Long.MIN_VALUE;
+
+    /**
+     * Where spans are reported besides the stats, e.g. android.os.Trace.
+     * Synchronous sections nest on the calling thread; async sections can
+     * end on another thread and are matched by name and cookie.
+     */
+    public interface TraceSink {
+        boolean isEnabled();
+
+        void beginSection(String name);
+
+        void endSection();
+
+        void beginAsyncSection(String name, int cookie);
+
+        void endAsyncSection(String name, int cookie);
+    }
+
+    /**
+     * Summary of one stage over its window
+     */
+    public static final class Summary {
+        public final long count;
+        public final int window;
+        public final double meanMs;
+        public final double p50Ms;
+        public final double p95Ms;
+        public final double p99Ms;
+        public final double maxMs;
+
+        Summary(long count, int window, double meanMs, double p50Ms, double p95Ms, double p99Ms, double maxMs) {
+            this.count = count;
+            this.window = window;
+            this.meanMs = meanMs;
+            this.p50Ms = p50Ms;
+            this.p95Ms = p95Ms;
+            this.p99Ms = p99Ms;
+            this.maxMs = maxMs;
+        }
+    }
+
+    private static final class Stage {
+        final long[] nanos = new long[WINDOW];
+        long count = 0;
+    }
+
+    private final ConcurrentHashMap<String, Stage> stages = new ConcurrentHashMap<String, Stage>();
+    private volatile boolean enabled = false;
+    private volatile TraceSink sink = null;
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setTraceSink(TraceSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Open a span on the calling thread; pass the result to end() on the same thread
+     */
+    public long begin(String stage) {
+        TraceSink traceSink = sink;
+        boolean tracing = traceSink != null && traceSink.isEnabled();
+        if (!enabled && !tracing) {
+            return OFF;
+        }
+        if (traceSink != null) {
+            traceSink.beginSection(stage);
+        }
+        return System.nanoTime();
+    }
+
+    public void end(String stage, long start) {
+        if (start == OFF) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        TraceSink traceSink = sink;
+        if (traceSink != null) {
+            traceSink.endSection();
+        }
+        if (enabled) {
+            record(stage, nanos);
+        }
+    }
+
+    /**
+     * Open a span that endAsync() closes, possibly on another thread;
+     * the cookie tells overlapping spans of the same stage apart
+     */
+    public long beginAsync(String stage, int cookie) {
+        TraceSink traceSink = sink;
+        boolean tracing = traceSink != null && traceSink.isEnabled();
+        if (!enabled && !tracing) {
+            return OFF;
+        }
+        if (traceSink != null) {
+            traceSink.beginAsyncSection(stage, cookie);
+        }
+        return System.nanoTime();
+    }
+
+    public void endAsync(String stage, int cookie, long start) {
+        if (start == OFF) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        TraceSink traceSink = sink;
+        if (traceSink != null) {
+            traceSink.endAsyncSection(stage, cookie);
+        }
+        if (enabled) {
+            record(stage, nanos);
+        }
+    }
+
+    /**
+     * Add a duration measured elsewhere
+     */
+    public void record(String stage, long nanos) {
+        Stage entry = stages.get(stage);
+        if (entry == null) {
+            Stage created = new Stage();
+            entry = stages.putIfAbsent(stage, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        synchronized (entry) {
+            entry.nanos[(int) (entry.count % WINDOW)] = nanos;
+            entry.count++;
+        }
+    }
+
+    /**
+     * Summary of every stage seen so far, by name
+     */
+    public Map<String, Summary> snapshot() {
+        Map<String, Summary> summaries = new TreeMap<String, Summary>();
+        for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+            Stage stage = entry.getValue();
+            long[] window;
+            long count;
+            synchronized (stage) {
+                count = stage.count;
+                window = Arrays.copyOf(stage.nanos, (int) Math.min(count, WINDOW));
+            }
+            if (window.length == 0) {
+                continue;
+            }
+            Arrays.sort(window);
+            long sum = 0;
+            for (long nanos : window) {
+                sum += nanos;
+            }
+            summaries.put(entry.getKey(), new Summary(count, window.length, sum / 1e6 / window.length,
+                    percentile(window, 50), percentile(window, 95), percentile(window, 99),
+                    window[window.length - 1] / 1e6));
+        }
+        return summaries;
+    }
+
+    public void reset() {
+        stages.clear();
+    }
+
+    // Nearest-rank percentile of sorted durations, in milliseconds
+    private static double percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+}
@@ -0,0 +1,233 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+/**
+ * Real-input FFT of a fixed power-of-two size.
+ *
+ * The transform packs the real input into a complex sequence of half the size,
+ * runs an in-place radix-2 FFT on it and splits the result into the first
+ * size / 2 + 1 bins of the real spectrum. Twiddles, the bit-reversal table and
+ * the Hann window are computed once in the constructor and every work array is
+ * preallocated, so transforming a frame never allocates. Instances are not
+ * thread-safe; use one per analysis thread.
+ */
+public final class RealFft {
+    private final int size;
+    private final int half;
+
+    // Twiddles e^(-2*pi*i*j/half) for the half-size complex transform
+    private final float[] twiddleCos;
+    private final float[] twiddleSin;
+
+    // Twiddles e^(-2*pi*i*k/size) used to split the packed spectrum
+    private final float[] splitCos;
+    private final float[] splitSin;
+
+    private final int[] bitReverse;
+    private final float[] window;
+    private final float windowNorm;
+
+    // Work arrays for the packed complex sequence
+    private final float[] workRe;
+    private final float[] workIm;
+
+    // Spectrum of the last forward transform, bins 0..half
+    private final float[] spectrumRe;
+    private final float[] spectrumIm;
+
+    public RealFft(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two >= 4: " + size);
+        }
+        this.size = size;
+        this.half = size / 2;
+
+        twiddleCos = new float[half / 2];
+        twiddleSin = new float[half / 2];
+        for (int j = 0; j < half / 2; j++) {
+            double angle = 2.0 * Math.PI * j / half;
+            twiddleCos[j] = (float) Math.cos(angle);
+            twiddleSin[j] = (float) -Math.sin(angle);
+        }
+
+        splitCos = new float[half + 1];
+        splitSin = new float[half + 1];
+        for (int k = 0; k <= half; k++) {
+            double angle = 2.0 * Math.PI * k / size;
+            splitCos[k] = (float) Math.cos(angle);
+            splitSin[k] = (float) -Math.sin(angle);
+        }
+
+        bitReverse = new int[half];
+        int bits = Integer.numberOfTrailingZeros(half);
+        for (int i = 0; i < half; i++) {
+            bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+
+        // Periodic Hann window
+        window = new float[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2.0 * Math.PI * i / size));
+            sum += window[i];
+        }
+        windowNorm = (float) (sum * sum);
+
+        workRe = new float[half];
+        workIm = new float[half];
+        spectrumRe = new float[half + 1];
+        spectrumIm = new float[half + 1];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Number of spectrum bins produced by a forward transform (size / 2 + 1)
+     */
+    public int getBinCount() {
+        return half + 1;
+    }
+
+    /**
+     * Squared sum of the window coefficients; dividing |X[k]|^2 by this gives
+     * the power of a sinusoid centred on bin k
+     */
+    public float getWindowNorm() {
+        return windowNorm;
+    }
+
+    /**
+     * Real part of the spectrum computed by the last forward transform
+     */
+    public float[] getSpectrumRe() {
+        return spectrumRe;
+    }
+
+    /**
+     * Imaginary part of the spectrum computed by the last forward transform
+     */
+    public float[] getSpectrumIm() {
+        return spectrumIm;
+    }
+
+    /**
+     * Transform size samples starting at offset, optionally applying the Hann window.
+     * The result is left in {@link #getSpectrumRe()} / {@link #getSpectrumIm()}.
+     */
+    public void forward(float[] input, int offset, boolean windowed) {
+        if (windowed) {
+            for (int m = 0; m < half; m++) {
+                workRe[m] = input[offset + 2 * m] * window[2 * m];
+                workIm[m] = input[offset + 2 * m + 1] * window[2 * m + 1];
+            }
+        } else {
+            for (int m = 0; m < half; m++) {
+                workRe[m] = input[offset + 2 * m];
+                workIm[m] = input[offset + 2 * m + 1];
+            }
+        }
+
+        complexTransform(false);
+
+        for (int k = 0; k <= half; k++) {
+            int k1 = k == half ? 0 : k;
+            int k2 = k == 0 ? 0 : half - k;
+            float zr = workRe[k1];
+            float zi = workIm[k1];
+            float cr = workRe[k2];
+            float ci = -workIm[k2];
+
+            // Even part (Z[k] + conj(Z[half-k])) / 2, odd part (Z[k] - conj(Z[half-k])) / 2i
+            float er = (zr + cr) * 0.5f;
+            float ei = (zi + ci) * 0.5f;
+            float or = (zi - ci) * 0.5f;
+            float oi = -(zr - cr) * 0.5f;
+
+            float wr = splitCos[k];
+            float wi = splitSin[k];
+            spectrumRe[k] = er + wr * or - wi * oi;
+            spectrumIm[k] = ei + wr * oi + wi * or;
+        }
+    }
+
+    /**
+     * Windowed forward transform that writes |X[k]|^2 for bins 0..size/2 into power
+     */
+    public void powerSpectrum(float[] input, int offset, float[] power) {
+        forward(input, offset, true);
+        for (int k = 0; k <= half; k++) {
+            power[k] = spectrumRe[k] * spectrumRe[k] + spectrumIm[k] * spectrumIm[k];
+        }
+    }
+
+    /**
+     * Inverse transform of a half spectrum (bins 0..size/2) back to size real samples
+     */
+    public void inverse(float[] re, float[] im, float[] output) {
+        for (int k = 0; k < half; k++) {
+            float xr = re[k];
+            float xi = im[k];
+            float cr = re[half - k];
+            float ci = -im[half - k];
+
+            float er = (xr + cr) * 0.5f;
+            float ei = (xi + ci) * 0.5f;
+            float dr = (xr - cr) * 0.5f;
+            float di = (xi - ci) * 0.5f;
+
+            // Odd part = d * conj(W^k)
+            float wr = splitCos[k];
+            float wi = splitSin[k];
+            float or = dr * wr + di * wi;
+            float oi = di * wr - dr * wi;
+
+            workRe[k] = er - oi;
+            workIm[k] = ei + or;
+        }
+
+        complexTransform(true);
+
+        float scale = 1.0f / half;
+        for (int m = 0; m < half; m++) {
+            output[2 * m] = workRe[m] * scale;
+            output[2 * m + 1] = workIm[m] * scale;
+        }
+    }
+
+    /**
+     * In-place iterative radix-2 FFT of the work arrays
+     */
+    private void complexTransform(boolean inverse) {
+        for (int i = 0; i < half; i++) {
+            int j = bitReverse[i];
+            if (j > i) {
+                float tr = workRe[i];
+                workRe[i] = workRe[j];
+                workRe[j] = tr;
+                float ti = workIm[i];
+                workIm[i] = workIm[j];
+                workIm[j] = ti;
+            }
+        }
+
+        for (int length = 2; length <= half; length <<= 1) {
+            int halfLength = length >> 1;
+            int step = half / length;
+            for (int start = 0; start < half; start += length) {
+                for (int j = 0; j < halfLength; j++) {
+                    float wr = twiddleCos[j * step];
+                    float wi = inverse ? -twiddleSin[j * step] : twiddleSin[j * step];
+                    int a = start + j;
+                    int b = a + halfLength;
+                    float tr = workRe[b] * wr - workIm[b] * wi;
+                    float ti = workRe[b] * wi + workIm[b] * wr;
+                    workRe[b] = workRe[a] - tr;
+                    workIm[b] = workIm[a] - ti;
+                    workRe[a] += tr;
+                    workIm[a] += ti;
+                }
+            }
+        }
+    }
+}
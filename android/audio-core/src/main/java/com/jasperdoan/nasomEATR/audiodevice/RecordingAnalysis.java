@@ -0,0 +1,143 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How a stereo recording is analyzed: channel alignment, room noise
+ * subtraction and scoring mode, and the cache parameters that describe them.
+ * analyzeRecording, session takes and the AnalyzeCorpus bench all go through
+ * here, so the same settings give the same scores and the same cache keys.
+ *
+ * Settings made for another sample rate are not applied; the setters tell
+ * whether they were.
+ */
+public final class RecordingAnalysis {
+    private final int sampleRate;
+    private boolean aligned = false;
+    private int lagFrames = 0;
+    private float crosstalk = 0f;
+    private NoiseProfile noise = null;
+    private boolean fixedPoint = false;
+
+    public RecordingAnalysis(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Correct the channel lag and crosstalk measured at measuredRate
+     * @return Whether the alignment applies at this sample rate
+     */
+    public boolean setAlignment(int measuredRate, int lagFrames, float crosstalk) {
+        aligned = measuredRate == sampleRate;
+        this.lagFrames = aligned ? lagFrames : 0;
+        this.crosstalk = aligned ? crosstalk : 0f;
+        return aligned;
+    }
+
+    /**
+     * Subtract a room noise floor
+     * @return Whether the floor was learned at this sample rate
+     */
+    public boolean setNoiseProfile(NoiseProfile noise) {
+        this.noise = noise != null && noise.matches(sampleRate) ? noise : null;
+        return this.noise != null;
+    }
+
+    /**
+     * Score in fixed point rather than floating point
+     */
+    public void setFixedPoint(boolean fixedPoint) {
+        this.fixedPoint = fixedPoint;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public boolean isAligned() {
+        return aligned;
+    }
+
+    public int getLagFrames() {
+        return lagFrames;
+    }
+
+    public float getCrosstalk() {
+        return crosstalk;
+    }
+
+    /**
+     * The noise floor subtracted, or null
+     */
+    public NoiseProfile getNoiseProfile() {
+        return noise;
+    }
+
+    public boolean isFixedPoint() {
+        return fixedPoint;
+    }
+
+    /**
+     * An analyzer with these settings, to be fed blocks as they are captured
+     */
+    public NasalanceAnalyzer newAnalyzer() {
+        NasalanceAnalyzer analyzer = new NasalanceAnalyzer(sampleRate);
+        analyzer.setFixedPoint(fixedPoint);
+        analyzer.setCorrector(newCorrector());
+        analyzer.setNoiseProfile(noise);
+        return analyzer;
+    }
+
+    /**
+     * Analyze a whole recording. Segments start at a WAV file's cue markers;
+     * a decoded stream is one segment. Spectrogram tiles go to the writer
+     * when one is given, which the caller finishes.
+     */
+    public NasalanceAnalyzer analyze(PcmBlockSource source, SpectrogramWriter spectrogram) throws IOException {
+        if (source.getSampleRate() != sampleRate) {
+            throw new IOException("Analysis set up for " + sampleRate + " Hz, recording is " +
+                    source.getSampleRate() + " Hz");
+        }
+        if (source instanceof WavFile) {
+            return NasalanceAnalyzer.analyzeFile((WavFile) source, newCorrector(), noise, spectrogram, fixedPoint);
+        }
+        return NasalanceAnalyzer.analyzeStream(source, newCorrector(), noise, spectrogram, fixedPoint);
+    }
+
+    /**
+     * Everything besides the audio content that changes the analysis of a
+     * recording, for {@link AnalysisCache}. Bump the version whenever the
+     * analysis code changes its output.
+     */
+    public String cacheParams(PcmBlockSource source) {
+        StringBuilder params = new StringBuilder("nasalance:v4")
+            .append(":window=").append(NasalanceAnalyzer.DEFAULT_WINDOW_MS)
+            .append(":fft=").append(SpectralAnalyzer.DEFAULT_FFT_SIZE)
+            .append(":bands=").append(Arrays.toString(SpectralAnalyzer.DEFAULT_BAND_EDGES));
+        if (aligned) {
+            params.append(":lag=").append(lagFrames)
+                  .append(":crosstalk=").append(crosstalk);
+        }
+        if (noise != null) {
+            params.append(":noise=").append(noise.encode());
+        }
+        if (fixedPoint) {
+            params.append(":dsp=fixed");
+        }
+        // Markers live outside the hashed data chunk
+        List<SegmentMarker> markers = source instanceof WavFile ?
+                ((WavFile) source).markers : Collections.<SegmentMarker>emptyList();
+        for (SegmentMarker marker : markers) {
+            params.append(":mark=").append(marker.frame).append('/').append(marker.label);
+        }
+        return params.toString();
+    }
+
+    // The corrector keeps a delay line, so every run gets its own
+    private ChannelAligner.Corrector newCorrector() {
+        return aligned ? new ChannelAligner.Corrector(lagFrames, crosstalk) : null;
+    }
+}
@@ -0,0 +1,282 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Index of the recordings the module has written, with a byte quota.
+ *
+ * Every file the module produces is registered here with its size, kind and
+ * upload state, so listing recordings reads the index instead of scanning
+ * the documents directory. When the registered files exceed the quota, the
+ * least recently used files that have already been uploaded are deleted;
+ * files that exist only on this device are never evicted.
+ *
+ * The index is a small binary file rewritten atomically on every change.
+ */
+public final class RecordingStore {
+    public static final long DEFAULT_QUOTA_BYTES = 512L * 1024 * 1024;
+
+    public static final String KIND_STEREO = "stereo";
+    public static final String KIND_NASAL = "nasal";
+    public static final String KIND_ORAL = "oral";
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final File indexFile;
+    // Access order: least recently used first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long quotaBytes = DEFAULT_QUOTA_BYTES;
+    private long totalBytes = 0;
+    private boolean loaded = false;
+
+    /**
+     * One tracked file
+     */
+    public static final class Entry {
+        public final String path;
+        public final String kind;
+        public final long createdAt;
+        public long sizeBytes;
+        public long lastAccessedAt;
+        /** Where the file was uploaded to, or null if it exists only on this device */
+        public String uploadUrl;
+
+        Entry(String path, String kind, long createdAt, long sizeBytes, long lastAccessedAt, String uploadUrl) {
+            this.path = path;
+            this.kind = kind;
+            this.createdAt = createdAt;
+            this.sizeBytes = sizeBytes;
+            this.lastAccessedAt = lastAccessedAt;
+            this.uploadUrl = uploadUrl;
+        }
+
+        public boolean isUploaded() {
+            return uploadUrl != null;
+        }
+    }
+
+    public RecordingStore(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Start tracking a file the module has just finished writing, then enforce the quota
+     */
+    public synchronized Entry register(File file, String kind) {
+        ensureLoaded();
+        String path = file.getAbsolutePath();
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(path);
+        if (entry != null) {
+            // The path was reused for a new recording
+            totalBytes -= entry.sizeBytes;
+            entries.remove(path);
+        }
+        entry = new Entry(path, kind, now, file.length(), now, null);
+        entries.put(path, entry);
+        totalBytes += entry.sizeBytes;
+        enforceQuota(path);
+        save();
+        return entry;
+    }
+
+    /**
+     * Mark a file as recently used so it is evicted last
+     */
+    public synchronized void touch(String path) {
+        ensureLoaded();
+        Entry entry = entries.get(new File(path).getAbsolutePath());
+        if (entry != null) {
+            entry.lastAccessedAt = System.currentTimeMillis();
+            save();
+        }
+    }
+
+    /**
+     * Record that a file is safely stored remotely and may be evicted
+     */
+    public synchronized void markUploaded(String path, String uploadUrl) {
+        ensureLoaded();
+        Entry entry = entries.get(new File(path).getAbsolutePath());
+        if (entry != null) {
+            entry.uploadUrl = uploadUrl;
+            enforceQuota(null);
+            save();
+        }
+    }
+
+    /**
+     * Delete a tracked file and forget it; returns false if it was not tracked
+     */
+    public synchronized boolean delete(String path) {
+        ensureLoaded();
+        Entry entry = entries.remove(new File(path).getAbsolutePath());
+        if (entry == null) {
+            return false;
+        }
+        deleteFiles(entry);
+        totalBytes -= entry.sizeBytes;
+        save();
+        return true;
+    }
+
+    /**
+     * Tracked files, newest first
+     */
+    public synchronized List<Entry> list() {
+        ensureLoaded();
+        List<Entry> result = new ArrayList<Entry>(entries.values());
+        Collections.sort(result, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Long.compare(b.createdAt, a.createdAt);
+            }
+        });
+        return result;
+    }
+
+    public synchronized long getTotalBytes() {
+        ensureLoaded();
+        return totalBytes;
+    }
+
+    public synchronized long getQuotaBytes() {
+        ensureLoaded();
+        return quotaBytes;
+    }
+
+    /**
+     * Change the quota and evict down to it; returns the number of files evicted
+     */
+    public synchronized int setQuotaBytes(long quotaBytes) {
+        ensureLoaded();
+        this.quotaBytes = quotaBytes;
+        int evicted = enforceQuota(null);
+        save();
+        return evicted;
+    }
+
+    /**
+     * Delete least recently used uploaded files until the total fits the quota.
+     * The file at keepPath (the one just written) is never evicted.
+     */
+    private int enforceQuota(String keepPath) {
+        int evicted = 0;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (totalBytes > quotaBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (!entry.isUploaded() || entry.path.equals(keepPath)) {
+                continue;
+            }
+            deleteFiles(entry);
+            totalBytes -= entry.sizeBytes;
+            iterator.remove();
+            evicted++;
+        }
+        return evicted;
+    }
+
+    private static void deleteFiles(Entry entry) {
+        new File(entry.path).delete();
+        new File(entry.path + ChunkedUploader.STATE_SUFFIX).delete();
+        new File(entry.path + SpectrogramTiles.FILE_SUFFIX).delete();
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        if (!indexFile.exists()) return;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            quotaBytes = in.readLong();
+            int count = in.readInt();
+            boolean pruned = false;
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                String kind = in.readUTF();
+                long createdAt = in.readLong();
+                long sizeBytes = in.readLong();
+                long lastAccessedAt = in.readLong();
+                String uploadUrl = in.readBoolean() ? in.readUTF() : null;
+                // Files deleted behind our back (e.g. from JS) drop out here
+                if (!new File(path).exists()) {
+                    pruned = true;
+                    continue;
+                }
+                entries.put(path, new Entry(path, kind, createdAt, sizeBytes, lastAccessedAt, uploadUrl));
+                totalBytes += sizeBytes;
+            }
+            if (pruned) {
+                save();
+            }
+        } catch (IOException e) {
+            // A corrupt index only loses tracking, never recordings
+            entries.clear();
+            totalBytes = 0;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing useful to do
+                }
+            }
+        }
+    }
+
+    private void save() {
+        File temp = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(quotaBytes);
+            out.writeInt(entries.size());
+            // Written in access order so the LRU order survives a restart
+            for (Entry entry : entries.values()) {
+                out.writeUTF(entry.path);
+                out.writeUTF(entry.kind);
+                out.writeLong(entry.createdAt);
+                out.writeLong(entry.sizeBytes);
+                out.writeLong(entry.lastAccessedAt);
+                out.writeBoolean(entry.uploadUrl != null);
+                if (entry.uploadUrl != null) {
+                    out.writeUTF(entry.uploadUrl);
+                }
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(indexFile)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            temp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Nothing useful to do
+                }
+            }
+        }
+    }
+}
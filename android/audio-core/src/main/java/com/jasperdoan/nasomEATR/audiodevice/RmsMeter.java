@@ -0,0 +1,65 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+/**
+ * RMS and peak over every sample of a 16-bit stream, all channels together.
+ * In fixed-point mode the sum of squares is an exact 64-bit integer and the
+ * RMS its integer square root, bit-exact on every device.
+ */
+public final class RmsMeter implements PcmBlockConsumer {
+    private final int channels;
+    private final boolean fixedPoint;
+    private double sumSquares = 0;
+    private long sumSquaresFixed = 0;
+    private int peak = 0;
+    private long samplesProcessed = 0;
+
+    public RmsMeter(int channels) {
+        this(channels, false);
+    }
+
+    public RmsMeter(int channels, boolean fixedPoint) {
+        this.channels = channels;
+        this.fixedPoint = fixedPoint;
+    }
+
+    @Override
+    public void process(short[] interleaved, int offset, int frameCount) {
+        int end = offset + frameCount * channels;
+        if (fixedPoint) {
+            for (int i = offset; i < end; i++) {
+                int sample = interleaved[i];
+                sumSquaresFixed += sample * sample;
+                peak = Math.max(peak, Math.abs(sample));
+            }
+            samplesProcessed += end - offset;
+            return;
+        }
+        for (int i = offset; i < end; i++) {
+            int sample = interleaved[i];
+            sumSquares += (double) sample * sample;
+            peak = Math.max(peak, Math.abs(sample));
+        }
+        samplesProcessed += end - offset;
+    }
+
+    public long getSamplesProcessed() {
+        return samplesProcessed;
+    }
+
+    /**
+     * RMS normalized to the 0-1 range (16-bit PCM spans -32768 to 32767)
+     */
+    public double getRms() {
+        if (fixedPoint) {
+            return FixedPoint.rms(FixedPoint.meanSquareQ24(sumSquaresFixed, samplesProcessed));
+        }
+        return samplesProcessed == 0 ? 0 : Math.sqrt(sumSquares / samplesProcessed) / 32768.0;
+    }
+
+    /**
+     * Largest absolute sample normalized to the 0-1 range
+     */
+    public double getPeak() {
+        return peak / 32768.0;
+    }
+}
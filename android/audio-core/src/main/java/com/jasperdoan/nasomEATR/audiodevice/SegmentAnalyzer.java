@@ -0,0 +1,228 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-segment statistics of a stereo recording, accumulated in the same pass
+ * as the whole-file analysis.
+ *
+ * A segment runs from one marker to the next (the last one to the end of the
+ * recording); frames before the first marker belong to no segment. For each
+ * segment it keeps the channel energies, giving RMS and nasalance, and the
+ * number of frames in short windows loud enough to count as voiced, plus the
+ * distribution of the voiced nasalance windows that end inside it.
+ *
+ * In fixed-point mode the energies are exact 64-bit sums and RMS, voicing
+ * and nasalance are derived with {@link FixedPoint} integer arithmetic.
+ */
+public final class SegmentAnalyzer implements SegmentedConsumer {
+    public static final int VOICED_WINDOW_MS = 10;
+    /** RMS of both channels together (0-1 scale) above which a window counts as voiced: -40 dBFS */
+    public static final double VOICED_THRESHOLD = 0.01;
+    // The same threshold as a sum of squares of both 16-bit channels, per frame
+    static final double VOICED_ENERGY = VOICED_THRESHOLD * VOICED_THRESHOLD * 32768.0 * 32768.0 * 2;
+
+    private final int sampleRate;
+    private final int windowFrames;
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private long framesProcessed = 0;
+
+    private String label = null;
+    private long startFrame = 0;
+    private long frames = 0;
+    private double nasalSumSquares = 0;
+    private double oralSumSquares = 0;
+    private long voicedFrames = 0;
+    private double windowEnergy = 0;
+    private int windowFill = 0;
+    private NasalanceStats stats = null;
+    private double nasalNoise = 0;
+    private double oralNoise = 0;
+
+    private boolean fixedPoint = false;
+    private long nasalSumSquaresFixed = 0;
+    private long oralSumSquaresFixed = 0;
+    private long windowEnergyFixed = 0;
+    private long nasalNoiseQ24 = 0;
+    private long oralNoiseQ24 = 0;
+
+    /**
+     * Statistics of one finished segment
+     */
+    public static final class Segment {
+        public final String label;
+        public final long startFrame;
+        public final long frameCount;
+        /** RMS normalized to the 0-1 range */
+        public final double nasalRms;
+        public final double oralRms;
+        public final double nasalance;
+        public final long voicedFrames;
+        public final NasalanceStats stats;
+
+        public Segment(String label, long startFrame, long frameCount, double nasalRms, double oralRms,
+                       double nasalance, long voicedFrames, NasalanceStats stats) {
+            this.label = label;
+            this.startFrame = startFrame;
+            this.frameCount = frameCount;
+            this.nasalRms = nasalRms;
+            this.oralRms = oralRms;
+            this.nasalance = nasalance;
+            this.voicedFrames = voicedFrames;
+            this.stats = stats;
+        }
+    }
+
+    public SegmentAnalyzer(int sampleRate) {
+        this.sampleRate = sampleRate;
+        this.windowFrames = Math.max(1, sampleRate * VOICED_WINDOW_MS / 1000);
+    }
+
+    /**
+     * Subtract a noise floor from segment nasalance, or null for none
+     */
+    void setNoiseFloor(NoiseProfile noise) {
+        nasalNoise = noise != null ? noise.meanSquare[NasalanceAnalyzer.NASAL_CHANNEL] : 0;
+        oralNoise = noise != null ? noise.meanSquare[NasalanceAnalyzer.ORAL_CHANNEL] : 0;
+        nasalNoiseQ24 = FixedPoint.powerQ24(nasalNoise);
+        oralNoiseQ24 = FixedPoint.powerQ24(oralNoise);
+    }
+
+    /**
+     * Use integer arithmetic only; set before processing starts
+     */
+    void setFixedPoint(boolean fixedPoint) {
+        this.fixedPoint = fixedPoint;
+    }
+
+    /**
+     * End the current segment, if any, and start a new one at the next frame processed
+     */
+    @Override
+    public void startSegment(String label) {
+        endSegment();
+        this.label = label;
+        startFrame = framesProcessed;
+        stats = new NasalanceStats();
+    }
+
+    /**
+     * Add a voiced nasalance window to the open segment's distribution
+     */
+    void addWindow(float nasalance) {
+        if (stats != null) {
+            stats.add(nasalance);
+        }
+    }
+
+    /**
+     * Feed interleaved 16-bit stereo frames
+     */
+    @Override
+    public void process(short[] interleaved, int offset, int frameCount) {
+        framesProcessed += frameCount;
+        if (label == null) {
+            return;
+        }
+        int index = offset;
+        if (fixedPoint) {
+            for (int i = 0; i < frameCount; i++) {
+                int nasal = interleaved[index + NasalanceAnalyzer.NASAL_CHANNEL];
+                int oral = interleaved[index + NasalanceAnalyzer.ORAL_CHANNEL];
+                index += 2;
+                int nasalSquare = nasal * nasal;
+                int oralSquare = oral * oral;
+                nasalSumSquaresFixed += nasalSquare;
+                oralSumSquaresFixed += oralSquare;
+                windowEnergyFixed += nasalSquare + (long) oralSquare;
+                if (++windowFill == windowFrames) {
+                    closeWindow();
+                }
+            }
+            frames += frameCount;
+            return;
+        }
+        for (int i = 0; i < frameCount; i++) {
+            double nasal = interleaved[index + NasalanceAnalyzer.NASAL_CHANNEL];
+            double oral = interleaved[index + NasalanceAnalyzer.ORAL_CHANNEL];
+            index += 2;
+            nasalSumSquares += nasal * nasal;
+            oralSumSquares += oral * oral;
+            windowEnergy += nasal * nasal + oral * oral;
+            if (++windowFill == windowFrames) {
+                closeWindow();
+            }
+        }
+        frames += frameCount;
+    }
+
+    private void closeWindow() {
+        if (isWindowVoiced()) {
+            voicedFrames += windowFill;
+        }
+        windowEnergy = 0;
+        windowEnergyFixed = 0;
+        windowFill = 0;
+    }
+
+    private boolean isWindowVoiced() {
+        if (fixedPoint) {
+            // VOICED_ENERGY is exactly 2^27 / 625 per frame
+            return windowEnergyFixed * 625 > (1L << 27) * windowFill;
+        }
+        return windowEnergy > VOICED_ENERGY * windowFill;
+    }
+
+    private void endSegment() {
+        if (label == null) {
+            return;
+        }
+        if (windowFill > 0) {
+            closeWindow();
+        }
+        segments.add(currentSegment(voicedFrames));
+        label = null;
+        stats = null;
+        frames = 0;
+        nasalSumSquares = 0;
+        oralSumSquares = 0;
+        nasalSumSquaresFixed = 0;
+        oralSumSquaresFixed = 0;
+        voicedFrames = 0;
+    }
+
+    private Segment currentSegment(long voiced) {
+        if (fixedPoint) {
+            long nasalPower = FixedPoint.meanSquareQ24(nasalSumSquaresFixed, frames);
+            long oralPower = FixedPoint.meanSquareQ24(oralSumSquaresFixed, frames);
+            int nasalance = FixedPoint.nasalance(Math.max(0, nasalPower - nasalNoiseQ24),
+                    Math.max(0, oralPower - oralNoiseQ24));
+            return new Segment(label, startFrame, frames, FixedPoint.rms(nasalPower), FixedPoint.rms(oralPower),
+                    nasalance / 100.0, voiced, stats.copy());
+        }
+        double nasalRms = frames == 0 ? 0 : Math.sqrt(nasalSumSquares / frames) / 32768.0;
+        double oralRms = frames == 0 ? 0 : Math.sqrt(oralSumSquares / frames) / 32768.0;
+        double nasalance = NasalanceAnalyzer.nasalance(Math.sqrt(Math.max(0, nasalRms * nasalRms - nasalNoise)),
+                Math.sqrt(Math.max(0, oralRms * oralRms - oralNoise)));
+        return new Segment(label, startFrame, frames, nasalRms, oralRms, nasalance, voiced, stats.copy());
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Every segment so far, the open one included
+     */
+    public Segment[] getSegments() {
+        int count = segments.size() + (label != null ? 1 : 0);
+        Segment[] result = segments.toArray(new Segment[count]);
+        if (label != null) {
+            // The open segment's partial window counts as if it ended here
+            boolean partialVoiced = windowFill > 0 && isWindowVoiced();
+            result[count - 1] = currentSegment(voicedFrames + (partialVoiced ? windowFill : 0));
+        }
+        return result;
+    }
+}
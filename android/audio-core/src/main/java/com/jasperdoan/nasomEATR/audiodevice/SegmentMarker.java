@@ -0,0 +1,15 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+/**
+ * A labelled position in a recording, in frames from the start of the data
+ * chunk. Stored in WAV files as a cue point with a LIST/adtl label.
+ */
+public final class SegmentMarker {
+    public final long frame;
+    public final String label;
+
+    public SegmentMarker(long frame, String label) {
+        this.frame = frame;
+        this.label = label;
+    }
+}
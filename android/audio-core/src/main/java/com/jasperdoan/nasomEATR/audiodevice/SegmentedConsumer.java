@@ -0,0 +1,12 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+/**
+ * A {@link PcmBlockConsumer} that keeps separate statistics for each marked
+ * segment of a recording.
+ */
+public interface SegmentedConsumer extends PcmBlockConsumer {
+    /**
+     * A new segment starts with the next frame passed to process()
+     */
+    void startSegment(String label);
+}
@@ -0,0 +1,249 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+/**
+ * Signal-quality counters of one take, kept by the capture loop as it goes.
+ *
+ * Per channel: samples at full scale (clipping), DC offset, peak, runs of
+ * exact-zero samples (a live mic never produces those, so they mark buffer
+ * dropouts or a dead transmitter) and an SNR estimate from a histogram of
+ * 10 ms window levels, taken as the spread between the loud (95th percentile)
+ * and quiet (10th percentile) windows. Everything is a primitive counter
+ * updated in one loop over each block; nothing is allocated after the
+ * constructor.
+ *
+ * Threshold crossings are reported once per issue and channel to a
+ * {@link Listener}, on the capture thread, so the UI can warn mid-take.
+ */
+public final class SignalQuality implements PcmBlockConsumer {
+    public static final int ISSUE_CLIPPING = 1;
+    public static final int ISSUE_DROPOUT = 2;
+    public static final int ISSUE_DC_OFFSET = 4;
+
+    /** Clipped samples on a channel before ISSUE_CLIPPING is raised */
+    public static final int CLIP_WARNING_SAMPLES = 10;
+    /** Shortest run of exact zeros counted as a dropout */
+    public static final int DROPOUT_MS = 2;
+    /** Mean of one second of a channel, 0-1 scale, above which ISSUE_DC_OFFSET is raised */
+    public static final double DC_WARNING = 0.05;
+
+    private static final int CLIP_LEVEL = 32767;
+    private static final int LEVEL_WINDOW_MS = 10;
+    // 1 dB level bins from -120 dBFS to 0 dBFS
+    private static final int LEVEL_BINS = 121;
+
+    /**
+     * Called on the capture thread the first time an issue is seen on a channel
+     */
+    public interface Listener {
+        void onQualityIssue(SignalQuality quality, int channel, int issue);
+    }
+
+    private final int channels;
+    private final int sampleRate;
+    private final int dropoutFrames;
+    private final int levelWindowFrames;
+    private final Listener listener;
+
+    private long frames = 0;
+    private final long[] clipped;
+    private final int[] peak;
+    private final long[] sum;
+    private final int[] zeroRun;
+    private final int[] longestZeroRun;
+    private final int[] dropouts;
+    private final long[] dropoutSamples;
+    private final long[] secondSum;
+    private int secondFill = 0;
+    private final double[] levelEnergy;
+    private int levelFill = 0;
+    private final int[][] levelHistogram;
+    private final int[] raised;
+
+    public SignalQuality(int channels, int sampleRate, Listener listener) {
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        this.dropoutFrames = Math.max(1, sampleRate * DROPOUT_MS / 1000);
+        this.levelWindowFrames = Math.max(1, sampleRate * LEVEL_WINDOW_MS / 1000);
+        this.listener = listener;
+        clipped = new long[channels];
+        peak = new int[channels];
+        sum = new long[channels];
+        zeroRun = new int[channels];
+        longestZeroRun = new int[channels];
+        dropouts = new int[channels];
+        dropoutSamples = new long[channels];
+        secondSum = new long[channels];
+        levelEnergy = new double[channels];
+        levelHistogram = new int[channels][LEVEL_BINS];
+        raised = new int[channels];
+    }
+
+    /**
+     * Feed interleaved 16-bit frames
+     */
+    @Override
+    public void process(short[] interleaved, int offset, int frameCount) {
+        int index = offset;
+        for (int i = 0; i < frameCount; i++) {
+            for (int c = 0; c < channels; c++) {
+                int sample = interleaved[index++];
+                int magnitude = sample < 0 ? -sample : sample;
+                if (magnitude >= CLIP_LEVEL) {
+                    if (++clipped[c] == CLIP_WARNING_SAMPLES) {
+                        raise(c, ISSUE_CLIPPING);
+                    }
+                }
+                if (magnitude > peak[c]) {
+                    peak[c] = magnitude;
+                }
+                sum[c] += sample;
+                secondSum[c] += sample;
+                levelEnergy[c] += (double) sample * sample;
+                if (sample == 0) {
+                    if (++zeroRun[c] == dropoutFrames) {
+                        dropouts[c]++;
+                        raise(c, ISSUE_DROPOUT);
+                    }
+                } else if (zeroRun[c] > 0) {
+                    endZeroRun(c);
+                }
+            }
+            if (++levelFill == levelWindowFrames) {
+                closeLevelWindow();
+            }
+            if (++secondFill == sampleRate) {
+                closeSecond();
+            }
+        }
+        frames += frameCount;
+    }
+
+    private void endZeroRun(int c) {
+        if (zeroRun[c] >= dropoutFrames) {
+            dropoutSamples[c] += zeroRun[c];
+        }
+        if (zeroRun[c] > longestZeroRun[c]) {
+            longestZeroRun[c] = zeroRun[c];
+        }
+        zeroRun[c] = 0;
+    }
+
+    private void closeLevelWindow() {
+        for (int c = 0; c < channels; c++) {
+            double meanSquare = levelEnergy[c] / levelFill / (32768.0 * 32768.0);
+            int bin = meanSquare > 0 ? (int) Math.round(10.0 * Math.log10(meanSquare)) + LEVEL_BINS - 1 : 0;
+            levelHistogram[c][bin < 0 ? 0 : bin >= LEVEL_BINS ? LEVEL_BINS - 1 : bin]++;
+            levelEnergy[c] = 0;
+        }
+        levelFill = 0;
+    }
+
+    private void closeSecond() {
+        for (int c = 0; c < channels; c++) {
+            if (Math.abs((double) secondSum[c] / secondFill) > DC_WARNING * 32768.0) {
+                raise(c, ISSUE_DC_OFFSET);
+            }
+            secondSum[c] = 0;
+        }
+        secondFill = 0;
+    }
+
+    private void raise(int channel, int issue) {
+        if ((raised[channel] & issue) != 0) {
+            return;
+        }
+        raised[channel] |= issue;
+        if (listener != null) {
+            listener.onQualityIssue(this, channel, issue);
+        }
+    }
+
+    public int getChannelCount() {
+        return channels;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Issues raised so far on a channel, as ISSUE_ bits
+     */
+    public int getIssues(int channel) {
+        return raised[channel];
+    }
+
+    public long getClippedSamples(int channel) {
+        return clipped[channel];
+    }
+
+    /**
+     * Mean sample value, 0-1 scale
+     */
+    public double getDcOffset(int channel) {
+        return frames > 0 ? (double) sum[channel] / frames / 32768.0 : 0;
+    }
+
+    /**
+     * Largest absolute sample, 0-1 scale
+     */
+    public double getPeak(int channel) {
+        return peak[channel] / 32768.0;
+    }
+
+    public int getDropouts(int channel) {
+        return dropouts[channel];
+    }
+
+    /**
+     * Samples in dropout runs, the run still open at the end included
+     */
+    public long getDropoutFrames(int channel) {
+        return dropoutSamples[channel] + (zeroRun[channel] >= dropoutFrames ? zeroRun[channel] : 0);
+    }
+
+    public int getLongestDropoutFrames(int channel) {
+        int longest = Math.max(longestZeroRun[channel], zeroRun[channel]);
+        return longest >= dropoutFrames ? longest : 0;
+    }
+
+    /**
+     * Estimated SNR in dB: level of the loud windows over the level of the quiet ones
+     */
+    public double getSnrDb(int channel) {
+        return levelPercentile(channel, 0.95) - levelPercentile(channel, 0.10);
+    }
+
+    private double levelPercentile(int channel, double p) {
+        int[] histogram = levelHistogram[channel];
+        long total = 0;
+        for (int count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(p * total);
+        long cumulative = 0;
+        for (int bin = 0; bin < LEVEL_BINS; bin++) {
+            cumulative += histogram[bin];
+            if (cumulative >= target) {
+                return bin - (LEVEL_BINS - 1);
+            }
+        }
+        return 0;
+    }
+
+    public static String issueName(int issue) {
+        switch (issue) {
+            case ISSUE_CLIPPING: return "clipping";
+            case ISSUE_DROPOUT: return "dropout";
+            case ISSUE_DC_OFFSET: return "dcOffset";
+            default: return "unknown";
+        }
+    }
+}
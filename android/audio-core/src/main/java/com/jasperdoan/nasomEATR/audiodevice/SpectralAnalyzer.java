@@ -0,0 +1,239 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.util.Arrays;
+
+/**
+ * Frame-by-frame spectral analysis of an interleaved stereo stream.
+ *
+ * Accumulates the long-term average spectrum (LTAS) of each channel and the
+ * energy in a set of frequency bands. Frames overlap by half and are windowed
+ * with a Hann window. All buffers are allocated up front so feeding samples
+ * never allocates.
+ *
+ * With a noise floor set, the floor's power is subtracted from each band of
+ * every frame before it is accumulated (power spectral subtraction, keeping
+ * at least 1 % of the frame's own power so quiet frames do not go negative).
+ * The LTAS is left as measured.
+ *
+ * A {@link SpectrogramWriter} can be attached to receive every frame's power
+ * spectrum as it is computed.
+ */
+public final class SpectralAnalyzer {
+    public static final int DEFAULT_FFT_SIZE = 1024;
+    public static final int CHANNELS = 2;
+
+    // Octave band edges in Hz (centres 125 Hz .. 8 kHz)
+    public static final float[] DEFAULT_BAND_EDGES = {
+        88f, 177f, 355f, 710f, 1420f, 2840f, 5680f, 11360f
+    };
+
+    private static final double MIN_POWER = 1e-14; // -140 dB floor
+    private static final double NOISE_RESIDUAL = 0.01;
+
+    private final RealFft fft;
+    private final int fftSize;
+    private final int hop;
+    private final int sampleRate;
+    private final float[] bandEdges;
+    private final int[] bandStartBin;
+    private final int[] bandEndBin;
+
+    private final float[][] frames;
+    private final float[] power;
+    private final double[][] powerSums;
+    private final double[][] bandSums;
+    // Per-frame band energy of the noise floor, in raw FFT units, or null
+    private double[][] noiseEnergy = null;
+    private SpectrogramWriter spectrogram = null;
+    private int fill = 0;
+    private long frameCount = 0;
+
+    public SpectralAnalyzer(int sampleRate) {
+        this(sampleRate, DEFAULT_FFT_SIZE, DEFAULT_BAND_EDGES);
+    }
+
+    public SpectralAnalyzer(int sampleRate, int fftSize, float[] bandEdges) {
+        this.fft = new RealFft(fftSize);
+        this.fftSize = fftSize;
+        this.hop = fftSize / 2;
+        this.sampleRate = sampleRate;
+        this.bandEdges = bandEdges.clone();
+
+        int bins = fft.getBinCount();
+        int bands = bandEdges.length - 1;
+        bandStartBin = new int[bands];
+        bandEndBin = new int[bands];
+        for (int b = 0; b < bands; b++) {
+            bandStartBin[b] = Math.min(bins, frequencyToBin(bandEdges[b]));
+            bandEndBin[b] = Math.min(bins, frequencyToBin(bandEdges[b + 1]));
+        }
+
+        frames = new float[CHANNELS][fftSize];
+        power = new float[bins];
+        powerSums = new double[CHANNELS][bins];
+        bandSums = new double[CHANNELS][bands];
+    }
+
+    /**
+     * Subtract a noise floor learned with the same FFT size and bands, or null for none
+     */
+    public void setNoiseFloor(NoiseProfile noise) {
+        if (noise == null) {
+            noiseEnergy = null;
+            return;
+        }
+        double scale = getBandPowerScale();
+        noiseEnergy = new double[CHANNELS][bandSums[0].length];
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            for (int b = 0; b < noiseEnergy[channel].length; b++) {
+                noiseEnergy[channel][b] = noise.bandPower[channel][b] / scale;
+            }
+        }
+    }
+
+    /**
+     * Send every frame's power spectrum to a spectrogram writer; set before processing starts
+     */
+    public void setSpectrogram(SpectrogramWriter writer) {
+        spectrogram = writer;
+        if (writer != null) {
+            writer.start(sampleRate, fftSize, hop, getBandPowerScale());
+        }
+    }
+
+    private int frequencyToBin(float frequency) {
+        return (int) Math.ceil(frequency * fftSize / sampleRate);
+    }
+
+    /**
+     * Feed interleaved 16-bit stereo frames
+     */
+    public void process(short[] interleaved, int offset, int frameCount) {
+        int index = offset;
+        for (int i = 0; i < frameCount; i++) {
+            frames[0][fill] = interleaved[index] / 32768f;
+            frames[1][fill] = interleaved[index + 1] / 32768f;
+            index += CHANNELS;
+            if (++fill == fftSize) {
+                analyzeFrame();
+            }
+        }
+    }
+
+    private void analyzeFrame() {
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            float[] frame = frames[channel];
+            fft.powerSpectrum(frame, 0, power);
+            if (spectrogram != null) {
+                spectrogram.addFrame(channel, power);
+            }
+
+            double[] sums = powerSums[channel];
+            for (int k = 0; k < power.length; k++) {
+                sums[k] += power[k];
+            }
+            double[] bands = bandSums[channel];
+            for (int b = 0; b < bands.length; b++) {
+                double energy = 0;
+                for (int k = bandStartBin[b]; k < bandEndBin[b]; k++) {
+                    energy += power[k];
+                }
+                if (noiseEnergy != null) {
+                    energy = Math.max(energy - noiseEnergy[channel][b], energy * NOISE_RESIDUAL);
+                }
+                bands[b] += energy;
+            }
+
+            System.arraycopy(frame, hop, frame, 0, fftSize - hop);
+        }
+        fill = fftSize - hop;
+        frameCount++;
+    }
+
+    public void reset() {
+        fill = 0;
+        frameCount = 0;
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            Arrays.fill(powerSums[channel], 0);
+            Arrays.fill(bandSums[channel], 0);
+        }
+    }
+
+    public int getFftSize() {
+        return fftSize;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Running sum of a band's per-frame energy, in raw FFT units
+     */
+    double getBandEnergySum(int channel, int band) {
+        return bandSums[channel][band];
+    }
+
+    /**
+     * Factor from a raw per-frame band energy to power on the 0-1 full scale,
+     * as used by getBandLevelsDb
+     */
+    double getBandPowerScale() {
+        return 2.0 / fft.getWindowNorm();
+    }
+
+    public float[] getBandEdges() {
+        return bandEdges.clone();
+    }
+
+    /**
+     * Long-term average power spectrum of a channel in dB re full scale, one value per bin
+     */
+    public float[] getLtasDb(int channel) {
+        double[] sums = powerSums[channel];
+        float[] ltas = new float[sums.length];
+        double norm = frameCount == 0 ? 1 : frameCount * (double) fft.getWindowNorm();
+        for (int k = 0; k < sums.length; k++) {
+            // One-sided spectrum: all bins except DC and Nyquist carry twice the power
+            double scale = k == 0 || k == sums.length - 1 ? 1.0 : 2.0;
+            ltas[k] = toDb(scale * sums[k] / norm);
+        }
+        return ltas;
+    }
+
+    /**
+     * Mean energy of a channel in each band, in dB re full scale
+     */
+    public float[] getBandLevelsDb(int channel) {
+        double[] bands = bandSums[channel];
+        float[] levels = new float[bands.length];
+        double norm = frameCount == 0 ? 1 : frameCount * (double) fft.getWindowNorm();
+        for (int b = 0; b < bands.length; b++) {
+            levels[b] = toDb(2.0 * bands[b] / norm);
+        }
+        return levels;
+    }
+
+    /**
+     * Nasalance per band as a percentage, using band amplitudes like the broadband score
+     */
+    public float[] getBandNasalance(int nasalChannel, int oralChannel) {
+        double[] nasal = bandSums[nasalChannel];
+        double[] oral = bandSums[oralChannel];
+        float[] nasalance = new float[nasal.length];
+        for (int b = 0; b < nasal.length; b++) {
+            double n = Math.sqrt(nasal[b]);
+            double o = Math.sqrt(oral[b]);
+            nasalance[b] = n + o > 0 ? (float) (n / (n + o) * 100.0) : 0f;
+        }
+        return nasalance;
+    }
+
+    private static float toDb(double power) {
+        return (float) (10.0 * Math.log10(Math.max(power, MIN_POWER)));
+    }
+}
@@ -0,0 +1,239 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read side of the tiled spectrogram sidecar written by
+ * {@link SpectrogramWriter}, stored next to a recording as "<file>.tiles".
+ *
+ * Each zoom level is a run of columns, one power spectrum per column, rows
+ * from 0 Hz up to MAX_FREQUENCY in FFT bin steps, quantized to 8-bit dB
+ * (0 = DB_FLOOR, 255 = DB_FLOOR + DB_RANGE, dB re full scale). Columns are
+ * grouped into tiles of TILE_COLUMNS; a tile holds the nasal block then the
+ * oral block, each column-major (column c, row r at c * rows + r). Reading a
+ * tile is a single positional read, safe from several threads.
+ */
+public final class SpectrogramTiles implements Closeable {
+    public static final String FILE_SUFFIX = ".tiles";
+    public static final int TILE_COLUMNS = 256;
+    public static final int LEVELS = 4;
+    public static final int LEVEL_FACTOR = 4;
+    public static final int MAX_FREQUENCY = 8000;
+    public static final float DB_FLOOR = -100f;
+    public static final float DB_RANGE = 100f;
+
+    static final int MAGIC = 0x53504754; // "SPGT"
+    static final int VERSION = 1;
+
+    public final int sampleRate;
+    public final int fftSize;
+    public final int hop;
+    public final int rows;
+    public final int tileColumns;
+    public final int levelFactor;
+    public final float dbFloor;
+    public final float dbRange;
+    public final String contentHash;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long[] columns;
+    private final long[][] tileOffsets;
+
+    private SpectrogramTiles(RandomAccessFile file, int sampleRate, int fftSize, int hop, int rows, int tileColumns,
+                             int levelFactor, float dbFloor, float dbRange, String contentHash,
+                             long[] columns, long[][] tileOffsets) {
+        this.file = file;
+        this.channel = file.getChannel();
+        this.sampleRate = sampleRate;
+        this.fftSize = fftSize;
+        this.hop = hop;
+        this.rows = rows;
+        this.tileColumns = tileColumns;
+        this.levelFactor = levelFactor;
+        this.dbFloor = dbFloor;
+        this.dbRange = dbRange;
+        this.contentHash = contentHash;
+        this.columns = columns;
+        this.tileOffsets = tileOffsets;
+    }
+
+    public static File sidecarFile(File wav) {
+        return new File(wav.getPath() + FILE_SUFFIX);
+    }
+
+    public static SpectrogramTiles open(File path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            long length = file.length();
+            if (length < 12) {
+                throw new IOException("Spectrogram file is truncated");
+            }
+            file.seek(length - 12);
+            long indexOffset = file.readLong();
+            if (file.readInt() != MAGIC) {
+                throw new IOException("Spectrogram file is incomplete");
+            }
+
+            file.seek(0);
+            if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+                throw new IOException("Not a spectrogram file of version " + VERSION);
+            }
+            int sampleRate = file.readInt();
+            int fftSize = file.readInt();
+            int hop = file.readInt();
+            int rows = file.readInt();
+            int tileColumns = file.readInt();
+            int levels = file.readInt();
+            int levelFactor = file.readInt();
+            float dbFloor = file.readFloat();
+            float dbRange = file.readFloat();
+            String contentHash = file.readUTF();
+
+            // The index is small; read it in one go rather than field by field
+            if (indexOffset < 0 || indexOffset > length - 12) {
+                throw new IOException("Spectrogram index is out of range");
+            }
+            byte[] indexBytes = new byte[(int) (length - 12 - indexOffset)];
+            file.seek(indexOffset);
+            file.readFully(indexBytes);
+            ByteBuffer index = ByteBuffer.wrap(indexBytes);
+            if (index.getInt() != levels) {
+                throw new IOException("Spectrogram index does not match its header");
+            }
+            long[] columns = new long[levels];
+            long[][] tileOffsets = new long[levels][];
+            for (int level = 0; level < levels; level++) {
+                columns[level] = index.getLong();
+                tileOffsets[level] = new long[index.getInt()];
+                for (int t = 0; t < tileOffsets[level].length; t++) {
+                    tileOffsets[level][t] = index.getLong();
+                }
+            }
+            return new SpectrogramTiles(file, sampleRate, fftSize, hop, rows, tileColumns, levelFactor,
+                    dbFloor, dbRange, contentHash, columns, tileOffsets);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        } catch (RuntimeException e) {
+            file.close();
+            throw new IOException("Corrupt spectrogram file: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * True if path is a complete sidecar computed from data with this content hash
+     */
+    public static boolean isCurrent(File path, String contentHash) {
+        if (!path.exists()) {
+            return false;
+        }
+        SpectrogramTiles tiles = null;
+        try {
+            tiles = open(path);
+            return tiles.contentHash.equals(contentHash);
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (tiles != null) {
+                try {
+                    tiles.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    public int getLevelCount() {
+        return columns.length;
+    }
+
+    public long getColumnCount(int level) {
+        return columns[level];
+    }
+
+    public int getTileCount(int level) {
+        return tileOffsets[level].length;
+    }
+
+    /**
+     * Columns in a tile; only the last tile of a level can be short
+     */
+    public int getTileColumnCount(int level, int tile) {
+        return (int) Math.min(tileColumns, columns[level] - (long) tile * tileColumns);
+    }
+
+    /**
+     * Seconds of audio per column at a level
+     */
+    public double getColumnSeconds(int level) {
+        double frames = hop;
+        for (int l = 0; l < level; l++) {
+            frames *= levelFactor;
+        }
+        return frames / sampleRate;
+    }
+
+    public double getRowHz() {
+        return (double) sampleRate / fftSize;
+    }
+
+    /**
+     * Both channel blocks of a tile, nasal first, each getTileColumnCount * rows bytes
+     */
+    public byte[] readTile(int level, int tile) throws IOException {
+        byte[] bytes = new byte[getTileColumnCount(level, tile) * rows * SpectralAnalyzer.CHANNELS];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long position = tileOffsets[level][tile];
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Spectrogram file is truncated");
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * dB re full scale of a stored byte
+     */
+    public float toDb(byte value) {
+        return dbFloor + (value & 0xff) * dbRange / 255f;
+    }
+
+    // Power at which each byte value starts; quantize() searches these instead of taking a log per cell
+    private static final double[] STEP_POWERS = new double[256];
+
+    static {
+        for (int level = 1; level < 256; level++) {
+            STEP_POWERS[level] = Math.pow(10.0, (DB_FLOOR + (level - 0.5) * DB_RANGE / 255.0) / 10.0);
+        }
+    }
+
+    /**
+     * Byte value of a power (0-1 full scale): round((dB - DB_FLOOR) * 255 / DB_RANGE), clamped
+     */
+    static byte quantize(double power) {
+        int low = 0;
+        int high = 255;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (power >= STEP_POWERS[mid]) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return (byte) low;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,281 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes the tiled spectrogram sidecar read by {@link SpectrogramTiles}.
+ *
+ * Attached to a {@link SpectralAnalyzer}, it receives the power spectrum of
+ * every analysis frame, so the tiles come out of the same FFT pass as the
+ * rest of the analysis. Level 0 has one column per frame; each further level
+ * averages LEVEL_FACTOR columns of the one below, in power. Columns are
+ * quantized to 8-bit dB and collected into tiles of TILE_COLUMNS columns,
+ * which are written as soon as they fill; the tile index goes at the end.
+ * The file is written under a temporary name and renamed when finished.
+ */
+public final class SpectrogramWriter {
+    private final File file;
+    private final File tempFile;
+    private final String contentHash;
+
+    private DataOutputStream out;
+    private long written;
+    private IOException error = null;
+    private boolean started = false;
+
+    private int rows;
+    private int nyquistRow;
+    private double powerScale;
+    // Running power sums per level, channel and row, and frames summed so far
+    private double[][][] sums;
+    private int[] summed;
+    private int[] groupFrames;
+    // Tile being filled per level: [channel][column * rows + row]
+    private byte[][][] tiles;
+    private int[] tileFill;
+    private long[][] tileOffsets;
+    private int[] tileCount;
+    private long[] columns;
+
+    /**
+     * @param contentHash Hash of the WAV data the spectrogram is computed from, stored so stale sidecars can be spotted
+     */
+    public SpectrogramWriter(File file, String contentHash) {
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Called by SpectralAnalyzer.setSpectrogram with its frame geometry
+     */
+    void start(int sampleRate, int fftSize, int hop, double powerScale) {
+        if (started) {
+            return;
+        }
+        started = true;
+        this.powerScale = powerScale;
+        int bins = fftSize / 2 + 1;
+        nyquistRow = bins - 1;
+        rows = Math.min(bins, (int) Math.ceil((double) SpectrogramTiles.MAX_FREQUENCY * fftSize / sampleRate) + 1);
+
+        int levels = SpectrogramTiles.LEVELS;
+        int channels = SpectralAnalyzer.CHANNELS;
+        sums = new double[levels][channels][rows];
+        summed = new int[levels];
+        groupFrames = new int[levels];
+        tiles = new byte[levels][channels][SpectrogramTiles.TILE_COLUMNS * rows];
+        tileFill = new int[levels];
+        tileOffsets = new long[levels][16];
+        tileCount = new int[levels];
+        columns = new long[levels];
+        int frames = 1;
+        for (int level = 0; level < levels; level++) {
+            groupFrames[level] = frames;
+            frames *= SpectrogramTiles.LEVEL_FACTOR;
+        }
+
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024));
+            out.writeInt(SpectrogramTiles.MAGIC);
+            out.writeInt(SpectrogramTiles.VERSION);
+            out.writeInt(sampleRate);
+            out.writeInt(fftSize);
+            out.writeInt(hop);
+            out.writeInt(rows);
+            out.writeInt(SpectrogramTiles.TILE_COLUMNS);
+            out.writeInt(levels);
+            out.writeInt(SpectrogramTiles.LEVEL_FACTOR);
+            out.writeFloat(SpectrogramTiles.DB_FLOOR);
+            out.writeFloat(SpectrogramTiles.DB_RANGE);
+            out.writeUTF(contentHash != null ? contentHash : "");
+            written = out.size();
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    /**
+     * Power spectrum of one channel of the current frame, raw FFT units;
+     * the frame is complete once the last channel has been added
+     */
+    void addFrame(int channel, float[] power) {
+        if (error != null || out == null) {
+            return;
+        }
+        double[] sum = sums[0][channel];
+        for (int r = 0; r < rows; r++) {
+            sum[r] = power[r];
+        }
+        if (channel == SpectralAnalyzer.CHANNELS - 1) {
+            summed[0] = 1;
+            emitColumn(0);
+        }
+    }
+
+    /**
+     * Quantize the summed column of a level into its tile and carry it up to
+     * the next level, which emits a column of its own every LEVEL_FACTOR
+     */
+    private void emitColumn(int level) {
+        int frames = summed[level];
+        int column = tileFill[level];
+        boolean carry = level + 1 < sums.length;
+        for (int channel = 0; channel < SpectralAnalyzer.CHANNELS; channel++) {
+            double[] sum = sums[level][channel];
+            double[] up = carry ? sums[level + 1][channel] : null;
+            byte[] tile = tiles[level][channel];
+            int base = column * rows;
+            for (int r = 0; r < rows; r++) {
+                if (carry) {
+                    up[r] += sum[r];
+                }
+                // One-sided spectrum: all bins except DC and Nyquist carry twice the power
+                double power = sum[r] / frames * (r == 0 || r == nyquistRow ? powerScale / 2 : powerScale);
+                tile[base + r] = SpectrogramTiles.quantize(power);
+                sum[r] = 0;
+            }
+        }
+        summed[level] = 0;
+        columns[level]++;
+        if (++tileFill[level] == SpectrogramTiles.TILE_COLUMNS) {
+            writeTile(level);
+        }
+        if (carry) {
+            summed[level + 1] += frames;
+            if (summed[level + 1] == groupFrames[level + 1]) {
+                emitColumn(level + 1);
+            }
+        }
+    }
+
+    private void writeTile(int level) {
+        int filled = tileFill[level];
+        if (filled == 0) {
+            return;
+        }
+        if (tileCount[level] == tileOffsets[level].length) {
+            tileOffsets[level] = Arrays.copyOf(tileOffsets[level], tileCount[level] * 2);
+        }
+        tileOffsets[level][tileCount[level]++] = written;
+        try {
+            for (int channel = 0; channel < SpectralAnalyzer.CHANNELS; channel++) {
+                out.write(tiles[level][channel], 0, filled * rows);
+                written += filled * rows;
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+        tileFill[level] = 0;
+    }
+
+    /**
+     * Write the partial columns and tiles and the index, and move the file into place
+     */
+    public void finish() throws IOException {
+        if (!started) {
+            throw new IOException("Spectrogram writer was never attached to an analysis");
+        }
+        if (error == null) {
+            for (int level = 0; level < sums.length; level++) {
+                if (summed[level] > 0) {
+                    emitColumn(level);
+                }
+                writeTile(level);
+            }
+        }
+        if (error != null) {
+            abort();
+            throw error;
+        }
+
+        long indexOffset = written;
+        out.writeInt(sums.length);
+        for (int level = 0; level < sums.length; level++) {
+            out.writeLong(columns[level]);
+            out.writeInt(tileCount[level]);
+            for (int t = 0; t < tileCount[level]; t++) {
+                out.writeLong(tileOffsets[level][t]);
+            }
+        }
+        out.writeLong(indexOffset);
+        out.writeInt(SpectrogramTiles.MAGIC);
+        out.close();
+        out = null;
+        if (!tempFile.renameTo(file)) {
+            file.delete();
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                throw new IOException("Could not move spectrogram into place: " + file);
+            }
+        }
+    }
+
+    /**
+     * Drop the partial file
+     */
+    public void abort() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            out = null;
+        }
+        tempFile.delete();
+    }
+
+    /**
+     * Tiles-only pass over a 16-bit stereo WAV file, for recordings whose
+     * analysis is already cached
+     */
+    public static void write(WavFile wav, String contentHash, File file) throws IOException {
+        if (wav.channels != SpectralAnalyzer.CHANNELS || wav.bitsPerSample != 16) {
+            throw new IOException("Spectrogram needs a 16-bit stereo WAV file");
+        }
+        final SpectralAnalyzer spectral = new SpectralAnalyzer(wav.sampleRate);
+        SpectrogramWriter writer = new SpectrogramWriter(file, contentHash);
+        spectral.setSpectrogram(writer);
+        try {
+            wav.readBlocks(4096, new PcmBlockConsumer() {
+                @Override
+                public void process(short[] interleaved, int offset, int frameCount) {
+                    spectral.process(interleaved, offset, frameCount);
+                }
+            });
+        } catch (IOException e) {
+            writer.abort();
+            throw e;
+        }
+        writer.finish();
+    }
+
+    /**
+     * Tiles-only pass over a stereo stream such as a decoded compressed file
+     */
+    public static void write(PcmBlockSource source, String contentHash, File file) throws IOException {
+        if (source.getChannelCount() != SpectralAnalyzer.CHANNELS) {
+            throw new IOException("Spectrogram needs a stereo recording");
+        }
+        final SpectralAnalyzer spectral = new SpectralAnalyzer(source.getSampleRate());
+        SpectrogramWriter writer = new SpectrogramWriter(file, contentHash);
+        spectral.setSpectrogram(writer);
+        try {
+            source.readBlocks(4096, new PcmBlockConsumer() {
+                @Override
+                public void process(short[] interleaved, int offset, int frameCount) {
+                    spectral.process(interleaved, offset, frameCount);
+                }
+            });
+        } catch (IOException e) {
+            writer.abort();
+            throw e;
+        }
+        writer.finish();
+    }
+}
@@ -0,0 +1,159 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Deinterleaves a stereo WAV file into two mono WAV files of the same
+ * sample format, a block of frames at a time. The mono headers are written
+ * with their final sizes up front, since the frame count is known.
+ *
+ * A decoded stream, whose length is only known at the end, is written
+ * through {@link WavWriter}s that patch their headers on close.
+ */
+public final class StereoSplitter {
+    private static final int BLOCK_FRAMES = 4096;
+
+    private StereoSplitter() {
+    }
+
+    /**
+     * Write the left channel to left and the right channel to right; returns the number of frames split
+     */
+    public static long split(WavFile wav, File left, File right) throws IOException {
+        if (wav.channels != 2) {
+            throw new IOException("Not a stereo WAV file (channels: " + wav.channels + ")");
+        }
+
+        int bytesPerSample = wav.bitsPerSample / 8;
+        int frameSize = wav.getFrameSize();
+        long frameCount = wav.getFrameCount();
+        int monoDataSize = (int) Math.min(frameCount * bytesPerSample, 0xFFFFFFFFL - 36);
+
+        FileInputStream in = null;
+        FileOutputStream leftOut = null;
+        FileOutputStream rightOut = null;
+        try {
+            leftOut = new FileOutputStream(left);
+            rightOut = new FileOutputStream(right);
+            ByteBuffer header = ByteBuffer.allocate(WavWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            WavWriter.encodeHeader(header, 1, wav.sampleRate, wav.bitsPerSample, monoDataSize);
+            leftOut.write(header.array(), 0, WavWriter.HEADER_SIZE);
+            rightOut.write(header.array(), 0, WavWriter.HEADER_SIZE);
+
+            in = new FileInputStream(wav.file);
+            // skip() may stop short; positioning the channel moves the stream exactly
+            in.getChannel().position(wav.dataOffset);
+            byte[] buffer = new byte[BLOCK_FRAMES * frameSize];
+            byte[] leftBuffer = new byte[BLOCK_FRAMES * bytesPerSample];
+            byte[] rightBuffer = new byte[BLOCK_FRAMES * bytesPerSample];
+            long remaining = frameCount * frameSize;
+            long framesSplit = 0;
+            int pending = 0;
+
+            while (remaining > 0) {
+                int read = in.read(buffer, pending, (int) Math.min(buffer.length - pending, remaining));
+                if (read <= 0) break;
+                remaining -= read;
+                pending += read;
+
+                int frames = pending / frameSize;
+                int monoIndex = 0;
+                for (int i = 0; i < frames; i++) {
+                    int index = i * frameSize;
+                    for (int b = 0; b < bytesPerSample; b++) {
+                        leftBuffer[monoIndex + b] = buffer[index + b];
+                        rightBuffer[monoIndex + b] = buffer[index + bytesPerSample + b];
+                    }
+                    monoIndex += bytesPerSample;
+                }
+                leftOut.write(leftBuffer, 0, monoIndex);
+                rightOut.write(rightBuffer, 0, monoIndex);
+                framesSplit += frames;
+
+                // Carry a partial frame over to the next read
+                int leftover = pending - frames * frameSize;
+                System.arraycopy(buffer, frames * frameSize, buffer, 0, leftover);
+                pending = leftover;
+            }
+            leftOut.close();
+            rightOut.close();
+            return framesSplit;
+        } finally {
+            closeQuietly(in);
+            closeQuietly(leftOut);
+            closeQuietly(rightOut);
+        }
+    }
+
+    /**
+     * Write the channels of a 16-bit stereo stream, e.g. a decoded compressed
+     * file, to 16-bit mono WAV files; returns the number of frames split
+     */
+    public static long split(PcmBlockSource source, File left, File right) throws IOException {
+        if (source.getChannelCount() != 2) {
+            throw new IOException("Not a stereo recording (channels: " + source.getChannelCount() + ")");
+        }
+
+        final WavWriter leftOut = new WavWriter(left, 1, source.getSampleRate(), 16);
+        WavWriter rightWriter = null;
+        try {
+            rightWriter = new WavWriter(right, 1, source.getSampleRate(), 16);
+            final WavWriter rightOut = rightWriter;
+            final byte[] leftBuffer = new byte[BLOCK_FRAMES * 2];
+            final byte[] rightBuffer = new byte[BLOCK_FRAMES * 2];
+            final IOException[] failure = new IOException[1];
+            final long[] framesSplit = new long[1];
+
+            source.readBlocks(BLOCK_FRAMES, new PcmBlockConsumer() {
+                @Override
+                public void process(short[] interleaved, int offset, int frameCount) {
+                    if (failure[0] != null) {
+                        return;
+                    }
+                    for (int i = 0; i < frameCount; i++) {
+                        short l = interleaved[offset + i * 2];
+                        short r = interleaved[offset + i * 2 + 1];
+                        leftBuffer[i * 2] = (byte) l;
+                        leftBuffer[i * 2 + 1] = (byte) (l >> 8);
+                        rightBuffer[i * 2] = (byte) r;
+                        rightBuffer[i * 2 + 1] = (byte) (r >> 8);
+                    }
+                    try {
+                        leftOut.write(leftBuffer, 0, frameCount * 2);
+                        rightOut.write(rightBuffer, 0, frameCount * 2);
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                    framesSplit[0] += frameCount;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            return framesSplit[0];
+        } finally {
+            try {
+                leftOut.close();
+            } finally {
+                if (rightWriter != null) {
+                    rightWriter.close();
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link UploadTransport} speaking the tus 1.0 resumable upload protocol
+ * (creation, creation-defer-length), which Supabase Storage exposes at
+ * /storage/v1/upload/resumable.
+ */
+public final class TusUploadTransport implements UploadTransport {
+    private static final String TUS_VERSION = "1.0.0";
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 60000;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final URL endpoint;
+    private final Map<String, String> headers = new LinkedHashMap<String, String>();
+    private final Map<String, String> metadata = new LinkedHashMap<String, String>();
+
+    public TusUploadTransport(String endpoint) throws IOException {
+        this.endpoint = new URL(endpoint);
+    }
+
+    /**
+     * Extra header sent with every request, e.g. authorization or x-upsert
+     */
+    public void setHeader(String name, String value) {
+        headers.put(name, value);
+    }
+
+    /**
+     * Upload-Metadata entry, e.g. bucketName, objectName, contentType
+     */
+    public void setMetadata(String key, String value) {
+        metadata.put(key, value);
+    }
+
+    @Override
+    public String create(long totalLength) throws IOException {
+        HttpURLConnection connection = open(endpoint, "POST");
+        try {
+            if (totalLength == UNKNOWN_LENGTH) {
+                connection.setRequestProperty("Upload-Defer-Length", "1");
+            } else {
+                connection.setRequestProperty("Upload-Length", String.valueOf(totalLength));
+            }
+            if (!metadata.isEmpty()) {
+                connection.setRequestProperty("Upload-Metadata", encodeMetadata());
+            }
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(0);
+            connection.getOutputStream().close();
+
+            int status = connection.getResponseCode();
+            String location = connection.getHeaderField("Location");
+            if (status != 201 || location == null) {
+                throw new IOException("Upload creation failed: HTTP " + status + " " + readError(connection));
+            }
+            return new URL(endpoint, location).toString();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public long getOffset(String uploadUrl) throws IOException {
+        HttpURLConnection connection = open(new URL(uploadUrl), "HEAD");
+        try {
+            int status = connection.getResponseCode();
+            if (status == 404 || status == 410) {
+                return -1;
+            }
+            return readOffset(connection, status);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public long append(String uploadUrl, long offset, byte[] data, int length, long totalLength) throws IOException {
+        HttpURLConnection connection = open(new URL(uploadUrl), "PATCH");
+        try {
+            connection.setRequestProperty("Upload-Offset", String.valueOf(offset));
+            connection.setRequestProperty("Content-Type", "application/offset+octet-stream");
+            if (totalLength != UNKNOWN_LENGTH) {
+                connection.setRequestProperty("Upload-Length", String.valueOf(totalLength));
+            }
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(length);
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(data, 0, length);
+            } finally {
+                out.close();
+            }
+            return readOffset(connection, connection.getResponseCode());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection open(URL url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if ("PATCH".equals(method)) {
+            // HttpURLConnection rejects PATCH; tus servers accept the override header
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("X-HTTP-Method-Override", "PATCH");
+        } else {
+            connection.setRequestMethod(method);
+        }
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Tus-Resumable", TUS_VERSION);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        return connection;
+    }
+
+    private static long readOffset(HttpURLConnection connection, int status) throws IOException {
+        String offset = connection.getHeaderField("Upload-Offset");
+        if (status < 200 || status >= 300 || offset == null) {
+            throw new IOException("Upload request failed: HTTP " + status + " " + readError(connection));
+        }
+        try {
+            return Long.parseLong(offset.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid Upload-Offset: " + offset);
+        }
+    }
+
+    private static String readError(HttpURLConnection connection) {
+        try {
+            String message = connection.getResponseMessage();
+            return message != null ? message : "";
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private String encodeMetadata() {
+        StringBuilder value = new StringBuilder();
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            if (value.length() > 0) value.append(',');
+            value.append(entry.getKey()).append(' ').append(base64(entry.getValue().getBytes(UTF8)));
+        }
+        return value.toString();
+    }
+
+    // java.util.Base64 needs API 26 and android.util.Base64 would tie this class to Android
+    private static String base64(byte[] data) {
+        StringBuilder out = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b = (data[i] & 0xFF) << 16;
+            if (i + 1 < data.length) b |= (data[i + 1] & 0xFF) << 8;
+            if (i + 2 < data.length) b |= data[i + 2] & 0xFF;
+            out.append(BASE64[(b >> 18) & 63]).append(BASE64[(b >> 12) & 63]);
+            out.append(i + 1 < data.length ? BASE64[(b >> 6) & 63] : '=');
+            out.append(i + 2 < data.length ? BASE64[b & 63] : '=');
+        }
+        return out.toString();
+    }
+}
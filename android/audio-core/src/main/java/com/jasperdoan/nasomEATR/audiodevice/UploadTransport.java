@@ -0,0 +1,27 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.IOException;
+
+/**
+ * Server side of a resumable, append-only upload, as used by {@link ChunkedUploader}.
+ */
+public interface UploadTransport {
+    /** Length to pass while the final size is not yet known */
+    long UNKNOWN_LENGTH = -1;
+
+    /**
+     * Start a new upload and return its URL. totalLength may be UNKNOWN_LENGTH.
+     */
+    String create(long totalLength) throws IOException;
+
+    /**
+     * Bytes the server has stored for an upload, or -1 if it no longer exists
+     */
+    long getOffset(String uploadUrl) throws IOException;
+
+    /**
+     * Append length bytes at offset and return the server's new offset.
+     * totalLength is the final upload size once known, else UNKNOWN_LENGTH.
+     */
+    long append(String uploadUrl, long offset, byte[] data, int length, long totalLength) throws IOException;
+}
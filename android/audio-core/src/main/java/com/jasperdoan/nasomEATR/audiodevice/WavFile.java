@@ -0,0 +1,277 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsed header of a PCM WAV file: format fields, the location of the data
+ * chunk and any labelled cue points, sorted by position.
+ */
+public final class WavFile implements PcmBlockSource {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public final File file;
+    public final int channels;
+    public final int sampleRate;
+    public final int bitsPerSample;
+    public final long dataOffset;
+    public final long dataSize;
+    public final List<SegmentMarker> markers;
+
+    private WavFile(File file, int channels, int sampleRate, int bitsPerSample,
+                    long dataOffset, long dataSize, List<SegmentMarker> markers) {
+        this.file = file;
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        this.bitsPerSample = bitsPerSample;
+        this.dataOffset = dataOffset;
+        this.dataSize = dataSize;
+        this.markers = markers;
+    }
+
+    /**
+     * Size in bytes of one frame (one sample for every channel)
+     */
+    public int getFrameSize() {
+        return channels * bitsPerSample / 8;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channels;
+    }
+
+    @Override
+    public long getFrameCount() {
+        return dataSize / getFrameSize();
+    }
+
+    public double getDurationSeconds() {
+        return (double) getFrameCount() / sampleRate;
+    }
+
+    /**
+     * Stream the data chunk of a 16-bit file to a consumer in blocks of up to blockFrames frames
+     */
+    @Override
+    public void readBlocks(int blockFrames, PcmBlockConsumer consumer) throws IOException {
+        readBlocks(blockFrames, Collections.<SegmentMarker>emptyList(), consumer);
+    }
+
+    /**
+     * Stream the data chunk, splitting blocks at marker positions so that a
+     * {@link SegmentedConsumer} starts each segment on its exact first frame
+     */
+    public void readBlocks(int blockFrames, List<SegmentMarker> markers, PcmBlockConsumer consumer) throws IOException {
+        if (bitsPerSample != 16) {
+            throw new IOException("Unsupported bit depth: " + bitsPerSample);
+        }
+
+        int frameSize = getFrameSize();
+        byte[] bytes = new byte[blockFrames * frameSize];
+        short[] samples = new short[blockFrames * channels];
+        ShortBuffer shorts = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            // skip() may stop short; positioning the channel moves the stream exactly
+            fis.getChannel().position(dataOffset);
+            long remaining = dataSize - dataSize % frameSize;
+            int pending = 0;
+            long position = 0;
+            int nextMarker = 0;
+            SegmentedConsumer segmented = consumer instanceof SegmentedConsumer ? (SegmentedConsumer) consumer : null;
+            while (remaining > 0) {
+                int toRead = (int) Math.min(bytes.length - pending, remaining);
+                int read = fis.read(bytes, pending, toRead);
+                if (read <= 0) break;
+                remaining -= read;
+                pending += read;
+
+                int frames = pending / frameSize;
+                shorts.clear();
+                shorts.get(samples, 0, frames * channels);
+                int done = 0;
+                while (done < frames) {
+                    while (segmented != null && nextMarker < markers.size() &&
+                            markers.get(nextMarker).frame <= position + done) {
+                        segmented.startSegment(markers.get(nextMarker++).label);
+                    }
+                    int end = frames;
+                    if (segmented != null && nextMarker < markers.size()) {
+                        end = (int) Math.min(frames, markers.get(nextMarker).frame - position);
+                    }
+                    consumer.process(samples, done * channels, end - done);
+                    done = end;
+                }
+                position += frames;
+
+                // Carry a partial frame over to the next read
+                int leftover = pending - frames * frameSize;
+                System.arraycopy(bytes, frames * frameSize, bytes, 0, leftover);
+                pending = leftover;
+            }
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Walk the RIFF chunks of a WAV file and return its format and data chunk location
+     */
+    public static WavFile read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] header = new byte[12];
+            if (raf.read(header) < 12 || !hasId(header, 0, "RIFF") || !hasId(header, 8, "WAVE")) {
+                throw new IOException("Not a valid WAV file: " + file.getPath());
+            }
+
+            int channels = 0;
+            int sampleRate = 0;
+            int bitsPerSample = 0;
+            boolean foundFormat = false;
+            byte[] chunkHeader = new byte[8];
+            byte[] format = new byte[16];
+            long length = raf.length();
+            long dataOffset = -1;
+            long dataSize = 0;
+            Map<Integer, Long> cues = new HashMap<Integer, Long>();
+            Map<Integer, String> labels = new HashMap<Integer, String>();
+
+            while (raf.getFilePointer() + 8 <= length) {
+                raf.readFully(chunkHeader);
+                long size = readInt(chunkHeader, 4) & 0xFFFFFFFFL;
+
+                if (hasId(chunkHeader, 0, "fmt ")) {
+                    raf.readFully(format);
+                    channels = readShort(format, 2);
+                    sampleRate = readInt(format, 4);
+                    bitsPerSample = readShort(format, 14);
+                    foundFormat = true;
+                    raf.seek(raf.getFilePointer() + size - 16 + (size & 1));
+                } else if (hasId(chunkHeader, 0, "data")) {
+                    if (!foundFormat) {
+                        throw new IOException("WAV data chunk precedes fmt chunk");
+                    }
+                    dataOffset = raf.getFilePointer();
+                    // Recordings cut short may carry a stale size; trust the file length instead
+                    long available = length - dataOffset;
+                    if (size == 0 || size > available) {
+                        dataSize = available;
+                        break;
+                    }
+                    dataSize = size;
+                    raf.seek(dataOffset + size + (size & 1));
+                } else if (hasId(chunkHeader, 0, "cue ") && size >= 4) {
+                    byte[] chunk = readChunk(raf, size);
+                    int count = Math.min(readInt(chunk, 0), (chunk.length - 4) / 24);
+                    for (int i = 0; i < count; i++) {
+                        int point = 4 + i * 24;
+                        // Sample offset within the data chunk
+                        cues.put(readInt(chunk, point), readInt(chunk, point + 20) & 0xFFFFFFFFL);
+                    }
+                } else if (hasId(chunkHeader, 0, "LIST") && size >= 4) {
+                    byte[] chunk = readChunk(raf, size);
+                    if (hasId(chunk, 0, "adtl")) {
+                        readLabels(chunk, labels);
+                    }
+                } else {
+                    // Chunks are word aligned
+                    raf.seek(raf.getFilePointer() + size + (size & 1));
+                }
+            }
+            if (dataOffset < 0) {
+                throw new IOException("Invalid WAV file format - no data chunk found");
+            }
+            return new WavFile(file, channels, sampleRate, bitsPerSample, dataOffset, dataSize, toMarkers(cues, labels));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static byte[] readChunk(RandomAccessFile raf, long size) throws IOException {
+        if (size > 1 << 20) {
+            throw new IOException("WAV metadata chunk too large: " + size);
+        }
+        byte[] chunk = new byte[(int) size];
+        raf.readFully(chunk);
+        if ((size & 1) != 0) {
+            raf.skipBytes(1);
+        }
+        return chunk;
+    }
+
+    /**
+     * Collect the labl sub-chunks of a LIST/adtl chunk
+     */
+    private static void readLabels(byte[] chunk, Map<Integer, String> labels) {
+        int offset = 4;
+        while (offset + 8 <= chunk.length) {
+            int size = readInt(chunk, offset + 4);
+            if (size < 0 || offset + 8 + size > chunk.length) break;
+            if (hasId(chunk, offset, "labl") && size >= 4) {
+                int start = offset + 12;
+                int end = start;
+                while (end < offset + 8 + size && chunk[end] != 0) end++;
+                labels.put(readInt(chunk, offset + 8), new String(chunk, start, end - start, UTF8));
+            }
+            offset += 8 + size + (size & 1);
+        }
+    }
+
+    private static List<SegmentMarker> toMarkers(Map<Integer, Long> cues, Map<Integer, String> labels) {
+        if (cues.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<SegmentMarker> markers = new ArrayList<SegmentMarker>(cues.size());
+        for (Map.Entry<Integer, Long> cue : cues.entrySet()) {
+            String label = labels.get(cue.getKey());
+            markers.add(new SegmentMarker(cue.getValue(), label != null ? label : String.valueOf(cue.getKey())));
+        }
+        Collections.sort(markers, new Comparator<SegmentMarker>() {
+            @Override
+            public int compare(SegmentMarker a, SegmentMarker b) {
+                return Long.compare(a.frame, b.frame);
+            }
+        });
+        return markers;
+    }
+
+    static boolean hasId(byte[] buffer, int offset, String id) {
+        for (int i = 0; i < 4; i++) {
+            if (buffer[offset + i] != (byte) id.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int readInt(byte[] buffer, int offset) {
+        return buffer[offset] & 0xFF |
+               (buffer[offset + 1] & 0xFF) << 8 |
+               (buffer[offset + 2] & 0xFF) << 16 |
+               (buffer[offset + 3] & 0xFF) << 24;
+    }
+
+    static int readShort(byte[] buffer, int offset) {
+        return buffer[offset] & 0xFF | (buffer[offset + 1] & 0xFF) << 8;
+    }
+}
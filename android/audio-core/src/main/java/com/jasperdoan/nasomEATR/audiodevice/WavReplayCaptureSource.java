@@ -0,0 +1,106 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Capture source that replays a 16-bit PCM WAV file.
+ *
+ * With a speed of 1 the file is delivered at real time, with N at N times real
+ * time, and with 0 as fast as the consumer can take it. Used to drive the
+ * capture pipeline headlessly and to reproduce problems from field recordings.
+ */
+public final class WavReplayCaptureSource implements CaptureSource {
+    private final File file;
+    private final double speed;
+    private WavFile wav;
+    private FileInputStream input;
+    private long remaining;
+    private long bytesDelivered;
+    private long startNanos;
+
+    public WavReplayCaptureSource(File file, double speed) {
+        this.file = file;
+        this.speed = speed;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return wav != null ? wav.sampleRate : 0;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return wav != null ? wav.channels : 0;
+    }
+
+    /**
+     * Parse the header ahead of start() so the format is known up front
+     */
+    public WavFile open() throws IOException {
+        if (wav == null) {
+            wav = WavFile.read(file);
+            if (wav.bitsPerSample != 16) {
+                throw new IOException("Unsupported bit depth: " + wav.bitsPerSample);
+            }
+        }
+        return wav;
+    }
+
+    @Override
+    public void start() throws IOException {
+        open();
+        input = new FileInputStream(file);
+        // skip() may stop short; positioning the channel moves the stream exactly
+        input.getChannel().position(wav.dataOffset);
+        remaining = wav.dataSize - wav.dataSize % wav.getFrameSize();
+        bytesDelivered = 0;
+        startNanos = System.nanoTime();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+
+        int frameSize = wav.getFrameSize();
+        int toRead = (int) Math.min(length - length % frameSize, remaining);
+        int total = 0;
+        while (total < toRead) {
+            int read = input.read(buffer, offset + total, toRead - total);
+            if (read <= 0) break;
+            total += read;
+        }
+        if (total == 0) {
+            remaining = 0;
+            return -1;
+        }
+        remaining -= total;
+        bytesDelivered += total;
+
+        if (speed > 0) {
+            // Hold the block back until a device running at speed x real time would have produced it
+            long byteRate = (long) wav.sampleRate * frameSize;
+            long dueNanos = startNanos + (long) (bytesDelivered * 1e9 / (byteRate * speed));
+            long wait = dueNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public void stop() {
+        if (input == null) return;
+        try {
+            input.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+        input = null;
+    }
+}
@@ -0,0 +1,185 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams 16-bit PCM to a WAV file as it is captured.
+ *
+ * A header with unknown (0xFFFFFFFF) sizes is written up front and patched
+ * with the real sizes on close, so the session never has to be held in
+ * memory. Until then the file reads as a streaming WAV, so a copy taken
+ * mid-recording, such as a live upload, is still playable.
+ *
+ * Segment markers added while writing are stored after the data as a cue
+ * chunk with a LIST/adtl chunk holding their labels.
+ */
+public final class WavWriter {
+    public static final int HEADER_SIZE = 44;
+
+    private static final int UNKNOWN_SIZE = 0xFFFFFFFF;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile file;
+    private final int channels;
+    private final int sampleRate;
+    private final int bitsPerSample;
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long dataSize = 0;
+    private final List<SegmentMarker> markers = new ArrayList<SegmentMarker>();
+
+    public WavWriter(File output, int channels, int sampleRate, int bitsPerSample) throws IOException {
+        this.file = new RandomAccessFile(output, "rw");
+        this.file.setLength(0);
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        this.bitsPerSample = bitsPerSample;
+        writeHeader(UNKNOWN_SIZE);
+    }
+
+    public void write(byte[] data, int offset, int length) throws IOException {
+        file.write(data, offset, length);
+        dataSize += length;
+    }
+
+    public long getDataSize() {
+        return dataSize;
+    }
+
+    /**
+     * Add a marker at a frame position, written out on close
+     */
+    public void addMarker(SegmentMarker marker) {
+        markers.add(marker);
+    }
+
+    /**
+     * Write the marker chunks, patch the header with the final sizes and close the file
+     */
+    public void close() throws IOException {
+        try {
+            int dataLength = (int) Math.min(dataSize, 0xFFFFFFFFL - 36);
+            long trailing = 0;
+            if (!markers.isEmpty()) {
+                // Chunks are word aligned
+                if ((dataSize & 1) != 0) {
+                    file.write(0);
+                    trailing++;
+                }
+                byte[] chunks = encodeMarkers(markers);
+                file.write(chunks);
+                trailing += chunks.length;
+            }
+            file.seek(0);
+            writeHeader(dataLength);
+            if (trailing > 0) {
+                // RIFF size covers the marker chunks too
+                header.clear();
+                header.putInt((int) Math.min(36 + (dataLength & 0xFFFFFFFFL) + trailing, 0xFFFFFFFFL));
+                file.seek(4);
+                file.write(header.array(), 0, 4);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * cue chunk with one point per marker, followed by a LIST/adtl chunk with a labl per point
+     */
+    static byte[] encodeMarkers(List<SegmentMarker> markers) {
+        int count = markers.size();
+        byte[][] labels = new byte[count][];
+        int listSize = 4;
+        for (int i = 0; i < count; i++) {
+            labels[i] = markers.get(i).label.getBytes(UTF8);
+            int lablSize = 4 + labels[i].length + 1;
+            listSize += 8 + lablSize + (lablSize & 1);
+        }
+        int cueSize = 4 + 24 * count;
+        ByteBuffer out = ByteBuffer.allocate(8 + cueSize + 8 + listSize).order(ByteOrder.LITTLE_ENDIAN);
+
+        putId(out, "cue ");
+        out.putInt(cueSize);
+        out.putInt(count);
+        for (int i = 0; i < count; i++) {
+            int frame = (int) markers.get(i).frame;
+            out.putInt(i + 1);        // Cue point id
+            out.putInt(frame);        // Play order position
+            putId(out, "data");
+            out.putInt(0);            // Chunk start
+            out.putInt(0);            // Block start
+            out.putInt(frame);        // Sample offset
+        }
+
+        putId(out, "LIST");
+        out.putInt(listSize);
+        putId(out, "adtl");
+        for (int i = 0; i < count; i++) {
+            int lablSize = 4 + labels[i].length + 1;
+            putId(out, "labl");
+            out.putInt(lablSize);
+            out.putInt(i + 1);
+            out.put(labels[i]);
+            out.put((byte) 0);
+            if ((lablSize & 1) != 0) {
+                out.put((byte) 0);
+            }
+        }
+        return out.array();
+    }
+
+    /**
+     * Length of the file written so far, header included
+     */
+    public long getLength() {
+        return HEADER_SIZE + dataSize;
+    }
+
+    private void writeHeader(int dataLength) throws IOException {
+        encodeHeader(header, channels, sampleRate, bitsPerSample, dataLength);
+        file.write(header.array(), 0, HEADER_SIZE);
+    }
+
+    /**
+     * The header as written before close, with streaming sizes
+     */
+    static byte[] streamingHeader(int channels, int sampleRate, int bitsPerSample) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        encodeHeader(header, channels, sampleRate, bitsPerSample, UNKNOWN_SIZE);
+        return header.array();
+    }
+
+    /**
+     * Fill a little-endian buffer of at least HEADER_SIZE bytes with a PCM WAV
+     * header, without allocating
+     */
+    static void encodeHeader(ByteBuffer header, int channels, int sampleRate, int bitsPerSample, int dataLength) {
+        header.clear();
+        putId(header, "RIFF");
+        header.putInt(dataLength == UNKNOWN_SIZE ? UNKNOWN_SIZE : 36 + dataLength);
+        putId(header, "WAVE");
+        putId(header, "fmt ");
+        header.putInt(16);                                         // Subchunk1Size (16 for PCM)
+        header.putShort((short) 1);                                // AudioFormat (1 for PCM)
+        header.putShort((short) channels);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * channels * bitsPerSample / 8);  // ByteRate
+        header.putShort((short) (channels * bitsPerSample / 8));   // BlockAlign
+        header.putShort((short) bitsPerSample);
+        putId(header, "data");
+        header.putInt(dataLength);
+    }
+
+    private static void putId(ByteBuffer header, String id) {
+        for (int i = 0; i < 4; i++) {
+            header.put((byte) id.charAt(i));
+        }
+    }
+}
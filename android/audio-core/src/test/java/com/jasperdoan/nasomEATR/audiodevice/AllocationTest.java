@@ -0,0 +1,175 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The capture and analysis loops allocate nothing once warmed up, measured
+ * per thread with com.sun.management.ThreadMXBean. The bound leaves room for
+ * the measuring calls themselves, not for anything per block.
+ */
+public class AllocationTest {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int BUFFER_MS = 20;
+    private static final int WARMUP_BLOCKS = 500;
+    private static final int MEASURED_BLOCKS = 3000;
+    private static final long MAX_BYTES = 1024;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        // A JVM not counting allocations would report -1 throughout and pass anything
+        assertTrue("thread allocation accounting is off", THREADS.isThreadAllocatedMemoryEnabled());
+        file = File.createTempFile("allocation", ".wav");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void captureLoopDoesNotAllocate() throws Exception {
+        MeteredSource source = new MeteredSource();
+        CapturePipeline pipeline = new CapturePipeline(source, file, BUFFER_MS);
+        // As a session take runs: the analyzer behind a hand-off, plus progress with levels
+        NasalanceAnalyzer analyzer = analyzer((long) (WARMUP_BLOCKS + MEASURED_BLOCKS + 1) * source.blockFrames);
+        BlockHandoff handoff = new BlockHandoff(analyzer, 2, source.blockFrames, 100);
+        pipeline.addConsumer(handoff);
+        pipeline.setListener(new CapturePipeline.Listener() {
+            @Override
+            public void onProgress(long framesCaptured, float[] peaks) {
+            }
+
+            @Override
+            public void onFinished(CapturePipeline pipeline, Exception error) {
+            }
+        });
+        Thread analysis = new Thread(handoff);
+        analysis.start();
+        pipeline.run();
+        handoff.finish();
+        handoff.awaitDone();
+
+        assertTrue("capture thread allocated " + source.allocated + " bytes over " + MEASURED_BLOCKS + " blocks",
+                source.allocated >= 0 && source.allocated <= MAX_BYTES);
+    }
+
+    @Test
+    public void analysisLoopDoesNotAllocate() {
+        int blockFrames = SAMPLE_RATE * BUFFER_MS / 1000;
+        short[] signal = signal(SAMPLE_RATE);
+        short[] block = new short[blockFrames * 2];
+        NasalanceAnalyzer analyzer = analyzer((long) (WARMUP_BLOCKS + MEASURED_BLOCKS) * blockFrames);
+
+        long start = 0;
+        int position = 0;
+        for (int b = 0; b < WARMUP_BLOCKS + MEASURED_BLOCKS; b++) {
+            if (b == WARMUP_BLOCKS) {
+                start = allocatedBytes();
+            }
+            // The corrector works in place, so each block is a fresh copy
+            position = copyBlock(signal, position, block);
+            analyzer.process(block, 0, blockFrames);
+        }
+        long allocated = allocatedBytes() - start;
+
+        assertTrue("analysis allocated " + allocated + " bytes over " + MEASURED_BLOCKS + " blocks",
+                allocated <= MAX_BYTES);
+    }
+
+    private static NasalanceAnalyzer analyzer(long frames) {
+        NasalanceAnalyzer analyzer = new NasalanceAnalyzer(SAMPLE_RATE);
+        analyzer.setCorrector(new ChannelAligner.Corrector(3, 0.05f));
+        analyzer.reserve(frames);
+        return analyzer;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // One second of a voiced stereo signal with pauses, looped by the callers
+    private static short[] signal(int frames) {
+        short[] samples = new short[frames * 2];
+        double phase = 0;
+        for (int i = 0; i < frames; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            phase += 2 * Math.PI * (150 + 50 * Math.sin(2 * Math.PI * t)) / SAMPLE_RATE;
+            double voice = t % 0.5 < 0.35 ? Math.sin(phase) + Math.sin(2 * phase) / 2 + Math.sin(3 * phase) / 3 : 0;
+            samples[2 * i + NasalanceAnalyzer.NASAL_CHANNEL] = (short) (voice * 3000 + (i % 7) - 3);
+            samples[2 * i + NasalanceAnalyzer.ORAL_CHANNEL] = (short) (voice * 8000 + (i % 5) - 2);
+        }
+        return samples;
+    }
+
+    private static int copyBlock(short[] signal, int position, short[] block) {
+        for (int i = 0; i < block.length; i++) {
+            block[i] = signal[position];
+            position = (position + 1) % signal.length;
+        }
+        return position;
+    }
+
+    /**
+     * Delivers the signal as fast as it is read, and takes the capture
+     * thread's allocation count between the end of the warm-up and the last
+     * measured block; ends after that
+     */
+    private static final class MeteredSource implements CaptureSource {
+        final int blockFrames = SAMPLE_RATE * BUFFER_MS / 1000;
+        private final short[] signal = signal(SAMPLE_RATE);
+        private final short[] block = new short[blockFrames * 2];
+        private int position = 0;
+        private int reads = 0;
+        private long start = 0;
+        volatile long allocated = -1;
+
+        @Override
+        public int getSampleRate() {
+            return SAMPLE_RATE;
+        }
+
+        @Override
+        public int getChannelCount() {
+            return 2;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (reads == WARMUP_BLOCKS) {
+                start = allocatedBytes();
+            } else if (reads == WARMUP_BLOCKS + MEASURED_BLOCKS) {
+                allocated = allocatedBytes() - start;
+                return -1;
+            }
+            reads++;
+            position = copyBlock(signal, position, block);
+            int frames = Math.min(blockFrames, length / 4);
+            for (int i = 0; i < frames * 2; i++) {
+                buffer[offset + 2 * i] = (byte) block[i];
+                buffer[offset + 2 * i + 1] = (byte) (block[i] >> 8);
+            }
+            return frames * 4;
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+}
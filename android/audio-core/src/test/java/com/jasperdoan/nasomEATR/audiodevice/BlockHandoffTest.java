@@ -0,0 +1,116 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * BlockHandoff delivers the same frames and segment starts, in the same
+ * order, as feeding the consumer inline, including when it falls behind.
+ */
+public class BlockHandoffTest {
+    private static final int BLOCK_FRAMES = 320;
+
+    @Test
+    public void deliversEveryFrameAndSegmentInOrder() throws InterruptedException {
+        Recorder recorder = new Recorder(0);
+        BlockHandoff handoff = new BlockHandoff(recorder, 2, BLOCK_FRAMES, 8);
+        Thread thread = new Thread(handoff);
+        thread.start();
+        short[] expected = feed(handoff, 200);
+        handoff.finish();
+        handoff.awaitDone();
+
+        assertArrayEquals(expected, recorder.samples());
+        assertEquals(Arrays.asList("a@0", "b@16000", "c@32000", "d@48000"), recorder.segments);
+        assertNull(handoff.getError());
+    }
+
+    @Test
+    public void waitsRatherThanDropsWhenTheConsumerFallsBehind() throws InterruptedException {
+        Recorder recorder = new Recorder(2);
+        BlockHandoff handoff = new BlockHandoff(recorder, 2, BLOCK_FRAMES, 4);
+        Thread thread = new Thread(handoff);
+        thread.start();
+        short[] expected = feed(handoff, 60);
+        handoff.finish();
+        handoff.awaitDone();
+
+        assertArrayEquals(expected, recorder.samples());
+        assertTrue("stalls " + handoff.getStalls(), handoff.getStalls() > 0);
+        assertEquals(handoff.getCapacity(), handoff.getMaxBacklog());
+    }
+
+    @Test
+    public void blocksLargerThanASlotAreSplit() throws InterruptedException {
+        Recorder recorder = new Recorder(0);
+        BlockHandoff handoff = new BlockHandoff(recorder, 2, BLOCK_FRAMES / 3, 64);
+        Thread thread = new Thread(handoff);
+        thread.start();
+        short[] expected = feed(handoff, 10);
+        handoff.finish();
+        handoff.awaitDone();
+
+        assertArrayEquals(expected, recorder.samples());
+    }
+
+    // Blocks of a counting signal, with a segment start every 50 blocks; returns everything fed
+    private static short[] feed(BlockHandoff handoff, int blocks) {
+        short[] all = new short[blocks * BLOCK_FRAMES * 2];
+        short[] block = new short[BLOCK_FRAMES * 2];
+        for (int b = 0; b < blocks; b++) {
+            if (b % 50 == 0) {
+                handoff.startSegment(String.valueOf((char) ('a' + b / 50)));
+            }
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (short) (b * block.length + i);
+            }
+            System.arraycopy(block, 0, all, b * block.length, block.length);
+            handoff.process(block, 0, BLOCK_FRAMES);
+        }
+        return all;
+    }
+
+    private static final class Recorder implements SegmentedConsumer {
+        final List<String> segments = new ArrayList<String>();
+        private final long delayMs;
+        private short[] samples = new short[0];
+        private int length = 0;
+
+        Recorder(long delayMs) {
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public void startSegment(String label) {
+            segments.add(label + "@" + length / 2);
+        }
+
+        @Override
+        public void process(short[] interleaved, int offset, int frameCount) {
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (length + frameCount * 2 > samples.length) {
+                samples = Arrays.copyOf(samples, Math.max(2 * samples.length, length + frameCount * 2));
+            }
+            System.arraycopy(interleaved, offset, samples, length, frameCount * 2);
+            length += frameCount * 2;
+        }
+
+        short[] samples() {
+            return Arrays.copyOf(samples, length);
+        }
+    }
+}
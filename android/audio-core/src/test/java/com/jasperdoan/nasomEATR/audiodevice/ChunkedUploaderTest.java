@@ -0,0 +1,485 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * ChunkedUploader and TusUploadTransport against a minimal in-process tus
+ * server: chunk boundaries, deferred length, a prefix sent in place of the
+ * rewritten header, resuming from the .upload sidecar and restarting an
+ * upload the server has dropped.
+ */
+public class ChunkedUploaderTest {
+    private static final int CHUNK = 64 * 1024;
+    private static final long WAIT_MS = 5000;
+
+    private TusServer server;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TusServer();
+        file = File.createTempFile("upload", ".wav");
+        new File(file.getPath() + ChunkedUploader.STATE_SUFFIX).delete();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        file.delete();
+        new File(file.getPath() + ChunkedUploader.STATE_SUFFIX).delete();
+    }
+
+    @Test
+    public void finishedFileGoesOutInChunks() throws Exception {
+        byte[] data = randomBytes(CHUNK * 5 / 2, 1);
+        write(file, data);
+        ChunkedUploader uploader = uploader();
+        uploader.finish();
+        uploader.run();
+
+        assertTrue(uploader.isComplete());
+        assertEquals(1, server.creates.size());
+        assertEquals("Upload-Length " + data.length, server.creates.get(0));
+        assertEquals(list("0+65536", "65536+65536", "131072+32768 of 163840"), server.appends);
+        assertArrayEquals(data, server.stored(uploader.getUploadUrl()));
+        assertChecksums(data, uploader);
+        assertFalse("sidecar removed", sidecar().exists());
+    }
+
+    @Test
+    public void deferredLengthWhileWriting() throws Exception {
+        byte[] data = randomBytes(CHUNK * 5 / 2, 2);
+        ChunkedUploader uploader = uploader();
+        Thread thread = new Thread(uploader);
+        thread.start();
+
+        // Two full chunks are sent as soon as they exist, before the length is known
+        append(file, data, 0, 2 * CHUNK + 100);
+        uploader.onBytesAvailable(2 * CHUNK + 100);
+        server.awaitStored(2 * CHUNK);
+        assertEquals(list("Upload-Defer-Length 1"), server.creates);
+        assertEquals(list("0+65536", "65536+65536"), server.appends);
+
+        append(file, data, 2 * CHUNK + 100, data.length - 2 * CHUNK - 100);
+        uploader.finish(data.length);
+        thread.join(WAIT_MS);
+
+        assertTrue(uploader.isComplete());
+        assertEquals("131072+32768 of 163840", server.appends.get(2));
+        assertArrayEquals(data, server.stored(uploader.getUploadUrl()));
+        assertChecksums(data, uploader);
+    }
+
+    @Test
+    public void lengthOnAnEmptyRequestAfterTheLastFullChunk() throws Exception {
+        byte[] data = randomBytes(CHUNK * 2, 3);
+        ChunkedUploader uploader = uploader();
+        Thread thread = new Thread(uploader);
+        thread.start();
+
+        write(file, data);
+        uploader.onBytesAvailable(data.length);
+        server.awaitStored(data.length);
+        uploader.finish(data.length);
+        thread.join(WAIT_MS);
+
+        assertTrue(uploader.isComplete());
+        assertEquals(list("0+65536", "65536+65536", "131072+0 of 131072"), server.appends);
+        assertChecksums(data, uploader);
+    }
+
+    @Test
+    public void prefixGoesOutLiveInPlaceOfTheRewrittenHeader() throws Exception {
+        byte[] data = randomBytes(CHUNK * 3, 4);
+        byte[] streaming = data.clone();
+        System.arraycopy(streamingHeader(), 0, streaming, 0, WavWriter.HEADER_SIZE);
+        write(file, streaming);
+        ChunkedUploader uploader = uploader();
+        uploader.setPrefix(streamingHeader());
+        Thread thread = new Thread(uploader);
+        thread.start();
+
+        // Chunks go out while the file is still being written
+        uploader.onBytesAvailable(2 * CHUNK + 100);
+        server.awaitStored(2 * CHUNK);
+
+        // The writer patches the header on close, then the file is finished
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.write(data, 0, WavWriter.HEADER_SIZE);
+        raf.close();
+        uploader.finish(data.length);
+        thread.join(WAIT_MS);
+
+        assertTrue(uploader.isComplete());
+        assertEquals(list("0+65536", "65536+65536", "131072+65536 of 196608"), server.appends);
+        assertArrayEquals(streaming, server.stored(uploader.getUploadUrl()));
+        assertChecksums(streaming, uploader);
+    }
+
+    @Test
+    public void resumedUploadKeepsThePrefixItWasCreatedWith() throws Exception {
+        byte[] data = randomBytes(CHUNK * 3, 9);
+        byte[] streaming = data.clone();
+        System.arraycopy(streamingHeader(), 0, streaming, 0, WavWriter.HEADER_SIZE);
+        write(file, data);
+        final ChunkedUploader first = uploader();
+        first.setPrefix(streamingHeader());
+        first.setListener(new ChunkedUploader.Listener() {
+            @Override
+            public void onProgress(ChunkedUploader uploader, long bytesUploaded) {
+                first.cancel();
+            }
+
+            @Override
+            public void onFinished(ChunkedUploader uploader, Exception error) {
+            }
+        });
+        first.finish();
+        first.run();
+        assertFalse(first.isComplete());
+
+        // As after an app restart: no prefix given, the sidecar has it
+        ChunkedUploader second = uploader();
+        second.finish();
+        second.run();
+
+        assertTrue(second.isComplete());
+        assertEquals(1, server.creates.size());
+        assertArrayEquals(streaming, server.stored(second.getUploadUrl()));
+        assertChecksums(streaming, second);
+    }
+
+    @Test
+    public void retriesFromTheServerOffsetAfterAFailedChunk() throws Exception {
+        byte[] data = randomBytes(CHUNK * 3, 5);
+        write(file, data);
+        // The second chunk is cut off half way
+        server.failAppend(1, CHUNK / 2, 500);
+        ChunkedUploader uploader = uploader();
+        uploader.finish();
+        uploader.run();
+
+        assertTrue(uploader.isComplete());
+        assertEquals(1, server.creates.size());
+        // Chunks continue from the offset the server reports
+        assertEquals(list("0+65536", "98304+65536", "163840+32768 of 196608"), server.appends);
+        assertArrayEquals(data, server.stored(uploader.getUploadUrl()));
+        assertChecksums(data, uploader);
+    }
+
+    @Test
+    public void resumesFromTheSidecar() throws Exception {
+        byte[] data = randomBytes(CHUNK * 3, 6);
+        write(file, data);
+        final ChunkedUploader first = uploader();
+        first.setListener(new ChunkedUploader.Listener() {
+            @Override
+            public void onProgress(ChunkedUploader uploader, long bytesUploaded) {
+                first.cancel();
+            }
+
+            @Override
+            public void onFinished(ChunkedUploader uploader, Exception error) {
+            }
+        });
+        first.finish();
+        first.run();
+        assertFalse(first.isComplete());
+        assertTrue("sidecar kept", sidecar().exists());
+
+        ChunkedUploader second = uploader();
+        second.finish();
+        second.run();
+
+        assertTrue(second.isComplete());
+        assertEquals(1, server.creates.size());
+        assertEquals(first.getUploadUrl(), second.getUploadUrl());
+        assertEquals(list("0+65536", "65536+65536", "131072+65536 of 196608"), server.appends);
+        assertArrayEquals(data, server.stored(second.getUploadUrl()));
+        // The resumed checksums cover the chunk the first run sent too
+        assertChecksums(data, second);
+    }
+
+    @Test
+    public void restartsWhenTheSavedUploadIsGone() throws Exception {
+        byte[] data = randomBytes(CHUNK * 2, 7);
+        write(file, data);
+        write(sidecar(), (server.base() + "/files/missing").getBytes("UTF-8"));
+        ChunkedUploader uploader = uploader();
+        uploader.finish();
+        uploader.run();
+
+        assertTrue(uploader.isComplete());
+        assertEquals(1, server.creates.size());
+        assertArrayEquals(data, server.stored(uploader.getUploadUrl()));
+        assertChecksums(data, uploader);
+    }
+
+    @Test
+    public void restartsWhenTheServerDropsTheUploadMidway() throws Exception {
+        byte[] data = randomBytes(CHUNK * 3, 8);
+        write(file, data);
+        // After the first chunk the upload expires
+        server.failAppend(1, 0, 410);
+        ChunkedUploader uploader = uploader();
+        uploader.finish();
+        uploader.run();
+
+        assertTrue(uploader.isComplete());
+        assertEquals(2, server.creates.size());
+        assertArrayEquals(data, server.stored(uploader.getUploadUrl()));
+        assertChecksums(data, uploader);
+    }
+
+    private ChunkedUploader uploader() throws IOException {
+        return new ChunkedUploader(file, new TusUploadTransport(server.base() + "/files"), CHUNK);
+    }
+
+    private static byte[] streamingHeader() {
+        return WavWriter.streamingHeader(2, 44100, 16);
+    }
+
+    private File sidecar() {
+        return new File(file.getPath() + ChunkedUploader.STATE_SUFFIX);
+    }
+
+    private static void assertChecksums(byte[] data, ChunkedUploader uploader) throws Exception {
+        assertEquals(String.format("%08x", referenceCrc32c(data)), uploader.getCrc32c());
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        assertEquals(hex.toString(), uploader.getSha256());
+    }
+
+    // Bitwise CRC-32C, independent of the table-driven Crc32c
+    private static long referenceCrc32c(byte[] data) {
+        int crc = 0xFFFFFFFF;
+        for (byte b : data) {
+            crc ^= b & 0xFF;
+            for (int k = 0; k < 8; k++) {
+                crc = (crc >>> 1) ^ (0x82F63B78 & -(crc & 1));
+            }
+        }
+        return ~crc & 0xFFFFFFFFL;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static void write(File target, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(target);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void append(File target, byte[] data, int offset, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(target, true);
+        try {
+            out.write(data, offset, length);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static List<String> list(String... values) {
+        List<String> list = new ArrayList<String>();
+        Collections.addAll(list, values);
+        return list;
+    }
+
+    /**
+     * tus 1.0 creation and core over com.sun.net.httpserver, with scripted
+     * failures. PATCH arrives as POST with X-HTTP-Method-Override, as
+     * TusUploadTransport sends it.
+     */
+    static final class TusServer implements HttpHandler {
+        final List<String> creates = Collections.synchronizedList(new ArrayList<String>());
+        // "offset+length", with " of total" when the request carries Upload-Length
+        final List<String> appends = Collections.synchronizedList(new ArrayList<String>());
+
+        private final HttpServer http;
+        private final Map<String, ByteArrayOutputStream> uploads = new HashMap<String, ByteArrayOutputStream>();
+        private final Map<String, Long> lengths = new HashMap<String, Long>();
+        // Uploads that expired; HEAD answers 410 for them and 404 for unknown ones
+        private final Set<String> gone = new HashSet<String>();
+        private int nextId = 0;
+        private int appendCount = 0;
+        private int failAt = -1;
+        private int failKeep = 0;
+        private int failStatus = 0;
+
+        TusServer() throws IOException {
+            http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            http.createContext("/files", this);
+            http.start();
+        }
+
+        String base() {
+            return "http://127.0.0.1:" + http.getAddress().getPort();
+        }
+
+        void stop() {
+            http.stop(0);
+        }
+
+        /**
+         * Make append number index (from 0) store only keep bytes and answer status;
+         * 410 also drops the upload
+         */
+        synchronized void failAppend(int index, int keep, int status) {
+            failAt = index;
+            failKeep = keep;
+            failStatus = status;
+        }
+
+        synchronized byte[] stored(String url) {
+            ByteArrayOutputStream upload = uploads.get(url.substring(url.lastIndexOf('/') + 1));
+            return upload != null ? upload.toByteArray() : null;
+        }
+
+        synchronized void awaitStored(long bytes) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + WAIT_MS;
+            while (totalStored() < bytes && System.currentTimeMillis() < deadline) {
+                wait(50);
+            }
+            assertTrue("server stored " + totalStored() + " of " + bytes, totalStored() >= bytes);
+        }
+
+        private long totalStored() {
+            long total = 0;
+            for (ByteArrayOutputStream upload : uploads.values()) {
+                total += upload.size();
+            }
+            return total;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                synchronized (this) {
+                    String method = exchange.getRequestMethod();
+                    String override = exchange.getRequestHeaders().getFirst("X-HTTP-Method-Override");
+                    String path = exchange.getRequestURI().getPath();
+                    String id = path.substring(path.lastIndexOf('/') + 1);
+                    if ("POST".equals(method) && override == null) {
+                        create(exchange);
+                    } else if ("HEAD".equals(method)) {
+                        head(exchange, id);
+                    } else if ("PATCH".equals(override)) {
+                        patch(exchange, id);
+                    } else {
+                        exchange.sendResponseHeaders(405, -1);
+                    }
+                    notifyAll();
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void create(HttpExchange exchange) throws IOException {
+            readBody(exchange);
+            String length = exchange.getRequestHeaders().getFirst("Upload-Length");
+            String defer = exchange.getRequestHeaders().getFirst("Upload-Defer-Length");
+            creates.add(length != null ? "Upload-Length " + length : "Upload-Defer-Length " + defer);
+            String id = String.valueOf(nextId++);
+            uploads.put(id, new ByteArrayOutputStream());
+            lengths.put(id, length != null ? Long.parseLong(length) : -1L);
+            exchange.getResponseHeaders().set("Location", "/files/" + id);
+            exchange.sendResponseHeaders(201, -1);
+        }
+
+        private void head(HttpExchange exchange, String id) throws IOException {
+            ByteArrayOutputStream upload = uploads.get(id);
+            if (upload == null) {
+                exchange.sendResponseHeaders(gone.contains(id) ? 410 : 404, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Upload-Offset", String.valueOf(upload.size()));
+            exchange.sendResponseHeaders(200, -1);
+        }
+
+        private void patch(HttpExchange exchange, String id) throws IOException {
+            byte[] body = readBody(exchange);
+            ByteArrayOutputStream upload = uploads.get(id);
+            if (upload == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            long offset = Long.parseLong(exchange.getRequestHeaders().getFirst("Upload-Offset"));
+            String length = exchange.getRequestHeaders().getFirst("Upload-Length");
+            if (offset != upload.size()) {
+                exchange.sendResponseHeaders(409, -1);
+                return;
+            }
+            if (appendCount++ == failAt) {
+                upload.write(body, 0, Math.min(failKeep, body.length));
+                if (failStatus == 410) {
+                    uploads.remove(id);
+                    gone.add(id);
+                }
+                exchange.sendResponseHeaders(failStatus, -1);
+                return;
+            }
+            appends.add(offset + "+" + body.length + (length != null ? " of " + length : ""));
+            upload.write(body, 0, body.length);
+            if (length != null) {
+                lengths.put(id, Long.parseLong(length));
+            }
+            long expected = lengths.get(id);
+            if (expected >= 0 && upload.size() > expected) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Upload-Offset", String.valueOf(upload.size()));
+            exchange.sendResponseHeaders(204, -1);
+        }
+
+        private static byte[] readBody(HttpExchange exchange) throws IOException {
+            InputStream in = exchange.getRequestBody();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                body.write(buffer, 0, read);
+            }
+            return body.toByteArray();
+        }
+    }
+}
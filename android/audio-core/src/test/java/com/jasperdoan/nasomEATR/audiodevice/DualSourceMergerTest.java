@@ -0,0 +1,115 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Two synthetic mono devices sample the same signal on clocks a few hundred
+ * ppm apart, with jittered timestamps, in simulated time. The merged oral
+ * channel should land on the nasal clock, matching the nasal channel to a
+ * fraction of a frame through the last minute of a five-minute run.
+ */
+public class DualSourceMergerTest {
+    private static final int SAMPLE_RATE = 44100;
+    private static final long STEP_NANOS = 10_000_000L;
+    // Timestamp noise of the order AudioRecord.getTimestamp shows
+    private static final long JITTER_NANOS = 20_000L;
+
+    @Test
+    public void oralClockFastByTwoHundredPpm() {
+        runDrifting(200, 300);
+    }
+
+    @Test
+    public void oralClockSlowByEightyPpm() {
+        runDrifting(-80, 300);
+    }
+
+    private static void runDrifting(double driftPpm, int seconds) {
+        double nasalRate = SAMPLE_RATE;
+        double oralRate = SAMPLE_RATE * (1 + driftPpm * 1e-6);
+        DualSourceMerger merger = new DualSourceMerger(SAMPLE_RATE, SAMPLE_RATE * 2);
+        Random jitter = new Random(7);
+
+        short[] block = new short[SAMPLE_RATE];
+        short[] merged = new short[4096 * 2];
+        long nasalWritten = 0;
+        long oralWritten = 0;
+        long mergedFrames = 0;
+        long checkFrom = (long) (seconds - 60) * SAMPLE_RATE;
+        long missingAtCheck = -1;
+        int maxError = 0;
+        double squaredError = 0;
+        long checked = 0;
+
+        for (long now = STEP_NANOS; now <= seconds * 1_000_000_000L; now += STEP_NANOS) {
+            long nasalTarget = (long) (now * nasalRate / 1e9);
+            nasalWritten = deliver(nasalWritten, nasalTarget, nasalRate, block);
+            merger.writeNasal(block, 0, (int) (nasalTarget - nasalWritten));
+            merger.updateNasalClock(nasalTarget, frameNanos(nasalTarget, nasalRate) + jitter(jitter));
+            nasalWritten = nasalTarget;
+
+            long oralTarget = (long) (now * oralRate / 1e9);
+            oralWritten = deliver(oralWritten, oralTarget, oralRate, block);
+            merger.writeOral(block, 0, (int) (oralTarget - oralWritten));
+            merger.updateOralClock(oralTarget, frameNanos(oralTarget, oralRate) + jitter(jitter));
+            oralWritten = oralTarget;
+
+            int frames;
+            while ((frames = merger.read(merged, merged.length / 2, false)) > 0) {
+                for (int i = 0; i < frames; i++) {
+                    long frame = mergedFrames + i;
+                    if (frame < checkFrom) {
+                        continue;
+                    }
+                    if (missingAtCheck < 0) {
+                        missingAtCheck = merger.getMissingFrames();
+                    }
+                    int error = Math.abs(merged[2 * i + NasalanceAnalyzer.ORAL_CHANNEL] -
+                            merged[2 * i + NasalanceAnalyzer.NASAL_CHANNEL]);
+                    maxError = Math.max(maxError, error);
+                    squaredError += (double) error * error;
+                    checked++;
+                }
+                mergedFrames += frames;
+            }
+        }
+
+        assertEquals("drift estimate", driftPpm, merger.getDriftPpm(), 2.0);
+        assertTrue("merged only " + mergedFrames + " frames", mergedFrames > (long) (seconds - 1) * SAMPLE_RATE);
+        assertTrue("checked the last minute", checked > 59L * SAMPLE_RATE);
+        // The signal moves up to about 325 per frame, so these bound the misalignment to about 0.3 frame
+        assertTrue("max error " + maxError, maxError < 100);
+        assertTrue("rms error " + Math.sqrt(squaredError / checked), Math.sqrt(squaredError / checked) < 30);
+        assertEquals("oral frames filled with silence in the last minute", missingAtCheck, merger.getMissingFrames());
+        assertEquals(0, merger.getOverrunFrames());
+    }
+
+    /**
+     * Samples from frame written up to target of a device running at rate, into block
+     */
+    private static long deliver(long written, long target, double rate, short[] block) {
+        for (long frame = written; frame < target; frame++) {
+            block[(int) (frame - written)] = signal(frame / rate);
+        }
+        return written;
+    }
+
+    // Two low partials, so linear interpolation itself is accurate to about one LSB
+    private static short signal(double seconds) {
+        return (short) Math.round(6000 * Math.sin(2 * Math.PI * 150 * seconds) +
+                6000 * Math.sin(2 * Math.PI * 230 * seconds + 1.0));
+    }
+
+    private static long frameNanos(long frame, double rate) {
+        return Math.round(frame * 1e9 / rate);
+    }
+
+    private static long jitter(Random random) {
+        return (long) ((random.nextDouble() * 2 - 1) * JITTER_NANOS);
+    }
+}
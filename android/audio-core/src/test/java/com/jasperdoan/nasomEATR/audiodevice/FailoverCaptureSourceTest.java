@@ -0,0 +1,185 @@
+package com.jasperdoan.nasomEATR.audiodevice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * FailoverCaptureSource through scripted device losses from
+ * FaultInjectingCaptureSource over a real-time WAV replay. Every frame of the
+ * replayed file carries its own index, so the output shows exactly where
+ * silence was inserted and which audio follows it.
+ */
+public class FailoverCaptureSourceTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int BUFFER_FRAMES = SAMPLE_RATE / 100;
+    // A gap should match the audio lost to within a buffer; one more for timer slack on a loaded machine
+    private static final long GAP_TOLERANCE_FRAMES = 2 * BUFFER_FRAMES;
+    // Frame index encoding: left = index % INDEX_BASE + 1, right = index / INDEX_BASE + 1, never silent
+    private static final int INDEX_BASE = 30000;
+    private static final int GIVE_UP_MS = 2000;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("failover", ".wav");
+        writeIndexedWav(file, 2 * SAMPLE_RATE);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void gapsMatchTheLostAudioAndRecoveryIsSeamless() throws IOException {
+        final FaultInjectingCaptureSource device = new FaultInjectingCaptureSource(new WavReplayCaptureSource(file, 1))
+                .addFault(40 * BUFFER_FRAMES, FaultInjectingCaptureSource.FAULT_THROW, 120)
+                .addFault(120 * BUFFER_FRAMES, FaultInjectingCaptureSource.FAULT_ERROR, 150);
+        FailoverCaptureSource failover = new FailoverCaptureSource(device, new FailoverCaptureSource.Reopener() {
+            @Override
+            public CaptureSource reopen(int attempt) {
+                return device;
+            }
+        }, 30, GIVE_UP_MS);
+        final int[] events = new int[2];
+        failover.setListener(new FailoverCaptureSource.Listener() {
+            @Override
+            public void onInputLost(FailoverCaptureSource source, String reason) {
+                events[0]++;
+            }
+
+            @Override
+            public void onInputRecovered(FailoverCaptureSource source, CaptureGap gap) {
+                events[1]++;
+            }
+        });
+
+        short[] output = readAll(failover);
+
+        List<CaptureGap> gaps = failover.getGaps();
+        List<Long> dropped = device.getDroppedFrames();
+        assertEquals(2, gaps.size());
+        assertEquals(2, dropped.size());
+        assertEquals(2, events[0]);
+        assertEquals(2, events[1]);
+        assertEquals("Capture device was lost", gaps.get(0).reason);
+        assertTrue(gaps.get(1).reason, gaps.get(1).reason.startsWith("No audio for"));
+        // Wall-clock timings depend on the machine; the gap checks below are frame exact
+        assertRecovery(gaps.get(0));
+        assertRecovery(gaps.get(1));
+
+        // Each gap starts right after the last block read before the fault
+        assertEquals(40 * BUFFER_FRAMES, gaps.get(0).startFrame);
+        long beforeSecond = index(output, (int) gaps.get(1).startFrame - 1) + 1;
+        assertTrue("second gap after " + beforeSecond,
+                beforeSecond >= 120 * BUFFER_FRAMES && beforeSecond < 121 * BUFFER_FRAMES);
+
+        long expectedIndex = 0;
+        int frame = 0;
+        int frames = output.length / 2;
+        for (int g = 0; g <= gaps.size(); g++) {
+            long audioEnd = g < gaps.size() ? gaps.get(g).startFrame : frames;
+            // Audio runs on frame by frame up to the gap, with no stray silence
+            for (; frame < audioEnd; frame++) {
+                assertEquals("frame " + frame, expectedIndex++, index(output, frame));
+            }
+            if (g == gaps.size()) {
+                break;
+            }
+            CaptureGap gap = gaps.get(g);
+            for (; frame < gap.startFrame + gap.frames; frame++) {
+                assertEquals("gap frame " + frame, 0, output[2 * frame]);
+                assertEquals("gap frame " + frame, 0, output[2 * frame + 1]);
+            }
+            // The gap stands in for the audio that played while the device was away
+            assertTrue("gap of " + gap.frames + " for " + dropped.get(g) + " lost",
+                    Math.abs(gap.frames - dropped.get(g)) <= GAP_TOLERANCE_FRAMES);
+            expectedIndex += dropped.get(g);
+        }
+        assertEquals(2 * SAMPLE_RATE, expectedIndex);
+
+        // So the recording stays on time
+        long inserted = gaps.get(0).frames + gaps.get(1).frames;
+        long lost = dropped.get(0) + dropped.get(1);
+        assertEquals(2 * SAMPLE_RATE - lost + inserted, frames);
+    }
+
+    @Test
+    public void givesUpWhenTheInputStaysAway() throws IOException {
+        final FaultInjectingCaptureSource device = new FaultInjectingCaptureSource(new WavReplayCaptureSource(file, 1))
+                .addFault(20 * BUFFER_FRAMES, FaultInjectingCaptureSource.FAULT_THROW, 1000);
+        final int[] attempts = new int[1];
+        FailoverCaptureSource failover = new FailoverCaptureSource(device, new FailoverCaptureSource.Reopener() {
+            @Override
+            public CaptureSource reopen(int attempt) {
+                attempts[0] = attempt;
+                return device;
+            }
+        }, 30, 200);
+
+        try {
+            readAll(failover);
+            fail("Capture should end once the input stays away past the give-up time");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("no input came back within 200 ms"));
+            assertTrue(e.getMessage(), e.getMessage().contains("Device is not attached"));
+        }
+        assertTrue(failover.isLost());
+        assertTrue(failover.getGaps().isEmpty());
+        // Retried meanwhile, not just once
+        assertTrue("attempts " + attempts[0], attempts[0] > 1);
+    }
+
+    private static void assertRecovery(CaptureGap gap) {
+        assertTrue("recovery " + gap.recoveryMs + " ms", gap.recoveryMs > 0 && gap.recoveryMs < GIVE_UP_MS);
+    }
+
+    private static short[] readAll(FailoverCaptureSource source) throws IOException {
+        source.start();
+        int frameSize = source.getChannelCount() * 2;
+        byte[] buffer = new byte[BUFFER_FRAMES * frameSize];
+        ByteBuffer collected = ByteBuffer.allocate(4 * SAMPLE_RATE * frameSize).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            int read;
+            while ((read = source.read(buffer, 0, buffer.length)) >= 0) {
+                collected.put(buffer, 0, read);
+            }
+        } finally {
+            source.stop();
+        }
+        collected.flip();
+        short[] samples = new short[collected.remaining() / 2];
+        collected.asShortBuffer().get(samples);
+        return samples;
+    }
+
+    private static long index(short[] samples, int frame) {
+        return (long) (samples[2 * frame + 1] - 1) * INDEX_BASE + samples[2 * frame] - 1;
+    }
+
+    private static void writeIndexedWav(File target, int frames) throws IOException {
+        WavWriter writer = new WavWriter(target, 2, SAMPLE_RATE, 16);
+        ByteBuffer block = ByteBuffer.allocate(BUFFER_FRAMES * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int frame = 0; frame < frames; frame++) {
+            block.putShort((short) (frame % INDEX_BASE + 1));
+            block.putShort((short) (frame / INDEX_BASE + 1));
+            if (!block.hasRemaining() || frame == frames - 1) {
+                writer.write(block.array(), 0, block.position());
+                block.clear();
+            }
+        }
+        writer.close();
+    }
+}
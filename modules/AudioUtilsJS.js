@@ -1,5 +1,6 @@
 // AudioUtilsJS.js
 import * as FileSystem from 'expo-file-system';
+import EnhancedAudioModule from './EnhancedAudioModule';
 
 // Constants that match Android's AudioFormat constants
 export const AudioFormat = {
@@ -9,16 +10,23 @@ export const AudioFormat = {
 };
 
 /**
- * Splits a stereo audio file into separate left and right channel files
- * @param {string} stereoFilePath - Path to the stereo file (mp3 or m4a)
+ * Splits a stereo audio file into separate left and right channel files.
+ * With the native module the input (WAV, m4a, mp3, flac, ...) is decoded
+ * and really split into mono WAV files; without it the file is only copied
+ * @param {string} stereoFilePath - Path to the stereo file
  * @param {string} leftFilePath - Path where the left channel file will be saved
  * @param {string} rightFilePath - Path where the right channel file will be saved
  * @returns {Promise<{leftPath: string, rightPath: string}>} - Paths to the created mono files
  */
 export const splitStereoToMono = async (stereoFilePath, leftFilePath, rightFilePath) => {
+  if (EnhancedAudioModule.isAvailable()) {
+    return EnhancedAudioModule.splitStereoToMono(stereoFilePath, leftFilePath, rightFilePath);
+  }
+
   try {
     console.log(`Starting stereo split for file: ${stereoFilePath}`);
     console.log(`Output paths: Left=${leftFilePath}, Right=${rightFilePath}`);
+    console.warn("EnhancedAudioModule is not available; copying the file instead of splitting it");
 
     // For MP3/M4A files, we can't directly manipulate the audio data as raw PCM
     // Instead, we'll use a different approach by copying the file twice with metadata changes
@@ -80,10 +88,15 @@ export const splitStereoToMono = async (stereoFilePath, leftFilePath, rightFileP
 /**
  * Calculates the RMS value of an audio file
  * Improved version that works with compressed audio formats
+ * With the native module the file is decoded and measured; without it the value is simulated
  * @param {string} audioFilePath - Path to the audio file
  * @returns {Promise<number>} - RMS value
  */
 export const calculateRms = async (audioFilePath) => {
+  if (EnhancedAudioModule.isAvailable()) {
+    return EnhancedAudioModule.calculateRms(audioFilePath);
+  }
+
   try {
     console.log(`Calculating RMS for file: ${audioFilePath}`);
     
@@ -125,18 +125,305 @@ class EnhancedAudioModule {
   }
 
   /**
-   * Stop recording
+   * Start recording from two separate mono devices into one stereo file.
+   * The nasal device becomes the left channel and the oral device the right;
+   * clock drift between the two devices is corrected while recording.
+   * @param {string} filePath Path where the recording will be saved
+   * @param {string} nasalDeviceId ID of the device on the nasal mic
+   * @param {string} oralDeviceId ID of the device on the oral mic
+   * @returns {Promise<{path: string}>} Promise resolving to recording file path
+   */
+  static startDualRecording(filePath, nasalDeviceId, oralDeviceId) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+
+    // Convert to absolute path if needed
+    let absolutePath = filePath;
+    if (!filePath.startsWith('file://') && !filePath.startsWith('/')) {
+      absolutePath = `${FileSystem.documentDirectory}${filePath}`;
+    }
+
+    return NativeEnhancedAudioModule.startDualRecording(absolutePath, nasalDeviceId, oralDeviceId);
+  }
+
+  /**
+   * Replay an existing stereo WAV file through the recording pipeline instead
+   * of a device. Stop it with stopRecording like a normal recording.
+   * @param {string} sourceFilePath Path of the WAV file to replay
+   * @param {string} filePath Path where the recording will be saved
+   * @param {number} [speed=1] Playback speed relative to real time, 0 for as fast as possible
    * @returns {Promise<{path: string}>} Promise resolving to recording file path
    */
+  static startReplayRecording(sourceFilePath, filePath, speed = 1) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+
+    // Convert to absolute paths if needed
+    let absoluteSourcePath = sourceFilePath;
+    if (!sourceFilePath.startsWith('file://') && !sourceFilePath.startsWith('/')) {
+      absoluteSourcePath = `${FileSystem.documentDirectory}${sourceFilePath}`;
+    }
+
+    let absolutePath = filePath;
+    if (!filePath.startsWith('file://') && !filePath.startsWith('/')) {
+      absolutePath = `${FileSystem.documentDirectory}${filePath}`;
+    }
+
+    return NativeEnhancedAudioModule.startReplayRecording(absoluteSourcePath, absolutePath, speed);
+  }
+
+  /**
+   * Stop recording. Dual-device recordings also report the measured clock
+   * drift (driftPpm) and the number of oral frames filled with silence (missingFrames).
+   * Device recordings list the silence inserted where the input dropped out (gaps), and
+   * inputLost is true if the input was still away when recording stopped.
+   * @returns {Promise<{path: string, markers: SegmentMarker[], quality: SignalQuality, gaps: CaptureGap[],
+   *   inputLost?: boolean, driftPpm?: number, missingFrames?: number}>} Promise resolving to recording file path,
+   *   segment markers, signal quality and gaps
+   */
   static stopRecording() {
     if (!this.isAvailable()) {
       return Promise.reject(new Error('EnhancedAudioModule is not available'));
     }
     return NativeEnhancedAudioModule.stopRecording();
   }
+  /**
+   * Start a labelled segment (e.g. one stimulus) in the recording or session
+   * take in progress. Analysis reports nasalance, RMS and voiced duration per segment.
+   * @param {string} label Name of the segment
+   * @returns {Promise<{label: string}>} Promise resolving once the marker is queued
+   */
+  static markSegment(label) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.markSegment(label);
+  }
+
+  /**
+   * Open a device for a series of takes. The device stays open between takes,
+   * and each take is analyzed in the background while the next one records.
+   * @param {string|null} deviceId ID of the input device, or null for the selected device
+   * @param {{progressIntervalMs?: number, subtractNoise?: boolean}} [config] Session options; subtractNoise
+   *   removes the room noise floor heard between takes (or the device's measured floor) from each take's scores
+   * @returns {Promise<{sessionId: string, sampleRate: number}>} Promise resolving to the session handle
+   */
+  static openSession(deviceId, config = {}) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.openSession(deviceId, config);
+  }
+
+  /**
+   * Start recording the session's input into a new file
+   * @param {string} sessionId Session handle from openSession
+   * @param {string} filePath Path where the take will be saved
+   * @returns {Promise<TakeResult>} Promise resolving to the take's index and path
+   */
+  static startTake(sessionId, filePath) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+
+    // Convert to absolute path if needed
+    let absolutePath = filePath;
+    if (!filePath.startsWith('file://') && !filePath.startsWith('/')) {
+      absolutePath = `${FileSystem.documentDirectory}${filePath}`;
+    }
+
+    return NativeEnhancedAudioModule.startTake(sessionId, absolutePath);
+  }
+
+  /**
+   * End the current take; resolves once its file is complete
+   * @param {string} sessionId Session handle from openSession
+   * @returns {Promise<TakeResult>} Promise resolving to the finished take
+   */
+  static stopTake(sessionId) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.stopTake(sessionId);
+  }
+
+  /**
+   * Get the analysis of a take, waiting for it if it is still running
+   * @param {string} sessionId Session handle from openSession
+   * @param {number} takeIndex Index of the take within the session
+   * @returns {Promise<AnalysisResult>} Promise resolving to the take's analysis
+   */
+  static getTakeAnalysis(sessionId, takeIndex) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.getTakeAnalysis(sessionId, takeIndex);
+  }
+
+  /**
+   * Stop any take in progress and release the device
+   * @param {string} sessionId Session handle from openSession
+   * @returns {Promise<{sessionId: string, duration: number, takes: TakeResult[], stats: NasalanceStats, roomNoise?: NoiseProfile}>} Promise resolving once every take is analyzed, with statistics merged over all takes and the room noise heard between takes
+   */
+  static closeSession(sessionId) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.closeSession(sessionId);
+  }
+
+  /**
+   * Start live biofeedback: nasalance is scored continuously against a target
+   * range and nothing is recorded, so sessions of any length use constant memory.
+   * Listen with addBiofeedbackStateListener and addBiofeedbackLevelListener
+   * @param {BiofeedbackConfig} config Target range and tuning
+   * @returns {Promise<{sampleRate: number, windowMs: number, aligned: boolean}>} Promise resolving once the input is running
+   */
+  static startBiofeedback(config) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.startBiofeedback(config);
+  }
+
+  /**
+   * Stop biofeedback and release the input
+   * @returns {Promise<BiofeedbackSummary>} Promise resolving to a summary of the practice
+   */
+  static stopBiofeedback() {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.stopBiofeedback();
+  }
+
+
+  /**
+   * Upload a recording with the tus resumable protocol. Call it right after
+   * startRecording to send chunks while recording; the promise then resolves
+   * shortly after stopRecording. A recording uploaded this way is stored as
+   * a streaming WAV, its header keeping the unknown (0xFFFFFFFF) sizes it
+   * had while recording. Interrupted uploads of the same path resume.
+   * @param {string} filePath Path of the recording
+   * @param {Object} options Upload options
+   * @param {string} options.endpoint tus endpoint, e.g. https://<project>.supabase.co/storage/v1/upload/resumable
+   * @param {Object<string, string>} [options.headers] Extra request headers (authorization, x-upsert)
+   * @param {Object<string, string>} [options.metadata] Upload metadata (bucketName, objectName, contentType)
+   * @param {number} [options.chunkSize] Chunk size in bytes, default 6 MB
+   * @returns {Promise<UploadResult>} Promise resolving once the whole file is stored
+   */
+  static uploadRecording(filePath, options) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+
+    // Convert to absolute path if needed
+    let absolutePath = filePath;
+    if (!filePath.startsWith('file://') && !filePath.startsWith('/')) {
+      absolutePath = `${FileSystem.documentDirectory}${filePath}`;
+    }
+
+    return NativeEnhancedAudioModule.uploadRecording(absolutePath, options);
+  }
+
+  /**
+   * Stop an upload in progress; uploading the same path again resumes it
+   * @param {string} filePath Path of the recording
+   * @returns {Promise<boolean>} Promise resolving to whether an upload was running
+   */
+  static cancelUpload(filePath) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+
+    let absolutePath = filePath;
+    if (!filePath.startsWith('file://') && !filePath.startsWith('/')) {
+      absolutePath = `${FileSystem.documentDirectory}${filePath}`;
+    }
+
+    return NativeEnhancedAudioModule.cancelUpload(absolutePath);
+  }
+
+  /**
+   * List the recordings written by this module, newest first. Reads the
+   * native storage index rather than scanning the documents directory.
+   * @returns {Promise<StoredRecording[]>} Promise resolving to the tracked recordings
+   */
+  static listRecordings() {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.listRecordings();
+  }
+
+  /**
+   * Get the space used by tracked recordings and the storage quota
+   * @returns {Promise<StorageInfo>} Promise resolving to storage usage
+   */
+  static getStorageInfo() {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.getStorageInfo();
+  }
+
+  /**
+   * Set the byte quota for local recordings. Uploaded recordings are deleted,
+   * least recently used first, until the total fits; recordings that have not
+   * been uploaded are never deleted.
+   * @param {number} quotaBytes Quota in bytes
+   * @returns {Promise<StorageInfo>} Promise resolving to storage usage after eviction
+   */
+  static setStorageQuota(quotaBytes) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.setStorageQuota(quotaBytes);
+  }
+
+  /**
+   * Record that a recording was uploaded outside uploadRecording (e.g. with
+   * the Supabase client), which makes it eligible for eviction
+   * @param {string} filePath Path of the recording
+   * @param {string} uploadUrl Where it was uploaded to
+   * @returns {Promise<boolean>} Promise resolving to true when done
+   */
+  static markRecordingUploaded(filePath, uploadUrl) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+
+    let absolutePath = filePath;
+    if (!filePath.startsWith('file://') && !filePath.startsWith('/')) {
+      absolutePath = `${FileSystem.documentDirectory}${filePath}`;
+    }
+
+    return NativeEnhancedAudioModule.markRecordingUploaded(absolutePath, uploadUrl);
+  }
 
   /**
-   * Split a stereo recording into separate left and right channel files
+   * Delete a tracked recording and remove it from the storage index
+   * @param {string} filePath Path of the recording
+   * @returns {Promise<boolean>} Promise resolving to whether the recording was tracked
+   */
+  static deleteRecording(filePath) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+
+    let absolutePath = filePath;
+    if (!filePath.startsWith('file://') && !filePath.startsWith('/')) {
+      absolutePath = `${FileSystem.documentDirectory}${filePath}`;
+    }
+
+    return NativeEnhancedAudioModule.deleteRecording(absolutePath);
+  }
+
+  /**
+   * Split a stereo recording into separate left and right channel files. Compressed
+   * recordings (m4a, aac, mp3, ogg, flac, ...) are decoded as they are split
    * @param {string} stereoFilePath Path to the stereo recording
    * @param {string} leftFilePath Path where the left channel file will be saved
    * @param {string} rightFilePath Path where the right channel file will be saved
@@ -171,7 +458,7 @@ class EnhancedAudioModule {
   }
 
   /**
-   * Calculate the RMS (Root Mean Square) value of an audio file
+   * Calculate the RMS (Root Mean Square) value of an audio file, WAV or compressed
    * @param {string} audioFilePath Path to the audio file
    * @returns {Promise<number>} Promise resolving to the RMS value (0-1 range)
    */
@@ -189,6 +476,349 @@ class EnhancedAudioModule {
     return NativeEnhancedAudioModule.calculateRms(absolutePath);
   }
 
+  /**
+   * Analyze a stereo recording in one pass (left = nasal, right = oral). Compressed
+   * recordings, e.g. legacy sessions or imports from other tools, are decoded on the fly
+   * @param {string} stereoFilePath Path to the stereo recording (WAV, m4a, aac, mp3, ogg, flac, ...)
+   * @param {{threshold?: number, subtractNoise?: boolean, spectrogram?: boolean, fixedPoint?: boolean}} [options]
+   *   Nasalance threshold in percent for stats.percentAbove (default 50), whether to subtract the device's measured
+   *   room noise floor, whether to write the spectrogram tiles alongside the recording (default true), and whether
+   *   to score in fixed point (default as set by setFixedPointDsp)
+   * @returns {Promise<AnalysisResult>} Promise resolving to the analysis result
+   */
+  static analyzeRecording(stereoFilePath, options = {}) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+
+    // Convert to absolute path if needed
+    let absolutePath = stereoFilePath;
+    if (!stereoFilePath.startsWith('file://') && !stereoFilePath.startsWith('/')) {
+      absolutePath = `${FileSystem.documentDirectory}${stereoFilePath}`;
+    }
+
+    return NativeEnhancedAudioModule.analyzeRecording(absolutePath, options);
+  }
+
+  /**
+   * Fetch spectrogram tiles of a recording, only the ones in view. The tiles
+   * are built by analyzeRecording, or on the first fetch if missing or stale
+   * @param {string} stereoFilePath Path to the stereo recording
+   * @param {{level?: number, firstTile?: number, tileCount?: number}} [options] Zoom level (0 = finest,
+   *   default 0), first tile (default 0) and number of tiles (default 1); the range is clipped to the level
+   * @returns {Promise<SpectrogramTiles>} Promise resolving to the requested tiles
+   */
+  static getSpectrogramTiles(stereoFilePath, options = {}) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+
+    // Convert to absolute path if needed
+    let absolutePath = stereoFilePath;
+    if (!stereoFilePath.startsWith('file://') && !stereoFilePath.startsWith('/')) {
+      absolutePath = `${FileSystem.documentDirectory}${stereoFilePath}`;
+    }
+
+    return NativeEnhancedAudioModule.getSpectrogramTiles(absolutePath, options);
+  }
+
+  /**
+   * Measure the delay and crosstalk between the nasal and oral channels and
+   * store them in the calibration profile of the current device. Use a
+   * recording of an oral-only passage such as the Zoo passage.
+   * @param {string} stereoFilePath Path to the calibration recording
+   * @returns {Promise<CalibrationProfile>} Promise resolving to the updated profile
+   */
+  static measureChannelAlignment(stereoFilePath) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+
+    // Convert to absolute path if needed
+    let absolutePath = stereoFilePath;
+    if (!stereoFilePath.startsWith('file://') && !stereoFilePath.startsWith('/')) {
+      absolutePath = `${FileSystem.documentDirectory}${stereoFilePath}`;
+    }
+
+    return NativeEnhancedAudioModule.measureChannelAlignment(absolutePath);
+  }
+
+  /**
+   * Learn the room noise floor from a few seconds of room tone (nobody
+   * speaking) and store it in the calibration profile of the current device
+   * @param {string} stereoFilePath Path to the room tone recording
+   * @returns {Promise<CalibrationProfile>} Promise resolving to the updated profile
+   */
+  static measureRoomNoise(stereoFilePath) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+
+    // Convert to absolute path if needed
+    let absolutePath = stereoFilePath;
+    if (!stereoFilePath.startsWith('file://') && !stereoFilePath.startsWith('/')) {
+      absolutePath = `${FileSystem.documentDirectory}${stereoFilePath}`;
+    }
+
+    return NativeEnhancedAudioModule.measureRoomNoise(absolutePath);
+  }
+
+  /**
+   * Get the calibration profile of the current device
+   * @returns {Promise<CalibrationProfile>} Promise resolving to the profile
+   */
+  static getCalibrationProfile() {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.getCalibrationProfile();
+  }
+
+  /**
+   * Forget the measured channel alignment of the current device
+   * @returns {Promise<CalibrationProfile>} Promise resolving to the updated profile
+   */
+  static clearChannelAlignment() {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.clearChannelAlignment();
+  }
+
+  /**
+   * Forget the measured room noise floor of the current device
+   * @returns {Promise<CalibrationProfile>} Promise resolving to the updated profile
+   */
+  static clearRoomNoise() {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.clearRoomNoise();
+  }
+
+  /**
+   * Trial-open the candidate audio sources (unprocessed, voice recognition,
+   * mic), sample rates and channel masks on a device and measure their startup
+   * and read latency. The winner is cached per device and used by
+   * startRecording and openSession from then on. Takes a few seconds; must
+   * not be called while recording.
+   * @param {string|null} [deviceId] Input device to negotiate for (default: the selected device)
+   * @param {{force?: boolean}} [options] Re-run the trials even if a result is cached
+   * @returns {Promise<{deviceKey: string, config: CaptureConfig, cached: boolean, trials?: CaptureConfig[]}>}
+   *   Promise resolving to the winning configuration, and every trial when they were run
+   */
+  static negotiateCaptureConfig(deviceId = null, options = {}) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.negotiateCaptureConfig(deviceId, options);
+  }
+
+  /**
+   * Forget the negotiated capture configuration of the current device, so
+   * recording falls back to the mic source at 44.1 kHz
+   * @returns {Promise<CalibrationProfile>} Promise resolving to the updated profile
+   */
+  static clearCaptureConfig() {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.clearCaptureConfig();
+  }
+
+  /**
+   * Drop all cached analysis and RMS results. Results are cached by recording
+   * content, so this is only needed to reclaim space.
+   * @returns {Promise<boolean>} Promise resolving to true when done
+   */
+  static clearAnalysisCache() {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.clearAnalysisCache();
+  }
+
+  /**
+   * Turn per-stage timing of processing jobs (RMS, analysis, split, take
+   * analysis, spectrogram tiles, promise delivery) on or off. Off by default
+   * @param {boolean} enabled Whether to collect timings
+   * @returns {Promise<boolean>} Promise resolving to the new setting
+   */
+  static setProcessingStatsEnabled(enabled) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.setProcessingStatsEnabled(enabled);
+  }
+
+  /**
+   * Timing percentiles per processing stage, over the last runs of each
+   * @param {{reset?: boolean}} [options] Clear the collected timings after reading (default false)
+   * @returns {Promise<ProcessingStats>} Promise resolving to the timings
+   */
+  static getProcessingStats(options = {}) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.getProcessingStats(options);
+  }
+
+  /**
+   * Score with integer arithmetic only (64-bit sums of squares, Q15 crosstalk
+   * correction, integer square roots) so calculateRms, analyzeRecording and
+   * session takes give bit-exact results on every device. Off by default
+   * @param {boolean} enabled Whether to use fixed-point scoring
+   * @returns {Promise<boolean>} Promise resolving to the new setting
+   */
+  static setFixedPointDsp(enabled) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.setFixedPointDsp(enabled);
+  }
+
+  /**
+   * Analyze a stereo recording in floating- and fixed-point mode and compare
+   * their throughput and scores on this device. Results are not cached
+   * @param {string} stereoFilePath Path to the stereo recording
+   * @param {{runs?: number}} [options] Runs per mode, alternating (default 3)
+   * @returns {Promise<DspBenchmark>} Promise resolving to the comparison
+   */
+  static benchmarkDspModes(stereoFilePath, options = {}) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+
+    // Convert to absolute path if needed
+    let absolutePath = stereoFilePath;
+    if (!stereoFilePath.startsWith('file://') && !stereoFilePath.startsWith('/')) {
+      absolutePath = `${FileSystem.documentDirectory}${stereoFilePath}`;
+    }
+
+    return NativeEnhancedAudioModule.benchmarkDspModes(absolutePath, options);
+  }
+
+  /**
+   * Compare two readings of the same passage, e.g. before and after surgery.
+   * The readings are aligned in time by their band levels, so differences in
+   * pace and pauses do not matter, and nasalance is compared along the
+   * alignment per marked segment of the reference, or per fixed region
+   * @param {string} referenceFilePath Path to the reference stereo recording
+   * @param {string} otherFilePath Path to the stereo recording compared with it
+   * @param {{bandSeconds?: number, regionSeconds?: number}} [options] How far the readings
+   *   may drift apart in time (default 3) and the region length without markers (default 5)
+   * @returns {Promise<RecordingComparison>} Promise resolving to the comparison
+   */
+  static compareRecordings(referenceFilePath, otherFilePath, options = {}) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+
+    // Convert to absolute paths if needed
+    const toAbsolute = (path) => (
+      !path.startsWith('file://') && !path.startsWith('/') ? `${FileSystem.documentDirectory}${path}` : path
+    );
+
+    return NativeEnhancedAudioModule.compareRecordings(
+      toAbsolute(referenceFilePath), toAbsolute(otherFilePath), options);
+  }
+
+  /**
+   * Play a stereo recording with both channels from one native source, no split
+   * files needed. Replaces any playback already running.
+   * @param {string} stereoFilePath Path to the stereo recording
+   * @param {{positionMs?: number, paused?: boolean, positionIntervalMs?: number,
+   *   nasal?: ChannelMix, oral?: ChannelMix}} [options] Where to start, whether to start paused,
+   *   how often position events are sent (default: one per 50 ms contour window) and the initial mix
+   * @returns {Promise<{path: string, sampleRate: number, durationMs: number, positionMs: number,
+   *   contourWindowMs: number, startupMs: number}>} Promise resolving once playback has started
+   */
+  static startPlayback(stereoFilePath, options = {}) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+
+    // Convert to absolute path if needed
+    let absolutePath = stereoFilePath;
+    if (!stereoFilePath.startsWith('file://') && !stereoFilePath.startsWith('/')) {
+      absolutePath = `${FileSystem.documentDirectory}${stereoFilePath}`;
+    }
+
+    return NativeEnhancedAudioModule.startPlayback(absolutePath, options);
+  }
+
+  /**
+   * Pause playback, keeping the position
+   * @returns {Promise<boolean>} Promise resolving to false if nothing was playing
+   */
+  static pausePlayback() {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.pausePlayback();
+  }
+
+  /**
+   * Resume paused playback
+   * @returns {Promise<boolean>} Promise resolving to false if nothing was playing
+   */
+  static resumePlayback() {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.resumePlayback();
+  }
+
+  /**
+   * Seek to a position, accurate to the sample. Works while paused, so it can
+   * be called on every update of a scrub gesture.
+   * @param {number} positionMs Position in milliseconds
+   * @returns {Promise<boolean>} Promise resolving once the seek is queued
+   */
+  static seekPlayback(positionMs) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.seekPlayback(positionMs);
+  }
+
+  /**
+   * Change gain, mute or solo of one channel during playback. With both
+   * channels audible nasal plays left and oral right; a single audible
+   * channel plays in both ears.
+   * @param {'nasal'|'oral'} channel Channel to change
+   * @param {ChannelMix} settings Settings to change; omitted ones are kept
+   * @returns {Promise<PlaybackState>} Promise resolving to the new state
+   */
+  static setPlaybackChannel(channel, settings) {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.setPlaybackChannel(channel, settings);
+  }
+
+  /**
+   * Get the position and mix of the current playback
+   * @returns {Promise<PlaybackState|null>} Promise resolving to null if nothing is playing
+   */
+  static getPlaybackState() {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.getPlaybackState();
+  }
+
+  /**
+   * Stop playback and release the audio output
+   * @returns {Promise<boolean>} Promise resolving to false if nothing was playing
+   */
+  static stopPlayback() {
+    if (!this.isAvailable()) {
+      return Promise.reject(new Error('EnhancedAudioModule is not available'));
+    }
+    return NativeEnhancedAudioModule.stopPlayback();
+  }
+
   /**
    * Add listener for device connected events
    * @param {function} listener Callback function for device connected events
@@ -215,6 +845,131 @@ class EnhancedAudioModule {
   static addDeviceListChangedListener(listener) {
     return audioDeviceEventEmitter.addListener('onDeviceListChanged', listener);
   }
+
+  /**
+   * Add listener for recording progress, sent about every 100 ms while recording
+   * @param {function} listener Callback receiving {durationMs, nasalPeak, oralPeak} (peaks 0-1)
+   * @returns {EmitterSubscription} Subscription object for the listener
+   */
+  static addRecordingProgressListener(listener) {
+    return audioDeviceEventEmitter.addListener('onRecordingProgress', listener);
+  }
+
+  /**
+   * Add listener for errors that end a recording early (e.g. the device was unplugged)
+   * @param {function} listener Callback receiving {message}
+   * @returns {EmitterSubscription} Subscription object for the listener
+   */
+  static addRecordingErrorListener(listener) {
+    return audioDeviceEventEmitter.addListener('onRecordingError', listener);
+  }
+
+  /**
+   * Add listener for signal-quality problems detected while recording, sent
+   * once per issue and channel in each recording or take
+   * @param {function} listener Callback receiving {channel, issue, timeMs, clippedSamples, dcOffset, dropouts};
+   *   issue is 'clipping', 'dropout' or 'dcOffset', channel 0 = nasal, 1 = oral
+   * @returns {EmitterSubscription} Subscription object for the listener
+   */
+  static addSignalQualityListener(listener) {
+    return audioDeviceEventEmitter.addListener('onSignalQualityWarning', listener);
+  }
+
+  /**
+   * Add listener for session takes whose analysis has finished
+   * @param {function} listener Callback receiving a TakeResult with sessionId and analysis (or error)
+   * @returns {EmitterSubscription} Subscription object for the listener
+   */
+  static addTakeAnalyzedListener(listener) {
+    return audioDeviceEventEmitter.addListener('onTakeAnalyzed', listener);
+  }
+
+  /**
+   * Add listener for the recording input dropping out (e.g. the USB transmitter
+   * detaching). Recording continues; the input is reopened as soon as it comes back
+   * @param {function} listener Callback receiving {reason}
+   * @returns {EmitterSubscription} Subscription object for the listener
+   */
+  static addInputLostListener(listener) {
+    return audioDeviceEventEmitter.addListener('onInputLost', listener);
+  }
+
+  /**
+   * Add listener for the recording input coming back after a dropout, on the same
+   * device or another USB input
+   * @param {function} listener Callback receiving a CaptureGap with the deviceId now recorded from
+   * @returns {EmitterSubscription} Subscription object for the listener
+   */
+  static addInputRecoveredListener(listener) {
+    return audioDeviceEventEmitter.addListener('onInputRecovered', listener);
+  }
+
+  /**
+   * Add listener for biofeedback state changes, sent within a few milliseconds of
+   * the hop that changed state; changes closer together are sent once, with the latest
+   * @param {function} listener Callback receiving {state, inRange, nasalance, timeMs, transitions, deliveryMs};
+   *   state is 'silent', 'below', 'inRange' or 'above'
+   * @returns {EmitterSubscription} Subscription object for the listener
+   */
+  static addBiofeedbackStateListener(listener) {
+    return audioDeviceEventEmitter.addListener('onBiofeedbackState', listener);
+  }
+
+  /**
+   * Add listener for the live biofeedback level, sent every levelIntervalMs
+   * @param {function} listener Callback receiving {nasalance, voiced, state, timeMs};
+   *   nasalance is that of the latest voiced window
+   * @returns {EmitterSubscription} Subscription object for the listener
+   */
+  static addBiofeedbackLevelListener(listener) {
+    return audioDeviceEventEmitter.addListener('onBiofeedbackLevel', listener);
+  }
+
+  /**
+   * Add listener for errors that end biofeedback early
+   * @param {function} listener Callback receiving {message}
+   * @returns {EmitterSubscription} Subscription object for the listener
+   */
+  static addBiofeedbackErrorListener(listener) {
+    return audioDeviceEventEmitter.addListener('onBiofeedbackError', listener);
+  }
+
+  /**
+   * Add listener for the playback position, sent once per contour window by default
+   * @param {function} listener Callback receiving {positionMs, frame, contourIndex, nasalPeak, oralPeak};
+   *   contourIndex indexes AnalysisResult.contour and pitch.f0, peaks are 0-1 before gain
+   * @returns {EmitterSubscription} Subscription object for the listener
+   */
+  static addPlaybackPositionListener(listener) {
+    return audioDeviceEventEmitter.addListener('onPlaybackPosition', listener);
+  }
+
+  /**
+   * Add listener for playback reaching the end of the file
+   * @param {function} listener Callback receiving {positionMs}
+   * @returns {EmitterSubscription} Subscription object for the listener
+   */
+  static addPlaybackEndedListener(listener) {
+    return audioDeviceEventEmitter.addListener('onPlaybackEnded', listener);
+  }
+
+  /**
+   * Add listener for errors that end playback early
+   * @param {function} listener Callback receiving {message}
+   * @returns {EmitterSubscription} Subscription object for the listener
+   */
+  static addPlaybackErrorListener(listener) {
+    return audioDeviceEventEmitter.addListener('onPlaybackError', listener);
+  }
+
+  /**
+   * Add listener for upload progress, sent after every stored chunk
+   * @param {function} listener Callback receiving {path, bytesUploaded}
+   * @returns {EmitterSubscription} Subscription object for the listener
+   */
+  static addUploadProgressListener(listener) {
+    return audioDeviceEventEmitter.addListener('onUploadProgress', listener);
+  }
 }
 
 export default EnhancedAudioModule;
@@ -228,5 +983,324 @@ export default EnhancedAudioModule;
  * @property {Object} capabilities - Device capabilities
  * @property {boolean} capabilities.stereo - Whether the device supports stereo recording
  * @property {number[]} capabilities.sampleRates - Array of supported sample rates
+ * @property {boolean} [capabilities.sampleRatesVerified] - For USB devices: whether the rates come from the audio stack rather than being assumed
  * @property {number} capabilities.channelCount - Number of audio channels
- */
\ No newline at end of file
+ * @property {CaptureConfig} [captureConfig] - Negotiated capture configuration, if one is cached
+ */
+/**
+ * @typedef {Object} AnalysisResult
+ * @property {number} nasalRms - RMS of the nasal (left) channel, 0-1 range
+ * @property {number} oralRms - RMS of the oral (right) channel, 0-1 range
+ * @property {number} nasalPeak - Largest absolute nasal sample, 0-1 range
+ * @property {number} oralPeak - Largest absolute oral sample, 0-1 range
+ * @property {number} nasalance - Nasalance score in percent
+ * @property {number} contourWindowMs - Length of each contour window in milliseconds
+ * @property {number[]} contour - Nasalance per window in percent
+ * @property {NasalanceStats} stats - Distribution of the voiced contour windows
+ * @property {Object} pitch - F0 track of the oral channel
+ * @property {number} pitch.windowMs - Length of each pitch window in milliseconds (same windows as contour)
+ * @property {number[]} pitch.f0 - Fundamental frequency per window in Hz, 0 where unvoiced
+ * @property {number} pitch.meanF0 - Mean F0 over the voiced windows in Hz
+ * @property {Object} spectrum - Spectral analysis
+ * @property {number} spectrum.fftSize - FFT size in samples
+ * @property {number} spectrum.sampleRate - Sample rate of the recording
+ * @property {number[]} spectrum.bandEdges - Band edges in Hz (one more than the number of bands)
+ * @property {number[]} spectrum.nasalLtas - Long-term average spectrum of the nasal channel in dB, one value per FFT bin
+ * @property {number[]} spectrum.oralLtas - Long-term average spectrum of the oral channel in dB, one value per FFT bin
+ * @property {number[]} spectrum.nasalBands - Nasal band levels in dB
+ * @property {number[]} spectrum.oralBands - Oral band levels in dB
+ * @property {number[]} spectrum.bandNasalance - Nasalance per band in percent
+ * @property {Object} alignment - Channel correction applied during analysis
+ * @property {boolean} alignment.applied - Whether a calibrated correction was applied
+ * @property {number} alignment.lagFrames - Frames by which the nasal channel lagged the oral channel
+ * @property {number} alignment.crosstalk - Oral-to-nasal crosstalk gain that was removed
+ * @property {Object} noise - Room noise floor subtracted from the scores and band levels; also has the NoiseProfile fields when applied
+ * @property {boolean} noise.applied - Whether a noise floor was subtracted
+ * @property {string} [noise.source] - 'session' (learned between takes) or 'device' (measureRoomNoise)
+ * @property {number} duration - Length of the recording in seconds
+ * @property {boolean} cached - Whether the result came from the analysis cache
+ * @property {boolean} fixedPoint - Whether the scores were computed in fixed point
+ * @property {number} processingMs - Time spent analyzing (or looking up the cache)
+ * @property {number} realTimeFactor - Seconds of audio analyzed per second of processing
+ * @property {SegmentResult[]} segments - One entry per marked segment, in order
+ * @property {SpectrogramInfo} [spectrogram] - Layout of the spectrogram tiles, when they were written
+ */
+
+/**
+ * @typedef {Object} SegmentResult
+ * @property {string} label - Label given to markSegment
+ * @property {number} startFrame - First frame of the segment
+ * @property {number} start - Start of the segment in seconds
+ * @property {number} duration - Length of the segment in seconds
+ * @property {number} voicedDuration - Seconds of the segment above the voicing threshold
+ * @property {number} nasalRms - RMS of the nasal channel over the segment, 0-1 range
+ * @property {number} oralRms - RMS of the oral channel over the segment, 0-1 range
+ * @property {number} nasalance - Nasalance of the segment in percent
+ * @property {NasalanceStats} stats - Distribution of the segment's voiced contour windows
+ */
+
+/**
+ * @typedef {Object} NasalanceStats
+ * @property {number} windows - Number of voiced contour windows
+ * @property {number} mean - Mean window nasalance in percent
+ * @property {number} sd - Sample standard deviation of window nasalance
+ * @property {number} min - Lowest window nasalance
+ * @property {number} max - Highest window nasalance
+ * @property {number} p10 - 10th percentile
+ * @property {number} p50 - Median
+ * @property {number} p90 - 90th percentile
+ * @property {number} threshold - Threshold used for percentAbove, in percent
+ * @property {number} percentAbove - Percentage of windows above the threshold
+ */
+
+/**
+ * @typedef {Object} SegmentMarker
+ * @property {string} label - Label given to markSegment
+ * @property {number} frame - Frame position of the marker in the file
+ * @property {number} time - Position of the marker in seconds
+ */
+
+/**
+ * @typedef {Object} CalibrationProfile
+ * @property {string} deviceKey - Key of the device the profile belongs to
+ * @property {boolean} hasAlignment - Whether a channel alignment has been measured
+ * @property {number} sampleRate - Sample rate the alignment was measured at
+ * @property {number} lagFrames - Frames by which the nasal channel lags the oral channel
+ * @property {number} lagMs - The same lag in milliseconds
+ * @property {number} crosstalk - Gain of the oral signal leaking into the nasal mic
+ * @property {number} correlation - Normalized cross-correlation at the measured lag
+ * @property {number} alignmentMeasuredAt - Time of the measurement (ms since epoch)
+ * @property {boolean} hasNoise - Whether a room noise floor has been measured
+ * @property {NoiseProfile} [noise] - The measured room noise floor
+ * @property {boolean} hasCaptureConfig - Whether a capture configuration has been negotiated
+ * @property {CaptureConfig} [captureConfig] - The negotiated capture configuration
+ */
+
+/**
+ * @typedef {Object} CaptureConfig
+ * @property {string} source - Audio source: 'unprocessed', 'voiceRecognition' or 'mic'
+ * @property {number} sampleRate - Sample rate in Hz
+ * @property {string} channelMask - 'stereo', or 'index:0x3' for raw device channels 0 and 1
+ * @property {boolean} nativeRate - Whether the device lists this rate, so the stack does not resample
+ * @property {number} [startupMs] - Time from opening the input to the first buffer
+ * @property {number} [readLatencyMs] - Mean age of the newest frame when a read returns
+ * @property {number} [measuredAt] - Time of the trial (ms since epoch)
+ * @property {string} [error] - In negotiation trials: why this configuration could not be used
+ */
+
+/**
+ * @typedef {Object} NoiseProfile
+ * @property {number} nasalLevelDb - Broadband noise level of the nasal channel in dB re full scale
+ * @property {number} oralLevelDb - Broadband noise level of the oral channel in dB re full scale
+ * @property {number[]} nasalBandsDb - Nasal noise level per spectrum band in dB
+ * @property {number[]} oralBandsDb - Oral noise level per spectrum band in dB
+ * @property {number} sampleRate - Sample rate the floor was learned at
+ * @property {number} seconds - Seconds of room tone the floor was learned from
+ * @property {number} measuredAt - Time of the measurement (ms since epoch)
+ */
+
+/**
+ * @typedef {Object} UploadResult
+ * @property {string} path - Local path of the uploaded file
+ * @property {string} uploadUrl - tus URL of the upload
+ * @property {number} bytes - Number of bytes stored
+ * @property {string} crc32c - CRC-32C of the stored bytes (hex)
+ * @property {string} sha256 - SHA-256 of the stored bytes (hex)
+ */
+
+/**
+ * @typedef {Object} StoredRecording
+ * @property {string} path - Absolute path of the file
+ * @property {string} kind - 'stereo', 'nasal' or 'oral'
+ * @property {number} sizeBytes - File size in bytes
+ * @property {number} createdAt - Creation time in milliseconds since the epoch
+ * @property {number} lastAccessedAt - Last use in milliseconds since the epoch
+ * @property {boolean} uploaded - Whether the file is stored remotely
+ * @property {string} [uploadUrl] - Where the file was uploaded to
+ */
+
+/**
+ * @typedef {Object} StorageInfo
+ * @property {number} totalBytes - Bytes used by tracked recordings
+ * @property {number} quotaBytes - Storage quota in bytes
+ * @property {number} recordingCount - Number of tracked recordings
+ * @property {number} evicted - Recordings deleted to meet the quota by this call
+ */
+
+/**
+ * @typedef {Object} TakeResult
+ * @property {number} takeIndex - Index of the take within its session
+ * @property {string} path - Absolute path of the take's stereo file
+ * @property {number} duration - Length of the take in seconds
+ * @property {SegmentMarker[]} markers - Segment markers stamped during the take
+ * @property {CaptureGap[]} gaps - Silence inserted where the input dropped out during the take
+ * @property {SignalQuality} [quality] - Signal-quality counters of the take
+ * @property {AnalysisResult} [analysis] - Analysis of the take, once available
+ * @property {string} [error] - Why the take could not be analyzed
+ */
+
+/**
+ * @typedef {Object} SignalQuality
+ * @property {boolean} ok - True when no issue was raised on any channel
+ * @property {ChannelQuality[]} channels - Counters per channel (0 = nasal, 1 = oral)
+ */
+
+/**
+ * @typedef {Object} ChannelQuality
+ * @property {number} clippedSamples - Samples at full scale
+ * @property {number} clippedPercent - Clipped samples as a percentage of all samples
+ * @property {number} dcOffset - Mean sample value, -1 to 1
+ * @property {number} peak - Largest absolute sample, 0-1 range
+ * @property {number} peakDb - Peak in dB re full scale
+ * @property {number} snrDb - Estimated SNR: level of the loud 10 ms windows over the quiet ones
+ * @property {number} dropouts - Runs of exact-zero samples of at least 2 ms
+ * @property {number} dropoutMs - Total length of those runs
+ * @property {number} longestDropoutMs - Longest run
+ * @property {string[]} issues - Issues raised: 'clipping' (10+ clipped samples), 'dropout', 'dcOffset' (a second averaging beyond 5 % of full scale)
+ */
+
+/**
+ * @typedef {Object} ChannelMix
+ * @property {number} [gain] - Linear gain, 1 = as recorded
+ * @property {boolean} [mute] - Silence the channel
+ * @property {boolean} [solo] - Play only soloed channels
+ */
+
+/**
+ * @typedef {Object} PlaybackState
+ * @property {number} positionMs - Position currently being heard
+ * @property {number} durationMs - Length of the recording
+ * @property {boolean} paused - Whether playback is paused
+ * @property {ChannelMix} nasal - Mix of the nasal channel
+ * @property {ChannelMix} oral - Mix of the oral channel
+ */
+
+/**
+ * @typedef {Object} SpectrogramInfo
+ * @property {number} levels - Number of zoom levels; level 0 has one column per FFT frame
+ * @property {number} levelFactor - Columns of a level averaged into one column of the next
+ * @property {number} rows - Frequency rows per column, from 0 Hz up
+ * @property {number} rowHz - Spacing of the rows in Hz
+ * @property {number} tileColumns - Columns per tile; only the last tile of a level can be shorter
+ * @property {number} dbFloor - dB re full scale of byte value 0
+ * @property {number} dbRange - dB spanned by byte values 0-255
+ * @property {number[]} levelColumnCounts - Columns at each level
+ * @property {number[]} levelColumnSeconds - Seconds of audio per column at each level
+ */
+
+/**
+ * @typedef {Object} SpectrogramTiles - Also has the SpectrogramInfo fields
+ * @property {number} level - Zoom level of the tiles
+ * @property {number} columnSeconds - Seconds of audio per column at this level
+ * @property {number} columnCount - Columns at this level
+ * @property {number} tileCount - Tiles at this level
+ * @property {Object[]} tiles - Requested tiles, in order
+ * @property {number} tiles[].index - Tile index
+ * @property {number} tiles[].startColumn - First column of the tile
+ * @property {number} tiles[].startSeconds - Time of the first column
+ * @property {number} tiles[].columns - Columns in the tile
+ * @property {string} tiles[].nasal - Base64 bytes of the nasal channel, column-major (column * rows + row)
+ * @property {string} tiles[].oral - Base64 bytes of the oral channel, same layout
+ */
+
+/**
+ * @typedef {Object} ProcessingStats
+ * @property {boolean} enabled - Whether timings are being collected
+ * @property {number} windowSize - Most recent runs per stage the percentiles cover
+ * @property {Object<string, StageTiming>} stages - Timing per stage, e.g. 'analyze', 'analyze.parse',
+ *   'analyze.compute'; '<job>.queue' is the wait for the processing thread, 'deliver' the hop back to JS
+ */
+
+/**
+ * @typedef {Object} StageTiming
+ * @property {number} count - Runs since the stats were enabled or reset
+ * @property {number} window - Runs the percentiles are computed over
+ * @property {number} meanMs - Mean duration
+ * @property {number} p50Ms - Median duration
+ * @property {number} p95Ms - 95th percentile duration
+ * @property {number} p99Ms - 99th percentile duration
+ * @property {number} maxMs - Longest duration in the window
+ */
+
+/**
+ * @typedef {Object} CaptureGap
+ * @property {number} frame - First frame of the inserted silence
+ * @property {number} frames - Frames of silence, matching the time the input was away
+ * @property {number} time - Start of the gap in seconds
+ * @property {number} durationMs - Length of the gap
+ * @property {number} recoveryMs - Time from detecting the loss to the first audio of the reopened input
+ * @property {string} reason - Why the input was considered lost
+ * @property {string} [deviceId] - Device recorded from after the gap (onInputRecovered only)
+ */
+
+/**
+ * @typedef {Object} DspBenchmark
+ * @property {number} runs - Runs per mode
+ * @property {number} duration - Length of the recording in seconds
+ * @property {DspModeTiming} float - Floating-point analysis
+ * @property {DspModeTiming} fixed - Fixed-point analysis
+ * @property {Object} agreement - How far the fixed-point scores are from the floating-point ones
+ * @property {number} agreement.nasalanceDiff - Absolute difference of the overall nasalance, in percent
+ * @property {number} agreement.nasalRmsDiff - Absolute difference of the nasal RMS, 0-1 range
+ * @property {number} agreement.oralRmsDiff - Absolute difference of the oral RMS, 0-1 range
+ * @property {number} agreement.contourMaxDiff - Largest difference of a contour window, in percent
+ * @property {number} agreement.contourMeanDiff - Mean difference of the contour windows, in percent
+ * @property {number} agreement.floatVoicedWindows - Windows counted as voiced in floating point
+ * @property {number} agreement.fixedVoicedWindows - Windows counted as voiced in fixed point
+ */
+
+/**
+ * @typedef {Object} DspModeTiming
+ * @property {number} bestMs - Fastest run
+ * @property {number} meanMs - Mean over the runs
+ * @property {number} realTimeFactor - Seconds of audio analyzed per second of processing, fastest run
+ * @property {number} nasalance - Overall nasalance score in percent
+ */
+
+/**
+ * @typedef {Object} RecordingComparison - Also has the ComparisonRegion fields for the whole passage
+ * @property {number} windowMs - Length of one aligned window
+ * @property {number} referenceDuration - Length of the reference in seconds
+ * @property {number} otherDuration - Length of the other recording in seconds
+ * @property {number} alignmentCost - Mean band level distance along the alignment, in dB; high means the readings differ in content
+ * @property {ComparisonRegion[]} regions - Per marked segment of the reference, or per fixed region
+ * @property {number[]} warp - Window of the other recording matched to each reference window
+ * @property {number} processingMs - Time taken
+ */
+
+/**
+ * @typedef {Object} ComparisonRegion
+ * @property {string} [label] - Segment label from the reference's markers
+ * @property {number} start - Start in the reference, in seconds
+ * @property {number} end - End in the reference, in seconds
+ * @property {number} [otherStart] - Start of the matching stretch of the other recording, in seconds
+ * @property {number} [otherEnd] - End of the matching stretch of the other recording, in seconds
+ * @property {number} referenceNasalance - Nasalance of the reference over the voiced aligned windows, in percent
+ * @property {number} otherNasalance - Nasalance of the other recording over the same windows, in percent
+ * @property {number} delta - otherNasalance minus referenceNasalance
+ * @property {number} voicedPairs - Aligned window pairs voiced in both recordings
+ */
+
+/**
+ * @typedef {Object} BiofeedbackConfig
+ * @property {number} targetMin - Lower bound of the target range, nasalance in percent
+ * @property {number} targetMax - Upper bound of the target range
+ * @property {number} [hysteresis] - How far outside the range the nasalance must go to leave it, in percent (default 2)
+ * @property {number} [windowMs] - Rolling window the nasalance is measured over (default 20)
+ * @property {number} [releaseMs] - Silence before the state turns 'silent' (default 150)
+ * @property {number} [levelIntervalMs] - Interval of onBiofeedbackLevel events (default 50)
+ * @property {string} [deviceId] - Input device (default the selected one)
+ */
+
+/**
+ * @typedef {Object} BiofeedbackSummary
+ * @property {number} duration - Seconds of input heard
+ * @property {number} voicedSeconds - Seconds of speech
+ * @property {number} inRangeSeconds - Seconds of speech in the target range
+ * @property {number} belowSeconds - Seconds of speech below it
+ * @property {number} aboveSeconds - Seconds of speech above it
+ * @property {number} percentInRange - Share of the speech in the target range, in percent
+ * @property {number} meanNasalance - Mean nasalance of the speech, in percent
+ * @property {number} transitions - State changes
+ * @property {number} maxBlockMs - Longest time spent scoring one capture buffer
+ */